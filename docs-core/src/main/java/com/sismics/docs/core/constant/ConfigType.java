@@ -10,6 +10,21 @@ public enum ConfigType {
      * Lucene directory storage type.
      */
     LUCENE_DIRECTORY_STORAGE,
+
+    /**
+     * Lucene near-real-time tuning.
+     * Maximum search visibility latency (in milliseconds),
+     * maximum delay between commits (in seconds) and maximum number of operations between commits.
+     */
+    LUCENE_REFRESH_INTERVAL,
+    LUCENE_COMMIT_INTERVAL,
+    LUCENE_COMMIT_OPERATIONS,
+
+    /**
+     * Number of document changes triggering a rebuild of the search suggester.
+     */
+    LUCENE_SUGGESTER_REBUILD_CHANGES,
+
     /**
      * Theme configuration.
      */
@@ -65,5 +80,10 @@ public enum ConfigType {
     LDAP_BASE_DN,
     LDAP_FILTER,
     LDAP_DEFAULT_EMAIL,
-    LDAP_DEFAULT_STORAGE
+    LDAP_DEFAULT_STORAGE,
+
+    /**
+     * Secret keying the extraction cache entries.
+     */
+    EXTRACTION_CACHE_SECRET
 }
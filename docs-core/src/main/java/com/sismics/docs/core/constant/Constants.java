@@ -88,6 +88,11 @@ public class Constants {
      */
     public static final int PASSWORD_RECOVERY_EXPIRATION_HOUR = 2;
 
+    /**
+     * Expiration time of the resumable uploads without activity in hours.
+     */
+    public static final int FILE_UPLOAD_EXPIRATION_HOUR = 24;
+
     /**
      * Email template for password recovery.
      */
@@ -0,0 +1,23 @@
+package com.sismics.docs.core.constant;
+
+/**
+ * File processing job status.
+ *
+ * @author bgamard
+ */
+public enum FileJobStatus {
+    /**
+     * Waiting for a worker, or for a retry.
+     */
+    QUEUED,
+
+    /**
+     * Being processed by a worker.
+     */
+    RUNNING,
+
+    /**
+     * Failed too many times, not retried anymore.
+     */
+    FAILED
+}
@@ -13,8 +13,13 @@ import com.sismics.util.context.ThreadLocalContext;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.Query;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -116,6 +121,30 @@ public class AclDao {
         return aclDtoList;
     }
 
+    /**
+     * Get the targets having a permission on sources.
+     *
+     * @param sourceIds ACL source entities IDs
+     * @param perm Permission
+     * @return Set of target IDs per source ID
+     */
+    public Map<String, Set<String>> getTargetIdsBySourceIds(Collection<String> sourceIds, PermType perm) {
+        Map<String, Set<String>> result = new HashMap<>();
+        if (sourceIds.isEmpty()) {
+            return result;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select a.sourceId, a.targetId from Acl a where a.sourceId in :sourceIds and a.perm = :perm and a.deleteDate is null");
+        q.setParameter("sourceIds", sourceIds);
+        q.setParameter("perm", perm);
+        q.getResultList().forEach(o -> {
+            Object[] resultLine = (Object[]) o;
+            result.computeIfAbsent((String) resultLine[0], k -> new HashSet<>()).add((String) resultLine[1]);
+        });
+        return result;
+    }
+
     /**
      * Check if a source is accessible to a target.
      *
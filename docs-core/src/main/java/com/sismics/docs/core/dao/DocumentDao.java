@@ -45,15 +45,36 @@ public class DocumentDao {
     }
     
     /**
-     * Returns the list of all active documents.
+     * Returns a page of active documents ordered by ID.
+     * The page starts after the last ID of the previous page, so that reading a page is not slower than the previous one.
      *
+     * @param lastId Last ID of the previous page, null for the first page
+     * @param limit Limit
+     * @return List of documents
+     */
+    public List<Document> findAfterId(String lastId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<Document> q = em.createQuery("select d from Document d where d.deleteDate is null"
+                + (lastId == null ? "" : " and d.id > :lastId") + " order by d.id", Document.class);
+        if (lastId != null) {
+            q.setParameter("lastId", lastId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns the list of active documents tagged with a tag.
+     *
+     * @param tagId Tag ID
      * @param offset Offset
      * @param limit Limit
      * @return List of documents
      */
-    public List<Document> findAll(int offset, int limit) {
+    public List<Document> findByTagId(String tagId, int offset, int limit) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        TypedQuery<Document> q = em.createQuery("select d from Document d where d.deleteDate is null", Document.class);
+        TypedQuery<Document> q = em.createQuery("select d from Document d, DocumentTag dt where dt.documentId = d.id and dt.tagId = :tagId and dt.deleteDate is null and d.deleteDate is null order by d.id", Document.class);
+        q.setParameter("tagId", tagId);
         q.setFirstResult(offset);
         q.setMaxResults(limit);
         return q.getResultList();
@@ -233,7 +254,8 @@ public class DocumentDao {
     public void updateFileId(Document document) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         Query query = em.createNativeQuery("update T_DOCUMENT d set DOC_IDFILE_C = :fileId, DOC_UPDATEDATE_D = :updateDate where d.DOC_ID_C = :id");
-        query.setParameter("updateDate", new Date());
+        document.setUpdateDate(new Date());
+        query.setParameter("updateDate", document.getUpdateDate());
         query.setParameter("fileId", document.getFileId());
         query.setParameter("id", document.getId());
         query.executeUpdate();
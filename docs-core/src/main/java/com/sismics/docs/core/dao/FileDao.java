@@ -9,11 +9,14 @@ import jakarta.persistence.NoResultException;
 import jakarta.persistence.Query;
 import jakarta.persistence.TypedQuery;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -27,9 +30,9 @@ public class FileDao {
      * 
      * @param file File
      * @param userId User ID
-     * @return New ID
+     * @return True if the content of the file must be stored, false if an identical file already stored it
      */
-    public String create(File file, String userId) {
+    public boolean create(File file, String userId) {
         // Create the UUID
         file.setId(UUID.randomUUID().toString());
         
@@ -37,11 +40,14 @@ public class FileDao {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         file.setCreateDate(new Date());
         em.persist(file);
+
+        // Reference the stored blob, shared by the identical files of the user
+        boolean newContent = file.getStorageKey() == null || new StorageBlobDao().acquire(file.getStorageKey());
         
         // Create audit log
         AuditLogUtil.create(file, AuditLogType.CREATE, userId);
         
-        return file.getId();
+        return newContent;
     }
     
     /**
@@ -59,6 +65,36 @@ public class FileDao {
         return q.getResultList();
     }
     
+    /**
+     * Returns a page of active files ordered by ID.
+     * The page starts after the last ID of the previous page, so that reading a page is not slower than the previous one.
+     *
+     * @param lastId Last ID of the previous page, null for the first page
+     * @param limit Limit
+     * @return List of files
+     */
+    public List<File> findAfterId(String lastId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<File> q = em.createQuery("select f from File f where f.deleteDate is null"
+                + (lastId == null ? "" : " and f.id > :lastId") + " order by f.id", File.class);
+        if (lastId != null) {
+            q.setParameter("lastId", lastId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns the number of active files.
+     *
+     * @return Number of active files
+     */
+    public long getFileCount() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query query = em.createNativeQuery("select count(f.FIL_ID_C) from T_FILE f where f.FIL_DELETEDATE_D is null");
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
     /**
      * Returns the list of all files from a user.
      * 
@@ -158,7 +194,6 @@ public class FileDao {
         // Update the file
         fileDb.setDocumentId(file.getDocumentId());
         fileDb.setName(file.getName());
-        fileDb.setContent(file.getContent());
         fileDb.setOrder(file.getOrder());
         fileDb.setMimeType(file.getMimeType());
         fileDb.setVersionId(file.getVersionId());
@@ -168,6 +203,85 @@ public class FileDao {
         return file;
     }
 
+    /**
+     * Update the storage key of an active file.
+     * The other columns are left untouched, the file may be updated at the same time.
+     *
+     * @param id File ID
+     * @param contentHash Content hash
+     * @param storageKey Storage key
+     * @return True if the file has been updated
+     */
+    public boolean updateStorageKey(String id, String contentHash, String storageKey) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.createNativeQuery("update T_FILE set FIL_CONTENTHASH_C = :contentHash, FIL_STORAGEKEY_C = :storageKey"
+                        + " where FIL_ID_C = :id and FIL_STORAGEKEY_C is null and FIL_DELETEDATE_D is null")
+                .setParameter("contentHash", contentHash)
+                .setParameter("storageKey", storageKey)
+                .setParameter("id", id)
+                .executeUpdate() > 0;
+    }
+
+    /**
+     * Remove the storage key of a deleted file, once its blob reference is released.
+     * The reference counts can then be recomputed from the files still having a storage key.
+     *
+     * @param id File ID
+     * @param storageKey Storage key
+     * @return True if the file still had the storage key, its reference must be released
+     */
+    public boolean clearStorageKey(String id, String storageKey) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.createNativeQuery("update T_FILE set FIL_STORAGEKEY_C = null"
+                        + " where FIL_ID_C = :id and FIL_STORAGEKEY_C = :storageKey and FIL_DELETEDATE_D is not null")
+                .setParameter("id", id)
+                .setParameter("storageKey", storageKey)
+                .executeUpdate() > 0;
+    }
+
+    /**
+     * Remove the storage keys of the files deleted before a date.
+     * Their deletion event has been lost, their blob reference was never released.
+     *
+     * @param deleteDate Delete date
+     * @return Number of updated files
+     */
+    public int clearStorageKeys(Date deleteDate) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.createNativeQuery("update T_FILE set FIL_STORAGEKEY_C = null"
+                        + " where FIL_STORAGEKEY_C is not null and FIL_DELETEDATE_D < :deleteDate")
+                .setParameter("deleteDate", deleteDate)
+                .executeUpdate();
+    }
+
+    /**
+     * Returns the IDs of the active files stored by ID among some IDs.
+     *
+     * @param ids File IDs
+     * @return File IDs stored by ID
+     */
+    public Set<String> findLegacyIds(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptySet();
+        }
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<String> q = em.createQuery("select f.id from File f where f.id in :ids"
+                + " and f.storageKey is null and f.deleteDate is null", String.class);
+        q.setParameter("ids", ids);
+        return new HashSet<>(q.getResultList());
+    }
+
+    /**
+     * Gets a file by its ID, deleted or not.
+     *
+     * @param id File ID
+     * @return File, null if not found
+     */
+    public File getById(String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.find(File.class, id);
+    }
+
     /**
      * Gets a file by its ID.
      * 
@@ -234,6 +348,30 @@ public class FileDao {
         return result;
     }
 
+    /**
+     * Get the MIME types of the active files by documents IDs.
+     *
+     * @param documentIds Documents IDs
+     * @return Set of MIME types per document ID
+     */
+    public Map<String, Set<String>> getMimeTypesByDocumentsIds(Collection<String> documentIds) {
+        Map<String, Set<String>> result = new HashMap<>();
+        if (documentIds.isEmpty()) {
+            return result;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select distinct f.documentId, f.mimeType from File f where f.documentId in :documentIds and f.deleteDate is null");
+        q.setParameter("documentIds", documentIds);
+        q.getResultList().forEach(o -> {
+            Object[] resultLine = (Object[]) o;
+            if (resultLine[1] != null) {
+                result.computeIfAbsent((String) resultLine[0], k -> new HashSet<>()).add((String) resultLine[1]);
+            }
+        });
+        return result;
+    }
+
     /**
      * Get all files from a version.
      *
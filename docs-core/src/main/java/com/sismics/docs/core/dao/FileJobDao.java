@@ -0,0 +1,265 @@
+package com.sismics.docs.core.dao;
+
+import com.google.common.collect.Lists;
+import com.sismics.docs.core.constant.FileJobStatus;
+import com.sismics.docs.core.model.jpa.FileJob;
+import com.sismics.util.EnvironmentUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import com.sismics.util.jpa.EMF;
+import org.apache.commons.lang3.StringUtils;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File processing job DAO.
+ *
+ * @author bgamard
+ */
+public class FileJobDao {
+    /**
+     * Duration of a lease (in milliseconds).
+     * A job not finished nor renewed before the end of its lease is considered lost.
+     */
+    public static final long LEASE_DURATION = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Maximum number of attempts before a job fails.
+     */
+    public static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * Delay before the first retry (in milliseconds), doubled after each attempt.
+     */
+    private static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Returns a job.
+     *
+     * @param fileId File ID
+     * @return Job, null if the file has no job
+     */
+    public FileJob getById(String fileId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.find(FileJob.class, fileId);
+    }
+
+    /**
+     * Queues a file processing.
+     * The existing job of the file is reset.
+     *
+     * @param fileId File ID
+     * @param userId User ID
+     * @param language Language of the file
+     * @param newFile True if the file was just created
+     */
+    public void queue(String fileId, String userId, String language, boolean newFile) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Date now = new Date();
+        FileJob fileJob = em.find(FileJob.class, fileId);
+        boolean created = fileJob == null;
+        if (created) {
+            fileJob = new FileJob()
+                    .setFileId(fileId)
+                    .setNewFile(newFile)
+                    .setCreateDate(now);
+        } else {
+            fileJob.setNewFile(fileJob.isNewFile() || newFile);
+        }
+
+        fileJob.setUserId(userId)
+                .setLanguage(language)
+                .setStatus(FileJobStatus.QUEUED)
+                .setAttempts(0)
+                .setLeaseDate(new Date(now.getTime() + LEASE_DURATION))
+                .setOwner(EnvironmentUtil.getNodeId())
+                .setError(null);
+
+        // All the mandatory columns must be set before persisting a new job
+        if (created) {
+            em.persist(fileJob);
+        }
+    }
+
+    /**
+     * Marks a job as running.
+     *
+     * @param fileId File ID
+     * @return Job, null if the file has no job
+     */
+    public FileJob start(String fileId) {
+        FileJob fileJob = getById(fileId);
+        if (fileJob != null) {
+            fileJob.setStatus(FileJobStatus.RUNNING)
+                    .setAttempts(fileJob.getAttempts() + 1)
+                    .setLeaseDate(new Date(System.currentTimeMillis() + LEASE_DURATION))
+                    .setOwner(EnvironmentUtil.getNodeId());
+        }
+        return fileJob;
+    }
+
+    /**
+     * Records a failed attempt.
+     * The job is retried later with an exponential backoff, until it fails too many times.
+     *
+     * @param fileId File ID
+     * @param error Error message
+     */
+    public void fail(String fileId, String error) {
+        FileJob fileJob = getById(fileId);
+        if (fileJob == null) {
+            return;
+        }
+
+        fileJob.setError(StringUtils.abbreviate(error, 1000));
+        if (fileJob.getAttempts() >= MAX_ATTEMPTS) {
+            fileJob.setStatus(FileJobStatus.FAILED)
+                    .setLeaseDate(new Date());
+        } else {
+            long delay = RETRY_DELAY << Math.max(fileJob.getAttempts() - 1, 0);
+            fileJob.setStatus(FileJobStatus.QUEUED)
+                    .setLeaseDate(new Date(System.currentTimeMillis() + delay));
+        }
+    }
+
+    /**
+     * Deletes the job of a file.
+     *
+     * @param fileId File ID
+     */
+    public void delete(String fileId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        FileJob fileJob = em.find(FileJob.class, fileId);
+        if (fileJob != null) {
+            em.remove(fileJob);
+        }
+    }
+
+    /**
+     * Deletes the failed jobs.
+     * The lease date of a failed job is the date of its failure.
+     *
+     * @param before Delete the jobs failed before this date
+     * @return Number of deleted jobs
+     */
+    public int deleteFailed(Date before) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.createQuery("delete from FileJob j where j.status = :failed and j.leaseDate < :before")
+                .setParameter("failed", FileJobStatus.FAILED)
+                .setParameter("before", before)
+                .executeUpdate();
+    }
+
+    /**
+     * Claims a batch of jobs whose lease expires before a date.
+     * The jobs of this server may be claimed earlier, e.g. the ones left by its previous run.
+     * The claimed jobs are queued again with a new lease,
+     * except the ones already attempted too many times which fail.
+     * On PostgreSQL, jobs locked by another transaction are skipped.
+     *
+     * @param limit Maximum number of jobs
+     * @param leaseDate Lease date, usually now
+     * @param ownLeaseDate Lease date of the jobs of this server
+     * @param excludedFileIds File IDs not to claim, usually the ones processing on this server
+     * @return Claimed jobs, oldest first
+     */
+    @SuppressWarnings("unchecked")
+    public List<FileJob> claim(int limit, Date leaseDate, Date ownLeaseDate, Collection<String> excludedFileIds) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        StringBuilder sb = new StringBuilder("select j.FJB_IDFILE_C from T_FILE_JOB j ");
+        sb.append(" where j.FJB_STATUS_C <> :failed ");
+        sb.append(" and (j.FJB_LEASEDATE_D < :leaseDate or (j.FJB_OWNER_C = :owner and j.FJB_LEASEDATE_D < :ownLeaseDate)) ");
+        if (!excludedFileIds.isEmpty()) {
+            sb.append(" and j.FJB_IDFILE_C not in (:excludedFileIds) ");
+        }
+        sb.append(" order by j.FJB_CREATEDATE_D limit :limit ");
+        if (EMF.isDriverPostgresql()) {
+            sb.append(" for update skip locked ");
+        }
+        Query q = em.createNativeQuery(sb.toString());
+        q.setParameter("failed", FileJobStatus.FAILED.name());
+        q.setParameter("leaseDate", leaseDate);
+        q.setParameter("owner", EnvironmentUtil.getNodeId());
+        q.setParameter("ownLeaseDate", ownLeaseDate);
+        q.setParameter("limit", limit);
+        if (!excludedFileIds.isEmpty()) {
+            q.setParameter("excludedFileIds", excludedFileIds);
+        }
+        List<String> fileIdList = q.getResultList();
+        if (fileIdList.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<FileJob> fileJobList = em.createQuery("select j from FileJob j where j.fileId in :fileIds order by j.createDate", FileJob.class)
+                .setParameter("fileIds", fileIdList)
+                .getResultList();
+        Date newLeaseDate = new Date(System.currentTimeMillis() + LEASE_DURATION);
+        List<FileJob> claimedJobList = new ArrayList<>();
+        for (FileJob fileJob : fileJobList) {
+            if (fileJob.getAttempts() >= MAX_ATTEMPTS) {
+                // Lost too many times, probably crashing the worker
+                fileJob.setStatus(FileJobStatus.FAILED)
+                        .setLeaseDate(new Date())
+                        .setError("Too many attempts");
+            } else {
+                fileJob.setStatus(FileJobStatus.QUEUED)
+                        .setLeaseDate(newLeaseDate)
+                        .setOwner(EnvironmentUtil.getNodeId());
+                claimedJobList.add(fileJob);
+            }
+        }
+        return claimedJobList;
+    }
+
+    /**
+     * Renews the lease of jobs still queued or running on this server.
+     * A job claimed by another server since then is left to it.
+     *
+     * @param fileIds File IDs
+     */
+    public void renewLease(Collection<String> fileIds) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Date leaseDate = new Date(System.currentTimeMillis() + LEASE_DURATION);
+        for (List<String> fileIdList : Lists.partition(new ArrayList<>(fileIds), 500)) {
+            em.createQuery("update FileJob j set j.leaseDate = :leaseDate where j.fileId in :fileIds and j.status <> :failed and j.owner = :owner")
+                    .setParameter("leaseDate", leaseDate)
+                    .setParameter("fileIds", fileIdList)
+                    .setParameter("failed", FileJobStatus.FAILED)
+                    .setParameter("owner", EnvironmentUtil.getNodeId())
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Returns the number of jobs by status.
+     *
+     * @return Number of jobs by status
+     */
+    public Map<FileJobStatus, Long> countByStatus() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        List<Object[]> resultList = em.createQuery("select j.status, count(j) from FileJob j group by j.status", Object[].class)
+                .getResultList();
+        Map<FileJobStatus, Long> countMap = new EnumMap<>(FileJobStatus.class);
+        for (FileJobStatus status : FileJobStatus.values()) {
+            countMap.put(status, 0L);
+        }
+        for (Object[] result : resultList) {
+            countMap.put((FileJobStatus) result[0], ((Number) result[1]).longValue());
+        }
+        return countMap;
+    }
+
+    /**
+     * Returns the creation date of the oldest job not failed.
+     *
+     * @return Creation date, null if there is no job
+     */
+    public Date getOldestCreateDate() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.createQuery("select min(j.createDate) from FileJob j where j.status <> :failed", Date.class)
+                .setParameter("failed", FileJobStatus.FAILED)
+                .getSingleResult();
+    }
+}
@@ -0,0 +1,205 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.docs.core.model.jpa.FileText;
+import com.sismics.util.context.ThreadLocalContext;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import jakarta.persistence.TypedQuery;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * File text DAO.
+ * The contents extracted before they were stored apart are still read from the file table, until they are migrated.
+ *
+ * @author bgamard
+ */
+public class FileTextDao {
+    /**
+     * Saves the content of a file.
+     *
+     * @param fileId File ID
+     * @param content Content, null to delete it
+     */
+    public void save(String fileId, String content) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        FileText fileText = em.find(FileText.class, fileId);
+        if (content == null) {
+            if (fileText != null) {
+                em.remove(fileText);
+            }
+        } else if (fileText == null) {
+            em.persist(new FileText()
+                    .setFileId(fileId)
+                    .setCompressedContent(compress(content)));
+        } else {
+            fileText.setCompressedContent(compress(content));
+        }
+
+        // The content not migrated yet is outdated
+        em.createNativeQuery("update T_FILE set FIL_CONTENT_C = null where FIL_ID_C = :fileId and FIL_CONTENT_C is not null")
+                .setParameter("fileId", fileId)
+                .executeUpdate();
+    }
+
+    /**
+     * Returns the content of a file.
+     *
+     * @param fileId File ID
+     * @return Content, null if none
+     */
+    public String getContent(String fileId) {
+        InputStream inputStream = getContentInMemory(fileId);
+        if (inputStream == null) {
+            return null;
+        }
+        try (InputStream is = inputStream) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the content of a file as a stream.
+     * The compressed content is loaded in memory, only its decompression is done while the stream is read.
+     *
+     * @param fileId File ID
+     * @return Content UTF-8 encoded, null if none
+     */
+    public InputStream getContentInMemory(String fileId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        FileText fileText = em.find(FileText.class, fileId);
+        if (fileText != null) {
+            try {
+                return new GZIPInputStream(new ByteArrayInputStream(fileText.getCompressedContent()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        String legacyContent = getLegacyContents(List.of(fileId)).get(fileId);
+        return legacyContent == null ? null : new ByteArrayInputStream(legacyContent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the contents of some files.
+     *
+     * @param fileIds Files IDs
+     * @return Content by file ID, the files without content are absent
+     */
+    public Map<String, String> getContents(Collection<String> fileIds) {
+        Map<String, String> contentMap = new HashMap<>();
+        if (fileIds.isEmpty()) {
+            return contentMap;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<FileText> q = em.createQuery("select ft from FileText ft where ft.fileId in :fileIds", FileText.class);
+        q.setParameter("fileIds", fileIds);
+        for (FileText fileText : q.getResultList()) {
+            contentMap.put(fileText.getFileId(), decompress(fileText.getCompressedContent()));
+        }
+
+        List<String> legacyFileIds = new ArrayList<>(fileIds);
+        legacyFileIds.removeAll(contentMap.keySet());
+        if (!legacyFileIds.isEmpty()) {
+            contentMap.putAll(getLegacyContents(legacyFileIds));
+        }
+        return contentMap;
+    }
+
+    /**
+     * Moves some contents from the file table.
+     *
+     * @param limit Maximum number of contents to move
+     * @return Number of contents moved
+     */
+    @SuppressWarnings("unchecked")
+    public int migrateLegacyContents(int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select f.FIL_ID_C, f.FIL_CONTENT_C from T_FILE f where f.FIL_CONTENT_C is not null");
+        q.setMaxResults(limit);
+        List<Object[]> resultList = q.getResultList();
+        if (resultList.isEmpty()) {
+            return 0;
+        }
+
+        List<String> fileIds = new ArrayList<>();
+        for (Object[] result : resultList) {
+            String fileId = (String) result[0];
+            // A content extracted since then is more recent
+            if (em.find(FileText.class, fileId) == null) {
+                em.persist(new FileText()
+                        .setFileId(fileId)
+                        .setCompressedContent(compress((String) result[1])));
+            }
+            fileIds.add(fileId);
+        }
+        em.createNativeQuery("update T_FILE set FIL_CONTENT_C = null where FIL_ID_C in :fileIds")
+                .setParameter("fileIds", fileIds)
+                .executeUpdate();
+        return fileIds.size();
+    }
+
+    /**
+     * Returns the contents not migrated yet of some files.
+     *
+     * @param fileIds Files IDs
+     * @return Content by file ID
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, String> getLegacyContents(Collection<String> fileIds) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select f.FIL_ID_C, f.FIL_CONTENT_C from T_FILE f where f.FIL_ID_C in :fileIds and f.FIL_CONTENT_C is not null");
+        q.setParameter("fileIds", fileIds);
+        Map<String, String> contentMap = new HashMap<>();
+        for (Object[] result : (List<Object[]>) q.getResultList()) {
+            contentMap.put((String) result[0], (String) result[1]);
+        }
+        return contentMap;
+    }
+
+    /**
+     * Compress a content.
+     *
+     * @param content Content
+     * @return Content UTF-8 encoded and GZIP compressed
+     */
+    private static byte[] compress(String content) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (OutputStream outputStream = new GZIPOutputStream(byteArrayOutputStream)) {
+            outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * Decompress a content.
+     *
+     * @param compressedContent Content UTF-8 encoded and GZIP compressed
+     * @return Content
+     */
+    private static String decompress(byte[] compressedContent) {
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressedContent))) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
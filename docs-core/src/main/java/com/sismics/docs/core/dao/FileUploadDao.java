@@ -0,0 +1,100 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.docs.core.model.jpa.FileUpload;
+import com.sismics.util.context.ThreadLocalContext;
+
+import jakarta.persistence.EntityManager;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Resumable file upload DAO.
+ *
+ * @author bgamard
+ */
+public class FileUploadDao {
+    /**
+     * Creates a new upload.
+     *
+     * @param fileUpload Upload
+     * @return New ID
+     */
+    public String create(FileUpload fileUpload) {
+        Date now = new Date();
+        fileUpload.setId(UUID.randomUUID().toString())
+                .setCreateDate(now)
+                .setUpdateDate(now);
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.persist(fileUpload);
+
+        return fileUpload.getId();
+    }
+
+    /**
+     * Returns an upload.
+     *
+     * @param id Upload ID
+     * @return Upload, null if not found
+     */
+    public FileUpload getById(String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.find(FileUpload.class, id);
+    }
+
+    /**
+     * Returns an upload of a user.
+     *
+     * @param id Upload ID
+     * @param userId User ID
+     * @return Upload, null if not found or belonging to another user
+     */
+    public FileUpload getById(String id, String userId) {
+        FileUpload fileUpload = getById(id);
+        if (fileUpload == null || !fileUpload.getUserId().equals(userId)) {
+            return null;
+        }
+        return fileUpload;
+    }
+
+    /**
+     * Deletes an upload.
+     *
+     * @param id Upload ID
+     */
+    public void delete(String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        FileUpload fileUpload = em.find(FileUpload.class, id);
+        if (fileUpload != null) {
+            em.remove(fileUpload);
+        }
+    }
+
+    /**
+     * Returns the number of uploads of a user and their total declared size.
+     *
+     * @param userId User ID
+     * @return Number of uploads and total size (in bytes)
+     */
+    public long[] getCountAndSizeByUserId(String userId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Object[] result = em.createQuery("select count(u.id), coalesce(sum(u.size), 0) from FileUpload u where u.userId = :userId", Object[].class)
+                .setParameter("userId", userId)
+                .getSingleResult();
+        return new long[] { ((Number) result[0]).longValue(), ((Number) result[1]).longValue() };
+    }
+
+    /**
+     * Returns the uploads not updated since a date.
+     *
+     * @param updateDate Update date
+     * @return Stale uploads
+     */
+    public List<FileUpload> findStale(Date updateDate) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.createQuery("select u from FileUpload u where u.updateDate < :updateDate", FileUpload.class)
+                .setParameter("updateDate", updateDate)
+                .getResultList();
+    }
+}
@@ -0,0 +1,157 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.docs.core.model.jpa.StorageBlob;
+import com.sismics.util.context.ThreadLocalContext;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.TypedQuery;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Stored blob DAO.
+ * The reference counts are updated in the database, so that a blob being released and acquired
+ * at the same time is locked until one of the transactions is committed. A blob not referenced anymore
+ * is kept until its content is deleted, the files acquiring it meanwhile wait for the deletion.
+ *
+ * @author bgamard
+ */
+public class StorageBlobDao {
+    /**
+     * Add a reference to a blob, created if needed.
+     * A blob not referenced anymore may have been purged already, its content must be stored again.
+     *
+     * @param key Storage key
+     * @return True if the blob was not referenced, its content must be stored
+     */
+    public boolean acquire(String key) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        int updatedCount = em.createNativeQuery("update T_STORAGE_BLOB set SBL_REFCOUNT_N = SBL_REFCOUNT_N + 1 where SBL_KEY_C = :key")
+                .setParameter("key", key)
+                .executeUpdate();
+        if (updatedCount > 0) {
+            return getRefCount(key) == 1;
+        }
+
+        em.persist(new StorageBlob()
+                .setKey(key)
+                .setRefCount(1));
+        em.flush();
+        return true;
+    }
+
+    /**
+     * Remove a reference to a blob.
+     * The blob is kept until it is purged with {@link #deleteUnreferenced(String)}, once the transaction is committed.
+     *
+     * @param key Storage key
+     * @return True if the blob is not referenced anymore, its content must be purged
+     */
+    public boolean release(String key) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.createNativeQuery("update T_STORAGE_BLOB set SBL_REFCOUNT_N = SBL_REFCOUNT_N - 1 where SBL_KEY_C = :key")
+                .setParameter("key", key)
+                .executeUpdate();
+        Integer refCount = getRefCount(key);
+        return refCount != null && refCount <= 0;
+    }
+
+    /**
+     * Delete a blob if it is not referenced anymore.
+     * The blob is locked until the end of the transaction, so that its content can be deleted
+     * before a file acquires it again.
+     *
+     * @param key Storage key
+     * @return True if the blob has been deleted, its content must be deleted in the same transaction
+     */
+    public boolean deleteUnreferenced(String key) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        List<?> refCountList = em.createNativeQuery("select SBL_REFCOUNT_N from T_STORAGE_BLOB where SBL_KEY_C = :key for update")
+                .setParameter("key", key)
+                .getResultList();
+        if (refCountList.isEmpty() || ((Number) refCountList.get(0)).intValue() > 0) {
+            return false;
+        }
+
+        em.createNativeQuery("delete from T_STORAGE_BLOB where SBL_KEY_C = :key")
+                .setParameter("key", key)
+                .executeUpdate();
+        return true;
+    }
+
+    /**
+     * Recompute the reference counts of a page of blobs from the files having their storage key,
+     * and delete the blobs not referenced anymore.
+     * The blobs of the page are locked, the files acquiring or releasing them wait for the end of the transaction.
+     *
+     * @param lastKey Last key of the previous page, null for the first page
+     * @param limit Number of blobs
+     * @return Last key of the page, null if this is the last page
+     */
+    public String recomputeRefCounts(String lastKey, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<StorageBlob> q = em.createQuery("select b from StorageBlob b"
+                + (lastKey == null ? "" : " where b.key > :lastKey") + " order by b.key", StorageBlob.class);
+        if (lastKey != null) {
+            q.setParameter("lastKey", lastKey);
+        }
+        q.setMaxResults(limit);
+        q.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+        List<String> keyList = q.getResultList().stream()
+                .map(StorageBlob::getKey)
+                .collect(Collectors.toList());
+        if (keyList.isEmpty()) {
+            return null;
+        }
+
+        em.createNativeQuery("update T_STORAGE_BLOB b set SBL_REFCOUNT_N ="
+                        + " (select count(f.FIL_ID_C) from T_FILE f where f.FIL_STORAGEKEY_C = b.SBL_KEY_C)"
+                        + " where b.SBL_KEY_C in (:keys)")
+                .setParameter("keys", keyList)
+                .executeUpdate();
+        em.createNativeQuery("delete from T_STORAGE_BLOB where SBL_KEY_C in (:keys) and SBL_REFCOUNT_N <= 0")
+                .setParameter("keys", keyList)
+                .executeUpdate();
+        return keyList.size() < limit ? null : keyList.get(keyList.size() - 1);
+    }
+
+    /**
+     * Returns the keys still referenced by a blob or a file, among some keys.
+     *
+     * @param keys Storage keys
+     * @return Referenced storage keys
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> findReferencedKeys(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptySet();
+        }
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Set<String> keySet = new HashSet<>(em.createNativeQuery("select SBL_KEY_C from T_STORAGE_BLOB where SBL_KEY_C in (:keys)")
+                .setParameter("keys", keys)
+                .getResultList());
+        keySet.addAll(em.createNativeQuery("select FIL_STORAGEKEY_C from T_FILE where FIL_STORAGEKEY_C in (:keys)")
+                .setParameter("keys", keys)
+                .getResultList());
+        return keySet;
+    }
+
+    /**
+     * Returns the reference count of a blob.
+     *
+     * @param key Storage key
+     * @return Reference count, null if the blob doesn't exist
+     */
+    public Integer getRefCount(String key) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        List<?> refCountList = em.createNativeQuery("select SBL_REFCOUNT_N from T_STORAGE_BLOB where SBL_KEY_C = :key")
+                .setParameter("key", key)
+                .getResultList();
+        return refCountList.isEmpty() ? null : ((Number) refCountList.get(0)).intValue();
+    }
+}
@@ -81,6 +81,28 @@ public class TagDao {
         }
     }
     
+    /**
+     * Get the tags IDs by documents IDs.
+     *
+     * @param documentIds Documents IDs
+     * @return Set of tag IDs per document ID
+     */
+    public Map<String, Set<String>> getTagIdsByDocumentsIds(Collection<String> documentIds) {
+        Map<String, Set<String>> result = new HashMap<>();
+        if (documentIds.isEmpty()) {
+            return result;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select dt.documentId, dt.tagId from DocumentTag dt where dt.documentId in :documentIds and dt.deleteDate is null");
+        q.setParameter("documentIds", documentIds);
+        q.getResultList().forEach(o -> {
+            Object[] resultLine = (Object[]) o;
+            result.computeIfAbsent((String) resultLine[0], k -> new HashSet<>()).add((String) resultLine[1]);
+        });
+        return result;
+    }
+
     /**
      * Creates a new tag.
      * 
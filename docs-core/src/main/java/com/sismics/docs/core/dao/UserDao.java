@@ -251,6 +251,7 @@ public class UserDao {
         // Delete the user
         Date dateNow = new Date();
         userDb.setDeleteDate(dateNow);
+        EncryptionUtil.invalidateKey(userDb.getPrivateKey());
 
         // Delete linked data
         q = em.createQuery("delete from AuthenticationToken at where at.userId = :userId");
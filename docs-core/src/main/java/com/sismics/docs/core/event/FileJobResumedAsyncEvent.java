@@ -0,0 +1,24 @@
+package com.sismics.docs.core.event;
+
+/**
+ * File processing job resumed event.
+ * Raised when a job has been lost (e.g. by a restart) or must be retried.
+ * Only the file processing listens to it, the file itself has not changed.
+ *
+ * @author bgamard
+ */
+public class FileJobResumedAsyncEvent extends FileEvent {
+    /**
+     * True if the file was just created.
+     */
+    private boolean newFile;
+
+    public boolean isNewFile() {
+        return newFile;
+    }
+
+    public FileJobResumedAsyncEvent setNewFile(boolean newFile) {
+        this.newFile = newFile;
+        return this;
+    }
+}
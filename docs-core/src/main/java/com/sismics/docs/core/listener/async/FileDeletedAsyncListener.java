@@ -2,16 +2,23 @@ package com.sismics.docs.core.listener.async;
 
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.FileJobDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.event.FileDeletedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.StorageUtil;
 import com.sismics.docs.core.util.TransactionUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Listener on file deleted.
  *
@@ -35,16 +42,25 @@ public class FileDeletedAsyncListener {
         if (log.isInfoEnabled()) {
             log.info("File deleted event: " + event.toString());
         }
+
+        // Stop processing the file
+        FileUtil.endProcessingFile(event.getFileId());
+        AtomicReference<String> purgedStorageKey = new AtomicReference<>();
         TransactionUtil.handle(() -> {
+            File file = new FileDao().getById(event.getFileId());
+
+            // The file won't be processed anymore
+            new FileJobDao().delete(event.getFileId());
+
             // Update the user quota
             UserDao userDao = new UserDao();
             User user = userDao.getById(event.getUserId());
-            if (user != null) {
+            if (user != null && file != null) {
                 Long fileSize = event.getFileSize();
 
                 if (fileSize.equals(File.UNKNOWN_SIZE)) {
                     // The file size was not in the database, in this case we need to get from the unencrypted size.
-                    fileSize = FileUtil.getFileSize(event.getFileId(), user);
+                    fileSize = FileUtil.getFileSize(file, user);
                 }
 
                 if (! fileSize.equals(File.UNKNOWN_SIZE)) {
@@ -52,10 +68,23 @@ public class FileDeletedAsyncListener {
                     userDao.updateQuota(user);
                 }
             }
+
+            // Delete the file from storage once committed, unless an identical file still uses it
+            if (file != null) {
+                purgedStorageKey.set(StorageUtil.delete(file));
+            }
         });
 
-        // Delete the file from storage
-        FileUtil.delete(event.getFileId());
+        // The blob not referenced anymore is purged in its own transaction, unless it has been acquired again since then
+        if (purgedStorageKey.get() != null) {
+            TransactionUtil.handle(() -> {
+                try {
+                    StorageUtil.purge(purgedStorageKey.get());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
 
         TransactionUtil.handle(() -> {
             // Update index
@@ -2,18 +2,25 @@ package com.sismics.docs.core.listener.async;
 
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.dao.FileTextDao;
 import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.FileJobDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.event.FileCreatedAsyncEvent;
 import com.sismics.docs.core.event.FileEvent;
+import com.sismics.docs.core.event.FileJobResumedAsyncEvent;
 import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.ExtractionCacheUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.StorageUtil;
 import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.format.ExtractionSession;
 import com.sismics.docs.core.util.format.FormatHandler;
 import com.sismics.docs.core.util.format.FormatHandlerUtil;
 import com.sismics.util.ImageUtil;
@@ -24,10 +31,14 @@ import org.slf4j.LoggerFactory;
 import javax.crypto.Cipher;
 import javax.crypto.CipherOutputStream;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.MessageFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -41,6 +52,16 @@ public class FileProcessingAsyncListener {
      */
     private static final Logger log = LoggerFactory.getLogger(FileProcessingAsyncListener.class);
 
+    /**
+     * Size of the web image (in pixels).
+     */
+    private static final int WEB_SIZE = 1280;
+
+    /**
+     * Size of the thumbnail (in pixels).
+     */
+    private static final int THUMBNAIL_SIZE = 256;
+
     /**
      * File created.
      *
@@ -69,30 +90,72 @@ public class FileProcessingAsyncListener {
         processFile(event, false);
     }
 
+    /**
+     * File processing job resumed.
+     *
+     * @param event File processing job resumed event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final FileJobResumedAsyncEvent event) {
+        log.info("File processing job resumed event: " + event.toString());
+
+        processFile(event, event.isNewFile());
+    }
+
     /**
      * Process a file :
      * Generate thumbnails
      * Extract and save text content
+     * If something goes wrong, the job of the file is retried later.
      *
      * @param event File event
      * @param isFileCreated True if the file was just created
      */
     private void processFile(FileEvent event, boolean isFileCreated) {
+        try {
+            doProcessFile(event, isFileCreated);
+        } catch (Exception e) {
+            log.error("Error processing file: " + event.getFileId(), e);
+            TransactionUtil.handle(() -> new FileJobDao().fail(event.getFileId(), e.toString()));
+            FileUtil.endProcessingFile(event.getFileId());
+        }
+    }
+
+    /**
+     * Process a file.
+     *
+     * @param event File event
+     * @param isFileCreated True if the file was just created
+     * @throws Exception e
+     */
+    private void doProcessFile(FileEvent event, boolean isFileCreated) throws Exception {
         AtomicReference<File> file = new AtomicReference<>();
         AtomicReference<User> user = new AtomicReference<>();
+        AtomicBoolean ocrEnabled = new AtomicBoolean();
 
         // Open a first transaction to get what we need to start the processing
         TransactionUtil.handle(() -> {
             // Generate thumbnail, extract content
+            FileJobDao fileJobDao = new FileJobDao();
             file.set(new FileDao().getActiveById(event.getFileId()));
             if (file.get() == null) {
                 // The file has been deleted since
+                fileJobDao.delete(event.getFileId());
                 return;
             }
 
+            // The configuration can't be read outside of a transaction
+            ocrEnabled.set(ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true));
+
             // Get the creating user from the database for its private key
             UserDao userDao = new UserDao();
             user.set(userDao.getById(file.get().getUserId()));
+            if (user.get() == null) {
+                fileJobDao.delete(event.getFileId());
+            } else {
+                fileJobDao.start(event.getFileId());
+            }
         });
 
         // Process the file outside of a transaction
@@ -101,10 +164,54 @@ public class FileProcessingAsyncListener {
             FileUtil.endProcessingFile(event.getFileId());
             return;
         }
-        String content = extractContent(event, user.get(), file.get());
+
+        // Find a format handler
+        FormatHandler formatHandler = FormatHandlerUtil.find(file.get().getMimeType());
+        String content = null;
+        boolean failed = false;
+        if (formatHandler == null) {
+            log.info("Format unhandled: " + file.get().getMimeType());
+        } else {
+            // Identical files are processed once, unless the file is explicitly processed again
+            String contentHash = file.get().getContentHash();
+            String language = ocrEnabled.get() ? event.getLanguage() : null;
+            boolean reprocess = event instanceof FileUpdatedAsyncEvent;
+            ExtractionCacheUtil.Entry extraction = contentHash == null || reprocess ?
+                    null : ExtractionCacheUtil.get(contentHash, language, ocrEnabled.get());
+            if (extraction == null) {
+                // The unencrypted file is lost if the processing is resumed, decrypt it again from the storage
+                Path unencryptedFile = event.getUnencryptedFile();
+                if (unencryptedFile == null || !Files.exists(unencryptedFile)) {
+                    Path storedFile = StorageUtil.getStoredFile(file.get(), null);
+                    unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.get().getPrivateKey());
+                }
+                extraction = extract(formatHandler, language, unencryptedFile, file.get());
+
+                // Don't cache failed or cancelled extractions
+                if (contentHash != null && extraction.getContent() != null && !extraction.isFailed()
+                        && FileUtil.isProcessingFile(event.getFileId())) {
+                    ExtractionCacheUtil.put(contentHash, language, ocrEnabled.get(), extraction);
+                }
+            } else {
+                log.info("Extraction found in cache for: " + file.get());
+            }
+            saveThumbnails(extraction, user.get(), file.get());
+            content = extraction.getContent();
+            failed = extraction.isFailed();
+        }
 
         // Open a new transaction to save the file content
+        boolean extractionFailed = failed;
+        String extractedContent = content;
         TransactionUtil.handle(() -> {
+            // The job is done, unless the extraction failed and must be retried later
+            FileJobDao fileJobDao = new FileJobDao();
+            if (extractionFailed) {
+                fileJobDao.fail(event.getFileId(), "Extraction failed");
+            } else {
+                fileJobDao.delete(event.getFileId());
+            }
+
             // Save the file to database
             FileDao fileDao = new FileDao();
             File freshFile = fileDao.getActiveById(event.getFileId());
@@ -113,7 +220,9 @@ public class FileProcessingAsyncListener {
                 return;
             }
 
-            freshFile.setContent(content);
+            // Save what has been extracted until the next attempt
+            new FileTextDao().save(freshFile.getId(), extractedContent);
+            freshFile.setProcessDate(new Date());
             fileDao.update(freshFile);
 
             // Update index with the updated file
@@ -128,54 +237,108 @@ public class FileProcessingAsyncListener {
     }
 
     /**
-     * Extract text content from a file.
+     * Generate the thumbnails and extract the text content of a file.
      * This is executed outside of a transaction.
      *
-     * @param event File event
-     * @param user User whom created the file
+     * @param formatHandler Format handler of the file
+     * @param language OCR language, null if the OCR is disabled
+     * @param unencryptedFile Unencrypted file
      * @param file Fresh file
-     * @return Text content
+     * @return Extraction
      */
-    private String extractContent(FileEvent event, User user, File file) {
-        // Find a format handler
-        FormatHandler formatHandler = FormatHandlerUtil.find(file.getMimeType());
-        if (formatHandler == null) {
-            log.info("Format unhandled: " + file.getMimeType());
-            return null;
+    private ExtractionCacheUtil.Entry extract(FormatHandler formatHandler, String language, Path unencryptedFile, File file) {
+        // The file is parsed once for the thumbnails and the text content
+        byte[] web = null;
+        byte[] thumbnail = null;
+        String content = null;
+        boolean failed = false;
+        try (ExtractionSession session = formatHandler.openSession(unencryptedFile)) {
+            try {
+                // Decode at twice the web size at most, the resizing still has enough pixels to smooth
+                BufferedImage image = session.generateThumbnail(WEB_SIZE * 2);
+                if (image != null) {
+                    // Generate the thumbnail from the web image instead of the original
+                    BufferedImage webImage = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, WEB_SIZE);
+                    image.flush();
+                    BufferedImage thumbnailImage = Scalr.resize(webImage, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, THUMBNAIL_SIZE);
+                    web = writeJpeg(webImage);
+                    thumbnail = writeJpeg(thumbnailImage);
+                }
+            } catch (Throwable e) {
+                log.error("Unable to generate thumbnails for: " + file, e);
+                failed = true;
+            }
+            content = extractContent(session, language, file);
+            failed |= session.isOcrFailed();
+        } catch (Throwable e) {
+            log.error("Error opening: " + file, e);
+            failed = true;
         }
+        return new ExtractionCacheUtil.Entry(web, thumbnail, content, failed);
+    }
 
-        // Generate file variations
+    /**
+     * Write the encrypted thumbnails of a file.
+     * They are written aside and then moved, as they can be shared with the identical files being read.
+     *
+     * @param extraction Extraction
+     * @param user User whom created the file
+     * @param file Fresh file
+     */
+    private void saveThumbnails(ExtractionCacheUtil.Entry extraction, User user, File file) {
         try {
             Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-            BufferedImage image = formatHandler.generateThumbnail(event.getUnencryptedFile());
-            if (image != null) {
-                // Generate thumbnails from image
-                BufferedImage web = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 1280);
-                BufferedImage thumbnail = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 256);
-                image.flush();
-
-                // Write "web" encrypted image
-                Path outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_web");
+
+            // Write "web" encrypted image
+            if (extraction.getWeb() != null) {
+                Path outputFile = StorageUtil.createTemporaryFile();
                 try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(web, outputStream);
+                    outputStream.write(extraction.getWeb());
                 }
+                StorageUtil.store(outputFile, file, "web");
+            }
 
-                // Write "thumb" encrypted image
-                outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_thumb");
+            // Write "thumb" encrypted image
+            if (extraction.getThumbnail() != null) {
+                Path outputFile = StorageUtil.createTemporaryFile();
                 try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(thumbnail, outputStream);
+                    outputStream.write(extraction.getThumbnail());
                 }
+                StorageUtil.store(outputFile, file, "thumb");
             }
         } catch (Throwable e) {
-            log.error("Unable to generate thumbnails for: " + file, e);
+            log.error("Unable to save thumbnails for: " + file, e);
         }
+    }
 
+    /**
+     * Encode an image as JPEG.
+     *
+     * @param image Image
+     * @return JPEG
+     * @throws IOException e
+     */
+    private byte[] writeJpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageUtil.writeJpeg(image, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Extract the text content of a file.
+     *
+     * @param session Extraction session of the file
+     * @param language Language of the file
+     * @param file Fresh file
+     * @return Text content
+     */
+    private String extractContent(ExtractionSession session, String language, File file) {
         // Extract text content from the file
         long startTime = System.currentTimeMillis();
         String content = null;
         log.info("Start extracting content from: " + file);
         try {
-            content = formatHandler.extractContent(event.getLanguage(), event.getUnencryptedFile());
+            content = session.extractContent(language, file.getId());
         } catch (Throwable e) {
             log.error("Error extracting content from: " + file, e);
         }
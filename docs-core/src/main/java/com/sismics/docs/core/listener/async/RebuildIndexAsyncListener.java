@@ -9,14 +9,27 @@ import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.indexing.IndexingHandler;
+import com.sismics.docs.core.util.indexing.RebuildIndexProgress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * Listener on rebuild index.
- * 
+ * The documents and files are read by pages ordered by ID, each page in its own transaction,
+ * and indexed by a pool of workers in a fresh index which replaces the current one at the end.
+ *
  * @author bgamard
  */
 public class RebuildIndexAsyncListener {
@@ -25,9 +38,19 @@ public class RebuildIndexAsyncListener {
      */
     private static final Logger log = LoggerFactory.getLogger(RebuildIndexAsyncListener.class);
 
+    /**
+     * Number of documents or files read at once.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Number of indexing workers.
+     */
+    private static final int WORKER_COUNT = Math.max(Runtime.getRuntime().availableProcessors() / 2, 1);
+
     /**
      * Rebuild Lucene index.
-     * 
+     *
      * @param event Index rebuild event
      */
     @Subscribe
@@ -37,35 +60,124 @@ public class RebuildIndexAsyncListener {
             log.info("Rebuild index event: " + event.toString());
         }
 
-        // Clear the index
-        AppContext.getInstance().getIndexingHandler().clearIndex();
+        AtomicLong total = new AtomicLong();
+        TransactionUtil.handle(() -> total.set(new DocumentDao().getDocumentCount() + new FileDao().getFileCount()));
+        RebuildIndexProgress progress = RebuildIndexProgress.start(total.get());
+        if (progress == null) {
+            log.info("The index is already rebuilding");
+            return;
+        }
+
+        IndexingHandler indexingHandler = AppContext.getInstance().getIndexingHandler();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        try {
+            indexingHandler.startRebuild();
 
-        // Index all documents
-        TransactionUtil.handle(() -> {
-            int offset = 0;
-            DocumentDao documentDao = new DocumentDao();
-            List<Document> documentList;
-            do {
-                documentList = documentDao.findAll(offset, 100);
-                AppContext.getInstance().getIndexingHandler().createDocuments(documentList);
-                offset += 100;
-            } while (documentList.size() > 0);
-        });
+            // The reader waits if the workers are late, by indexing a page itself
+            AtomicInteger threadCounter = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT,
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(WORKER_COUNT * 2),
+                    runnable -> new Thread(runnable, "reindex-" + threadCounter.incrementAndGet()),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            try {
+                indexAll((lastId, limit) -> new DocumentDao().findAfterId(lastId, limit), Document::getId,
+                        documentList -> indexingHandler.rebuildDocuments(documentList), executor, progress, error);
+                indexAll((lastId, limit) -> new FileDao().findAfterId(lastId, limit), File::getId,
+                        fileList -> indexingHandler.rebuildFiles(fileList), executor, progress, error);
+            } finally {
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
 
-        // Index all files
-        TransactionUtil.handle(() -> {
-            int offset = 0;
-            FileDao fileDao = new FileDao();
-            List<File> fileList;
-            do {
-                fileList = fileDao.findAll(offset, 100);
-                AppContext.getInstance().getIndexingHandler().createFiles(fileList);
-                offset += 100;
-            } while (fileList.size() > 0);
-        });
+            if (error.get() != null) {
+                throw error.get();
+            }
+
+            // Replace the current index, the changes made meanwhile are read from the database
+            TransactionUtil.handle(() -> {
+                try {
+                    indexingHandler.finishRebuild();
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            });
+            if (error.get() != null) {
+                throw error.get();
+            }
+            progress.finish(null);
+        } catch (Exception e) {
+            log.error("Error rebuilding the index, the current index is kept", e);
+            indexingHandler.cancelRebuild();
+            progress.finish(e.getMessage() == null ? e.toString() : e.getMessage());
+            return;
+        }
 
         if (log.isInfoEnabled()) {
-            log.info("Rebuilding index done");
+            log.info("Rebuilding index done: {} documents and files indexed at {}/s",
+                    progress.getDone(), Math.round(progress.getDocsPerSecond()));
         }
     }
+
+    /**
+     * Read all the entities by pages, and index the pages with the workers.
+     *
+     * @param reader Reader of a page after an ID
+     * @param idGetter Entity ID getter
+     * @param indexer Indexer of a page, called in a transaction
+     * @param executor Workers
+     * @param progress Progress
+     * @param error First error (updated by side effects)
+     * @param <T> Entity type
+     */
+    private <T> void indexAll(BiFunction<String, Integer, List<T>> reader, Function<T, String> idGetter,
+                              BatchIndexer<T> indexer, ThreadPoolExecutor executor,
+                              RebuildIndexProgress progress, AtomicReference<Exception> error) {
+        String lastId = null;
+        List<T> page;
+        do {
+            // Each page is read in a short transaction
+            List<T> readPage = new ArrayList<>();
+            String afterId = lastId;
+            TransactionUtil.handle(() -> {
+                try {
+                    readPage.addAll(reader.apply(afterId, BATCH_SIZE));
+                } catch (Exception e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            page = readPage;
+            if (page.isEmpty()) {
+                break;
+            }
+            lastId = idGetter.apply(page.get(page.size() - 1));
+
+            executor.execute(() -> TransactionUtil.handle(() -> {
+                if (error.get() != null) {
+                    return;
+                }
+                try {
+                    indexer.index(readPage);
+                    progress.add(readPage.size());
+                } catch (Exception e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        } while (page.size() == BATCH_SIZE && error.get() == null);
+    }
+
+    /**
+     * Indexer of a page of entities.
+     *
+     * @param <T> Entity type
+     */
+    private interface BatchIndexer<T> {
+        /**
+         * Index a page.
+         *
+         * @param entityList Entities
+         * @throws Exception e
+         */
+        void index(List<T> entityList) throws Exception;
+    }
 }
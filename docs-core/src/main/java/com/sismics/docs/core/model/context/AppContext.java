@@ -4,13 +4,19 @@ import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.eventbus.AsyncEventBus;
 import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.listener.async.*;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.service.FileTextMigrationService;
+import com.sismics.docs.core.service.FileJobService;
 import com.sismics.docs.core.service.FileService;
 import com.sismics.docs.core.service.FileSizeService;
+import com.sismics.docs.core.service.FileUploadService;
 import com.sismics.docs.core.service.InboxService;
+import com.sismics.docs.core.service.StorageMigrationService;
+import com.sismics.docs.core.util.EventExecutor;
 import com.sismics.docs.core.util.PdfUtil;
 import com.sismics.docs.core.util.indexing.IndexingHandler;
 import com.sismics.util.ClasspathScanner;
@@ -18,12 +24,13 @@ import com.sismics.util.EnvironmentUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Global application context.
@@ -42,9 +49,14 @@ public class AppContext {
     private static AppContext instance;
 
     /**
-     * Generic asynchronous event bus.
+     * Generic asynchronous event buses, one per kind of listener.
      */
-    private EventBus asyncEventBus;
+    private List<EventBus> asyncEventBusList;
+
+    /**
+     * Types of the events listened to on each generic asynchronous event bus.
+     */
+    private Map<EventBus, Set<Class<?>>> asyncEventTypeMap;
 
     /**
      * Asynchronous bus for email sending.
@@ -71,10 +83,30 @@ public class AppContext {
      */
     private FileSizeService fileSizeService;
 
+    /**
+     * File content migration service.
+     */
+    private FileTextMigrationService fileTextMigrationService;
+
+    /**
+     * Storage migration service.
+     */
+    private StorageMigrationService storageMigrationService;
+
+    /**
+     * File processing jobs service.
+     */
+    private FileJobService fileJobService;
+
+    /**
+     * Resumable file uploads service.
+     */
+    private FileUploadService fileUploadService;
+
     /**
      * Asynchronous executors.
      */
-    private List<ThreadPoolExecutor> asyncExecutorList;
+    private List<EventExecutor> asyncExecutorList;
 
     /**
      * Start the application context.
@@ -113,6 +145,26 @@ public class AppContext {
         fileSizeService.startAsync();
         fileSizeService.awaitRunning();
 
+        // Start file content migration service
+        fileTextMigrationService = new FileTextMigrationService();
+        fileTextMigrationService.startAsync();
+        fileTextMigrationService.awaitRunning();
+
+        // Start storage migration service
+        storageMigrationService = new StorageMigrationService();
+        storageMigrationService.startAsync();
+        storageMigrationService.awaitRunning();
+
+        // Start file processing jobs service
+        fileJobService = new FileJobService();
+        fileJobService.startAsync();
+        fileJobService.awaitRunning();
+
+        // Start resumable file uploads service
+        fileUploadService = new FileUploadService();
+        fileUploadService.startAsync();
+        fileUploadService.awaitRunning();
+
         // Register fonts
         PdfUtil.registerFonts();
 
@@ -144,23 +196,54 @@ public class AppContext {
      */
     private void resetEventBus() {
         asyncExecutorList = new ArrayList<>();
-
-        asyncEventBus = newAsyncEventBus();
-        asyncEventBus.register(new FileProcessingAsyncListener());
-        asyncEventBus.register(new FileDeletedAsyncListener());
-        asyncEventBus.register(new DocumentCreatedAsyncListener());
-        asyncEventBus.register(new DocumentUpdatedAsyncListener());
-        asyncEventBus.register(new DocumentDeletedAsyncListener());
-        asyncEventBus.register(new RebuildIndexAsyncListener());
-        asyncEventBus.register(new AclCreatedAsyncListener());
-        asyncEventBus.register(new AclDeletedAsyncListener());
-        asyncEventBus.register(new WebhookAsyncListener());
-
-        mailEventBus = newAsyncEventBus();
+        asyncEventBusList = new ArrayList<>();
+        asyncEventTypeMap = new HashMap<>();
+
+        // CPU-bound processing: text extraction, thumbnails, index rebuilding
+        // The number of threads bounds the CPU usage, even with virtual threads
+        EventBus processingEventBus = newAsyncEventBus("processing",
+                Math.max(Runtime.getRuntime().availableProcessors() / 2, 2), 1000);
+        registerAsyncListener(processingEventBus, new FileProcessingAsyncListener());
+        registerAsyncListener(processingEventBus, new RebuildIndexAsyncListener());
+
+        // Light indexing
+        EventBus indexingEventBus = newAsyncEventBus("indexing", 2, 10000);
+        registerAsyncListener(indexingEventBus, new FileDeletedAsyncListener());
+        registerAsyncListener(indexingEventBus, new DocumentCreatedAsyncListener());
+        registerAsyncListener(indexingEventBus, new DocumentUpdatedAsyncListener());
+        registerAsyncListener(indexingEventBus, new DocumentDeletedAsyncListener());
+        registerAsyncListener(indexingEventBus, new AclCreatedAsyncListener());
+        registerAsyncListener(indexingEventBus, new AclDeletedAsyncListener());
+
+        // I/O-bound webhooks
+        EventBus webhookEventBus = newAsyncEventBus("webhook", 4, 10000);
+        registerAsyncListener(webhookEventBus, new WebhookAsyncListener());
+
+        mailEventBus = newAsyncEventBus("mail", 2, 1000);
         mailEventBus.register(new PasswordLostAsyncListener());
         mailEventBus.register(new RouteStepValidateAsyncListener());
     }
 
+    /**
+     * Register a listener on a generic asynchronous event bus.
+     * The events are then posted only to the buses having a listener for them.
+     *
+     * @param eventBus Event bus
+     * @param listener Listener
+     */
+    private void registerAsyncListener(EventBus eventBus, Object listener) {
+        eventBus.register(listener);
+        if (!asyncEventBusList.contains(eventBus)) {
+            asyncEventBusList.add(eventBus);
+        }
+        Set<Class<?>> eventTypeSet = asyncEventTypeMap.computeIfAbsent(eventBus, key -> new HashSet<>());
+        for (Method method : listener.getClass().getMethods()) {
+            if (method.isAnnotationPresent(Subscribe.class)) {
+                eventTypeSet.add(method.getParameterTypes()[0]);
+            }
+        }
+    }
+
     /**
      * Returns a single instance of the application context.
      *
@@ -176,19 +259,20 @@ public class AppContext {
 
     /**
      * Creates a new asynchronous event bus.
+     * Its executor is configured by the system properties, see {@link EventExecutor#create}.
      *
+     * @param name Executor name
+     * @param threadCount Default number of threads
+     * @param queueCapacity Default maximum number of queued tasks
      * @return Async event bus
      */
-    private EventBus newAsyncEventBus() {
+    private EventBus newAsyncEventBus(String name, int threadCount, int queueCapacity) {
         if (EnvironmentUtil.isUnitTest()) {
             return new EventBus();
         } else {
-            int threadCount = Math.max(Runtime.getRuntime().availableProcessors() / 2, 2);
-            ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
-                    1L, TimeUnit.MINUTES,
-                    new LinkedBlockingQueue<>());
+            EventExecutor executor = EventExecutor.create(name, threadCount, queueCapacity);
             asyncExecutorList.add(executor);
-            return new AsyncEventBus(executor);
+            return new AsyncEventBus(name, executor);
         }
     }
 
@@ -199,14 +283,43 @@ public class AppContext {
      */
     public int getQueuedTaskCount() {
         int queueSize = 0;
-        for (ThreadPoolExecutor executor : asyncExecutorList) {
-            queueSize += executor.getTaskCount() - executor.getCompletedTaskCount();
+        for (EventExecutor executor : asyncExecutorList) {
+            queueSize += executor.getPendingTaskCount();
         }
         return queueSize;
     }
 
-    public EventBus getAsyncEventBus() {
-        return asyncEventBus;
+    /**
+     * Post an asynchronous event to the listeners.
+     *
+     * @param event Event
+     */
+    public void postAsyncEvent(Object event) {
+        postAsyncEvent(event, false);
+    }
+
+    /**
+     * Post an asynchronous event to the listeners.
+     * The event is posted only to the buses having a listener for it.
+     * Bulk events are processed after the interactive ones.
+     *
+     * @param event Event
+     * @param bulk True if the event is part of a bulk operation
+     */
+    public void postAsyncEvent(Object event, boolean bulk) {
+        EventExecutor.setBulk(bulk);
+        try {
+            for (EventBus eventBus : asyncEventBusList) {
+                for (Class<?> eventType : asyncEventTypeMap.get(eventBus)) {
+                    if (eventType.isInstance(event)) {
+                        eventBus.post(event);
+                        break;
+                    }
+                }
+            }
+        } finally {
+            EventExecutor.setBulk(false);
+        }
     }
 
     public EventBus getMailEventBus() {
@@ -226,14 +339,9 @@ public class AppContext {
     }
 
     public void shutDown() {
-        for (ExecutorService executor : asyncExecutorList) {
+        for (EventExecutor executor : asyncExecutorList) {
             // Shutdown executor, don't accept any more tasks (can cause error with nested events)
-            try {
-                executor.shutdown();
-                executor.awaitTermination(1, TimeUnit.MINUTES);
-            } catch (InterruptedException e) {
-                // NOP
-            }
+            executor.shutDown();
         }
 
         if (indexingHandler != null) {
@@ -253,6 +361,22 @@ public class AppContext {
             fileSizeService.stopAsync();
         }
 
+        if (fileTextMigrationService != null) {
+            fileTextMigrationService.stopAsync();
+        }
+
+        if (storageMigrationService != null) {
+            storageMigrationService.stopAsync();
+        }
+
+        if (fileJobService != null) {
+            fileJobService.stopAsync();
+        }
+
+        if (fileUploadService != null) {
+            fileUploadService.stopAsync();
+        }
+
         instance = null;
     }
 }
@@ -46,12 +46,6 @@ public class File implements Loggable {
     @Column(name = "FIL_MIMETYPE_C", length = 100)
     private String mimeType;
 
-    /**
-     * OCR-ized content.
-     */
-    @Column(name = "FIL_CONTENT_C")
-    private String content;
-    
     /**
      * Creation date.
      */
@@ -96,6 +90,24 @@ public class File implements Loggable {
     @Column(name = "FIL_SIZE_N", nullable = false)
     private Long size;
 
+    /**
+     * SHA-256 hash of the unencrypted content, null if computed before it was stored.
+     */
+    @Column(name = "FIL_CONTENTHASH_C", length = 64)
+    private String contentHash;
+
+    /**
+     * Key of the stored blob, null if the file is stored by ID in the legacy flat layout.
+     */
+    @Column(name = "FIL_STORAGEKEY_C", length = 64)
+    private String storageKey;
+
+    /**
+     * Last processing date, the thumbnails are generated again on each processing.
+     */
+    @Column(name = "FIL_PROCESSDATE_D")
+    private Date processDate;
+
     /**
      * Private key to decrypt the file.
      * Not saved to database, of course.
@@ -153,14 +165,6 @@ public class File implements Loggable {
         this.deleteDate = deleteDate;
     }
     
-    public String getContent() {
-        return content;
-    }
-
-    public void setContent(String content) {
-        this.content = content;
-    }
-
     public Integer getOrder() {
         return order;
     }
@@ -224,6 +228,33 @@ public class File implements Loggable {
         return this;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public File setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+        return this;
+    }
+
+    public String getStorageKey() {
+        return storageKey;
+    }
+
+    public File setStorageKey(String storageKey) {
+        this.storageKey = storageKey;
+        return this;
+    }
+
+    public Date getProcessDate() {
+        return processDate;
+    }
+
+    public File setProcessDate(Date processDate) {
+        this.processDate = processDate;
+        return this;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
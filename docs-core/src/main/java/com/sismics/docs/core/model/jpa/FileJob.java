@@ -0,0 +1,180 @@
+package com.sismics.docs.core.model.jpa;
+
+import com.google.common.base.MoreObjects;
+import com.sismics.docs.core.constant.FileJobStatus;
+
+import jakarta.persistence.*;
+import java.util.Date;
+
+/**
+ * File processing job entity.
+ * A file has at most one job, deleted when the file is processed.
+ *
+ * @author bgamard
+ */
+@Entity
+@Table(name = "T_FILE_JOB")
+public class FileJob {
+    /**
+     * File ID.
+     */
+    @Id
+    @Column(name = "FJB_IDFILE_C", length = 36)
+    private String fileId;
+
+    /**
+     * User ID who requested the processing.
+     */
+    @Column(name = "FJB_IDUSER_C", nullable = false, length = 36)
+    private String userId;
+
+    /**
+     * Language of the file.
+     */
+    @Column(name = "FJB_LANGUAGE_C", length = 7)
+    private String language;
+
+    /**
+     * True if the file was just created.
+     */
+    @Column(name = "FJB_NEWFILE_B", nullable = false)
+    private boolean newFile;
+
+    /**
+     * Status.
+     */
+    @Column(name = "FJB_STATUS_C", nullable = false, length = 10)
+    @Enumerated(EnumType.STRING)
+    private FileJobStatus status;
+
+    /**
+     * Number of processing attempts.
+     */
+    @Column(name = "FJB_ATTEMPTS_N", nullable = false)
+    private int attempts;
+
+    /**
+     * Lease date.
+     * Until this date, the job belongs to a worker (or waits before being retried).
+     */
+    @Column(name = "FJB_LEASEDATE_D", nullable = false)
+    private Date leaseDate;
+
+    /**
+     * ID of the server holding the lease.
+     */
+    @Column(name = "FJB_OWNER_C", length = 100)
+    private String owner;
+
+    /**
+     * Creation date.
+     */
+    @Column(name = "FJB_CREATEDATE_D", nullable = false)
+    private Date createDate;
+
+    /**
+     * Last error.
+     */
+    @Column(name = "FJB_ERROR_C", length = 1000)
+    private String error;
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public FileJob setFileId(String fileId) {
+        this.fileId = fileId;
+        return this;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public FileJob setUserId(String userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public FileJob setLanguage(String language) {
+        this.language = language;
+        return this;
+    }
+
+    public boolean isNewFile() {
+        return newFile;
+    }
+
+    public FileJob setNewFile(boolean newFile) {
+        this.newFile = newFile;
+        return this;
+    }
+
+    public FileJobStatus getStatus() {
+        return status;
+    }
+
+    public FileJob setStatus(FileJobStatus status) {
+        this.status = status;
+        return this;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public FileJob setAttempts(int attempts) {
+        this.attempts = attempts;
+        return this;
+    }
+
+    public Date getLeaseDate() {
+        return leaseDate;
+    }
+
+    public FileJob setLeaseDate(Date leaseDate) {
+        this.leaseDate = leaseDate;
+        return this;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public FileJob setOwner(String owner) {
+        this.owner = owner;
+        return this;
+    }
+
+    public Date getCreateDate() {
+        return createDate;
+    }
+
+    public FileJob setCreateDate(Date createDate) {
+        this.createDate = createDate;
+        return this;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public FileJob setError(String error) {
+        this.error = error;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("fileId", fileId)
+                .add("status", status)
+                .add("attempts", attempts)
+                .add("owner", owner)
+                .toString();
+    }
+}
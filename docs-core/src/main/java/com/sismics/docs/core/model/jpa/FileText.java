@@ -0,0 +1,56 @@
+package com.sismics.docs.core.model.jpa;
+
+import com.google.common.base.MoreObjects;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Text content extracted from a file.
+ * Kept apart from the file, so that the content is read only when indexing or displaying it.
+ *
+ * @author bgamard
+ */
+@Entity
+@Table(name = "T_FILE_TEXT")
+public class FileText {
+    /**
+     * File ID.
+     */
+    @Id
+    @Column(name = "FTX_IDFILE_C", length = 36)
+    private String fileId;
+
+    /**
+     * Content, UTF-8 encoded and GZIP compressed.
+     */
+    @Column(name = "FTX_CONTENT_BIN", nullable = false)
+    private byte[] compressedContent;
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public FileText setFileId(String fileId) {
+        this.fileId = fileId;
+        return this;
+    }
+
+    public byte[] getCompressedContent() {
+        return compressedContent;
+    }
+
+    public FileText setCompressedContent(byte[] compressedContent) {
+        this.compressedContent = compressedContent;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("fileId", fileId)
+                .toString();
+    }
+}
@@ -0,0 +1,149 @@
+package com.sismics.docs.core.model.jpa;
+
+import com.google.common.base.MoreObjects;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.util.Date;
+
+/**
+ * Resumable file upload entity.
+ * The content received so far is stored encrypted in the upload directory.
+ *
+ * @author bgamard
+ */
+@Entity
+@Table(name = "T_FILE_UPLOAD")
+public class FileUpload {
+    /**
+     * Upload ID.
+     */
+    @Id
+    @Column(name = "FUP_ID_C", length = 36)
+    private String id;
+
+    /**
+     * User ID.
+     */
+    @Column(name = "FUP_IDUSER_C", nullable = false, length = 36)
+    private String userId;
+
+    /**
+     * Document ID.
+     */
+    @Column(name = "FUP_IDDOC_C", length = 36)
+    private String documentId;
+
+    /**
+     * ID of the file replaced by this new version.
+     */
+    @Column(name = "FUP_IDPREVIOUSFILE_C", length = 36)
+    private String previousFileId;
+
+    /**
+     * File name.
+     */
+    @Column(name = "FUP_NAME_C", length = 200)
+    private String name;
+
+    /**
+     * Total size of the file (in bytes).
+     */
+    @Column(name = "FUP_SIZE_N", nullable = false)
+    private Long size;
+
+    /**
+     * Creation date.
+     */
+    @Column(name = "FUP_CREATEDATE_D", nullable = false)
+    private Date createDate;
+
+    /**
+     * Last update date.
+     */
+    @Column(name = "FUP_UPDATEDATE_D", nullable = false)
+    private Date updateDate;
+
+    public String getId() {
+        return id;
+    }
+
+    public FileUpload setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public FileUpload setUserId(String userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public FileUpload setDocumentId(String documentId) {
+        this.documentId = documentId;
+        return this;
+    }
+
+    public String getPreviousFileId() {
+        return previousFileId;
+    }
+
+    public FileUpload setPreviousFileId(String previousFileId) {
+        this.previousFileId = previousFileId;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public FileUpload setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public FileUpload setSize(Long size) {
+        this.size = size;
+        return this;
+    }
+
+    public Date getCreateDate() {
+        return createDate;
+    }
+
+    public FileUpload setCreateDate(Date createDate) {
+        this.createDate = createDate;
+        return this;
+    }
+
+    public Date getUpdateDate() {
+        return updateDate;
+    }
+
+    public FileUpload setUpdateDate(Date updateDate) {
+        this.updateDate = updateDate;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", id)
+                .add("name", name)
+                .add("size", size)
+                .toString();
+    }
+}
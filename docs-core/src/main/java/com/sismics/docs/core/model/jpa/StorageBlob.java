@@ -0,0 +1,56 @@
+package com.sismics.docs.core.model.jpa;
+
+import com.google.common.base.MoreObjects;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Stored blob, shared by the files of a user with the same content.
+ *
+ * @author bgamard
+ */
+@Entity
+@Table(name = "T_STORAGE_BLOB")
+public class StorageBlob {
+    /**
+     * Storage key.
+     */
+    @Id
+    @Column(name = "SBL_KEY_C", length = 64)
+    private String key;
+
+    /**
+     * Number of files referencing this blob.
+     */
+    @Column(name = "SBL_REFCOUNT_N", nullable = false)
+    private Integer refCount;
+
+    public String getKey() {
+        return key;
+    }
+
+    public StorageBlob setKey(String key) {
+        this.key = key;
+        return this;
+    }
+
+    public Integer getRefCount() {
+        return refCount;
+    }
+
+    public StorageBlob setRefCount(Integer refCount) {
+        this.refCount = refCount;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("key", key)
+                .add("refCount", refCount)
+                .toString();
+    }
+}
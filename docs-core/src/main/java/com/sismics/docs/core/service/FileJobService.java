@@ -0,0 +1,144 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.dao.FileJobDao;
+import com.sismics.docs.core.event.FileJobResumedAsyncEvent;
+import com.sismics.docs.core.model.jpa.FileJob;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.MetricsUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Service resuming the file processing jobs.
+ * The leases of the jobs processing on this server are renewed,
+ * and the jobs lost (e.g. by a restart) or waiting for a retry are claimed and processed again.
+ * At startup, the jobs left by the previous run of this server are resumed without waiting for their lease to expire,
+ * the jobs of the other servers are claimed only once their lease has expired.
+ * The failed jobs are kept for a while to be inspected, then purged.
+ *
+ * @author bgamard
+ */
+public class FileJobService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(FileJobService.class);
+
+    /**
+     * Maximum number of jobs claimed at once.
+     */
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * Maximum number of files processing on this server before claiming more jobs.
+     */
+    private static final int MAX_PROCESSING = 200;
+
+    /**
+     * Number of days the failed jobs are kept.
+     */
+    private static final int FAILED_RETENTION = Integer.getInteger("docs.file_job.failed_retention", 30);
+
+    /**
+     * Number of resumed jobs.
+     */
+    private static final AtomicLong resumedCounter = MetricsUtil.getCounter("file_job.resumed");
+
+    /**
+     * Jobs of this server whose lease expires before this date are left by its previous run.
+     */
+    private long startupLeaseDate;
+
+    public FileJobService() {
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("File job service starting up");
+        startupLeaseDate = System.currentTimeMillis() + FileJobDao.LEASE_DURATION;
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("File job service shutting down");
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            // Keep the jobs processing on this server
+            Set<String> processingFileIds = FileUtil.getProcessingFileIds();
+            if (!processingFileIds.isEmpty()) {
+                TransactionUtil.handle(() -> new FileJobDao().renewLease(processingFileIds));
+            }
+
+            // Resume the lost jobs, without overloading the processing queue
+            int claimedCount;
+            int limit;
+            do {
+                limit = Math.min(BATCH_SIZE, MAX_PROCESSING - FileUtil.getProcessingFileIds().size());
+                if (limit <= 0) {
+                    break;
+                }
+                long now = System.currentTimeMillis();
+                claimedCount = resumeJobs(limit, new Date(now), new Date(Math.max(now, startupLeaseDate)));
+            } while (claimedCount == limit);
+
+            // Purge the old failed jobs
+            Date failedBefore = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(FAILED_RETENTION));
+            TransactionUtil.handle(() -> {
+                int deletedCount = new FileJobDao().deleteFailed(failedBefore);
+                if (deletedCount > 0) {
+                    log.info("{} failed file processing jobs purged", deletedCount);
+                }
+            });
+        } catch (Throwable e) {
+            log.error("Exception during file job service iteration", e);
+        }
+    }
+
+    /**
+     * Claim and resume a batch of jobs.
+     * The events are raised once the claim is committed.
+     *
+     * @param limit Maximum number of jobs
+     * @param leaseDate Claim the jobs whose lease expires before this date
+     * @param ownLeaseDate Claim the jobs of this server whose lease expires before this date
+     * @return Number of claimed jobs
+     */
+    int resumeJobs(int limit, Date leaseDate, Date ownLeaseDate) {
+        AtomicInteger claimedCount = new AtomicInteger();
+        TransactionUtil.handle(() -> {
+            // The jobs already processing on this server are left alone
+            List<FileJob> fileJobList = new FileJobDao().claim(limit, leaseDate, ownLeaseDate, FileUtil.getProcessingFileIds());
+            claimedCount.set(fileJobList.size());
+            for (FileJob fileJob : fileJobList) {
+                log.info("Resuming file processing job: " + fileJob);
+                FileUtil.startProcessingFile(fileJob.getFileId());
+                FileJobResumedAsyncEvent event = new FileJobResumedAsyncEvent()
+                        .setNewFile(fileJob.isNewFile());
+                event.setUserId(fileJob.getUserId());
+                event.setLanguage(fileJob.getLanguage());
+                event.setFileId(fileJob.getFileId());
+                ThreadLocalContext.get().addAsyncEvent(event);
+                resumedCounter.incrementAndGet();
+            }
+        });
+        return claimedCount.get();
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, 30, TimeUnit.SECONDS);
+    }
+}
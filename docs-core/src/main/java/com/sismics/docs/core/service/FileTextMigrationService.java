@@ -0,0 +1,70 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.dao.FileTextDao;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service moving the file contents extracted by the previous versions from the file table to the file text table.
+ * The contents are moved by batches, each in its own transaction, and the service stops once they are all moved.
+ *
+ * @author bgamard
+ */
+public class FileTextMigrationService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(FileTextMigrationService.class);
+
+    /**
+     * Number of contents moved by transaction.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    public FileTextMigrationService() {
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("File text migration service starting up");
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("File text migration service shutting down");
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            int total = 0;
+            AtomicInteger migratedCount = new AtomicInteger();
+            do {
+                // A failed batch is retried at the next iteration
+                migratedCount.set(-1);
+                TransactionUtil.handle(() -> migratedCount.set(new FileTextDao().migrateLegacyContents(BATCH_SIZE)));
+                total += Math.max(migratedCount.get(), 0);
+            } while (migratedCount.get() == BATCH_SIZE && isRunning());
+
+            if (total > 0) {
+                log.info("{} file contents migrated", total);
+            }
+            if (migratedCount.get() >= 0 && migratedCount.get() < BATCH_SIZE) {
+                log.info("No more file content to migrate, stopping the service");
+                stopAsync();
+            }
+        } catch (Throwable e) {
+            log.error("Exception during file content migration", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, 1, TimeUnit.MINUTES);
+    }
+}
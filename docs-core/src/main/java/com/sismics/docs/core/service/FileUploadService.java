@@ -0,0 +1,93 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.dao.FileUploadDao;
+import com.sismics.docs.core.model.jpa.FileUpload;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.FileUploadUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service deleting the resumable uploads without activity.
+ *
+ * @author bgamard
+ */
+public class FileUploadService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(FileUploadService.class);
+
+    public FileUploadService() {
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("File upload service starting up");
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("File upload service shutting down");
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            deleteStaleUploads();
+        } catch (Throwable e) {
+            log.error("Exception during file upload service iteration", e);
+        }
+    }
+
+    /**
+     * Delete the uploads not updated since the expiration time,
+     * and the upload files without upload (e.g. if the upload creation has been rolled back).
+     */
+    private void deleteStaleUploads() throws Exception {
+        Date staleDate = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(Constants.FILE_UPLOAD_EXPIRATION_HOUR));
+
+        List<String> uploadIdList = new ArrayList<>();
+        TransactionUtil.handle(() -> {
+            FileUploadDao fileUploadDao = new FileUploadDao();
+            for (FileUpload fileUpload : fileUploadDao.findStale(staleDate)) {
+                fileUploadDao.delete(fileUpload.getId());
+                uploadIdList.add(fileUpload.getId());
+            }
+        });
+
+        try (DirectoryStream<Path> uploadFileList = Files.newDirectoryStream(DirectoryUtil.getUploadDirectory())) {
+            for (Path uploadFile : uploadFileList) {
+                if (Files.getLastModifiedTime(uploadFile).toMillis() < staleDate.getTime()) {
+                    String uploadId = uploadFile.getFileName().toString();
+                    TransactionUtil.handle(() -> {
+                        if (new FileUploadDao().getById(uploadId) == null) {
+                            uploadIdList.add(uploadId);
+                        }
+                    });
+                }
+            }
+        }
+
+        for (String uploadId : uploadIdList) {
+            log.info("Deleting stale upload: " + uploadId);
+            FileUploadUtil.delete(uploadId);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, 1, TimeUnit.HOURS);
+    }
+}
@@ -0,0 +1,121 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.StorageUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service moving the files stored by ID by the previous versions to the blobs.
+ * Each file is moved in its own transaction while the application is running,
+ * and the service stops once they are all moved.
+ *
+ * @author bgamard
+ */
+public class StorageMigrationService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(StorageMigrationService.class);
+
+    /**
+     * Number of files read by transaction.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    public StorageMigrationService() {
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("Storage migration service starting up");
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("Storage migration service shutting down");
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            int total = 0;
+            boolean skipped = false;
+            String lastId = null;
+            List<File> fileList;
+            do {
+                List<File> batchFileList = new ArrayList<>();
+                String batchLastId = lastId;
+                TransactionUtil.handle(() -> batchFileList.addAll(new FileDao().findAfterId(batchLastId, BATCH_SIZE)));
+                fileList = batchFileList;
+
+                for (File file : fileList) {
+                    if (file.getStorageKey() != null) {
+                        continue;
+                    }
+                    if (FileUtil.isProcessingFile(file.getId())) {
+                        // The stored files are being written, retried at the next iteration
+                        skipped = true;
+                        continue;
+                    }
+
+                    List<Path> legacyFileList = new ArrayList<>();
+                    AtomicBoolean handled = new AtomicBoolean();
+                    TransactionUtil.handle(() -> {
+                        try {
+                            legacyFileList.addAll(StorageUtil.migrate(file.getId()));
+                            handled.set(true);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    if (!handled.get()) {
+                        // Rolled back, retried at the next iteration
+                        skipped = true;
+                        continue;
+                    }
+
+                    // The transaction is committed, the files stored by ID are not referenced anymore
+                    for (Path legacyFile : legacyFileList) {
+                        Files.deleteIfExists(legacyFile);
+                    }
+                    if (!legacyFileList.isEmpty()) {
+                        total++;
+                    }
+                }
+
+                if (!fileList.isEmpty()) {
+                    lastId = fileList.get(fileList.size() - 1).getId();
+                }
+            } while (fileList.size() == BATCH_SIZE && isRunning());
+
+            if (total > 0) {
+                log.info("{} files moved to the blobs", total);
+            }
+            if (!skipped && fileList.size() < BATCH_SIZE) {
+                log.info("No more file to move to the blobs, stopping the service");
+                stopAsync();
+            }
+        } catch (Throwable e) {
+            log.error("Exception during storage migration", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, 1, TimeUnit.MINUTES);
+    }
+}
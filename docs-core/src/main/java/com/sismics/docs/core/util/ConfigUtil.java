@@ -49,6 +49,21 @@ public class ConfigUtil {
         return Integer.parseInt(value);
     }
 
+    /**
+     * Returns the integer value of a configuration parameter with a default value.
+     *
+     * @param configType Type of the configuration parameter
+     * @param defaultValue Default value to return if the configuration parameter is undefined
+     * @return Integer value of the configuration parameter
+     */
+    public static int getConfigIntegerValue(ConfigType configType, int defaultValue) {
+        try {
+            return getConfigIntegerValue(configType);
+        } catch (IllegalStateException e) {
+            return defaultValue;
+        }
+    }
+
     /**
      * Returns the long value of a configuration parameter.
      *
@@ -68,6 +68,24 @@ public class DirectoryUtil {
         return getDataSubDirectory("lucene");
     }
     
+    /**
+     * Returns the directory of the lucene index being rebuilt.
+     * 
+     * @return Lucene rebuild directory.
+     */
+    public static Path getLuceneRebuildDirectory() {
+        return getDataSubDirectory("lucene_rebuild");
+    }
+    
+    /**
+     * Returns the search suggester directory.
+     * 
+     * @return Search suggester directory.
+     */
+    public static Path getSuggesterDirectory() {
+        return getDataSubDirectory("suggester");
+    }
+    
     /**
      * Returns the storage directory.
      * 
@@ -76,6 +94,24 @@ public class DirectoryUtil {
     public static Path getStorageDirectory() {
         return getDataSubDirectory("storage");
     }
+
+    /**
+     * Returns the resumable uploads directory.
+     *
+     * @return Uploads directory.
+     */
+    public static Path getUploadDirectory() {
+        return getDataSubDirectory("upload");
+    }
+    
+    /**
+     * Returns the extraction cache directory.
+     *
+     * @return Extraction cache directory.
+     */
+    public static Path getExtractionCacheDirectory() {
+        return getDataSubDirectory("extraction_cache");
+    }
     
     /**
      * Returns the log directory.
@@ -1,22 +1,38 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.model.context.AppContext;
+import org.bouncycastle.crypto.PBEParametersGenerator;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.PKCS12ParametersGenerator;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Encryption utilities.
@@ -28,11 +44,46 @@ public class EncryptionUtil {
      * Salt.
      */
     private static final String SALT = "LEpxZmm2SMu2PeKzPNrar2rhVAS6LrrgvXKeL9uyXC4vgKHg";
+
+    /**
+     * AES block size (in bytes).
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Size of the buffers used to decrypt files (in bytes).
+     */
+    private static final int FILE_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Cipher transformation of the stored files.
+     */
+    private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+
+    /**
+     * Keys derived from the private keys.
+     * Deriving a key costs 2000 hash iterations, and the same key is used for all the files of a user.
+     */
+    private static final Cache<String, DerivedKey> derivedKeyCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
     
+    /**
+     * Provider of the AES cipher, the JDK one uses the AES instructions of the CPU.
+     * It is requested explicitly, Bouncy Castle being the preferred provider.
+     */
+    private static final Provider cipherProvider;
+
     static {
         // Initialize Bouncy Castle provider
         Security.insertProviderAt(new BouncyCastleProvider(), 1);
         Security.removeProvider("SunRsaSign");
+        cipherProvider = Security.getProvider("SunJCE");
+
+        MetricsUtil.registerGauge("encryption.key_cache.hit", () -> derivedKeyCache.stats().hitCount());
+        MetricsUtil.registerGauge("encryption.key_cache.miss", () -> derivedKeyCache.stats().missCount());
     }
     
     /**
@@ -58,11 +109,101 @@ public class EncryptionUtil {
      * @throws Exception  e
      */
     public static InputStream decryptInputStream(InputStream is, String privateKey) throws Exception {
-        return new CipherInputStream(is, getCipher(privateKey, Cipher.DECRYPT_MODE));
+        return new DecryptingInputStream(is, getCipher(privateKey, Cipher.DECRYPT_MODE));
+    }
+
+    /**
+     * Decrypt an InputStream from an offset using the specified private key.
+     * The encrypted data before the offset is skipped without being decrypted.
+     *
+     * @param is InputStream to decrypt, positioned at the start of the encrypted data
+     * @param privateKey Private key
+     * @param offset Offset in the decrypted data
+     * @return Decrypted stream starting at the offset
+     * @throws Exception e
+     */
+    public static InputStream decryptInputStream(InputStream is, String privateKey, long offset) throws Exception {
+        // Start decrypting at the beginning of the block containing the offset
+        long blockIndex = offset / BLOCK_SIZE;
+        ByteStreams.skipFully(is, blockIndex * BLOCK_SIZE);
+        InputStream decryptedStream = new DecryptingInputStream(is, getCipher(privateKey, Cipher.DECRYPT_MODE, blockIndex));
+        ByteStreams.skipFully(decryptedStream, offset % BLOCK_SIZE);
+        return decryptedStream;
+    }
+
+    /**
+     * Encrypt to an OutputStream from an offset using the specified private key.
+     * The output continues the encrypted data written before the offset, so that a file can be encrypted in several parts.
+     *
+     * @param os OutputStream to write the encrypted data to, positioned at the offset
+     * @param privateKey Private key
+     * @param offset Offset in the unencrypted data
+     * @return Encrypting stream
+     * @throws Exception e
+     */
+    public static OutputStream encryptOutputStream(OutputStream os, String privateKey, long offset) throws Exception {
+        if (Strings.isNullOrEmpty(privateKey)) {
+            throw new IllegalArgumentException("The private key is null or empty");
+        }
+
+        // Start encrypting at the beginning of the block containing the offset,
+        // the part of the block before the offset is encrypted but not written
+        int skip = (int) (offset % BLOCK_SIZE);
+        OutputStream skippingStream = new FilterOutputStream(os) {
+            private int skipped = 0;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (skipped < skip) {
+                    skipped++;
+                } else {
+                    out.write(b);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                int skipLength = Math.min(skip - skipped, len);
+                skipped += skipLength;
+                if (len > skipLength) {
+                    out.write(b, off + skipLength, len - skipLength);
+                }
+            }
+        };
+        OutputStream encryptedStream = new CipherOutputStream(skippingStream, getCipher(privateKey, Cipher.ENCRYPT_MODE, offset / BLOCK_SIZE));
+        encryptedStream.write(new byte[skip]);
+        return encryptedStream;
+    }
+
+    /**
+     * Decrypt an InputStream using an AES key used for this data only.
+     * The key is not derived, it must already be random (e.g. a HMAC).
+     *
+     * @param is InputStream to decrypt
+     * @param key AES key (256 bits)
+     * @return Decrypted stream
+     * @throws Exception e
+     */
+    static InputStream decryptInputStream(InputStream is, SecretKey key) throws Exception {
+        return new DecryptingInputStream(is, getCipher(new DerivedKey(key, new byte[BLOCK_SIZE]), Cipher.DECRYPT_MODE, 0));
+    }
+
+    /**
+     * Encrypt to an OutputStream using an AES key used for this data only.
+     * The key is not derived, it must already be random (e.g. a HMAC).
+     *
+     * @param os OutputStream to write the encrypted data to
+     * @param key AES key (256 bits)
+     * @return Encrypting stream
+     * @throws Exception e
+     */
+    static OutputStream encryptOutputStream(OutputStream os, SecretKey key) throws Exception {
+        return new CipherOutputStream(os, getCipher(new DerivedKey(key, new byte[BLOCK_SIZE]), Cipher.ENCRYPT_MODE, 0));
     }
 
     /**
      * Decrypt a file to a temporary file using the specified private key.
+     * The file is read and written by large chunks, decrypted between the two buffers.
      *
      * @param file Encrypted file
      * @param privateKey Private key
@@ -76,8 +217,21 @@ public class EncryptionUtil {
         }
 
         Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
-        try (InputStream is = Files.newInputStream(file)) {
-            Files.copy(new CipherInputStream(is, getCipher(privateKey, Cipher.DECRYPT_MODE)), tmpFile, StandardCopyOption.REPLACE_EXISTING);
+        Cipher cipher = getCipher(privateKey, Cipher.DECRYPT_MODE);
+        try (FileChannel inputChannel = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel outputChannel = FileChannel.open(tmpFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer inputBuffer = ByteBuffer.allocate(FILE_BUFFER_SIZE);
+            ByteBuffer outputBuffer = ByteBuffer.allocate(FILE_BUFFER_SIZE);
+            while (inputChannel.read(inputBuffer) != -1) {
+                inputBuffer.flip();
+                cipher.update(inputBuffer, outputBuffer);
+                inputBuffer.compact();
+                outputBuffer.flip();
+                while (outputBuffer.hasRemaining()) {
+                    outputChannel.write(outputBuffer);
+                }
+                outputBuffer.clear();
+            }
         }
         return tmpFile;
     }
@@ -105,11 +259,165 @@ public class EncryptionUtil {
      * @throws Exception e
      */
     private static Cipher getCipher(String privateKey, int mode) throws Exception {
-        PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
-        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
-        SecretKey desKey = skf.generateSecret(keySpec);
-        Cipher cipher = Cipher.getInstance("AES/CTR/NOPADDING");
-        cipher.init(mode, desKey);
+        return getCipher(privateKey, mode, 0);
+    }
+
+    /**
+     * Initialize a Cipher positioned at a block.
+     *
+     * @param privateKey Private key
+     * @param mode Mode (encrypt or decrypt)
+     * @param blockIndex Index of the first block
+     * @return Cipher
+     * @throws Exception e
+     */
+    private static Cipher getCipher(String privateKey, int mode, long blockIndex) throws Exception {
+        return getCipher(derivedKeyCache.get(privateKey, () -> deriveKey(privateKey)), mode, blockIndex);
+    }
+
+    /**
+     * Initialize a Cipher with a key positioned at a block.
+     *
+     * @param derivedKey Key and initial counter
+     * @param mode Mode (encrypt or decrypt)
+     * @param blockIndex Index of the first block
+     * @return Cipher
+     * @throws Exception e
+     */
+    private static Cipher getCipher(DerivedKey derivedKey, int mode, long blockIndex) throws Exception {
+        // The counter is incremented once per block
+        Cipher cipher = cipherProvider == null ? Cipher.getInstance(TRANSFORMATION) : Cipher.getInstance(TRANSFORMATION, cipherProvider);
+        cipher.init(mode, derivedKey.key, new IvParameterSpec(addToCounter(derivedKey.iv, blockIndex)));
         return cipher;
     }
+
+    /**
+     * Remove a private key from the derived keys cache.
+     *
+     * @param privateKey Private key
+     */
+    public static void invalidateKey(String privateKey) {
+        if (privateKey != null) {
+            derivedKeyCache.invalidate(privateKey);
+        }
+    }
+
+    /**
+     * Derive the key and the initial counter from a private key.
+     * The derivation is the same as PBEWITHSHA256AND256BITAES-CBC-BC (PKCS#12, SHA-256, 2000 iterations).
+     *
+     * @param privateKey Private key
+     * @return Derived key
+     */
+    private static DerivedKey deriveKey(String privateKey) {
+        PKCS12ParametersGenerator generator = new PKCS12ParametersGenerator(new SHA256Digest());
+        generator.init(PBEParametersGenerator.PKCS12PasswordToBytes(privateKey.toCharArray()), SALT.getBytes(), 2000);
+        ParametersWithIV parameters = (ParametersWithIV) generator.generateDerivedParameters(256, 128);
+        byte[] key = ((KeyParameter) parameters.getParameters()).getKey();
+        return new DerivedKey(new SecretKeySpec(key, "AES"), parameters.getIV());
+    }
+
+    /**
+     * Add a number of blocks to a CTR counter.
+     *
+     * @param counter Initial counter (big-endian)
+     * @param blockCount Number of blocks
+     * @return New counter
+     */
+    private static byte[] addToCounter(byte[] counter, long blockCount) {
+        byte[] result = counter.clone();
+        long carry = blockCount;
+        for (int i = result.length - 1; i >= 0 && carry != 0; i--) {
+            long sum = (result[i] & 0xff) + (carry & 0xff);
+            result[i] = (byte) sum;
+            carry = (carry >>> 8) + (sum >>> 8);
+        }
+        return result;
+    }
+
+    /**
+     * Stream decrypting the data in place, by chunks as large as the reads.
+     * CTR is a stream mode: each byte read is decrypted right away, without buffering.
+     */
+    private static class DecryptingInputStream extends FilterInputStream {
+        /**
+         * Decryption cipher.
+         */
+        private final Cipher cipher;
+
+        private DecryptingInputStream(InputStream in, Cipher cipher) {
+            super(in);
+            this.cipher = cipher;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                try {
+                    cipher.update(b, off, n, b, off);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException(e);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // The skipped data must go through the cipher to keep the counter in sync
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            // NOP
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+    }
+
+    /**
+     * Key and initial counter derived from a private key.
+     */
+    private static class DerivedKey {
+        /**
+         * AES key.
+         */
+        private final SecretKey key;
+
+        /**
+         * Initial counter.
+         */
+        private final byte[] iv;
+
+        private DerivedKey(SecretKey key, byte[] iv) {
+            this.key = key;
+            this.iv = iv;
+        }
+    }
 }
@@ -0,0 +1,359 @@
+package com.sismics.docs.core.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor of asynchronous event listeners.
+ * Each executor has its own threads and a bounded queue: when the queue is full,
+ * posting an event blocks until some room is available.
+ * Events posted by interactive requests are processed before bulk ones (inbox, background jobs).
+ * With virtual threads, each task runs in its own thread and the number of running tasks
+ * is limited by a semaphore instead of the size of a thread pool.
+ *
+ * @author bgamard
+ */
+public class EventExecutor implements Executor {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(EventExecutor.class);
+
+    /**
+     * Upper bounds of the latency histograms (in milliseconds).
+     */
+    private static final long[] LATENCY_BOUNDS = { 10, 100, 1000, 10000, 60000, 600000 };
+
+    /**
+     * True if the current thread is posting bulk events.
+     */
+    private static final ThreadLocal<Boolean> bulk = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * True if the current thread belongs to an event executor.
+     */
+    private static final ThreadLocal<Boolean> executorThread = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Sequence keeping the order of tasks with the same priority.
+     */
+    private static final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Executor name.
+     */
+    private final String name;
+
+    /**
+     * Thread pool, null with virtual threads.
+     */
+    private final ThreadPoolExecutor threadPool;
+
+    /**
+     * Queued tasks, with virtual threads.
+     */
+    private final PriorityBlockingQueue<Task> queue;
+
+    /**
+     * Room left for running tasks, with virtual threads.
+     */
+    private final Semaphore concurrency;
+
+    /**
+     * Thread starting the queued tasks, with virtual threads.
+     */
+    private final Thread dispatcher;
+
+    /**
+     * Number of tasks submitted, with virtual threads.
+     */
+    private final AtomicLong submittedCount = new AtomicLong();
+
+    /**
+     * Number of tasks started, with virtual threads.
+     */
+    private final AtomicLong startedCount = new AtomicLong();
+
+    /**
+     * Number of tasks completed, with virtual threads.
+     */
+    private final AtomicLong completedCount = new AtomicLong();
+
+    /**
+     * True once the executor doesn't accept tasks anymore, with virtual threads.
+     */
+    private volatile boolean shutdown;
+
+    /**
+     * Room left for queued and running tasks.
+     */
+    private final Semaphore capacity;
+
+    /**
+     * Create an executor.
+     *
+     * @param name Executor name
+     * @param threadCount Number of threads
+     * @param queueCapacity Maximum number of queued and running tasks
+     */
+    public EventExecutor(String name, int threadCount, int queueCapacity) {
+        this(name, threadCount, queueCapacity, false);
+    }
+
+    /**
+     * Create an executor.
+     *
+     * @param name Executor name
+     * @param threadCount Number of threads, or maximum number of running tasks with virtual threads
+     * @param queueCapacity Maximum number of queued and running tasks
+     * @param virtualThreads True to run each task in its own virtual thread
+     */
+    public EventExecutor(String name, int threadCount, int queueCapacity, boolean virtualThreads) {
+        this.name = name;
+        this.capacity = new Semaphore(queueCapacity);
+        if (virtualThreads) {
+            this.threadPool = null;
+            this.queue = new PriorityBlockingQueue<>();
+            this.concurrency = new Semaphore(threadCount);
+            this.dispatcher = Thread.ofVirtual().name("event-" + name + "-dispatcher").start(this::dispatch);
+
+            MetricsUtil.registerGauge("async." + name + ".queue", queue::size);
+            MetricsUtil.registerGauge("async." + name + ".active", () -> startedCount.get() - completedCount.get());
+            MetricsUtil.registerGauge("async." + name + ".completed", completedCount::get);
+        } else {
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.threadPool = new ThreadPoolExecutor(threadCount, threadCount,
+                    1L, TimeUnit.MINUTES,
+                    new PriorityBlockingQueue<>(),
+                    runnable -> new Thread(() -> {
+                        executorThread.set(true);
+                        runnable.run();
+                    }, "event-" + name + "-" + threadNumber.incrementAndGet()));
+            this.queue = null;
+            this.concurrency = null;
+            this.dispatcher = null;
+
+            MetricsUtil.registerGauge("async." + name + ".queue", () -> threadPool.getQueue().size());
+            MetricsUtil.registerGauge("async." + name + ".active", threadPool::getActiveCount);
+            MetricsUtil.registerGauge("async." + name + ".completed", threadPool::getCompletedTaskCount);
+        }
+    }
+
+    /**
+     * Create an executor configured by the system properties.
+     * The number of threads and the queue capacity can be overridden
+     * with the docs.async.<name>.threads and docs.async.<name>.queue system properties.
+     * The tasks run in virtual threads with the docs.virtual_threads system property,
+     * the number of threads is then the maximum number of tasks running at once.
+     *
+     * @param name Executor name
+     * @param threadCount Default number of threads
+     * @param queueCapacity Default maximum number of queued and running tasks
+     * @return Executor
+     */
+    public static EventExecutor create(String name, int threadCount, int queueCapacity) {
+        return new EventExecutor(name,
+                Integer.getInteger("docs.async." + name + ".threads", threadCount),
+                Integer.getInteger("docs.async." + name + ".queue", queueCapacity),
+                Boolean.getBoolean("docs.virtual_threads"));
+    }
+
+    /**
+     * Mark the events posted by the current thread as bulk (or interactive).
+     *
+     * @param bulk True for bulk events
+     */
+    public static void setBulk(boolean bulk) {
+        EventExecutor.bulk.set(bulk);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        // Threads of the executors never wait, since the room may only be freed by themselves
+        boolean permit;
+        if (executorThread.get()) {
+            permit = capacity.tryAcquire();
+        } else {
+            capacity.acquireUninterruptibly();
+            permit = true;
+        }
+
+        try {
+            Task task = new Task(command, bulk.get(), permit);
+            if (threadPool == null) {
+                // Checked and queued at once, a task is never queued once the executor is shut down
+                synchronized (queue) {
+                    if (shutdown) {
+                        throw new RejectedExecutionException("Event executor " + name + " is shut down");
+                    }
+                    submittedCount.incrementAndGet();
+                    queue.add(task);
+                }
+            } else {
+                threadPool.execute(task);
+            }
+        } catch (RejectedExecutionException e) {
+            if (permit) {
+                capacity.release();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of tasks queued or running.
+     *
+     * @return Number of tasks
+     */
+    public long getPendingTaskCount() {
+        if (threadPool == null) {
+            return submittedCount.get() - completedCount.get();
+        }
+        return threadPool.getTaskCount() - threadPool.getCompletedTaskCount();
+    }
+
+    /**
+     * Stop accepting tasks and wait for the pending ones.
+     */
+    public void shutDown() {
+        try {
+            if (threadPool == null) {
+                synchronized (queue) {
+                    shutdown = true;
+                }
+                long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+                while (getPendingTaskCount() > 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                dispatcher.interrupt();
+                dispatcher.join();
+
+                // The tasks not started are dropped and give their room back
+                List<Task> droppedTaskList = new ArrayList<>();
+                queue.drainTo(droppedTaskList);
+                for (Task task : droppedTaskList) {
+                    task.drop();
+                }
+                if (getPendingTaskCount() > 0) {
+                    log.warn("Event executor {} terminated with {} pending tasks", name, getPendingTaskCount());
+                }
+            } else {
+                threadPool.shutdown();
+                if (!threadPool.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.warn("Event executor {} terminated with {} pending tasks", name, getPendingTaskCount());
+                }
+            }
+        } catch (InterruptedException e) {
+            // NOP
+        }
+    }
+
+    /**
+     * Start the queued tasks in their own virtual thread, as long as the concurrency allows it.
+     */
+    private void dispatch() {
+        Thread.Builder threadBuilder = Thread.ofVirtual().name("event-" + name + "-", 1);
+        try {
+            while (true) {
+                // The room is acquired first, so that the task taken is the first one when it starts
+                concurrency.acquire();
+                Task task = queue.take();
+                startedCount.incrementAndGet();
+                threadBuilder.start(() -> {
+                    executorThread.set(true);
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        log.error("Error in event executor " + name, e);
+                    } finally {
+                        completedCount.incrementAndGet();
+                        concurrency.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            // Shut down
+        }
+    }
+
+    /**
+     * Task ordered by priority, then by submission.
+     */
+    private class Task implements Runnable, Comparable<Task> {
+        /**
+         * Listener invocation.
+         */
+        private final Runnable command;
+
+        /**
+         * True for a bulk task.
+         */
+        private final boolean bulk;
+
+        /**
+         * True if the task holds a room in the queue.
+         */
+        private final boolean permit;
+
+        /**
+         * Submission order.
+         */
+        private final long order = sequence.incrementAndGet();
+
+        /**
+         * Submission time (in nanoseconds).
+         */
+        private final long submitTime = System.nanoTime();
+
+        private Task(Runnable command, boolean bulk, boolean permit) {
+            this.command = command;
+            this.bulk = bulk;
+            this.permit = permit;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            MetricsUtil.recordHistogram("async." + name + ".wait_ms",
+                    TimeUnit.NANOSECONDS.toMillis(startTime - submitTime), LATENCY_BOUNDS);
+            try {
+                command.run();
+            } finally {
+                if (permit) {
+                    capacity.release();
+                }
+                MetricsUtil.recordHistogram("async." + name + ".run_ms",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), LATENCY_BOUNDS);
+            }
+        }
+
+        /**
+         * Drop the task without running it.
+         */
+        private void drop() {
+            completedCount.incrementAndGet();
+            if (permit) {
+                capacity.release();
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (bulk != other.bulk) {
+                return bulk ? 1 : -1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}
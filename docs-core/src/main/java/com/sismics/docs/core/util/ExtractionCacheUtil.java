@@ -0,0 +1,405 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.dao.ConfigDao;
+import com.sismics.docs.core.model.jpa.Config;
+import com.sismics.util.context.ThreadLocalContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cache of the thumbnails and text content extracted from the files, by plaintext content.
+ * Identical files (re-uploads, new versions, shared attachments) are processed only once.
+ * An entry is named and encrypted after a HMAC of the content hash, OCR language, OCR state
+ * and extraction version, keyed by a secret stored in the database: the content hashes
+ * stored along the files are not enough to find or read an entry.
+ * The HMAC is already a random key, used as is without the slow derivation of the private keys.
+ * The least recently used entries are evicted above the docs.extraction_cache.max_size system property (in bytes).
+ *
+ * @author bgamard
+ */
+public class ExtractionCacheUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ExtractionCacheUtil.class);
+
+    /**
+     * Version of the extraction, to increment when the thumbnails, the text extraction or the entries format change.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Suffix of the entries being written.
+     */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Maximum size of the cache (in bytes).
+     */
+    private static final long MAX_SIZE = Long.getLong("docs.extraction_cache.max_size", 512L * 1024 * 1024);
+
+    /**
+     * Number of cache hits.
+     */
+    private static final AtomicLong hitCounter = MetricsUtil.getCounter("extraction_cache.hit");
+
+    /**
+     * Number of cache misses.
+     */
+    private static final AtomicLong missCounter = MetricsUtil.getCounter("extraction_cache.miss");
+
+    /**
+     * Number of evicted entries.
+     */
+    private static final AtomicLong evictionCounter = MetricsUtil.getCounter("extraction_cache.eviction");
+
+    /**
+     * Size of the cache (in bytes), -1 until computed.
+     */
+    private static final AtomicLong size = new AtomicLong(-1);
+
+    /**
+     * HMAC keyed by the cache secret, loaded at first use.
+     */
+    private static volatile HashFunction hmac;
+
+    static {
+        MetricsUtil.registerGauge("extraction_cache.size", () -> Math.max(size.get(), 0));
+    }
+
+    /**
+     * Returns the extraction of a file.
+     *
+     * @param contentHash SHA-256 of the plaintext content
+     * @param language OCR language, can be null
+     * @param ocrEnabled True if the OCR is enabled
+     * @return Extraction, null if not cached
+     */
+    public static Entry get(String contentHash, String language, boolean ocrEnabled) {
+        String entryId = getEntryId(contentHash, language, ocrEnabled);
+        Path entryFile = getEntryFile(entryId);
+        if (!Files.exists(entryFile)) {
+            missCounter.incrementAndGet();
+            return null;
+        }
+
+        SecretKey entryKey = getEntryKey(entryId);
+        try (DataInputStream inputStream = new DataInputStream(EncryptionUtil.decryptInputStream(Files.newInputStream(entryFile), entryKey))) {
+            byte[] web = readBytes(inputStream);
+            byte[] thumbnail = readBytes(inputStream);
+            byte[] content = readBytes(inputStream);
+            Entry entry = new Entry(web, thumbnail, content == null ? null : new String(content, StandardCharsets.UTF_8));
+
+            // Keep the recently used entries
+            Files.setLastModifiedTime(entryFile, FileTime.fromMillis(System.currentTimeMillis()));
+            hitCounter.incrementAndGet();
+            return entry;
+        } catch (Exception e) {
+            log.warn("Unreadable extraction cache entry: " + entryFile, e);
+            delete(entryFile);
+            missCounter.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Cache the extraction of a file.
+     *
+     * @param contentHash SHA-256 of the plaintext content
+     * @param language OCR language, can be null
+     * @param ocrEnabled True if the OCR is enabled
+     * @param entry Extraction
+     */
+    public static void put(String contentHash, String language, boolean ocrEnabled, Entry entry) {
+        String entryId = getEntryId(contentHash, language, ocrEnabled);
+        Path entryFile = getEntryFile(entryId);
+        Path tmpFile = entryFile.resolveSibling(entryFile.getFileName() + TMP_SUFFIX);
+        SecretKey entryKey = getEntryKey(entryId);
+        try {
+            AtomicLong cacheSize = getSize();
+            try (DataOutputStream outputStream = new DataOutputStream(EncryptionUtil.encryptOutputStream(Files.newOutputStream(tmpFile), entryKey))) {
+                writeBytes(outputStream, entry.web);
+                writeBytes(outputStream, entry.thumbnail);
+                writeBytes(outputStream, entry.content == null ? null : entry.content.getBytes(StandardCharsets.UTF_8));
+            }
+            // The same file may have been cached meanwhile
+            long entrySize = Files.size(tmpFile) - (Files.exists(entryFile) ? Files.size(entryFile) : 0);
+            Files.move(tmpFile, entryFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (cacheSize.addAndGet(entrySize) > MAX_SIZE) {
+                evict();
+            }
+        } catch (Exception e) {
+            log.warn("Unable to cache the extraction: " + entryFile, e);
+            try {
+                Files.deleteIfExists(tmpFile);
+            } catch (IOException ex) {
+                // NOP
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used entries, until the cache is under 90% of its maximum size.
+     * The entries being written are not counted yet and are left alone.
+     */
+    private static synchronized void evict() throws IOException {
+        List<Path> entryFileList = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(DirectoryUtil.getExtractionCacheDirectory(),
+                entryFile -> !entryFile.getFileName().toString().endsWith(TMP_SUFFIX))) {
+            directoryStream.forEach(entryFileList::add);
+        }
+        entryFileList.sort(Comparator.comparingLong(entryFile -> entryFile.toFile().lastModified()));
+
+        for (Path entryFile : entryFileList) {
+            if (size.get() <= MAX_SIZE * 9 / 10) {
+                break;
+            }
+            if (delete(entryFile)) {
+                evictionCounter.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Delete an entry file.
+     *
+     * @param entryFile Entry file
+     * @return True if deleted
+     */
+    private static boolean delete(Path entryFile) {
+        try {
+            long entrySize = Files.size(entryFile);
+            if (Files.deleteIfExists(entryFile)) {
+                getSize().addAndGet(-entrySize);
+                return true;
+            }
+        } catch (IOException e) {
+            // The entry has been deleted meanwhile
+        }
+        return false;
+    }
+
+    /**
+     * Returns the size of the cache, computed at first use.
+     *
+     * @return Size of the cache (in bytes)
+     */
+    private static synchronized AtomicLong getSize() throws IOException {
+        if (size.get() < 0) {
+            long totalSize = 0;
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(DirectoryUtil.getExtractionCacheDirectory(),
+                    entryFile -> !entryFile.getFileName().toString().endsWith(TMP_SUFFIX))) {
+                for (Path entryFile : directoryStream) {
+                    totalSize += Files.size(entryFile);
+                }
+            }
+            size.set(totalSize);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the ID of an entry.
+     *
+     * @param contentHash SHA-256 of the plaintext content
+     * @param language OCR language, can be null
+     * @param ocrEnabled True if the OCR is enabled
+     * @return Entry ID
+     */
+    private static String getEntryId(String contentHash, String language, boolean ocrEnabled) {
+        return contentHash + ":" + language + ":" + ocrEnabled + ":" + VERSION;
+    }
+
+    /**
+     * Returns the file of an entry.
+     *
+     * @param entryId Entry ID
+     * @return Entry file
+     */
+    private static Path getEntryFile(String entryId) {
+        String name = getHmac().hashString("name:" + entryId, StandardCharsets.UTF_8).toString();
+        return DirectoryUtil.getExtractionCacheDirectory().resolve(name);
+    }
+
+    /**
+     * Returns the encryption key of an entry.
+     *
+     * @param entryId Entry ID
+     * @return AES key
+     */
+    private static SecretKey getEntryKey(String entryId) {
+        return new SecretKeySpec(getHmac().hashString("key:" + entryId, StandardCharsets.UTF_8).asBytes(), "AES");
+    }
+
+    /**
+     * Returns the HMAC keyed by the cache secret.
+     * The secret is generated at first use, and the entries keyed by the content hash alone are deleted.
+     *
+     * @return HMAC
+     */
+    private static HashFunction getHmac() {
+        if (hmac == null) {
+            synchronized (ExtractionCacheUtil.class) {
+                if (hmac == null) {
+                    // Another node may be generating the secret, read it again if its insertion fails
+                    String secret = loadSecret();
+                    if (secret == null) {
+                        secret = loadSecret();
+                    }
+                    if (secret == null) {
+                        throw new IllegalStateException("Extraction cache secret unavailable");
+                    }
+                    hmac = Hashing.hmacSha256(BaseEncoding.base16().lowerCase().decode(secret));
+                }
+            }
+        }
+        return hmac;
+    }
+
+    /**
+     * Load the cache secret from the database, or generate it.
+     *
+     * @return Secret (hexadecimal), null if it can't be loaded
+     */
+    private static String loadSecret() {
+        AtomicReference<String> secret = new AtomicReference<>();
+        TransactionUtil.handle(() -> {
+            ConfigDao configDao = new ConfigDao();
+            Config config = configDao.getById(ConfigType.EXTRACTION_CACHE_SECRET);
+            if (config != null) {
+                secret.set(config.getValue());
+                return;
+            }
+
+            byte[] bytes = new byte[32];
+            new SecureRandom().nextBytes(bytes);
+            String value = BaseEncoding.base16().lowerCase().encode(bytes);
+            configDao.update(ConfigType.EXTRACTION_CACHE_SECRET, value);
+            ThreadLocalContext.get().getEntityManager().flush();
+            secret.set(value);
+            clear();
+        });
+        return secret.get();
+    }
+
+    /**
+     * Delete all the entries.
+     */
+    private static void clear() {
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(DirectoryUtil.getExtractionCacheDirectory())) {
+            for (Path entryFile : directoryStream) {
+                Files.deleteIfExists(entryFile);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to clear the extraction cache", e);
+        }
+        size.set(-1);
+    }
+
+    /**
+     * Write a byte array, which can be null.
+     *
+     * @param outputStream Output stream
+     * @param bytes Byte array
+     * @throws IOException e
+     */
+    private static void writeBytes(DataOutputStream outputStream, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            outputStream.writeInt(-1);
+        } else {
+            outputStream.writeInt(bytes.length);
+            outputStream.write(bytes);
+        }
+    }
+
+    /**
+     * Read a byte array, which can be null.
+     *
+     * @param inputStream Input stream
+     * @return Byte array
+     * @throws IOException e
+     */
+    private static byte[] readBytes(DataInputStream inputStream) throws IOException {
+        int length = inputStream.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        inputStream.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Extraction of a file.
+     */
+    public static class Entry {
+        /**
+         * Web image (JPEG), can be null.
+         */
+        private final byte[] web;
+
+        /**
+         * Thumbnail (JPEG), can be null.
+         */
+        private final byte[] thumbnail;
+
+        /**
+         * Text content, can be null.
+         */
+        private final String content;
+
+        /**
+         * True if a part of the extraction failed (e.g. the OCR), the entry must not be cached.
+         */
+        private final boolean failed;
+
+        public Entry(byte[] web, byte[] thumbnail, String content) {
+            this(web, thumbnail, content, false);
+        }
+
+        public Entry(byte[] web, byte[] thumbnail, String content, boolean failed) {
+            this.web = web;
+            this.thumbnail = thumbnail;
+            this.content = content;
+            this.failed = failed;
+        }
+
+        public byte[] getWeb() {
+            return web;
+        }
+
+        public byte[] getThumbnail() {
+            return thumbnail;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+    }
+}
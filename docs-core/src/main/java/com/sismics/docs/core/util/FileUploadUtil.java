@@ -0,0 +1,144 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.core.model.jpa.FileUpload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resumable file upload utilities.
+ * The chunks are encrypted and appended to a file in the upload directory,
+ * the content is then streamed to the storage when the upload is complete.
+ *
+ * @author bgamard
+ */
+public class FileUploadUtil {
+    /**
+     * Maximum size of a chunk (in bytes).
+     */
+    public static final long CHUNK_SIZE = Long.getLong("docs.upload.chunk_size", 8 * 1024 * 1024);
+
+    /**
+     * Maximum number of uploads in progress by user.
+     */
+    public static final int MAX_UPLOADS = Integer.getInteger("docs.upload.max_uploads", 10);
+
+    /**
+     * Size of the buffer used to copy the chunks.
+     */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * IDs of the uploads currently receiving a chunk.
+     */
+    private static final Set<String> writingUploadIdSet = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Returns the number of bytes received.
+     *
+     * @param uploadId Upload ID
+     * @return Offset of the next chunk
+     * @throws IOException e
+     */
+    public static long getOffset(String uploadId) throws IOException {
+        Path uploadFile = getUploadFile(uploadId);
+        return Files.exists(uploadFile) ? Files.size(uploadFile) : 0;
+    }
+
+    /**
+     * Append a chunk to an upload.
+     * The bytes received before a connection error are kept, the client can resume from the new offset.
+     * A chunk too large is rejected as a whole.
+     *
+     * @param fileUpload Upload
+     * @param privateKey Private key of the user
+     * @param offset Offset of the chunk, must be the number of bytes already received
+     * @param inputStream Chunk content
+     * @return Offset of the next chunk
+     * @throws IOException If the chunk doesn't fit in the upload
+     * @throws Exception e
+     */
+    public static long appendChunk(FileUpload fileUpload, String privateKey, long offset, InputStream inputStream) throws Exception {
+        if (!writingUploadIdSet.add(fileUpload.getId())) {
+            throw new IOException("UploadBusy");
+        }
+
+        try {
+            if (offset != getOffset(fileUpload.getId())) {
+                throw new IOException("OffsetMismatch");
+            }
+
+            Path uploadFile = getUploadFile(fileUpload.getId());
+            long maxLength = Math.min(CHUNK_SIZE, fileUpload.getSize() - offset);
+            long length = 0;
+            String error = null;
+            try (OutputStream outputStream = EncryptionUtil.encryptOutputStream(Files.newOutputStream(uploadFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), privateKey, offset)) {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int n;
+                while ((n = inputStream.read(buffer)) != -1) {
+                    if (length + n > maxLength) {
+                        error = length + n > CHUNK_SIZE ? "ChunkTooLarge" : "SizeExceeded";
+                        break;
+                    }
+                    outputStream.write(buffer, 0, n);
+                    length += n;
+                }
+            }
+
+            if (error != null) {
+                // Drop the beginning of the chunk, the encrypted content has the same size
+                try (FileChannel channel = FileChannel.open(uploadFile, StandardOpenOption.WRITE)) {
+                    channel.truncate(offset);
+                }
+                throw new IOException(error);
+            }
+            return offset + length;
+        } finally {
+            writingUploadIdSet.remove(fileUpload.getId());
+        }
+    }
+
+    /**
+     * Open the content of a complete upload.
+     *
+     * @param fileUpload Upload
+     * @param privateKey Private key of the user
+     * @return Unencrypted content
+     * @throws IOException If the upload is not complete
+     * @throws Exception e
+     */
+    public static InputStream openUpload(FileUpload fileUpload, String privateKey) throws Exception {
+        if (getOffset(fileUpload.getId()) != fileUpload.getSize()) {
+            throw new IOException("UploadIncomplete");
+        }
+        return EncryptionUtil.decryptInputStream(Files.newInputStream(getUploadFile(fileUpload.getId())), privateKey);
+    }
+
+    /**
+     * Delete the content of an upload.
+     *
+     * @param uploadId Upload ID
+     * @throws IOException e
+     */
+    public static void delete(String uploadId) throws IOException {
+        Files.deleteIfExists(getUploadFile(uploadId));
+    }
+
+    /**
+     * Returns the file containing the encrypted content of an upload.
+     *
+     * @param uploadId Upload ID
+     * @return Upload file
+     */
+    private static Path getUploadFile(String uploadId) {
+        return DirectoryUtil.getUploadDirectory().resolve(uploadId);
+    }
+}
@@ -1,20 +1,20 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
-import com.google.common.io.CharStreams;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.FileJobDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
 import com.sismics.docs.core.event.FileCreatedAsyncEvent;
+import com.sismics.docs.core.event.FileEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.util.ImageDeskew;
-import com.sismics.util.Scalr;
+import com.sismics.docs.core.util.format.FormatHandlerUtil;
 import com.sismics.util.context.ThreadLocalContext;
-import com.sismics.util.io.InputStreamReaderThread;
 import com.sismics.util.mime.MimeTypeUtil;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.CountingInputStream;
@@ -24,16 +24,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
+import javax.crypto.CipherOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * File entity utilities.
@@ -47,63 +47,15 @@ public class FileUtil {
     private static final Logger log = LoggerFactory.getLogger(FileUtil.class);
 
     /**
-     * File ID of files currently being processed.
+     * Progress (in percent) of files currently being processed, by file ID.
      */
-    private static final Set<String> processingFileSet = Collections.synchronizedSet(new HashSet<>());
-    
-    /**
-     * Optical character recognition on an image.
-     *
-     * @param language Language to OCR
-     * @param image Buffered image
-     * @return Content extracted
-     * @throws Exception e
-     */
-    public static String ocrFile(String language, BufferedImage image) throws Exception {
-        // Upscale, grayscale and deskew the image
-        BufferedImage resizedImage = Scalr.resize(image, Scalr.Method.AUTOMATIC, Scalr.Mode.AUTOMATIC, 3500, Scalr.OP_ANTIALIAS, Scalr.OP_GRAYSCALE);
-        image.flush();
-        ImageDeskew imageDeskew = new ImageDeskew(resizedImage);
-        BufferedImage deskewedImage = Scalr.rotate(resizedImage, - imageDeskew.getSkewAngle(), Scalr.OP_ANTIALIAS, Scalr.OP_GRAYSCALE);
-        resizedImage.flush();
-        Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
-        ImageIO.write(deskewedImage, "tiff", tmpFile.toFile());
-
-        List<String> result = Lists.newLinkedList(Arrays.asList("tesseract", tmpFile.toAbsolutePath().toString(), "stdout", "-l", language));
-        ProcessBuilder pb = new ProcessBuilder(result);
-        Process process = pb.start();
-
-        // Consume the process error stream
-        final String commandName = pb.command().get(0);
-        new InputStreamReaderThread(process.getErrorStream(), commandName).start();
-
-        // Consume the data as text
-        try (InputStream is = process.getInputStream()) {
-            return CharStreams.toString(new InputStreamReader(is, StandardCharsets.UTF_8));
-        }
-    }
+    private static final Map<String, Integer> processingFileMap = new ConcurrentHashMap<>();
 
     /**
-     * Remove a file from the storage filesystem.
-     * 
-     * @param fileId ID of file to delete
+     * Size of the buffer used to copy the uploaded files.
      */
-    public static void delete(String fileId) throws IOException {
-        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
-        Path webFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_web");
-        Path thumbnailFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_thumb");
-        
-        if (Files.exists(storedFile)) {
-            Files.delete(storedFile);
-        }
-        if (Files.exists(webFile)) {
-            Files.delete(webFile);
-        }
-        if (Files.exists(thumbnailFile)) {
-            Files.delete(thumbnailFile);
-        }
-    }
-
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    
     /**
      * Create a new file.
      *
@@ -118,101 +70,188 @@ public class FileUtil {
      * @throws Exception e
      */
     public static String createFile(String name, String previousFileId, Path unencryptedFile, long fileSize, String language, String userId, String documentId) throws Exception {
-        // Validate mime type
-        String mimeType;
-        try {
-            mimeType = MimeTypeUtil.guessMimeType(unencryptedFile, name);
-        } catch (IOException e) {
-            throw new IOException("ErrorGuessMime", e);
+        // Validate user quota
+        checkQuota(new UserDao().getById(userId), fileSize);
+
+        try (InputStream inputStream = Files.newInputStream(unencryptedFile)) {
+            return createFile(name, previousFileId, inputStream, unencryptedFile, language, userId, documentId).getId();
         }
+    }
 
-        // Validate user quota
+    /**
+     * Create a new file from a stream, read only once.
+     * The content is encrypted to the storage while its size, hash and MIME type are computed.
+     * An unencrypted copy is kept for the processing only if the format is handled.
+     *
+     * @param name File name, can be null
+     * @param previousFileId ID of the previous version of the file, if the new file is a new version
+     * @param inputStream Unencrypted content
+     * @param unencryptedFile Path to the unencrypted file if it already exists, null otherwise
+     * @param language File language, can be null if associated to no document
+     * @param userId User ID creating the file
+     * @param documentId Associated document ID or null if no document
+     * @return New file
+     * @throws Exception e
+     */
+    public static File createFile(String name, String previousFileId, InputStream inputStream, Path unencryptedFile, String language, String userId, String documentId) throws Exception {
         UserDao userDao = new UserDao();
         User user = userDao.getById(userId);
-        if (user.getStorageCurrent() + fileSize > user.getStorageQuota()) {
-            throw new IOException("QuotaReached");
-        }
 
-        // Validate global quota
-        String globalStorageQuotaStr = System.getenv(Constants.GLOBAL_QUOTA_ENV);
-        if (!Strings.isNullOrEmpty(globalStorageQuotaStr)) {
-            long globalStorageQuota = Long.parseLong(globalStorageQuotaStr);
-            long globalStorageCurrent = userDao.getGlobalStorageCurrent();
-            if (globalStorageCurrent + fileSize > globalStorageQuota) {
-                throw new IOException("QuotaReached");
-            }
+        // Guess the MIME type from the first bytes
+        byte[] header = inputStream.readNBytes(MimeTypeUtil.HEADER_SIZE);
+        String mimeType = MimeTypeUtil.guessMimeType(header, name);
+
+        // The unencrypted content is only needed by the format handlers
+        Path processingFile = unencryptedFile;
+        if (processingFile == null && FormatHandlerUtil.find(mimeType) != null) {
+            processingFile = AppContext.getInstance().getFileService().createTemporaryFile(name);
         }
 
-        // Prepare the file
-        File file = new File();
-        file.setOrder(0);
-        file.setVersion(0);
-        file.setLatestVersion(true);
-        file.setDocumentId(documentId);
-        file.setName(StringUtils.abbreviate(name, 200));
-        file.setMimeType(mimeType);
-        file.setUserId(userId);
-        file.setSize(fileSize);
-
-        // Get files of this document
-        FileDao fileDao = new FileDao();
-        if (documentId != null) {
-            if (previousFileId == null) {
-                // It's not a new version, so put it in last order
-                file.setOrder(fileDao.getByDocumentId(userId, documentId).size());
-            } else {
-                // It's a new version, update the previous version
-                File previousFile = fileDao.getActiveById(previousFileId);
-                if (previousFile == null || !previousFile.getDocumentId().equals(documentId)) {
-                    throw new IOException("Previous version mismatch");
+        // Save the encrypted content to a temporary file in the storage, until the content hash is known
+        Path tmpStoredFile = StorageUtil.createTemporaryFile();
+        long maxSize = getRemainingQuota(user);
+        long fileSize = 0;
+        Hasher hasher = Hashing.sha256().newHasher();
+        try {
+            Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
+            try (InputStream contentStream = new SequenceInputStream(new ByteArrayInputStream(header), inputStream);
+                 OutputStream storedStream = new CipherOutputStream(Files.newOutputStream(tmpStoredFile), cipher);
+                 OutputStream unencryptedStream = processingFile == unencryptedFile ?
+                         NullOutputStream.NULL_OUTPUT_STREAM : Files.newOutputStream(processingFile)) {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int n;
+                while ((n = contentStream.read(buffer)) != -1) {
+                    fileSize += n;
+                    if (fileSize > maxSize) {
+                        throw new IOException("QuotaReached");
+                    }
+                    storedStream.write(buffer, 0, n);
+                    unencryptedStream.write(buffer, 0, n);
+                    hasher.putBytes(buffer, 0, n);
                 }
+            }
+
+            // Prepare the file
+            File file = new File();
+            file.setOrder(0);
+            file.setVersion(0);
+            file.setLatestVersion(true);
+            file.setDocumentId(documentId);
+            file.setName(StringUtils.abbreviate(name, 200));
+            file.setMimeType(mimeType);
+            file.setUserId(userId);
+            file.setSize(fileSize);
+            file.setContentHash(hasher.hash().toString());
+            file.setStorageKey(StorageUtil.getStorageKey(user.getPrivateKey(), file.getContentHash()));
+
+            // Get files of this document
+            FileDao fileDao = new FileDao();
+            if (documentId != null) {
+                if (previousFileId == null) {
+                    // It's not a new version, so put it in last order
+                    file.setOrder(fileDao.getByDocumentId(userId, documentId).size());
+                } else {
+                    // It's a new version, update the previous version
+                    File previousFile = fileDao.getActiveById(previousFileId);
+                    if (previousFile == null || !previousFile.getDocumentId().equals(documentId)) {
+                        throw new IOException("Previous version mismatch");
+                    }
 
-                if (previousFile.getVersionId() == null) {
-                    previousFile.setVersionId(UUID.randomUUID().toString());
+                    if (previousFile.getVersionId() == null) {
+                        previousFile.setVersionId(UUID.randomUUID().toString());
+                    }
+
+                    // Copy the previous file metadata
+                    file.setOrder(previousFile.getOrder());
+                    file.setVersionId(previousFile.getVersionId());
+                    file.setVersion(previousFile.getVersion() + 1);
+
+                    // Update the previous file
+                    previousFile.setLatestVersion(false);
+                    fileDao.update(previousFile);
                 }
+            }
 
-                // Copy the previous file metadata
-                file.setOrder(previousFile.getOrder());
-                file.setVersionId(previousFile.getVersionId());
-                file.setVersion(previousFile.getVersion() + 1);
+            // Create the file
+            if (fileDao.create(file, userId)) {
+                StorageUtil.store(tmpStoredFile, file, null);
+            } else {
+                // The user already stored the same content
+                Files.delete(tmpStoredFile);
+            }
 
-                // Update the previous file
-                previousFile.setLatestVersion(false);
-                fileDao.update(previousFile);
+            // Update the user quota
+            user.setStorageCurrent(user.getStorageCurrent() + fileSize);
+            userDao.updateQuota(user);
+
+            // Raise a new file created event and document updated event if we have a document
+            FileCreatedAsyncEvent fileCreatedAsyncEvent = new FileCreatedAsyncEvent();
+            fileCreatedAsyncEvent.setUserId(userId);
+            fileCreatedAsyncEvent.setLanguage(language);
+            fileCreatedAsyncEvent.setFileId(file.getId());
+            fileCreatedAsyncEvent.setUnencryptedFile(processingFile);
+            queueProcessingFile(fileCreatedAsyncEvent);
+
+            if (documentId != null) {
+                DocumentUpdatedAsyncEvent documentUpdatedAsyncEvent = new DocumentUpdatedAsyncEvent();
+                documentUpdatedAsyncEvent.setUserId(userId);
+                documentUpdatedAsyncEvent.setDocumentId(documentId);
+                ThreadLocalContext.get().addAsyncEvent(documentUpdatedAsyncEvent);
             }
-        }
 
-        // Create the file
-        String fileId = fileDao.create(file, userId);
+            return file;
+        } catch (Exception e) {
+            Files.deleteIfExists(tmpStoredFile);
+            if (processingFile != null && processingFile != unencryptedFile) {
+                Files.deleteIfExists(processingFile);
+            }
+            throw e;
+        }
+    }
 
-        // Save the file
-        Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-        Path path = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-        try (InputStream inputStream = Files.newInputStream(unencryptedFile)) {
-            Files.copy(new CipherInputStream(inputStream, cipher), path);
+    /**
+     * Check that a user can store a file.
+     *
+     * @param user User
+     * @param fileSize File size
+     * @throws IOException If the user or global quota is reached
+     */
+    public static void checkQuota(User user, long fileSize) throws IOException {
+        if (fileSize > getRemainingQuota(user)) {
+            throw new IOException("QuotaReached");
         }
+    }
 
-        // Update the user quota
-        user.setStorageCurrent(user.getStorageCurrent() + fileSize);
-        userDao.updateQuota(user);
-
-        // Raise a new file created event and document updated event if we have a document
-        startProcessingFile(fileId);
-        FileCreatedAsyncEvent fileCreatedAsyncEvent = new FileCreatedAsyncEvent();
-        fileCreatedAsyncEvent.setUserId(userId);
-        fileCreatedAsyncEvent.setLanguage(language);
-        fileCreatedAsyncEvent.setFileId(file.getId());
-        fileCreatedAsyncEvent.setUnencryptedFile(unencryptedFile);
-        ThreadLocalContext.get().addAsyncEvent(fileCreatedAsyncEvent);
-
-        if (documentId != null) {
-            DocumentUpdatedAsyncEvent documentUpdatedAsyncEvent = new DocumentUpdatedAsyncEvent();
-            documentUpdatedAsyncEvent.setUserId(userId);
-            documentUpdatedAsyncEvent.setDocumentId(documentId);
-            ThreadLocalContext.get().addAsyncEvent(documentUpdatedAsyncEvent);
+    /**
+     * Returns the storage space left to a user, bounded by the global quota.
+     *
+     * @param user User
+     * @return Remaining storage space (in bytes)
+     */
+    private static long getRemainingQuota(User user) {
+        long remainingQuota = user.getStorageQuota() - user.getStorageCurrent();
+
+        String globalStorageQuotaStr = System.getenv(Constants.GLOBAL_QUOTA_ENV);
+        if (!Strings.isNullOrEmpty(globalStorageQuotaStr)) {
+            long globalStorageQuota = Long.parseLong(globalStorageQuotaStr);
+            long globalStorageCurrent = new UserDao().getGlobalStorageCurrent();
+            remainingQuota = Math.min(remainingQuota, globalStorageQuota - globalStorageCurrent);
         }
 
-        return fileId;
+        return remainingQuota;
+    }
+
+    /**
+     * Queue the processing of a file.
+     * The job is saved with the current transaction so that it survives a restart,
+     * and the event is raised once the transaction is committed.
+     *
+     * @param event File created or updated event
+     */
+    public static void queueProcessingFile(FileEvent event) {
+        startProcessingFile(event.getFileId());
+        new FileJobDao().queue(event.getFileId(), event.getUserId(), event.getLanguage(), event instanceof FileCreatedAsyncEvent);
+        ThreadLocalContext.get().addAsyncEvent(event);
     }
 
     /**
@@ -221,7 +260,7 @@ public class FileUtil {
      * @param fileId File ID
      */
     public static void startProcessingFile(String fileId) {
-        processingFileSet.add(fileId);
+        processingFileMap.put(fileId, 0);
         log.info("Processing started for file: " + fileId);
     }
 
@@ -231,8 +270,30 @@ public class FileUtil {
      * @param fileId File ID
      */
     public static void endProcessingFile(String fileId) {
-        processingFileSet.remove(fileId);
-        log.info("Processing ended for file: " + fileId);
+        if (processingFileMap.remove(fileId) != null) {
+            log.info("Processing ended for file: " + fileId);
+        }
+    }
+
+    /**
+     * Update the progress of a file processing.
+     * Nothing is done if the processing has ended.
+     *
+     * @param fileId File ID
+     * @param progress Progress (in percent)
+     */
+    public static void updateProcessingProgress(String fileId, int progress) {
+        processingFileMap.computeIfPresent(fileId, (id, currentProgress) -> Math.max(currentProgress, progress));
+    }
+
+    /**
+     * Returns the progress of a file processing.
+     *
+     * @param fileId File ID
+     * @return Progress (in percent), null if the file is not processing
+     */
+    public static Integer getProcessingProgress(String fileId) {
+        return processingFileMap.get(fileId);
     }
 
     /**
@@ -242,20 +303,30 @@ public class FileUtil {
      * @return True if the file is processing
      */
     public static boolean isProcessingFile(String fileId) {
-        return processingFileSet.contains(fileId);
+        return processingFileMap.containsKey(fileId);
+    }
+
+    /**
+     * Returns the IDs of the files currently processing.
+     *
+     * @return File IDs
+     */
+    public static Set<String> getProcessingFileIds() {
+        return new HashSet<>(processingFileMap.keySet());
     }
 
     /**
      * Get the size of a file on disk.
      *
-     * @param fileId the file id
+     * @param file   the file
      * @param user   the file owner
      * @return the size or -1 if something went wrong
      */
-    public static long getFileSize(String fileId, User user) {
+    public static long getFileSize(File file, User user) {
         // To get the size we copy the decrypted content into a null output stream
         // and count the copied byte size.
-        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
+        String fileId = file.getId();
+        Path storedFile = StorageUtil.getStoredFile(file, null);
         if (! Files.exists(storedFile)) {
             log.debug("File does not exist " + fileId);
             return File.UNKNOWN_SIZE;
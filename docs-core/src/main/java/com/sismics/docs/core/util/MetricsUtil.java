@@ -0,0 +1,81 @@
+package com.sismics.docs.core.util;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Application metrics.
+ * Counters and gauges are registered by name and exposed to administrators.
+ *
+ * @author bgamard
+ */
+public class MetricsUtil {
+    /**
+     * Counters by name.
+     */
+    private static final Map<String, AtomicLong> counterMap = new ConcurrentHashMap<>();
+
+    /**
+     * Gauges by name.
+     */
+    private static final Map<String, LongSupplier> gaugeMap = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a counter, created if needed.
+     *
+     * @param name Counter name
+     * @return Counter
+     */
+    public static AtomicLong getCounter(String name) {
+        return counterMap.computeIfAbsent(name, k -> new AtomicLong());
+    }
+
+    /**
+     * Register a gauge, replacing any gauge with the same name.
+     *
+     * @param name Gauge name
+     * @param gauge Gauge
+     */
+    public static void registerGauge(String name, LongSupplier gauge) {
+        gaugeMap.put(name, gauge);
+    }
+
+    /**
+     * Record a value in a histogram.
+     * The histogram is made of cumulative counters, one per upper bound (name.le_bound),
+     * plus the number (name.count) and the sum (name.sum) of the recorded values.
+     *
+     * @param name Histogram name
+     * @param value Value
+     * @param bounds Upper bounds of the buckets, in ascending order
+     */
+    public static void recordHistogram(String name, long value, long[] bounds) {
+        for (long bound : bounds) {
+            if (value <= bound) {
+                getCounter(name + ".le_" + bound).incrementAndGet();
+            }
+        }
+        getCounter(name + ".count").incrementAndGet();
+        getCounter(name + ".sum").addAndGet(value);
+    }
+
+    /**
+     * Returns the current value of all metrics.
+     *
+     * @return Metric values by name
+     */
+    public static SortedMap<String, Long> getMetrics() {
+        SortedMap<String, Long> metricMap = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counterMap.entrySet()) {
+            metricMap.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gaugeMap.entrySet()) {
+            metricMap.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return metricMap;
+    }
+}
@@ -0,0 +1,338 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.collect.Lists;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.ocr.OcrEngine;
+import com.sismics.docs.core.util.ocr.TesseractOcrEngine;
+import com.sismics.util.ImageUtil;
+import com.sismics.util.OcrPreprocessor;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OCR utilities.
+ * The pages of a document are rendered one by one and recognized in parallel by a pool of workers
+ * shared by all documents. Each worker recognizes a batch of pages at once, so the OCR engine
+ * loads the language models once per batch instead of once per page.
+ * The number of workers, of rendered pages waiting for a worker, of pages by batch and the timeout of a page
+ * can be set with the docs.ocr.workers, docs.ocr.pages_in_flight, docs.ocr.batch_size
+ * and docs.ocr.page_timeout (in seconds) system properties.
+ *
+ * @author bgamard
+ */
+public class OcrUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(OcrUtil.class);
+
+    /**
+     * Number of OCR workers.
+     */
+    private static final int WORKER_COUNT = Integer.getInteger("docs.ocr.workers",
+            Math.max(Runtime.getRuntime().availableProcessors() / 2, 1));
+
+    /**
+     * Maximum number of rendered pages of a document, queued or being prepared.
+     */
+    private static final int MAX_PAGES_IN_FLIGHT = Integer.getInteger("docs.ocr.pages_in_flight", WORKER_COUNT * 2);
+
+    /**
+     * Number of pages recognized together.
+     */
+    private static final int BATCH_SIZE = Math.min(Integer.getInteger("docs.ocr.batch_size", 4), MAX_PAGES_IN_FLIGHT);
+
+    /**
+     * Maximum duration of the recognition of a page (in seconds).
+     */
+    private static final long PAGE_TIMEOUT = Long.getLong("docs.ocr.page_timeout", 120);
+
+    /**
+     * Resolution of the rendered pages.
+     */
+    private static final int DPI = 300;
+
+    /**
+     * Upper bounds of the page recognition duration histogram (in milliseconds).
+     */
+    private static final long[] PAGE_DURATION_BOUNDS = { 500, 1000, 2000, 5000, 10000, 30000 };
+
+    /**
+     * Number of recognized pages.
+     */
+    private static final AtomicLong pageCounter = MetricsUtil.getCounter("ocr.page");
+
+    /**
+     * Number of blank pages not recognized.
+     */
+    private static final AtomicLong blankPageCounter = MetricsUtil.getCounter("ocr.blank_page");
+
+    /**
+     * Number of created workers.
+     */
+    private static final AtomicInteger workerCounter = new AtomicInteger();
+
+    /**
+     * OCR workers.
+     */
+    private static final ExecutorService executor = Executors.newFixedThreadPool(WORKER_COUNT, runnable -> {
+        Thread thread = new Thread(runnable, "ocr-" + workerCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * OCR engine.
+     */
+    private static volatile OcrEngine engine = new TesseractOcrEngine();
+
+    /**
+     * Replace the OCR engine (e.g. by a stub in the tests).
+     *
+     * @param ocrEngine OCR engine
+     * @return Previous OCR engine
+     */
+    static OcrEngine setEngine(OcrEngine ocrEngine) {
+        OcrEngine previousEngine = engine;
+        engine = ocrEngine;
+        return previousEngine;
+    }
+
+    /**
+     * OCR an image.
+     *
+     * @param language Language to OCR
+     * @param image Image, flushed
+     * @param dpi Resolution of the image, 0 if unknown
+     * @return Content extracted
+     * @throws Exception e
+     */
+    public static String ocrImage(String language, BufferedImage image, int dpi) throws Exception {
+        Path imageFile = prepareImage(image, dpi);
+        try {
+            return recognize(language, Collections.singletonList(imageFile)).get(0);
+        } finally {
+            Files.deleteIfExists(imageFile);
+        }
+    }
+
+    /**
+     * OCR some pages of a PDF document.
+     * The blank pages are not sent to the OCR engine, their text is empty.
+     * The OCR stops early if the file is not processing anymore (e.g. deleted).
+     *
+     * @param language Language to OCR
+     * @param pdfDocument PDF document
+     * @param pageIndexList Indexes of the pages to OCR (from 0)
+     * @param fileId ID of the processed file, used to report the progress, can be null
+     * @return Content extracted by page index and page counts, null if the processing has been cancelled
+     * @throws Exception e
+     */
+    public static PdfResult ocrPdf(String language, PDDocument pdfDocument, List<Integer> pageIndexList, String fileId) throws Exception {
+        int pageCount = pageIndexList.size();
+        PDFRenderer renderer = new PDFRenderer(pdfDocument);
+        Semaphore inFlight = new Semaphore(MAX_PAGES_IN_FLIGHT);
+        AtomicInteger donePageCount = new AtomicInteger();
+        AtomicInteger blankPageCount = new AtomicInteger();
+        List<Future<List<String>>> futureList = new ArrayList<>();
+
+        try {
+            // The renderer is not thread safe, pages are rendered here and recognized by the workers
+            for (List<Integer> batchPageIndexList : Lists.partition(pageIndexList, BATCH_SIZE)) {
+                inFlight.acquire(batchPageIndexList.size());
+                if (isCancelled(fileId)) {
+                    log.info("OCR cancelled for file: " + fileId);
+                    return null;
+                }
+
+                List<BufferedImage> imageList = new ArrayList<>(batchPageIndexList.size());
+                try {
+                    for (int pageIndex : batchPageIndexList) {
+                        imageList.add(renderer.renderImageWithDPI(pageIndex, DPI, ImageType.GRAY));
+                    }
+                } catch (Exception e) {
+                    inFlight.release(batchPageIndexList.size());
+                    throw e;
+                }
+
+                futureList.add(executor.submit(() -> {
+                    // Prepare the pages, they are released as soon as they are written
+                    List<Path> imageFileList = new ArrayList<>();
+                    List<Integer> recognizedIndexList = new ArrayList<>();
+                    List<String> contentList = new ArrayList<>(Collections.nCopies(imageList.size(), ""));
+                    int releasedCount = 0;
+                    try {
+                        for (BufferedImage image : imageList) {
+                            if (!isCancelled(fileId)) {
+                                if (ImageUtil.isBlank(image)) {
+                                    blankPageCount.incrementAndGet();
+                                    blankPageCounter.incrementAndGet();
+                                } else {
+                                    imageFileList.add(prepareImage(image, DPI));
+                                    recognizedIndexList.add(releasedCount);
+                                }
+                            }
+                            image.flush();
+                            inFlight.release();
+                            releasedCount++;
+                        }
+
+                        if (!imageFileList.isEmpty() && !isCancelled(fileId)) {
+                            log.info("OCR pages " + (batchPageIndexList.get(0) + 1) + "-" + (batchPageIndexList.get(batchPageIndexList.size() - 1) + 1)
+                                    + "/" + pdfDocument.getNumberOfPages() + " of PDF file without text");
+                            List<String> recognizedList = recognize(language, imageFileList);
+                            for (int i = 0; i < recognizedIndexList.size(); i++) {
+                                contentList.set(recognizedIndexList.get(i), recognizedList.get(i));
+                            }
+                        }
+                        return contentList;
+                    } finally {
+                        // Release the pages not prepared if something went wrong
+                        for (int i = releasedCount; i < imageList.size(); i++) {
+                            imageList.get(i).flush();
+                            inFlight.release();
+                        }
+                        for (Path imageFile : imageFileList) {
+                            Files.deleteIfExists(imageFile);
+                        }
+                        if (fileId != null) {
+                            FileUtil.updateProcessingProgress(fileId, donePageCount.addAndGet(imageList.size()) * 100 / pageCount);
+                        }
+                    }
+                }));
+            }
+
+            // Collect the pages in order
+            Map<Integer, String> contentMap = new LinkedHashMap<>();
+            int pageIndex = 0;
+            for (Future<List<String>> future : futureList) {
+                try {
+                    for (String content : future.get()) {
+                        contentMap.put(pageIndexList.get(pageIndex++), content);
+                    }
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            if (isCancelled(fileId)) {
+                return null;
+            }
+
+            log.info(MessageFormat.format("OCR done for file {0}: {1} pages with text, {2} pages recognized, {3} blank pages skipped",
+                    fileId, pdfDocument.getNumberOfPages() - pageCount, pageCount - blankPageCount.get(), blankPageCount.get()));
+            return new PdfResult(contentMap, pageCount - blankPageCount.get(), blankPageCount.get());
+        } finally {
+            // Drop the pages not recognized yet if something went wrong
+            for (Future<List<String>> future : futureList) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Prepare an image for the OCR engine and write it to a temporary file.
+     *
+     * @param image Image, flushed
+     * @param dpi Resolution of the image, 0 if unknown
+     * @return Prepared image file
+     * @throws Exception e
+     */
+    private static Path prepareImage(BufferedImage image, int dpi) throws Exception {
+        BufferedImage preparedImage = OcrPreprocessor.preprocess(image, dpi);
+        Path imageFile = AppContext.getInstance().getFileService().createTemporaryFile();
+        try {
+            ImageIO.write(preparedImage, "tiff", imageFile.toFile());
+        } finally {
+            preparedImage.flush();
+        }
+        return imageFile;
+    }
+
+    /**
+     * Recognize prepared images with the OCR engine.
+     *
+     * @param language Language to OCR
+     * @param imageFileList Prepared image files
+     * @return Text of each image
+     * @throws Exception e
+     */
+    private static List<String> recognize(String language, List<Path> imageFileList) throws Exception {
+        long startTime = System.currentTimeMillis();
+        List<String> contentList = engine.recognize(language, imageFileList, PAGE_TIMEOUT);
+        long pageDuration = (System.currentTimeMillis() - startTime) / imageFileList.size();
+        for (int i = 0; i < imageFileList.size(); i++) {
+            MetricsUtil.recordHistogram("ocr.page_ms", pageDuration, PAGE_DURATION_BOUNDS);
+        }
+        pageCounter.addAndGet(imageFileList.size());
+        return contentList;
+    }
+
+    /**
+     * Returns true if the processing of a file has been cancelled.
+     *
+     * @param fileId File ID, can be null
+     * @return True if cancelled
+     */
+    private static boolean isCancelled(String fileId) {
+        return fileId != null && !FileUtil.isProcessingFile(fileId);
+    }
+
+    /**
+     * OCR of the pages of a PDF document.
+     */
+    public static class PdfResult {
+        /**
+         * Content extracted by page index, empty for the blank pages.
+         */
+        private final Map<Integer, String> contentMap;
+
+        /**
+         * Number of pages recognized by the OCR engine.
+         */
+        private final int recognizedPageCount;
+
+        /**
+         * Number of blank pages skipped.
+         */
+        private final int blankPageCount;
+
+        PdfResult(Map<Integer, String> contentMap, int recognizedPageCount, int blankPageCount) {
+            this.contentMap = contentMap;
+            this.recognizedPageCount = recognizedPageCount;
+            this.blankPageCount = blankPageCount;
+        }
+
+        public Map<Integer, String> getContentMap() {
+            return contentMap;
+        }
+
+        public int getRecognizedPageCount() {
+            return recognizedPageCount;
+        }
+
+        public int getBlankPageCount() {
+            return blankPageCount;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Semaphore;
 
 /**
  * PDF utilities.
@@ -39,6 +40,13 @@ public class PdfUtil {
      */
     private static final Logger log = LoggerFactory.getLogger(PdfUtil.class);
 
+    /**
+     * Room left for running conversions.
+     * The conversions are CPU-bound, and not bounded by the request threads when they are virtual.
+     */
+    private static final Semaphore conversionPermits = new Semaphore(
+            Integer.getInteger("docs.pdf.concurrency", Runtime.getRuntime().availableProcessors()));
+
     /**
      * Convert a document and its files to a merged PDF file.
      * 
@@ -51,6 +59,26 @@ public class PdfUtil {
      */
     public static void convertToPdf(DocumentDto documentDto, List<File> fileList,
             boolean fitImageToPage, boolean metadata, int margin, OutputStream outputStream) throws Exception {
+        conversionPermits.acquire();
+        try {
+            writePdf(documentDto, fileList, fitImageToPage, metadata, margin, outputStream);
+        } finally {
+            conversionPermits.release();
+        }
+    }
+
+    /**
+     * Write a document and its files as a merged PDF file.
+     *
+     * @param documentDto Document DTO
+     * @param fileList List of files
+     * @param fitImageToPage Fit images to the page
+     * @param metadata Add a page with metadata
+     * @param margin Margins in millimeters
+     * @param outputStream Output stream to write to, will be closed
+     */
+    private static void writePdf(DocumentDto documentDto, List<File> fileList,
+            boolean fitImageToPage, boolean metadata, int margin, OutputStream outputStream) throws Exception {
         // Setup PDFBox
         Closer closer = Closer.create();
         MemoryUsageSetting memUsageSettings = MemoryUsageSetting.setupMixed(1000000); // 1MB max memory usage
@@ -103,7 +131,7 @@ public class PdfUtil {
             
             // Add files
             for (File file : fileList) {
-                Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
+                Path storedFile = StorageUtil.getStoredFile(file, null);
 
                 // Decrypt the file to a temporary file
                 Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, file.getPrivateKey());
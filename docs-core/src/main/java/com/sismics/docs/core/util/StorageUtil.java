@@ -0,0 +1,254 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.StorageBlobDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.storage.FileSystemStorageBackend;
+import com.sismics.docs.core.util.storage.StorageBackend;
+import com.sismics.util.context.ThreadLocalContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage utilities.
+ * The files are stored encrypted as blobs named after their content and the key of their creator,
+ * the identical files of a user are stored once. The web image and the thumbnail of a file
+ * are stored next to it, with the _web and _thumb suffixes.
+ * The files created before are stored by ID at the root of the storage directory, until they are migrated.
+ *
+ * @author bgamard
+ */
+public class StorageUtil {
+    /**
+     * Suffixes of the stored files of a file.
+     */
+    private static final String[] SUFFIXES = { "", "_web", "_thumb" };
+
+    /**
+     * Storage backend.
+     */
+    private static volatile StorageBackend backend = new FileSystemStorageBackend();
+
+    /**
+     * Replace the storage backend.
+     *
+     * @param storageBackend Storage backend
+     * @return Previous storage backend
+     */
+    static StorageBackend setBackend(StorageBackend storageBackend) {
+        StorageBackend previousBackend = backend;
+        backend = storageBackend;
+        return previousBackend;
+    }
+
+    /**
+     * Returns the storage backend.
+     *
+     * @return Storage backend
+     */
+    public static StorageBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Returns the storage key of a content.
+     * The content hash is keyed by the private key, so that the content of a blob can't be guessed from its name.
+     *
+     * @param privateKey Private key of the creator of the file
+     * @param contentHash SHA-256 of the unencrypted content
+     * @return Storage key
+     */
+    public static String getStorageKey(String privateKey, String contentHash) {
+        return Hashing.hmacSha256(privateKey.getBytes(StandardCharsets.UTF_8))
+                .hashString(contentHash, StandardCharsets.UTF_8)
+                .toString();
+    }
+
+    /**
+     * Returns the stored file of a file.
+     *
+     * @param file File
+     * @param size Size (web or thumb), null for the original file
+     * @return Stored file, may not exist
+     */
+    public static Path getStoredFile(File file, String size) {
+        String suffix = size == null ? "" : "_" + size;
+        if (file.getStorageKey() == null) {
+            return DirectoryUtil.getStorageDirectory().resolve(file.getId() + suffix);
+        }
+        return backend.getPath(file.getStorageKey() + suffix);
+    }
+
+    /**
+     * Create a temporary file, to be stored.
+     *
+     * @return Temporary file
+     * @throws IOException e
+     */
+    public static Path createTemporaryFile() throws IOException {
+        return backend.createTemporaryFile();
+    }
+
+    /**
+     * Store an encrypted file, replacing the existing one.
+     *
+     * @param encryptedFile Encrypted temporary file, moved to the storage
+     * @param file File
+     * @param size Size (web or thumb), null for the original file
+     * @throws IOException e
+     */
+    public static void store(Path encryptedFile, File file, String size) throws IOException {
+        if (file.getStorageKey() == null) {
+            Files.move(encryptedFile, getStoredFile(file, size), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            backend.store(encryptedFile, file.getStorageKey() + (size == null ? "" : "_" + size));
+        }
+    }
+
+    /**
+     * Delete the stored files of a deleted file, if no other file references them.
+     * This must be called in a transaction. The files stored by ID are deleted once it is committed,
+     * the blob not referenced anymore must then be purged in another transaction.
+     *
+     * @param file Deleted file
+     * @return Storage key of the blob to purge, null if there is none
+     */
+    public static String delete(File file) {
+        String storageKey = file.getStorageKey();
+        if (storageKey != null) {
+            // The reference is released once, even if the file is deleted again
+            if (new FileDao().clearStorageKey(file.getId(), storageKey) && new StorageBlobDao().release(storageKey)) {
+                return storageKey;
+            }
+            return null;
+        }
+
+        ThreadLocalContext.get().addAfterCommit(() -> {
+            for (String suffix : SUFFIXES) {
+                try {
+                    Files.deleteIfExists(DirectoryUtil.getStorageDirectory().resolve(file.getId() + suffix));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        return null;
+    }
+
+    /**
+     * Delete a blob and its stored files, if it is still not referenced.
+     * This must be called in a transaction, after the commit of the one which released the blob.
+     * The blob stays locked until the transaction is committed, a file acquiring it meanwhile
+     * waits and stores its content again.
+     *
+     * @param storageKey Storage key
+     * @throws IOException e
+     */
+    public static void purge(String storageKey) throws IOException {
+        if (!new StorageBlobDao().deleteUnreferenced(storageKey)) {
+            // Acquired again since then
+            return;
+        }
+
+        for (String suffix : SUFFIXES) {
+            backend.delete(storageKey + suffix);
+        }
+    }
+
+    /**
+     * Move the stored files of a file stored by ID to the blobs.
+     * This must be called in a transaction. The files stored by ID are copied, they must be deleted
+     * once the transaction is committed.
+     *
+     * @param fileId File ID
+     * @return Files stored by ID to delete, empty if the file has not been migrated
+     * @throws IOException e
+     */
+    public static List<Path> migrate(String fileId) throws IOException {
+        List<Path> legacyFileList = new ArrayList<>();
+        FileDao fileDao = new FileDao();
+        File file = fileDao.getActiveById(fileId);
+        if (file == null || file.getStorageKey() != null) {
+            return legacyFileList;
+        }
+        Path legacyFile = getStoredFile(file, null);
+        if (!Files.exists(legacyFile)) {
+            return legacyFileList;
+        }
+
+        // The files created before the content hash was introduced must be read
+        User user = new UserDao().getById(file.getUserId());
+        String contentHash = file.getContentHash();
+        if (contentHash == null) {
+            Hasher hasher = Hashing.sha256().newHasher();
+            try (InputStream inputStream = decryptInputStream(legacyFile, user.getPrivateKey())) {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = inputStream.read(buffer)) != -1) {
+                    hasher.putBytes(buffer, 0, n);
+                }
+            }
+            contentHash = hasher.hash().toString();
+        }
+
+        // The file may have been deleted since then
+        String storageKey = getStorageKey(user.getPrivateKey(), contentHash);
+        if (!fileDao.updateStorageKey(fileId, contentHash, storageKey)) {
+            return legacyFileList;
+        }
+        boolean newContent = new StorageBlobDao().acquire(storageKey);
+
+        for (String suffix : SUFFIXES) {
+            Path storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId + suffix);
+            if (!Files.exists(storedFile)) {
+                continue;
+            }
+            legacyFileList.add(storedFile);
+            if (!newContent && Files.exists(backend.getPath(storageKey + suffix))) {
+                // Already stored by an identical file
+                continue;
+            }
+
+            // Hard link the file if possible, the blob has the same content
+            Path tmpFile = backend.createTemporaryFile();
+            Files.delete(tmpFile);
+            try {
+                Files.createLink(tmpFile, storedFile);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(storedFile, tmpFile);
+            }
+            backend.store(tmpFile, storageKey + suffix);
+        }
+        return legacyFileList;
+    }
+
+    /**
+     * Open a decrypted stored file.
+     *
+     * @param storedFile Stored file
+     * @param privateKey Private key
+     * @return Unencrypted content
+     * @throws IOException e
+     */
+    private static InputStream decryptInputStream(Path storedFile, String privateKey) throws IOException {
+        InputStream inputStream = Files.newInputStream(storedFile);
+        try {
+            return EncryptionUtil.decryptInputStream(inputStream, privateKey);
+        } catch (Exception e) {
+            inputStream.close();
+            throw new IOException("Error decrypting the stored file " + storedFile, e);
+        }
+    }
+}
@@ -77,10 +77,12 @@ public class TransactionUtil {
                 }
             }
         }
+        context.runAfterCommit();
 
         // Fire all pending async events after request transaction commit.
         // This way, all modifications done during this request are available in the listeners.
-        context.fireAllAsyncEvents();
+        // Background transactions (inbox, listeners) are bulk operations.
+        context.fireAllAsyncEvents(true);
 
         ThreadLocalContext.cleanup();
     }
@@ -91,6 +93,30 @@ public class TransactionUtil {
     public static void commit() {
         EntityTransaction tx = ThreadLocalContext.get().getEntityManager().getTransaction();
         tx.commit();
+        ThreadLocalContext.get().runAfterCommit();
         tx.begin();
     }
+
+    /**
+     * Commits the current transaction and closes it, so that its database connection is released.
+     * Used before a long operation not needing the database anymore, e.g. streaming a response body.
+     */
+    public static void commitAndClose() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        if (em == null || !em.isOpen()) {
+            return;
+        }
+
+        try {
+            if (em.getTransaction() != null && em.getTransaction().isActive()) {
+                em.getTransaction().commit();
+            }
+        } finally {
+            em.close();
+
+            // The closed entity manager can't be used anymore by this request
+            ThreadLocalContext.get().setEntityManager(null);
+        }
+        ThreadLocalContext.get().runAfterCommit();
+    }
 }
@@ -6,10 +6,9 @@ import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
 import com.sismics.docs.core.util.FileUtil;
-import com.sismics.util.context.ThreadLocalContext;
+import com.sismics.docs.core.util.StorageUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,17 +39,16 @@ public class ProcessFilesAction implements Action {
                 User user = userDao.getById(file.getUserId());
 
                 // Decrypt the file
-                Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
+                Path storedFile = StorageUtil.getStoredFile(file, null);
                 Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
 
                 // Start the asynchronous processing
-                FileUtil.startProcessingFile(file.getId());
                 FileUpdatedAsyncEvent event = new FileUpdatedAsyncEvent();
                 event.setUserId("admin");
                 event.setLanguage(documentDto.getLanguage());
                 event.setFileId(file.getId());
                 event.setUnencryptedFile(unencryptedFile);
-                ThreadLocalContext.get().addAsyncEvent(event);
+                FileUtil.queueProcessingFile(event);
             }
         } catch (Exception e) {
             log.error("Error processing a file", e);
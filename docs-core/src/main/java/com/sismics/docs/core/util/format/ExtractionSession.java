@@ -0,0 +1,77 @@
+package com.sismics.docs.core.util.format;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * A file opened once to generate its thumbnail and extract its content.
+ *
+ * @author bgamard
+ */
+public interface ExtractionSession extends AutoCloseable {
+    /**
+     * Generate a thumbnail.
+     *
+     * @param size Size of the largest side of the thumbnail needed (in pixels)
+     * @return Thumbnail
+     * @throws Exception e
+     */
+    BufferedImage generateThumbnail(int size) throws Exception;
+
+    /**
+     * Extract text content.
+     *
+     * @param language Language
+     * @param fileId ID of the processed file, used to report the progress, can be null
+     * @return Text content
+     * @throws Exception e
+     */
+    String extractContent(String language, String fileId) throws Exception;
+
+    /**
+     * Returns the number of pages.
+     *
+     * @return Number of pages
+     * @throws Exception e
+     */
+    int getPageCount() throws Exception;
+
+    /**
+     * Returns the indexes of the pages without text, which need to be OCR-ized.
+     *
+     * @return Page indexes (from 0)
+     * @throws Exception e
+     */
+    List<Integer> getOcrCandidatePages() throws Exception;
+
+    /**
+     * Returns true if the OCR failed during the last content extraction,
+     * the content returned is then incomplete.
+     *
+     * @return True if the OCR failed
+     */
+    default boolean isOcrFailed() {
+        return false;
+    }
+
+    /**
+     * Returns the number of pages recognized by the OCR during the last content extraction.
+     *
+     * @return Number of pages
+     */
+    default int getOcrPageCount() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of blank pages not sent to the OCR during the last content extraction.
+     *
+     * @return Number of pages
+     */
+    default int getSkippedPageCount() {
+        return 0;
+    }
+
+    @Override
+    void close() throws Exception;
+}
@@ -0,0 +1,53 @@
+package com.sismics.docs.core.util.format;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Extraction session of a single page file, delegating to its format handler.
+ *
+ * @author bgamard
+ */
+class FileExtractionSession implements ExtractionSession {
+    /**
+     * Format handler.
+     */
+    private final FormatHandler formatHandler;
+
+    /**
+     * File.
+     */
+    private final Path file;
+
+    FileExtractionSession(FormatHandler formatHandler, Path file) {
+        this.formatHandler = formatHandler;
+        this.file = file;
+    }
+
+    @Override
+    public BufferedImage generateThumbnail(int size) throws Exception {
+        return formatHandler.generateThumbnail(file, size);
+    }
+
+    @Override
+    public String extractContent(String language, String fileId) throws Exception {
+        return formatHandler.extractContent(language, file, fileId);
+    }
+
+    @Override
+    public int getPageCount() {
+        return 1;
+    }
+
+    @Override
+    public List<Integer> getOcrCandidatePages() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void close() {
+        // Nothing is kept open
+    }
+}
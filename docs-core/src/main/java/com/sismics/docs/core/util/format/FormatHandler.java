@@ -30,6 +30,19 @@ public interface FormatHandler {
      */
     BufferedImage generateThumbnail(Path file) throws Exception;
 
+    /**
+     * Generate a thumbnail of a maximum useful size.
+     * The thumbnail can be larger, formats able to decode a smaller image use less memory and time.
+     *
+     * @param file File
+     * @param size Size of the largest side of the thumbnail needed (in pixels)
+     * @return Thumbnail
+     * @throws Exception e
+     */
+    default BufferedImage generateThumbnail(Path file, int size) throws Exception {
+        return generateThumbnail(file);
+    }
+
     /**
      * Extract text content.
      *
@@ -40,6 +53,31 @@ public interface FormatHandler {
      */
     String extractContent(String language, Path file) throws Exception;
 
+    /**
+     * Extract text content of a file being processed.
+     * Long extractions report their progress and stop early if the processing is cancelled.
+     *
+     * @param language Language
+     * @param file File
+     * @param fileId ID of the processed file
+     * @return Text content
+     * @throws Exception e
+     */
+    default String extractContent(String language, Path file, String fileId) throws Exception {
+        return extractContent(language, file);
+    }
+
+    /**
+     * Open a file to generate its thumbnail and extract its content from a single parse.
+     *
+     * @param file File
+     * @return Extraction session, to close
+     * @throws Exception e
+     */
+    default ExtractionSession openSession(Path file) throws Exception {
+        return new FileExtractionSession(this, file);
+    }
+
     /**
      * Append to a PDF.
      *
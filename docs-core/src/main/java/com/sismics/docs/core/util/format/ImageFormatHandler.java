@@ -2,9 +2,10 @@ package com.sismics.docs.core.util.format;
 
 import com.google.common.io.Closer;
 import com.sismics.docs.core.constant.Constants;
-import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.OcrUtil;
 import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.util.ImageUtil;
 import com.sismics.util.mime.MimeType;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -44,6 +45,11 @@ public class ImageFormatHandler implements FormatHandler {
         }
     }
 
+    @Override
+    public BufferedImage generateThumbnail(Path file, int size) throws Exception {
+        return ImageUtil.readSubsampled(file, size);
+    }
+
     @Override
     public String extractContent(String language, Path file) throws Exception {
         if (language == null || !ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true)) {
@@ -51,7 +57,7 @@ public class ImageFormatHandler implements FormatHandler {
         }
 
         try (InputStream inputStream = Files.newInputStream(file)) {
-            return FileUtil.ocrFile(language, ImageIO.read(inputStream));
+            return OcrUtil.ocrImage(language, ImageIO.read(inputStream), 0);
         }
     }
 
@@ -1,23 +1,25 @@
 package com.sismics.docs.core.util.format;
 
 import com.google.common.io.Closer;
-import com.sismics.docs.core.util.FileUtil;
 import com.sismics.docs.core.util.ConfigUtil;
+import com.sismics.docs.core.util.OcrUtil;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.util.mime.MimeType;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.image.BufferedImage;
-import java.io.InputStream;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * PDF format handler.
@@ -37,41 +39,29 @@ public class PdfFormatHandler implements FormatHandler {
 
     @Override
     public BufferedImage generateThumbnail(Path file) throws Exception {
-        try (InputStream inputStream = Files.newInputStream(file);
-             PDDocument pdfDocument = PDDocument.load(inputStream)) {
-            PDFRenderer renderer = new PDFRenderer(pdfDocument);
-            return renderer.renderImage(0);
+        try (ExtractionSession session = openSession(file)) {
+            return session.generateThumbnail(Integer.MAX_VALUE);
         }
     }
 
     @Override
     public String extractContent(String language, Path file) {
-        String content = null;
-        try (InputStream inputStream = Files.newInputStream(file);
-             PDDocument pdfDocument = PDDocument.load(inputStream)) {
-            content = new PDFTextStripper().getText(pdfDocument);
-        } catch (Exception e) {
-            log.error("Error while extracting text from the PDF", e);
-        }
+        return extractContent(language, file, null);
+    }
 
-        // No text content, try to OCR it
-        if (language != null && content != null && content.trim().isEmpty() && ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true)) {
-            StringBuilder sb = new StringBuilder();
-            try (InputStream inputStream = Files.newInputStream(file);
-                 PDDocument pdfDocument = PDDocument.load(inputStream)) {
-                PDFRenderer renderer = new PDFRenderer(pdfDocument);
-                for (int pageIndex = 0; pageIndex < pdfDocument.getNumberOfPages(); pageIndex++) {
-                    log.info("OCR page " + (pageIndex + 1) + "/" + pdfDocument.getNumberOfPages() + " of PDF file containing only images");
-                    sb.append(" ");
-                    sb.append(FileUtil.ocrFile(language, renderer.renderImageWithDPI(pageIndex, 300, ImageType.GRAY)));
-                }
-                return sb.toString();
-            } catch (Exception e) {
-                log.error("Error while OCR-izing the PDF", e);
-            }
+    @Override
+    public String extractContent(String language, Path file, String fileId) {
+        try (ExtractionSession session = openSession(file)) {
+            return session.extractContent(language, fileId);
+        } catch (Exception e) {
+            log.error("Error while opening the PDF", e);
+            return null;
         }
+    }
 
-        return content;
+    @Override
+    public ExtractionSession openSession(Path file) throws Exception {
+        return new PdfExtractionSession(file);
     }
 
     @Override
@@ -81,4 +71,180 @@ public class PdfFormatHandler implements FormatHandler {
         PDFMergerUtility pdfMergerUtility = new PDFMergerUtility();
         pdfMergerUtility.appendDocument(doc, mergeDoc);
     }
+
+    /**
+     * Extraction session on a PDF loaded once.
+     * The document is read from the file and its scratch data is kept in a temporary file,
+     * so the heap used doesn't depend on the size of the PDF.
+     * The text of the pages is extracted, and only the pages without text are OCR-ized.
+     */
+    private static class PdfExtractionSession implements ExtractionSession {
+        /**
+         * PDF document.
+         */
+        private final PDDocument pdfDocument;
+
+        /**
+         * Text of each page, extracted on demand.
+         */
+        private List<String> pageTextList;
+
+        /**
+         * Whole text, extracted on demand.
+         */
+        private String text;
+
+        /**
+         * Separator written by the text stripper between the pages.
+         */
+        private String pageSeparator;
+
+        /**
+         * True if the OCR failed during the last content extraction.
+         */
+        private boolean ocrFailed;
+
+        /**
+         * Number of pages recognized by the OCR during the last content extraction.
+         */
+        private int ocrPageCount;
+
+        /**
+         * Number of blank pages skipped by the OCR during the last content extraction.
+         */
+        private int skippedPageCount;
+
+        PdfExtractionSession(Path file) throws IOException {
+            pdfDocument = PDDocument.load(file.toFile(), MemoryUsageSetting.setupTempFileOnly());
+        }
+
+        @Override
+        public BufferedImage generateThumbnail(int size) throws Exception {
+            // The first page at 72 DPI is already smaller than the useful sizes
+            return new PDFRenderer(pdfDocument).renderImage(0);
+        }
+
+        @Override
+        public String extractContent(String language, String fileId) {
+            ocrFailed = false;
+            ocrPageCount = 0;
+            skippedPageCount = 0;
+            List<Integer> pageIndexList;
+            try {
+                pageIndexList = getOcrCandidatePages();
+            } catch (Exception e) {
+                log.error("Error while extracting text from the PDF", e);
+                return null;
+            }
+
+            // OCR only the pages without text
+            if (pageIndexList.isEmpty() || language == null || !ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true)) {
+                return text;
+            }
+            OcrUtil.PdfResult ocrResult;
+            try {
+                ocrResult = OcrUtil.ocrPdf(language, pdfDocument, pageIndexList, fileId);
+            } catch (Exception e) {
+                log.error("Error while OCR-izing the PDF", e);
+                ocrFailed = true;
+                return text;
+            }
+            if (ocrResult == null) {
+                // The processing has been cancelled
+                return null;
+            }
+            ocrPageCount = ocrResult.getRecognizedPageCount();
+            skippedPageCount = ocrResult.getBlankPageCount();
+
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < pageTextList.size(); i++) {
+                String ocrContent = ocrResult.getContentMap().get(i);
+                if (ocrContent == null) {
+                    sb.append(pageTextList.get(i));
+                } else {
+                    sb.append(pageSeparator).append(ocrContent).append(pageSeparator);
+                }
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public int getPageCount() {
+            return pdfDocument.getNumberOfPages();
+        }
+
+        @Override
+        public List<Integer> getOcrCandidatePages() throws IOException {
+            extractText();
+            List<Integer> pageIndexList = new ArrayList<>();
+            for (int i = 0; i < pageTextList.size(); i++) {
+                if (pageTextList.get(i).trim().isEmpty()) {
+                    pageIndexList.add(i);
+                }
+            }
+            return pageIndexList;
+        }
+
+        @Override
+        public boolean isOcrFailed() {
+            return ocrFailed;
+        }
+
+        @Override
+        public int getOcrPageCount() {
+            return ocrPageCount;
+        }
+
+        @Override
+        public int getSkippedPageCount() {
+            return skippedPageCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            pdfDocument.close();
+        }
+
+        /**
+         * Extract the text of the document, split by pages.
+         *
+         * @throws IOException e
+         */
+        private void extractText() throws IOException {
+            if (text != null) {
+                return;
+            }
+
+            StringWriter writer = new StringWriter();
+            String[] pageTexts = new String[pdfDocument.getNumberOfPages()];
+            PDFTextStripper stripper = new PDFTextStripper() {
+                /**
+                 * Offset of the current page in the whole text.
+                 */
+                private int pageStart;
+
+                @Override
+                protected void startPage(PDPage page) throws IOException {
+                    super.startPage(page);
+                    pageStart = writer.getBuffer().length();
+                }
+
+                @Override
+                protected void endPage(PDPage page) throws IOException {
+                    pageTexts[getCurrentPageNo() - 1] = writer.getBuffer().substring(pageStart);
+                    super.endPage(page);
+                }
+            };
+            stripper.writeText(pdfDocument, writer);
+            pageSeparator = stripper.getPageEnd();
+
+            // The pages skipped by the stripper have no text
+            List<String> pageTextList = new ArrayList<>(pageTexts.length);
+            for (String pageText : pageTexts) {
+                pageTextList.add(pageText == null ? "" : pageText);
+            }
+            this.pageTextList = pageTextList;
+            text = writer.toString();
+        }
+    }
 }
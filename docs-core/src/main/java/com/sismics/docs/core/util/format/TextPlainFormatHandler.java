@@ -1,15 +1,17 @@
 package com.sismics.docs.core.util.format;
 
 import com.google.common.io.Closer;
-import com.lowagie.text.*;
-import com.lowagie.text.pdf.PdfWriter;
-import com.sismics.docs.core.model.context.AppContext;
+import com.google.common.io.Resources;
 import com.sismics.util.mime.MimeType;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.OutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -20,6 +22,31 @@ import java.nio.file.Path;
  * @author bgamard
  */
 public class TextPlainFormatHandler implements FormatHandler {
+    /**
+     * Default maximum number of characters extracted from a file.
+     */
+    private static final int DEFAULT_MAX_CONTENT_LENGTH = 1000000;
+
+    /**
+     * Thumbnail page width (A4 at 72 DPI).
+     */
+    private static final int PAGE_WIDTH = 595;
+
+    /**
+     * Thumbnail page height (A4 at 72 DPI).
+     */
+    private static final int PAGE_HEIGHT = 842;
+
+    /**
+     * Thumbnail page margin.
+     */
+    private static final int PAGE_MARGIN = 40;
+
+    /**
+     * Thumbnail font, loaded once.
+     */
+    private static Font font;
+
     @Override
     public boolean accept(String mimeType) {
         return mimeType.equals(MimeType.TEXT_CSV) || mimeType.equals(MimeType.TEXT_PLAIN);
@@ -27,30 +54,85 @@ public class TextPlainFormatHandler implements FormatHandler {
 
     @Override
     public BufferedImage generateThumbnail(Path file) throws Exception {
-        Document output = new Document(PageSize.A4, 40, 40, 40, 40);
-        Path tempFile = AppContext.getInstance().getFileService().createTemporaryFile();
-        OutputStream pdfOutputStream = Files.newOutputStream(tempFile);
-        PdfWriter.getInstance(output, pdfOutputStream);
-
-        output.open();
-        String content = Files.readString(file, StandardCharsets.UTF_8);
-        Font font = FontFactory.getFont("LiberationMono-Regular");
-        Paragraph paragraph = new Paragraph(content, font);
-        paragraph.setAlignment(Element.ALIGN_LEFT);
-        output.add(paragraph);
-        output.close();
-
-        // Use the PDF format handler
-        return new PdfFormatHandler().generateThumbnail(tempFile);
+        BufferedImage image = new BufferedImage(PAGE_WIDTH, PAGE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, PAGE_WIDTH, PAGE_HEIGHT);
+            graphics.setColor(Color.BLACK);
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            graphics.setFont(getFont());
+            FontMetrics metrics = graphics.getFontMetrics();
+
+            // Read only what fits on the page
+            int lineCount = (PAGE_HEIGHT - 2 * PAGE_MARGIN) / metrics.getHeight();
+            int columnCount = (PAGE_WIDTH - 2 * PAGE_MARGIN) / metrics.charWidth('m');
+            String text = read(file, lineCount * (columnCount + 2));
+
+            // Draw the lines, wrapping the long ones
+            int y = PAGE_MARGIN + metrics.getAscent();
+            int drawnLineCount = 0;
+            for (String line : text.replace("\t", "    ").split("\r?\n", -1)) {
+                do {
+                    if (drawnLineCount++ >= lineCount) {
+                        return image;
+                    }
+                    String drawnLine = line.substring(0, Math.min(line.length(), columnCount));
+                    graphics.drawString(drawnLine, PAGE_MARGIN, y);
+                    y += metrics.getHeight();
+                    line = line.substring(drawnLine.length());
+                } while (!line.isEmpty());
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return image;
     }
 
     @Override
     public String extractContent(String language, Path file) throws Exception {
-        return Files.readString(file, StandardCharsets.UTF_8);
+        return read(file, Integer.getInteger("docs.text.max_content_length", DEFAULT_MAX_CONTENT_LENGTH));
     }
 
     @Override
     public void appendToPdf(Path file, PDDocument doc, boolean fitImageToPage, int margin, MemoryUsageSetting memUsageSettings, Closer closer) {
         // TODO Append the text file to the PDF
     }
+
+    /**
+     * Read the beginning of a text file.
+     * The invalid UTF-8 sequences are replaced.
+     *
+     * @param file File
+     * @param maxLength Maximum number of characters
+     * @return Text
+     * @throws IOException e
+     */
+    private static String read(Path file, int maxLength) throws IOException {
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int n;
+            while (sb.length() < maxLength
+                    && (n = reader.read(buffer, 0, Math.min(buffer.length, maxLength - sb.length()))) != -1) {
+                sb.append(buffer, 0, n);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Returns the thumbnail font.
+     *
+     * @return Font
+     * @throws Exception e
+     */
+    private static synchronized Font getFont() throws Exception {
+        if (font == null) {
+            try (InputStream inputStream = Resources.getResource("fonts/LiberationMono-Regular.ttf").openStream()) {
+                font = Font.createFont(Font.TRUETYPE_FONT, inputStream).deriveFont(12f);
+            }
+        }
+        return font;
+    }
 }
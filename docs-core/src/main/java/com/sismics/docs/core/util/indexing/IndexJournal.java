@@ -0,0 +1,151 @@
+package com.sismics.docs.core.util.indexing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Journal of the IDs indexed since the last Lucene commit.
+ * Used to replay uncommitted changes after a crash.
+ *
+ * @author bgamard
+ */
+public class IndexJournal {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(IndexJournal.class);
+
+    /**
+     * Current journal file.
+     */
+    private final Path journalFile;
+
+    /**
+     * Journal file being committed.
+     */
+    private final Path rotatedJournalFile;
+
+    /**
+     * Current journal writer.
+     */
+    private BufferedWriter writer;
+
+    /**
+     * Create a journal.
+     *
+     * @param directory Directory holding the journal files
+     */
+    public IndexJournal(Path directory) {
+        this.journalFile = directory.resolve("nrt.journal");
+        this.rotatedJournalFile = directory.resolve("nrt.journal.commit");
+    }
+
+    /**
+     * Read all IDs journaled and not yet committed.
+     *
+     * @return Set of IDs
+     * @throws IOException e
+     */
+    public synchronized Set<String> readPending() throws IOException {
+        Set<String> idSet = new LinkedHashSet<>();
+        for (Path path : new Path[] { rotatedJournalFile, journalFile }) {
+            if (Files.exists(path)) {
+                for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                    if (!line.isEmpty()) {
+                        idSet.add(line);
+                    }
+                }
+            }
+        }
+        return idSet;
+    }
+
+    /**
+     * Append IDs to the journal.
+     *
+     * @param idList IDs
+     */
+    public synchronized void append(Collection<String> idList) {
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            for (String id : idList) {
+                writer.write(id);
+                writer.newLine();
+            }
+            writer.flush();
+        } catch (IOException e) {
+            log.error("Error writing to the index journal", e);
+        }
+    }
+
+    /**
+     * Set aside the current journal before a commit.
+     * Entries already set aside by a failed commit are kept.
+     *
+     * @throws IOException e
+     */
+    public synchronized void rotate() throws IOException {
+        closeWriter();
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        if (Files.exists(rotatedJournalFile)) {
+            Files.write(rotatedJournalFile, Files.readAllBytes(journalFile), StandardOpenOption.APPEND);
+            Files.delete(journalFile);
+        } else {
+            Files.move(journalFile, rotatedJournalFile, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Forget the journal set aside, its entries have been committed.
+     *
+     * @throws IOException e
+     */
+    public synchronized void committed() throws IOException {
+        Files.deleteIfExists(rotatedJournalFile);
+    }
+
+    /**
+     * Delete all journal files.
+     *
+     * @throws IOException e
+     */
+    public synchronized void clear() throws IOException {
+        closeWriter();
+        Files.deleteIfExists(journalFile);
+        Files.deleteIfExists(rotatedJournalFile);
+    }
+
+    /**
+     * Close the journal writer.
+     */
+    public synchronized void close() {
+        try {
+            closeWriter();
+        } catch (IOException e) {
+            log.error("Error closing the index journal", e);
+        }
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
@@ -36,23 +36,43 @@ public interface IndexingHandler {
     void shutDown();
 
     /**
-     * Clear the index.
+     * Start rebuilding the index side by side.
+     * The current index is still searched and updated until the rebuild is finished.
+     *
+     * @throws Exception e
+     */
+    void startRebuild() throws Exception;
+
+    /**
+     * Index a list of documents in the rebuilt index.
+     * May be called concurrently.
+     *
+     * @param documentList List of documents
+     * @throws Exception e
      */
-    void clearIndex();
+    void rebuildDocuments(List<Document> documentList) throws Exception;
 
     /**
-     * Index a list of documents.
+     * Index a list of files in the rebuilt index.
+     * May be called concurrently.
      *
-     * @param documentList All documents
+     * @param fileList List of files
+     * @throws Exception e
      */
-    void createDocuments(List<Document> documentList);
+    void rebuildFiles(List<File> fileList) throws Exception;
 
     /**
-     * Index a list of files.
+     * Replace the current index by the rebuilt one.
+     * The changes made during the rebuild are written again from the database.
      *
-     * @param fileList All files
+     * @throws Exception e
+     */
+    void finishRebuild() throws Exception;
+
+    /**
+     * Cancel the rebuild, the current index is kept.
      */
-    void createFiles(List<File> fileList);
+    void cancelRebuild();
 
     /**
      * Index a new document.
@@ -6,7 +6,12 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
 import com.sismics.docs.core.dao.ConfigDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.FileTextDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.TagDao;
 import com.sismics.docs.core.dao.criteria.DocumentCriteria;
 import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
@@ -14,41 +19,60 @@ import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Config;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.SecurityUtil;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.QueryParam;
+import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.util.ClasspathScanner;
+import com.sismics.util.EnvironmentUtil;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.CheckIndex;
 import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.simple.SimpleQueryParser;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
-import org.apache.lucene.search.spell.LuceneDictionary;
-import org.apache.lucene.search.suggest.Lookup;
-import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.search.join.JoinUtil;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.NIOFSDirectory;
 import org.apache.lucene.store.NoLockFactory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.hibernate.jpa.HibernateHints;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,16 +81,36 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Lucene indexing handler.
- * Documents and files are indexed in Lucene, but only used for fulltext search.
- * Other search criteria are still using the database.
+ * Documents are indexed with their readers, tags, dates, language, creator and MIME types,
+ * so that fulltext searches are filtered, sorted and paginated by Lucene. Only the page returned
+ * is read from the database and highlighted.
+ * The index is searched in near-real-time: changes are made visible by a periodic refresh
+ * and committed on a timer or every N operations. The IDs written since the last commit
+ * are journaled, so that they can be replayed from the database after a crash.
+ * A full rebuild writes a fresh index side by side, which replaces the current one at once:
+ * the current index is still searched and updated during the rebuild.
  *
  * @author bgamard
  */
@@ -77,21 +121,94 @@ public class LuceneIndexingHandler implements IndexingHandler {
      */
     private static final Logger log = LoggerFactory.getLogger(LuceneIndexingHandler.class);
 
+    /**
+     * Version of the indexed fields, stored in the commit data.
+     * An index built with another version is rebuilt.
+     */
+    private static final String INDEX_VERSION = "2";
+
+    /**
+     * Commit data key of the index version.
+     */
+    private static final String INDEX_VERSION_KEY = "index_version";
+
+    /**
+     * Maximum number of fulltext matches passed to the database as parameters.
+     */
+    private static final int MAX_DOCUMENT_ID_PARAMETERS = 1000;
+
+    /**
+     * Number of rows fetched at once when the results are read as a stream.
+     */
+    private static final int FETCH_SIZE = 1000;
+
     /**
      * Lucene directory.
      */
     private Directory directory;
 
     /**
-     * Directory reader.
+     * Near-real-time searcher manager.
      */
-    private DirectoryReader directoryReader;
+    private SearcherManager searcherManager;
 
     /**
      * Index writer.
      */
     private IndexWriter indexWriter;
 
+    /**
+     * Search suggester on document titles.
+     */
+    private TitleSuggester titleSuggester;
+
+    /**
+     * Journal of uncommitted changes (only for file storage).
+     */
+    private IndexJournal indexJournal;
+
+    /**
+     * Executor refreshing the searcher and committing the index.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Maximum search visibility latency (in milliseconds).
+     * Searches refresh synchronously if zero or negative.
+     */
+    private int refreshInterval;
+
+    /**
+     * Number of operations triggering a commit.
+     */
+    private int commitOperations;
+
+    /**
+     * Number of operations since the last commit.
+     */
+    private final AtomicInteger uncommittedOperations = new AtomicInteger();
+
+    /**
+     * Lock held by index writes and refreshes (shared),
+     * and by journal rotation before a commit or index swap after a rebuild (exclusive).
+     */
+    private final ReadWriteLock commitLock = new ReentrantReadWriteLock();
+
+    /**
+     * Directory of the index being rebuilt.
+     */
+    private Directory rebuildDirectory;
+
+    /**
+     * Writer of the index being rebuilt.
+     */
+    private volatile IndexWriter rebuildWriter;
+
+    /**
+     * IDs written in the current index since the rebuild started, null if not rebuilding.
+     */
+    private volatile Set<String> rebuildChangedIdSet;
+
     @Override
     public boolean accept() {
         // Embedded Lucene can always start
@@ -102,9 +219,12 @@ public class LuceneIndexingHandler implements IndexingHandler {
     public void startUp() throws Exception {
         try {
             initLucene();
+            replayJournal();
         } catch (Exception e) {
             // An error occurred initializing Lucene, the index is out of date or broken, delete everything
             log.info("Unable to initialize Lucene, cleaning up the index: " + e.getMessage());
+            shutDownScheduler();
+            shutDownLucene();
             Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
             Files.walk(luceneDirectory)
                     .sorted(Comparator.reverseOrder())
@@ -114,7 +234,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
             // Re-initialize and schedule a full reindex
             initLucene();
             RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
-            AppContext.getInstance().getAsyncEventBus().post(rebuildIndexAsyncEvent);
+            AppContext.getInstance().postAsyncEvent(rebuildIndexAsyncEvent, true);
         }
     }
 
@@ -131,6 +251,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
             Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
             log.info("Using file Lucene storage: {}", luceneDirectory);
             directory = new NIOFSDirectory(luceneDirectory, NoLockFactory.INSTANCE);
+            indexJournal = new IndexJournal(luceneDirectory);
         }
 
         // Create an index writer
@@ -148,17 +269,128 @@ public class LuceneIndexingHandler implements IndexingHandler {
                     throw new Exception("Index is dirty");
                 }
             }
+            String indexVersion = SegmentInfos.readLatestCommit(directory).getUserData().get(INDEX_VERSION_KEY);
+            if (!INDEX_VERSION.equals(indexVersion)) {
+                throw new Exception("Index version " + indexVersion + " is outdated");
+            }
+        } else {
+            indexWriter.setLiveCommitData(getIndexVersionData());
+        }
+
+        // Near-real-time searcher on the index writer
+        searcherManager = new SearcherManager(indexWriter, null);
+        refreshInterval = ConfigUtil.getConfigIntegerValue(ConfigType.LUCENE_REFRESH_INTERVAL, 1000);
+        int commitInterval = ConfigUtil.getConfigIntegerValue(ConfigType.LUCENE_COMMIT_INTERVAL, 60);
+        commitOperations = ConfigUtil.getConfigIntegerValue(ConfigType.LUCENE_COMMIT_OPERATIONS, 1000);
+        if (EnvironmentUtil.isUnitTest()) {
+            // Unit tests expect the changes to be searchable right away
+            refreshInterval = 0;
+        } else {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "lucene-nrt");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (refreshInterval > 0) {
+                scheduler.scheduleWithFixedDelay(this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+            }
+            if (commitInterval > 0) {
+                scheduler.scheduleWithFixedDelay(this::commit, commitInterval, commitInterval, TimeUnit.SECONDS);
+            }
+        }
+        log.info("Lucene refresh interval: {}ms, commit every {}s or {} operations", refreshInterval, commitInterval, commitOperations);
+
+        // Search suggester, stored next to the index
+        titleSuggester = new TitleSuggester(searcherManager,
+                indexJournal == null ? null : DirectoryUtil.getSuggesterDirectory(),
+                ConfigUtil.getConfigIntegerValue(ConfigType.LUCENE_SUGGESTER_REBUILD_CHANGES, 100),
+                EnvironmentUtil.isUnitTest());
+        titleSuggester.startUp();
+    }
+
+    /**
+     * Replay the changes journaled but not committed before the last shutdown.
+     * The current state of each document or file is read from the database.
+     */
+    private void replayJournal() throws Exception {
+        if (indexJournal == null) {
+            return;
+        }
+
+        Set<String> idSet = indexJournal.readPending();
+        if (idSet.isEmpty()) {
+            return;
+        }
+
+        log.info("Replaying {} uncommitted index changes", idSet.size());
+        reindex(indexWriter, idSet);
+        indexWriter.commit();
+        indexJournal.clear();
+        searcherManager.maybeRefresh();
+        titleSuggester.changed(idSet.size());
+    }
+
+    /**
+     * Write the current state of documents or files, read from the database.
+     *
+     * @param indexWriter Index writer
+     * @param idSet IDs of the documents or files
+     * @throws IOException e
+     */
+    private void reindex(IndexWriter indexWriter, Set<String> idSet) throws IOException {
+        DocumentDao documentDao = new DocumentDao();
+        FileDao fileDao = new FileDao();
+        for (String id : idSet) {
+            Document document = documentDao.getById(id);
+            File file = document == null ? fileDao.getActiveById(id) : null;
+            if (document != null) {
+                indexWriter.updateDocument(new Term("id", id), getDocumentsFromDocuments(Lists.newArrayList(document)).get(0));
+            } else if (file != null) {
+                indexWriter.updateDocument(new Term("id", id), getDocumentFromFile(file, new FileTextDao().getContent(id)));
+            } else {
+                indexWriter.deleteDocuments(new Term("id", id));
+            }
         }
     }
 
     @Override
     public void shutDown() {
-        if (directoryReader != null) {
+        cancelRebuild();
+        shutDownScheduler();
+        commit();
+        shutDownLucene();
+    }
+
+    /**
+     * Stop the background refresh and commit.
+     */
+    private void shutDownScheduler() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                // NOP
+            }
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Close the searcher, the index writer and the directory.
+     */
+    private void shutDownLucene() {
+        if (titleSuggester != null) {
+            titleSuggester.close();
+            titleSuggester = null;
+        }
+        if (searcherManager != null) {
             try {
-                directoryReader.close();
+                searcherManager.close();
             } catch (IOException e) {
-                log.error("Error closing the index reader", e);
+                log.error("Error closing the searcher manager", e);
             }
+            searcherManager = null;
         }
         if (indexWriter != null) {
             try {
@@ -166,6 +398,11 @@ public class LuceneIndexingHandler implements IndexingHandler {
             } catch (IOException e) {
                 log.error("Error closing the index writer, index may be corrupt", e);
             }
+            indexWriter = null;
+        }
+        if (indexJournal != null) {
+            indexJournal.close();
+            indexJournal = null;
         }
         if (directory != null) {
             try {
@@ -173,119 +410,372 @@ public class LuceneIndexingHandler implements IndexingHandler {
             } catch (IOException e) {
                 log.error("Error closing Lucene index", e);
             }
+            directory = null;
         }
     }
 
     @Override
-    public void clearIndex() {
-        handle(IndexWriter::deleteAll);
+    public synchronized void startRebuild() throws Exception {
+        if (rebuildWriter != null) {
+            throw new IllegalStateException("The index is already rebuilding");
+        }
+
+        // Same storage as the current index
+        if (indexJournal == null) {
+            rebuildDirectory = new RAMDirectory();
+        } else {
+            deleteRebuildDirectory();
+            rebuildDirectory = new NIOFSDirectory(DirectoryUtil.getLuceneRebuildDirectory(), NoLockFactory.INSTANCE);
+        }
+
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        config.setMergeScheduler(new ConcurrentMergeScheduler());
+        rebuildChangedIdSet = ConcurrentHashMap.newKeySet();
+        rebuildWriter = new IndexWriter(rebuildDirectory, config);
+        log.info("Index rebuild started");
     }
 
     @Override
-    public void createDocuments(List<Document> documentList) {
-        handle(indexWriter -> {
-            for (Document document : documentList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-                indexWriter.addDocument(luceneDocument);
-            }
-        });
+    public void rebuildDocuments(List<Document> documentList) throws Exception {
+        if (!documentList.isEmpty()) {
+            rebuildWriter.addDocuments(getDocumentsFromDocuments(documentList));
+        }
+    }
+
+    @Override
+    public void rebuildFiles(List<File> fileList) throws Exception {
+        Map<String, String> contentMap = new FileTextDao().getContents(fileList.stream().map(File::getId).collect(Collectors.toList()));
+        for (File file : fileList) {
+            rebuildWriter.addDocument(getDocumentFromFile(file, contentMap.get(file.getId())));
+        }
     }
 
     @Override
-    public void createFiles(List<File> fileList) {
-        handle(indexWriter -> {
-            for (File file : fileList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
-                indexWriter.addDocument(luceneDocument);
+    public synchronized void finishRebuild() throws Exception {
+        rebuildWriter.close();
+        rebuildWriter = null;
+
+        // Swap the index contents at once, no search sees a partial index
+        Set<String> changedIdSet;
+        commitLock.writeLock().lock();
+        try {
+            indexWriter.deleteAll();
+            indexWriter.addIndexes(rebuildDirectory);
+            indexWriter.setLiveCommitData(getIndexVersionData());
+            searcherManager.maybeRefreshBlocking();
+            changedIdSet = rebuildChangedIdSet;
+            rebuildChangedIdSet = null;
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+        closeRebuildDirectory();
+
+        // The changes made during the rebuild may be missing from the rebuilt index, write them again
+        log.info("Index swapped, applying {} changes made during the rebuild", changedIdSet.size());
+        handle(new ArrayList<>(changedIdSet), indexWriter -> reindex(indexWriter, changedIdSet));
+        titleSuggester.changed(Math.max(indexWriter.getDocStats().numDocs, 1));
+
+        // Everything journaled so far is obsolete, make the new index durable
+        commit();
+    }
+
+    @Override
+    public synchronized void cancelRebuild() {
+        if (rebuildWriter == null) {
+            return;
+        }
+
+        log.info("Index rebuild cancelled");
+        try {
+            rebuildWriter.rollback();
+        } catch (IOException e) {
+            log.error("Error closing the rebuild index writer", e);
+        }
+        rebuildWriter = null;
+        rebuildChangedIdSet = null;
+        closeRebuildDirectory();
+    }
+
+    /**
+     * Close and delete the rebuilt index.
+     */
+    private void closeRebuildDirectory() {
+        if (rebuildDirectory != null) {
+            try {
+                rebuildDirectory.close();
+            } catch (IOException e) {
+                log.error("Error closing the rebuilt index", e);
             }
-        });
+            rebuildDirectory = null;
+        }
+        if (indexJournal != null) {
+            try {
+                deleteRebuildDirectory();
+            } catch (IOException e) {
+                log.error("Error deleting the rebuilt index", e);
+            }
+        }
+    }
+
+    /**
+     * Delete the directory of the rebuilt index.
+     *
+     * @throws IOException e
+     */
+    private void deleteRebuildDirectory() throws IOException {
+        try (Stream<Path> pathStream = Files.walk(DirectoryUtil.getLuceneRebuildDirectory())) {
+            pathStream.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(java.io.File::delete);
+        }
     }
 
     @Override
     public void createDocument(final Document document) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
+        handle(Lists.newArrayList(document.getId()), indexWriter -> {
+            org.apache.lucene.document.Document luceneDocument = getDocumentsFromDocuments(Lists.newArrayList(document)).get(0);
             indexWriter.addDocument(luceneDocument);
         });
+        titleSuggester.changed(1);
     }
 
     @Override
     public void createFile(final File file) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
+        handle(Lists.newArrayList(file.getId()), indexWriter -> {
+            org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file, new FileTextDao().getContent(file.getId()));
             indexWriter.addDocument(luceneDocument);
         });
     }
 
     @Override
     public void updateFile(final File file) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
+        handle(Lists.newArrayList(file.getId()), indexWriter -> {
+            org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file, new FileTextDao().getContent(file.getId()));
             indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument);
         });
     }
 
     @Override
     public void updateDocument(final Document document) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-            indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
+        updateDocuments(Lists.newArrayList(document));
+    }
+
+    /**
+     * Update documents in the index.
+     *
+     * @param documentList List of documents
+     */
+    private void updateDocuments(List<Document> documentList) {
+        if (documentList.isEmpty()) {
+            return;
+        }
+        handle(Lists.transform(documentList, Document::getId), indexWriter -> {
+            for (org.apache.lucene.document.Document luceneDocument : getDocumentsFromDocuments(documentList)) {
+                indexWriter.updateDocument(new Term("id", luceneDocument.get("id")), luceneDocument);
+            }
         });
+        titleSuggester.changed(documentList.size());
     }
 
     @Override
     public void deleteDocument(final String id) {
-        handle(indexWriter -> indexWriter.deleteDocuments(new Term("id", id)));
+        handle(Lists.newArrayList(id), indexWriter -> indexWriter.deleteDocuments(new Term("id", id)));
+        titleSuggester.changed(1);
     }
 
     @Override
     public void createAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        if (perm == PermType.READ) {
+            updateReaders(sourceId);
+        }
     }
 
     @Override
     public void deleteAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        if (perm == PermType.READ) {
+            updateReaders(sourceId);
+        }
+    }
+
+    /**
+     * Reindex the documents whose readers depend on an ACL source.
+     * The source is either a document, or a tag giving access to all its documents.
+     *
+     * @param sourceId ACL source ID
+     */
+    private void updateReaders(String sourceId) {
+        DocumentDao documentDao = new DocumentDao();
+        Document document = documentDao.getById(sourceId);
+        if (document != null) {
+            updateDocument(document);
+            return;
+        }
+
+        int offset = 0;
+        List<Document> documentList;
+        do {
+            documentList = documentDao.findByTagId(sourceId, offset, 100);
+            updateDocuments(documentList);
+            offset += 100;
+        } while (documentList.size() == 100);
     }
 
     @Override
     public void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
+        if (Strings.isNullOrEmpty(criteria.getSimpleSearch()) && Strings.isNullOrEmpty(criteria.getFullSearch())) {
+            // No fulltext search, the database alone is searched
+            findByCriteriaInDatabase(paginatedList, criteria, sortCriteria, false);
+            return;
+        }
+
+        suggestSearchTerms(criteria.getFullSearch(), suggestionList);
+
+        // Shares and routes change without reindexing the document, they are only searched in the database
+        Sort sort = getSort(sortCriteria);
+        if (sort == null || Boolean.TRUE.equals(criteria.getShared()) || Boolean.TRUE.equals(criteria.getActiveRoute())) {
+            findByCriteriaInDatabase(paginatedList, criteria, sortCriteria, true);
+        } else {
+            findByCriteriaInIndex(paginatedList, criteria, sort);
+        }
+    }
+
+    /**
+     * Search documents in the index, then read the page returned from the database.
+     * Permissions are checked again in the database in case the index is late,
+     * the hits dropped there are replaced by the following ones and not counted.
+     *
+     * @param paginatedList List of documents (updated by side effects)
+     * @param criteria Search criteria
+     * @param sort Sort
+     * @throws Exception e
+     */
+    private void findByCriteriaInIndex(PaginatedList<DocumentDto> paginatedList, DocumentCriteria criteria, Sort sort) throws Exception {
+        Analyzer analyzer = new StandardAnalyzer();
+        String searchQuery = criteria.getSimpleSearch() + " " + criteria.getFullSearch();
+        Query fileQuery = buildFileQuery(analyzer, searchQuery, criteria.getFullSearch());
+        List<DocumentDto> documentDtoList = new ArrayList<>();
+        Map<String, String> highlightMap;
+
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            Query query = buildFilteredQuery(buildMatchQuery(searcher, analyzer, searchQuery, fileQuery), criteria);
+
+            // Collect only the hits up to the requested page, but count all of them
+            int limit = paginatedList.getLimit();
+            int start = paginatedList.getOffset();
+            int batchSize = limit;
+            int totalHits;
+            int droppedCount = 0;
+            do {
+                TopFieldCollector collector = TopFieldCollector.create(sort, Math.max(start + batchSize, 1), Integer.MAX_VALUE);
+                searcher.search(query, collector);
+                totalHits = collector.getTotalHits();
+                List<String> documentIdList = new ArrayList<>();
+                for (ScoreDoc scoreDoc : collector.topDocs(start, batchSize).scoreDocs) {
+                    documentIdList.add(searcher.doc(scoreDoc.doc, Collections.singleton("id")).get("id"));
+                }
+                if (documentIdList.isEmpty()) {
+                    break;
+                }
+
+                // Keep the index order
+                Map<String, DocumentDto> documentDtoMap = findDocumentsInDatabase(criteria, documentIdList);
+                for (String documentId : documentIdList) {
+                    if (documentDtoList.size() == limit) {
+                        break;
+                    }
+                    DocumentDto documentDto = documentDtoMap.get(documentId);
+                    if (documentDto == null) {
+                        droppedCount++;
+                    } else {
+                        documentDtoList.add(documentDto);
+                    }
+                }
+
+                // Read more hits at once if some are dropped again
+                start += batchSize;
+                batchSize *= 2;
+            } while (documentDtoList.size() < limit && start < totalHits);
+            paginatedList.setResultCount(totalHits - droppedCount);
+
+            highlightMap = highlight(searcher, analyzer, fileQuery, Lists.transform(documentDtoList, DocumentDto::getId));
+        } finally {
+            searcherManager.release(searcher);
+        }
+
+        for (DocumentDto documentDto : documentDtoList) {
+            documentDto.setHighlight(highlightMap.get(documentDto.getId()));
+        }
+        paginatedList.setResultList(documentDtoList);
+    }
+
+    /**
+     * Read some documents from the database, if they are readable by the search targets.
+     *
+     * @param criteria Search criteria
+     * @param documentIdList Documents IDs
+     * @return Documents by ID
+     */
+    private Map<String, DocumentDto> findDocumentsInDatabase(DocumentCriteria criteria, List<String> documentIdList) {
         Map<String, Object> parameterMap = new HashMap<>();
         List<String> criteriaList = new ArrayList<>();
-        Map<String, String> documentSearchMap = Maps.newHashMap();
+        StringBuilder sb = buildBaseQuery(criteria, parameterMap, criteriaList);
+        criteriaList.add("d.DOC_ID_C in :documentIdList");
+        parameterMap.put("documentIdList", documentIdList);
+        criteriaList.add("d.DOC_DELETEDATE_D is null");
+        sb.append(" where ");
+        sb.append(Joiner.on(" and ").join(criteriaList));
 
-        StringBuilder sb = new StringBuilder("select distinct d.DOC_ID_C c0, d.DOC_TITLE_C c1, d.DOC_DESCRIPTION_C c2, d.DOC_CREATEDATE_D c3, d.DOC_LANGUAGE_C c4, d.DOC_IDFILE_C, ");
-        sb.append(" s.count c5, ");
-        sb.append(" rs2.RTP_ID_C c7, rs2.RTP_NAME_C, d.DOC_UPDATEDATE_D c8 ");
-        sb.append(" from T_DOCUMENT d ");
-        sb.append(" left join (SELECT count(s.SHA_ID_C) count, ac.ACL_SOURCEID_C " +
-                "   FROM T_SHARE s, T_ACL ac " +
-                "   WHERE ac.ACL_TARGETID_C = s.SHA_ID_C AND ac.ACL_DELETEDATE_D IS NULL AND " +
-                "         s.SHA_DELETEDATE_D IS NULL group by ac.ACL_SOURCEID_C) s on s.ACL_SOURCEID_C = d.DOC_ID_C ");
-        sb.append(" left join (select rs.*, rs3.idDocument " +
-                "from T_ROUTE_STEP rs " +
-                "join (select r.RTE_IDDOCUMENT_C idDocument, rs.RTP_IDROUTE_C idRoute, min(rs.RTP_ORDER_N) minOrder from T_ROUTE_STEP rs join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null where rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null group by rs.RTP_IDROUTE_C, r.RTE_IDDOCUMENT_C) rs3 on rs.RTP_IDROUTE_C = rs3.idRoute and rs.RTP_ORDER_N = rs3.minOrder " +
-                "where rs.RTP_IDTARGET_C in (:targetIdList)) rs2 on rs2.idDocument = d.DOC_ID_C ");
+        @SuppressWarnings("unchecked")
+        List<Object[]> l = QueryUtil.getNativeQuery(new QueryParam(sb.toString(), parameterMap)).getResultList();
+        Map<String, DocumentDto> documentDtoMap = Maps.newHashMap();
+        for (DocumentDto documentDto : assembleResults(l)) {
+            documentDtoMap.put(documentDto.getId(), documentDto);
+        }
+        return documentDtoMap;
+    }
+
+    /**
+     * Search documents in the database, restricted to the fulltext matches if needed.
+     * If there are too many fulltext matches to pass them to the database,
+     * the results are read as a stream and filtered as they come.
+     *
+     * @param paginatedList List of documents (updated by side effects)
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria
+     * @param fulltext True if the fulltext criterias are searched in the index
+     * @throws Exception e
+     */
+    private void findByCriteriaInDatabase(PaginatedList<DocumentDto> paginatedList, DocumentCriteria criteria, SortCriteria sortCriteria, boolean fulltext) throws Exception {
+        Map<String, Object> parameterMap = new HashMap<>();
+        List<String> criteriaList = new ArrayList<>();
+        StringBuilder sb = buildBaseQuery(criteria, parameterMap, criteriaList);
 
         // Add search criterias
-        if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
-            // Read permission is enough for searching
-            sb.append(" left join T_ACL a on a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = d.DOC_ID_C and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null ");
-            sb.append(" left join T_DOCUMENT_TAG dta on dta.DOT_IDDOCUMENT_C = d.DOC_ID_C and dta.DOT_DELETEDATE_D is null ");
-            sb.append(" left join T_ACL a2 on a2.ACL_TARGETID_C in (:targetIdList) and a2.ACL_SOURCEID_C = dta.DOT_IDTAG_C and a2.ACL_PERM_C = 'READ' and a2.ACL_DELETEDATE_D is null ");
-            criteriaList.add("(a.ACL_ID_C is not null or a2.ACL_ID_C is not null)");
-        }
-        parameterMap.put("targetIdList", criteria.getTargetIdList());
-        if (!Strings.isNullOrEmpty(criteria.getSimpleSearch()) || !Strings.isNullOrEmpty(criteria.getFullSearch())) {
-            documentSearchMap = search(criteria.getSimpleSearch(), criteria.getFullSearch());
-            if (documentSearchMap.isEmpty()) {
+        Analyzer analyzer = new StandardAnalyzer();
+        Query fileQuery = null;
+        Set<String> documentIdSet = null;
+        if (fulltext) {
+            String searchQuery = criteria.getSimpleSearch() + " " + criteria.getFullSearch();
+            fileQuery = buildFileQuery(analyzer, searchQuery, criteria.getFullSearch());
+            IndexSearcher searcher = acquireSearcher();
+            try {
+                documentIdSet = collectIds(searcher, buildMatchQuery(searcher, analyzer, searchQuery, fileQuery), "id");
+            } finally {
+                searcherManager.release(searcher);
+            }
+            if (documentIdSet.isEmpty()) {
                 // If the search doesn't find any document, the request should return nothing
-                documentSearchMap.put(UUID.randomUUID().toString(), null);
+                paginatedList.setResultCount(0);
+                paginatedList.setResultList(new ArrayList<>());
+                return;
+            }
+            if (documentIdSet.size() <= MAX_DOCUMENT_ID_PARAMETERS) {
+                criteriaList.add("d.DOC_ID_C in :documentIdList");
+                parameterMap.put("documentIdList", documentIdSet);
+                documentIdSet = null;
             }
-            criteriaList.add("d.DOC_ID_C in :documentIdList");
-            parameterMap.put("documentIdList", documentSearchMap.keySet());
-
-            suggestSearchTerms(criteria.getFullSearch(), suggestionList);
         }
         if (criteria.getCreateDateMin() != null) {
             criteriaList.add("d.DOC_CREATEDATE_D >= :createDateMin");
@@ -360,9 +850,104 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
         // Perform the search
         QueryParam queryParam = new QueryParam(sb.toString(), parameterMap);
-        List<Object[]> l = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
+        List<Object[]> l;
+        if (documentIdSet == null) {
+            l = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
+        } else {
+            l = executeFilteredQuery(paginatedList, QueryUtil.getSortedQueryParam(queryParam, sortCriteria), documentIdSet);
+        }
+        List<DocumentDto> documentDtoList = assembleResults(l);
 
-        // Assemble results
+        // Highlight only the page returned
+        if (fulltext && !documentDtoList.isEmpty()) {
+            Map<String, String> highlightMap;
+            IndexSearcher searcher = acquireSearcher();
+            try {
+                highlightMap = highlight(searcher, analyzer, fileQuery, Lists.transform(documentDtoList, DocumentDto::getId));
+            } finally {
+                searcherManager.release(searcher);
+            }
+            for (DocumentDto documentDto : documentDtoList) {
+                documentDto.setHighlight(highlightMap.get(documentDto.getId()));
+            }
+        }
+
+        paginatedList.setResultList(documentDtoList);
+    }
+
+    /**
+     * Execute a query on documents and return the page of the results among some documents.
+     * The results are read as a stream and counted as they come.
+     *
+     * @param paginatedList List of documents (updated by side effects)
+     * @param queryParam Sorted query parameters
+     * @param documentIdSet IDs of the documents kept
+     * @return Results of the page
+     */
+    private List<Object[]> executeFilteredQuery(PaginatedList<DocumentDto> paginatedList, QueryParam queryParam, Set<String> documentIdSet) {
+        jakarta.persistence.Query query = QueryUtil.getNativeQuery(queryParam);
+        query.setHint(HibernateHints.HINT_FETCH_SIZE, FETCH_SIZE);
+        int offset = paginatedList.getOffset();
+        int limit = paginatedList.getLimit();
+        int resultCount = 0;
+        List<Object[]> l = new ArrayList<>();
+        try (@SuppressWarnings("unchecked") Stream<Object[]> stream = query.getResultStream()) {
+            Iterator<Object[]> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                Object[] o = iterator.next();
+                if (!documentIdSet.contains((String) o[0])) {
+                    continue;
+                }
+                if (resultCount >= offset && resultCount < offset + limit) {
+                    l.add(o);
+                }
+                resultCount++;
+            }
+        }
+        paginatedList.setResultCount(resultCount);
+        return l;
+    }
+
+    /**
+     * Build the base query of documents readable by the search targets.
+     *
+     * @param criteria Search criteria
+     * @param parameterMap Query parameters (updated by side effects)
+     * @param criteriaList Query criterias (updated by side effects)
+     * @return Query without criterias
+     */
+    private StringBuilder buildBaseQuery(DocumentCriteria criteria, Map<String, Object> parameterMap, List<String> criteriaList) {
+        StringBuilder sb = new StringBuilder("select distinct d.DOC_ID_C c0, d.DOC_TITLE_C c1, d.DOC_DESCRIPTION_C c2, d.DOC_CREATEDATE_D c3, d.DOC_LANGUAGE_C c4, d.DOC_IDFILE_C, ");
+        sb.append(" s.count c5, ");
+        sb.append(" rs2.RTP_ID_C c7, rs2.RTP_NAME_C, d.DOC_UPDATEDATE_D c8 ");
+        sb.append(" from T_DOCUMENT d ");
+        sb.append(" left join (SELECT count(s.SHA_ID_C) count, ac.ACL_SOURCEID_C " +
+                "   FROM T_SHARE s, T_ACL ac " +
+                "   WHERE ac.ACL_TARGETID_C = s.SHA_ID_C AND ac.ACL_DELETEDATE_D IS NULL AND " +
+                "         s.SHA_DELETEDATE_D IS NULL group by ac.ACL_SOURCEID_C) s on s.ACL_SOURCEID_C = d.DOC_ID_C ");
+        sb.append(" left join (select rs.*, rs3.idDocument " +
+                "from T_ROUTE_STEP rs " +
+                "join (select r.RTE_IDDOCUMENT_C idDocument, rs.RTP_IDROUTE_C idRoute, min(rs.RTP_ORDER_N) minOrder from T_ROUTE_STEP rs join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null where rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null group by rs.RTP_IDROUTE_C, r.RTE_IDDOCUMENT_C) rs3 on rs.RTP_IDROUTE_C = rs3.idRoute and rs.RTP_ORDER_N = rs3.minOrder " +
+                "where rs.RTP_IDTARGET_C in (:targetIdList)) rs2 on rs2.idDocument = d.DOC_ID_C ");
+
+        if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
+            // Read permission is enough for searching
+            sb.append(" left join T_ACL a on a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = d.DOC_ID_C and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null ");
+            sb.append(" left join T_DOCUMENT_TAG dta on dta.DOT_IDDOCUMENT_C = d.DOC_ID_C and dta.DOT_DELETEDATE_D is null ");
+            sb.append(" left join T_ACL a2 on a2.ACL_TARGETID_C in (:targetIdList) and a2.ACL_SOURCEID_C = dta.DOT_IDTAG_C and a2.ACL_PERM_C = 'READ' and a2.ACL_DELETEDATE_D is null ");
+            criteriaList.add("(a.ACL_ID_C is not null or a2.ACL_ID_C is not null)");
+        }
+        parameterMap.put("targetIdList", criteria.getTargetIdList());
+        return sb;
+    }
+
+    /**
+     * Assemble the documents returned by the base query.
+     *
+     * @param l Query results
+     * @return List of documents
+     */
+    private List<DocumentDto> assembleResults(List<Object[]> l) {
         List<DocumentDto> documentDtoList = new ArrayList<>();
         for (Object[] o : l) {
             int i = 0;
@@ -378,54 +963,47 @@ public class LuceneIndexingHandler implements IndexingHandler {
             documentDto.setActiveRoute(o[i++] != null);
             documentDto.setCurrentStepName((String) o[i++]);
             documentDto.setUpdateTimestamp(((Timestamp) o[i]).getTime());
-            documentDto.setHighlight(documentSearchMap.get(documentDto.getId()));
             documentDtoList.add(documentDto);
         }
-
-        paginatedList.setResultList(documentDtoList);
+        return documentDtoList;
     }
 
     /**
-     * Suggest search terms according to the user query.
+     * Get the index sort matching the database sort.
      *
-     * @param search User search query
-     * @param suggestionList Suggestion of search query (updated by side effects)
-     * @throws Exception e
+     * @param sortCriteria Sort criteria
+     * @return Sort, null if the column is not sortable in the index
      */
-    private void suggestSearchTerms(String search, List<String> suggestionList) throws Exception {
-        DirectoryReader directoryReader = getDirectoryReader();
-        if (directoryReader == null) {
-            return;
+    private Sort getSort(SortCriteria sortCriteria) {
+        if (sortCriteria == null) {
+            return null;
         }
 
-        FuzzySuggester suggester = new FuzzySuggester(directory, "", new StandardAnalyzer());
-        LuceneDictionary dictionary = new LuceneDictionary(directoryReader, "title");
-        suggester.build(dictionary);
-        int lastIndex = search.lastIndexOf(' ');
-        String suggestQuery = search.substring(Math.max(lastIndex, 0));
-        List<Lookup.LookupResult> lookupResultList = suggester.lookup(suggestQuery, false, 10);
-        for (Lookup.LookupResult lookupResult : lookupResultList) {
-            suggestionList.add(lookupResult.key.toString());
+        boolean reverse = !sortCriteria.isAsc();
+        SortField sortField;
+        switch (sortCriteria.getColumn()) {
+            case 0: sortField = new SortField("id", SortField.Type.STRING, reverse); break;
+            case 1: sortField = new SortField("title_sort", SortField.Type.STRING, reverse); break;
+            case 2: return null; // Description is not indexed for sorting
+            case 4: sortField = new SortField("update_date", SortField.Type.LONG, reverse); break;
+            case 5: return null; // Creator username is not indexed
+            default: sortField = new SortField("create_date", SortField.Type.LONG, reverse); break;
         }
+
+        // Break ties by ID for a stable pagination
+        return new Sort(sortField, new SortField("id", SortField.Type.STRING));
     }
 
     /**
-     * Fulltext search in files and documents.
+     * Build the query on the metadata of documents.
      *
-     * @param simpleSearchQuery Search query on metadatas
-     * @param fullSearchQuery Search query on all fields
-     * @return Map of document IDs as key and highlight as value
+     * @param analyzer Analyzer
+     * @param searchQuery Search query
+     * @return Query
      * @throws Exception e
      */
-    private Map<String, String> search(String simpleSearchQuery, String fullSearchQuery) throws Exception {
-        // The fulltext query searches in all fields
-        String searchQuery = simpleSearchQuery + " " + fullSearchQuery;
-
-        // Build search query
-        Analyzer analyzer = new StandardAnalyzer();
-
-        // Search on documents and files
-        BooleanQuery query = new BooleanQuery.Builder()
+    private Query buildDocumentQuery(Analyzer analyzer, String searchQuery) throws Exception {
+        return new BooleanQuery.Builder()
                 .add(buildQueryParser(analyzer, "title").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "description").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "subject").parse(searchQuery), BooleanClause.Occur.SHOULD)
@@ -436,47 +1014,196 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 .add(buildQueryParser(analyzer, "type").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "coverage").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "rights").parse(searchQuery), BooleanClause.Occur.SHOULD)
+                .build();
+    }
+
+    /**
+     * Build the query on the name and content of files.
+     *
+     * @param analyzer Analyzer
+     * @param searchQuery Search query
+     * @param fullSearchQuery Search query on the content
+     * @return Query
+     * @throws Exception e
+     */
+    private Query buildFileQuery(Analyzer analyzer, String searchQuery, String fullSearchQuery) throws Exception {
+        return new BooleanQuery.Builder()
                 .add(buildQueryParser(analyzer, "filename").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "content").parse(fullSearchQuery), BooleanClause.Occur.SHOULD)
                 .build();
+    }
+
+    /**
+     * Build the query matching the documents on their metadata, or having a matching file.
+     * The files are joined to their document in the index, their document IDs are not collected.
+     *
+     * @param searcher Index searcher
+     * @param analyzer Analyzer
+     * @param searchQuery Search query
+     * @param fileQuery Query on the files
+     * @return Query
+     * @throws Exception e
+     */
+    private Query buildMatchQuery(IndexSearcher searcher, Analyzer analyzer, String searchQuery, Query fileQuery) throws Exception {
+        return new BooleanQuery.Builder()
+                .add(buildDocumentQuery(analyzer, searchQuery), BooleanClause.Occur.SHOULD)
+                .add(JoinUtil.createJoinQuery("document_id", false, "id", fileQuery, searcher,
+                        org.apache.lucene.search.join.ScoreMode.None), BooleanClause.Occur.SHOULD)
+                .build();
+    }
 
-        // Search
-        DirectoryReader directoryReader = getDirectoryReader();
-        Map<String, String> documentMap = Maps.newHashMap();
-        if (directoryReader == null) {
-            // The directory reader is not yet initialized (probably because there is nothing indexed)
-            return documentMap;
+    /**
+     * Restrict a query to the documents matching the search criterias.
+     *
+     * @param matchQuery Fulltext query
+     * @param criteria Search criteria
+     * @return Query
+     */
+    private Query buildFilteredQuery(Query matchQuery, DocumentCriteria criteria) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                .add(matchQuery, BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term("doctype", "document")), BooleanClause.Occur.FILTER);
+        if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
+            builder.add(newTermInSetQuery("acl_read", criteria.getTargetIdList()), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getCreateDateMin() != null || criteria.getCreateDateMax() != null) {
+            builder.add(newDateRangeQuery("create_date", criteria.getCreateDateMin(), criteria.getCreateDateMax()), BooleanClause.Occur.FILTER);
         }
-        IndexSearcher searcher = new IndexSearcher(directoryReader);
-        TopDocs topDocs = searcher.search(query, Integer.MAX_VALUE);
-        ScoreDoc[] docs = topDocs.scoreDocs;
+        if (criteria.getUpdateDateMin() != null || criteria.getUpdateDateMax() != null) {
+            builder.add(newDateRangeQuery("update_date", criteria.getUpdateDateMin(), criteria.getUpdateDateMax()), BooleanClause.Occur.FILTER);
+        }
+        if (!criteria.getTitleList().isEmpty()) {
+            builder.add(newTermInSetQuery("title_exact", criteria.getTitleList()), BooleanClause.Occur.FILTER);
+        }
+        for (List<String> tagIdList : criteria.getTagIdList()) {
+            builder.add(newTermInSetQuery("tag", tagIdList), BooleanClause.Occur.FILTER);
+        }
+        for (List<String> tagIdList : criteria.getExcludedTagIdList()) {
+            builder.add(newTermInSetQuery("tag", tagIdList), BooleanClause.Occur.MUST_NOT);
+        }
+        if (criteria.getMimeType() != null) {
+            builder.add(new TermQuery(new Term("mime_type", criteria.getMimeType())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getLanguage() != null) {
+            builder.add(new TermQuery(new Term("language", criteria.getLanguage())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getCreatorId() != null) {
+            builder.add(new TermQuery(new Term("creator_id", criteria.getCreatorId())), BooleanClause.Occur.FILTER);
+        }
+        return builder.build();
+    }
 
-        SimpleHTMLFormatter simpleHTMLFormatter = new SimpleHTMLFormatter("<strong>", "</strong>");
-        SimpleHTMLEncoder simpleHTMLEncoder = new SimpleHTMLEncoder();
-        Highlighter highlighter = new Highlighter(simpleHTMLFormatter, simpleHTMLEncoder, new QueryScorer(query));
-
-        // Extract document IDs and highlights
-        for (ScoreDoc doc : docs) {
-            org.apache.lucene.document.Document document = searcher.doc(doc.doc);
-            String type = document.get("doctype");
-            String documentId = null;
-            String highlight = null;
-            if (type.equals("document")) {
-                documentId = document.get("id");
-            } else if (type.equals("file")) {
-                documentId = document.get("document_id");
-                String content = document.get("content");
-                if (content != null) {
-                    highlight = highlighter.getBestFragment(analyzer, "content", content);
+    /**
+     * Build a query matching any of the values of a field.
+     *
+     * @param field Field
+     * @param valueList Values
+     * @return Query
+     */
+    private Query newTermInSetQuery(String field, Collection<String> valueList) {
+        List<BytesRef> termList = new ArrayList<>();
+        for (String value : valueList) {
+            termList.add(new BytesRef(value));
+        }
+        return new TermInSetQuery(field, termList);
+    }
+
+    /**
+     * Build a query on a date range.
+     *
+     * @param field Field
+     * @param min Minimum date (inclusive), or null
+     * @param max Maximum date (inclusive), or null
+     * @return Query
+     */
+    private Query newDateRangeQuery(String field, Date min, Date max) {
+        return LongPoint.newRangeQuery(field,
+                min == null ? Long.MIN_VALUE : min.getTime(),
+                max == null ? Long.MAX_VALUE : max.getTime());
+    }
+
+    /**
+     * Collect the values of a single-valued field on all the hits of a query.
+     * Values are read from doc values, no stored document is loaded.
+     *
+     * @param searcher Index searcher
+     * @param query Query
+     * @param field Field indexed with doc values
+     * @return Set of values
+     * @throws IOException e
+     */
+    private Set<String> collectIds(IndexSearcher searcher, Query query, String field) throws IOException {
+        Set<String> idSet = new HashSet<>();
+        searcher.search(query, new SimpleCollector() {
+            private SortedDocValues values;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                values = DocValues.getSorted(context.reader(), field);
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+                if (values.advanceExact(doc)) {
+                    idSet.add(values.binaryValue().utf8ToString());
                 }
             }
 
-            if (documentId != null) {
-                documentMap.put(documentId, highlight);
+            @Override
+            public ScoreMode scoreMode() {
+                return ScoreMode.COMPLETE_NO_SCORES;
+            }
+        });
+        return idSet;
+    }
+
+    /**
+     * Highlight the best matching file content of some documents.
+     *
+     * @param searcher Index searcher
+     * @param analyzer Analyzer
+     * @param fileQuery Query on files
+     * @param documentIdList Documents IDs
+     * @return Map of document IDs as key and highlight as value
+     * @throws Exception e
+     */
+    private Map<String, String> highlight(IndexSearcher searcher, Analyzer analyzer, Query fileQuery, List<String> documentIdList) throws Exception {
+        SimpleHTMLFormatter simpleHTMLFormatter = new SimpleHTMLFormatter("<strong>", "</strong>");
+        SimpleHTMLEncoder simpleHTMLEncoder = new SimpleHTMLEncoder();
+        Highlighter highlighter = new Highlighter(simpleHTMLFormatter, simpleHTMLEncoder, new QueryScorer(fileQuery));
+
+        Map<String, String> highlightMap = Maps.newHashMap();
+        for (String documentId : documentIdList) {
+            Query query = new BooleanQuery.Builder()
+                    .add(fileQuery, BooleanClause.Occur.MUST)
+                    .add(new TermQuery(new Term("document_id", documentId)), BooleanClause.Occur.FILTER)
+                    .build();
+            TopDocs topDocs = searcher.search(query, 1);
+            if (topDocs.scoreDocs.length == 0) {
+                continue;
+            }
+            String content = searcher.doc(topDocs.scoreDocs[0].doc, Collections.singleton("content")).get("content");
+            if (content != null) {
+                highlightMap.put(documentId, highlighter.getBestFragment(analyzer, "content", content));
             }
         }
+        return highlightMap;
+    }
 
-        return documentMap;
+    /**
+     * Suggest search terms according to the user query.
+     *
+     * @param search User search query
+     * @param suggestionList Suggestion of search query (updated by side effects)
+     * @throws Exception e
+     */
+    private void suggestSearchTerms(String search, List<String> suggestionList) throws Exception {
+        if (refreshInterval <= 0) {
+            searcherManager.maybeRefreshBlocking();
+        }
+        int lastIndex = search.lastIndexOf(' ');
+        String suggestQuery = search.substring(Math.max(lastIndex, 0));
+        suggestionList.addAll(titleSuggester.lookup(suggestQuery, 10));
     }
 
     /**
@@ -492,15 +1219,52 @@ public class LuceneIndexingHandler implements IndexingHandler {
         return simpleQueryParser;
     }
 
+    /**
+     * Build Lucene documents from database documents.
+     * The readers, tags and MIME types used to filter searches are loaded for all documents at once.
+     *
+     * @param documentList List of documents
+     * @return List of documents
+     */
+    private List<org.apache.lucene.document.Document> getDocumentsFromDocuments(List<Document> documentList) {
+        List<org.apache.lucene.document.Document> luceneDocumentList = new ArrayList<>();
+        if (documentList.isEmpty()) {
+            return luceneDocumentList;
+        }
+
+        // Readers are granted on the document itself or on one of its tags
+        List<String> documentIdList = Lists.transform(documentList, Document::getId);
+        Map<String, Set<String>> tagIdMap = new TagDao().getTagIdsByDocumentsIds(documentIdList);
+        Set<String> sourceIdSet = new HashSet<>(documentIdList);
+        tagIdMap.values().forEach(sourceIdSet::addAll);
+        Map<String, Set<String>> readerIdMap = new AclDao().getTargetIdsBySourceIds(sourceIdSet, PermType.READ);
+        Map<String, Set<String>> mimeTypeMap = new FileDao().getMimeTypesByDocumentsIds(documentIdList);
+
+        for (Document document : documentList) {
+            Set<String> tagIdSet = tagIdMap.getOrDefault(document.getId(), Collections.emptySet());
+            Set<String> readerIdSet = new HashSet<>(readerIdMap.getOrDefault(document.getId(), Collections.emptySet()));
+            for (String tagId : tagIdSet) {
+                readerIdSet.addAll(readerIdMap.getOrDefault(tagId, Collections.emptySet()));
+            }
+            luceneDocumentList.add(getDocumentFromDocument(document, tagIdSet, readerIdSet,
+                    mimeTypeMap.getOrDefault(document.getId(), Collections.emptySet())));
+        }
+        return luceneDocumentList;
+    }
+
     /**
      * Build Lucene document from database document.
      *
      * @param document Document
+     * @param tagIdSet Tags IDs
+     * @param readerIdSet IDs of the targets allowed to read the document
+     * @param mimeTypeSet MIME types of the files
      * @return Document
      */
-    private org.apache.lucene.document.Document getDocumentFromDocument(Document document) {
+    private org.apache.lucene.document.Document getDocumentFromDocument(Document document, Set<String> tagIdSet, Set<String> readerIdSet, Set<String> mimeTypeSet) {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", document.getId(), Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("id", new BytesRef(document.getId())));
         luceneDocument.add(new StringField("doctype", "document", Field.Store.YES));
         luceneDocument.add(new TextField("title", document.getTitle(), Field.Store.NO));
         if (document.getDescription() != null) {
@@ -531,6 +1295,29 @@ public class LuceneIndexingHandler implements IndexingHandler {
             luceneDocument.add(new TextField("rights", document.getRights(), Field.Store.NO));
         }
 
+        // Search filters and sort keys
+        luceneDocument.add(new StringField("title_exact", document.getTitle(), Field.Store.NO));
+        luceneDocument.add(new SortedDocValuesField("title_sort", new BytesRef(document.getTitle())));
+        luceneDocument.add(new StringField("creator_id", document.getUserId(), Field.Store.NO));
+        if (document.getLanguage() != null) {
+            luceneDocument.add(new StringField("language", document.getLanguage(), Field.Store.NO));
+        }
+        luceneDocument.add(new LongPoint("create_date", document.getCreateDate().getTime()));
+        luceneDocument.add(new NumericDocValuesField("create_date", document.getCreateDate().getTime()));
+        if (document.getUpdateDate() != null) {
+            luceneDocument.add(new LongPoint("update_date", document.getUpdateDate().getTime()));
+            luceneDocument.add(new NumericDocValuesField("update_date", document.getUpdateDate().getTime()));
+        }
+        for (String tagId : tagIdSet) {
+            luceneDocument.add(new StringField("tag", tagId, Field.Store.NO));
+        }
+        for (String readerId : readerIdSet) {
+            luceneDocument.add(new StringField("acl_read", readerId, Field.Store.NO));
+        }
+        for (String mimeType : mimeTypeSet) {
+            luceneDocument.add(new StringField("mime_type", mimeType, Field.Store.NO));
+        }
+
         return luceneDocument;
     }
 
@@ -538,9 +1325,10 @@ public class LuceneIndexingHandler implements IndexingHandler {
      * Build Lucene document from file.
      *
      * @param file File
+     * @param content Content of the file, can be null
      * @return Document
      */
-    private org.apache.lucene.document.Document getDocumentFromFile(File file) {
+    private org.apache.lucene.document.Document getDocumentFromFile(File file, String content) {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", file.getId(), Field.Store.YES));
         luceneDocument.add(new StringField("doctype", "file", Field.Store.YES));
@@ -549,61 +1337,121 @@ public class LuceneIndexingHandler implements IndexingHandler {
         }
         if (file.getDocumentId() != null) {
             luceneDocument.add(new StringField("document_id", file.getDocumentId(), Field.Store.YES));
+            luceneDocument.add(new SortedDocValuesField("document_id", new BytesRef(file.getDocumentId())));
         }
-        if (file.getContent() != null) {
-            luceneDocument.add(new TextField("content", file.getContent(), Field.Store.YES));
+        if (content != null) {
+            luceneDocument.add(new TextField("content", content, Field.Store.YES));
         }
 
         return luceneDocument;
     }
 
     /**
-     * Returns a valid directory reader.
-     * Take care of reopening the reader if the index has changed
-     * and closing the previous one.
+     * Acquire a searcher, refreshing it first if the changes must be visible right away.
+     * The searcher must be released after use.
      *
-     * @return the directoryReader
+     * @return Index searcher
+     * @throws IOException e
      */
-    private DirectoryReader getDirectoryReader() {
-        if (directoryReader == null) {
+    private IndexSearcher acquireSearcher() throws IOException {
+        if (refreshInterval <= 0) {
+            commitLock.readLock().lock();
             try {
-                if (!DirectoryReader.indexExists(directory)) {
-                    return null;
-                }
-                directoryReader = DirectoryReader.open(directory);
-            } catch (IOException e) {
-                log.error("Error creating the directory reader", e);
+                searcherManager.maybeRefreshBlocking();
+            } finally {
+                commitLock.readLock().unlock();
             }
-        } else {
-            try {
-                DirectoryReader newReader = DirectoryReader.openIfChanged(directoryReader);
-                if (newReader != null) {
-                    directoryReader.close();
-                    directoryReader = newReader;
-                }
-            } catch (IOException e) {
-                log.error("Error while reopening the directory reader", e);
+        }
+        return searcherManager.acquire();
+    }
+
+    /**
+     * Make the latest changes visible to searches.
+     */
+    private void refresh() {
+        commitLock.readLock().lock();
+        try {
+            searcherManager.maybeRefresh();
+        } catch (Throwable e) {
+            log.error("Error refreshing the index searcher", e);
+        } finally {
+            commitLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the commit data stamping the current index version.
+     *
+     * @return Commit data
+     */
+    private Iterable<Map.Entry<String, String>> getIndexVersionData() {
+        return Collections.singletonMap(INDEX_VERSION_KEY, INDEX_VERSION).entrySet();
+    }
+
+    /**
+     * Commit the index writer if it has pending changes.
+     */
+    private synchronized void commit() {
+        if (indexWriter == null || !indexWriter.hasUncommittedChanges()) {
+            return;
+        }
+
+        // Set the journal aside once no write is in progress: everything in it is now in the writer
+        commitLock.writeLock().lock();
+        try {
+            uncommittedOperations.set(0);
+            if (indexJournal != null) {
+                indexJournal.rotate();
+            }
+        } catch (IOException e) {
+            log.error("Cannot rotate the index journal", e);
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+
+        try {
+            indexWriter.commit();
+            if (indexJournal != null) {
+                indexJournal.committed();
             }
+        } catch (IOException e) {
+            log.error("Cannot commit index writer", e);
+        }
+
+        // Bring the suggester up to date at most once per commit
+        if (titleSuggester != null) {
+            titleSuggester.maybeRebuild();
         }
-        return directoryReader;
     }
 
     /**
      * Encapsulate a process into a Lucene context.
+     * The changes are journaled, and committed once enough operations are pending.
+     * During a rebuild, the IDs written are recorded to be written again in the rebuilt index.
      *
+     * @param idList IDs of the documents or files written, null if not journaled
      * @param runnable Runnable
      */
-    private void handle(LuceneRunnable runnable) {
+    private void handle(List<String> idList, LuceneRunnable runnable) {
+        commitLock.readLock().lock();
         try {
+            if (indexJournal != null && idList != null) {
+                indexJournal.append(idList);
+            }
+            Set<String> changedIdSet = rebuildChangedIdSet;
+            if (changedIdSet != null && idList != null) {
+                changedIdSet.addAll(idList);
+            }
             runnable.run(indexWriter);
         } catch (Exception e) {
             log.error("Error in running index writing", e);
+        } finally {
+            commitLock.readLock().unlock();
         }
 
-        try {
-            indexWriter.commit();
-        } catch (IOException e) {
-            log.error("Cannot commit index writer", e);
+        int operationCount = uncommittedOperations.addAndGet(idList == null ? 1 : Math.max(idList.size(), 1));
+        if (operationCount >= commitOperations) {
+            commit();
         }
     }
 
@@ -0,0 +1,129 @@
+package com.sismics.docs.core.util.indexing;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of an index rebuild.
+ * Only one rebuild runs at a time, the last one is kept for reporting.
+ *
+ * @author bgamard
+ */
+public class RebuildIndexProgress {
+    /**
+     * Current or last rebuild.
+     */
+    private static volatile RebuildIndexProgress current;
+
+    /**
+     * Number of documents and files to index.
+     */
+    private final long total;
+
+    /**
+     * Number of documents and files indexed.
+     */
+    private final AtomicLong done = new AtomicLong();
+
+    /**
+     * Start time (in milliseconds).
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * End time (in milliseconds), 0 while running.
+     */
+    private volatile long endTime;
+
+    /**
+     * Error message, null if no error.
+     */
+    private volatile String error;
+
+    private RebuildIndexProgress(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Start tracking a new rebuild.
+     *
+     * @param total Number of documents and files to index
+     * @return Progress, null if a rebuild is already running
+     */
+    public static synchronized RebuildIndexProgress start(long total) {
+        if (current != null && current.isRunning()) {
+            return null;
+        }
+        current = new RebuildIndexProgress(total);
+        return current;
+    }
+
+    /**
+     * Returns the current or last rebuild.
+     *
+     * @return Progress, null if the index has never been rebuilt
+     */
+    public static RebuildIndexProgress getCurrent() {
+        return current;
+    }
+
+    /**
+     * Record indexed documents or files.
+     *
+     * @param count Number of documents or files
+     */
+    public void add(int count) {
+        done.addAndGet(count);
+    }
+
+    /**
+     * End the rebuild.
+     *
+     * @param error Error message, null if successful
+     */
+    public void finish(String error) {
+        this.error = error;
+        this.endTime = System.currentTimeMillis();
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getDone() {
+        return done.get();
+    }
+
+    public boolean isRunning() {
+        return endTime == 0;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Returns the indexing rate.
+     *
+     * @return Number of documents and files indexed per second
+     */
+    public double getDocsPerSecond() {
+        long elapsed = (isRunning() ? System.currentTimeMillis() : endTime) - startTime;
+        return elapsed <= 0 ? 0 : done.get() * 1000.0 / elapsed;
+    }
+
+    /**
+     * Returns the estimated time to finish the rebuild.
+     *
+     * @return Estimated remaining time (in milliseconds), null if unknown
+     */
+    public Long getEta() {
+        if (!isRunning()) {
+            return 0L;
+        }
+        double docsPerSecond = getDocsPerSecond();
+        if (docsPerSecond <= 0) {
+            return null;
+        }
+        return (long) (Math.max(total - done.get(), 0) * 1000 / docsPerSecond);
+    }
+}
@@ -0,0 +1,347 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.sismics.docs.core.util.MetricsUtil;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.spell.LuceneDictionary;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NoLockFactory;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Search suggester on document titles.
+ * The suggester is built once and kept in memory (and on disk if a directory is given),
+ * then rebuilt in the background when enough documents have changed.
+ *
+ * @author bgamard
+ */
+public class TitleSuggester {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(TitleSuggester.class);
+
+    /**
+     * Name of the stored suggester file.
+     */
+    private static final String STORE_FILE_NAME = "title.suggester";
+
+    /**
+     * Suggestions served by a built suggester.
+     */
+    private static final AtomicLong hitCounter = MetricsUtil.getCounter("search.suggester.hit");
+
+    /**
+     * Suggestions requested before the suggester is built.
+     */
+    private static final AtomicLong missCounter = MetricsUtil.getCounter("search.suggester.miss");
+
+    /**
+     * Number of rebuilds.
+     */
+    private static final AtomicLong rebuildCounter = MetricsUtil.getCounter("search.suggester.rebuild");
+
+    /**
+     * Duration of the last rebuild (in milliseconds).
+     */
+    private static final AtomicLong rebuildTime = new AtomicLong();
+
+    /**
+     * Searcher manager of the index.
+     */
+    private final SearcherManager searcherManager;
+
+    /**
+     * Directory storing the suggester, null to keep it in memory only.
+     */
+    private final Path storeDirectory;
+
+    /**
+     * Directory of the temporary files written while building.
+     */
+    private final Directory tempDirectory;
+
+    /**
+     * Number of document changes triggering a rebuild.
+     */
+    private final int rebuildThreshold;
+
+    /**
+     * True to rebuild synchronously on the next lookup after any change.
+     */
+    private final boolean synchronous;
+
+    /**
+     * Current suggester, null until built.
+     */
+    private volatile FuzzySuggester suggester;
+
+    /**
+     * Number of document changes not included in the current suggester.
+     */
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+
+    /**
+     * True while a rebuild is in progress.
+     */
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    /**
+     * Executor rebuilding the suggester.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Create a suggester.
+     *
+     * @param searcherManager Searcher manager of the index
+     * @param storeDirectory Directory storing the suggester, null to keep it in memory only
+     * @param rebuildThreshold Number of document changes triggering a rebuild
+     * @param synchronous True to rebuild synchronously on the next lookup after any change
+     * @throws IOException e
+     */
+    public TitleSuggester(SearcherManager searcherManager, Path storeDirectory, int rebuildThreshold, boolean synchronous) throws IOException {
+        this.searcherManager = searcherManager;
+        this.storeDirectory = storeDirectory;
+        this.tempDirectory = storeDirectory == null ?
+                new RAMDirectory() : new NIOFSDirectory(storeDirectory, NoLockFactory.INSTANCE);
+        this.rebuildThreshold = rebuildThreshold;
+        this.synchronous = synchronous;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lucene-suggester");
+            thread.setDaemon(true);
+            return thread;
+        });
+        MetricsUtil.registerGauge("search.suggester.rebuild_time", rebuildTime::get);
+    }
+
+    /**
+     * Load the stored suggester.
+     * It is rebuilt if missing or built on another version of the index.
+     */
+    public void startUp() {
+        if (storeDirectory != null) {
+            Path storeFile = storeDirectory.resolve(STORE_FILE_NAME);
+            if (Files.exists(storeFile)) {
+                try (InputStream inputStream = Files.newInputStream(storeFile)) {
+                    InputStreamDataInput input = new InputStreamDataInput(inputStream);
+                    long version = input.readLong();
+                    FuzzySuggester storedSuggester = newSuggester();
+                    storedSuggester.load(input);
+                    suggester = storedSuggester;
+                    if (version == getIndexVersion()) {
+                        log.info("Search suggester loaded from {}", storeFile);
+                        return;
+                    }
+                } catch (Exception e) {
+                    log.warn("Unable to load the search suggester from " + storeFile, e);
+                }
+            }
+        }
+
+        // Stored suggester missing or outdated
+        pendingChanges.addAndGet(Math.max(rebuildThreshold, 1));
+        if (!synchronous) {
+            rebuildAsync();
+        }
+    }
+
+    /**
+     * Record changes on documents.
+     *
+     * @param count Number of documents changed
+     */
+    public void changed(int count) {
+        if (pendingChanges.addAndGet(count) >= rebuildThreshold && !synchronous) {
+            rebuildAsync();
+        }
+    }
+
+    /**
+     * Rebuild the suggester in the background if some changes are not included yet.
+     */
+    public void maybeRebuild() {
+        if (pendingChanges.get() > 0 && !synchronous) {
+            rebuildAsync();
+        }
+    }
+
+    /**
+     * Suggest document titles.
+     *
+     * @param query Query
+     * @param count Maximum number of suggestions
+     * @return Suggestions
+     * @throws IOException e
+     */
+    public List<String> lookup(String query, int count) throws IOException {
+        if (synchronous) {
+            rebuild();
+        }
+
+        List<String> suggestionList = new ArrayList<>();
+        FuzzySuggester currentSuggester = suggester;
+        if (currentSuggester == null) {
+            missCounter.incrementAndGet();
+            return suggestionList;
+        }
+
+        hitCounter.incrementAndGet();
+        for (Lookup.LookupResult lookupResult : currentSuggester.lookup(query, false, count)) {
+            suggestionList.add(lookupResult.key.toString());
+        }
+        return suggestionList;
+    }
+
+    /**
+     * Stop the background rebuilds.
+     */
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            // NOP
+        }
+        try {
+            tempDirectory.close();
+        } catch (IOException e) {
+            log.error("Error closing the search suggester directory", e);
+        }
+    }
+
+    /**
+     * Schedule a rebuild, unless one is already in progress.
+     */
+    private void rebuildAsync() {
+        if (rebuilding.compareAndSet(false, true)) {
+            try {
+                executor.submit(() -> {
+                    try {
+                        doRebuild();
+                    } catch (Throwable e) {
+                        log.error("Error rebuilding the search suggester", e);
+                    } finally {
+                        rebuilding.set(false);
+                    }
+                });
+            } catch (Exception e) {
+                // Executor closed
+                rebuilding.set(false);
+            }
+        }
+    }
+
+    /**
+     * Rebuild synchronously.
+     *
+     * @throws IOException e
+     */
+    private synchronized void rebuild() throws IOException {
+        if (pendingChanges.get() > 0) {
+            doRebuild();
+        }
+    }
+
+    /**
+     * Build a new suggester from the titles in the index, and store it.
+     *
+     * @throws IOException e
+     */
+    private synchronized void doRebuild() throws IOException {
+        long startTime = System.currentTimeMillis();
+        int changes = pendingChanges.getAndSet(0);
+        FuzzySuggester newSuggester = newSuggester();
+        long version;
+        searcherManager.maybeRefreshBlocking();
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            version = ((DirectoryReader) searcher.getIndexReader()).getVersion();
+            newSuggester.build(new LuceneDictionary(searcher.getIndexReader(), "title"));
+        } catch (IOException | RuntimeException e) {
+            pendingChanges.addAndGet(changes);
+            throw e;
+        } finally {
+            searcherManager.release(searcher);
+        }
+        suggester = newSuggester;
+        store(newSuggester, version);
+
+        rebuildCounter.incrementAndGet();
+        rebuildTime.set(System.currentTimeMillis() - startTime);
+        log.info("Search suggester rebuilt in {}ms", rebuildTime.get());
+    }
+
+    /**
+     * Store the suggester next to the index.
+     *
+     * @param suggester Suggester
+     * @param version Version of the index the suggester is built on
+     */
+    private void store(FuzzySuggester suggester, long version) {
+        if (storeDirectory == null) {
+            return;
+        }
+
+        Path storeFile = storeDirectory.resolve(STORE_FILE_NAME);
+        Path tempFile = storeDirectory.resolve(STORE_FILE_NAME + ".tmp");
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                OutputStreamDataOutput output = new OutputStreamDataOutput(outputStream);
+                output.writeLong(version);
+                suggester.store(output);
+            }
+            Files.move(tempFile, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Unable to store the search suggester to " + storeFile, e);
+        }
+    }
+
+    /**
+     * Create an empty suggester.
+     *
+     * @return Suggester
+     */
+    private FuzzySuggester newSuggester() {
+        return new FuzzySuggester(tempDirectory, "suggester", new StandardAnalyzer());
+    }
+
+    /**
+     * Returns the version of the current index reader.
+     *
+     * @return Index version
+     * @throws IOException e
+     */
+    private long getIndexVersion() throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return ((DirectoryReader) searcher.getIndexReader()).getVersion();
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+}
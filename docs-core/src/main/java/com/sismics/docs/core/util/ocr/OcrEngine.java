@@ -0,0 +1,23 @@
+package com.sismics.docs.core.util.ocr;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * An OCR engine.
+ *
+ * @author bgamard
+ */
+public interface OcrEngine {
+    /**
+     * Recognize the text of images.
+     * The images of a batch are recognized together, the language models are loaded once.
+     *
+     * @param language Language to OCR, or languages separated by + (e.g. eng+fra)
+     * @param imageFileList Prepared images files (gray, deskewed)
+     * @param timeout Maximum duration of the recognition of an image (in seconds)
+     * @return Text of each image
+     * @throws Exception e
+     */
+    List<String> recognize(String language, List<Path> imageFileList, long timeout) throws Exception;
+}
@@ -0,0 +1,74 @@
+package com.sismics.docs.core.util.ocr;
+
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.util.io.InputStreamReaderThread;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * OCR engine running the tesseract command.
+ * A batch is recognized by a single process from a list file,
+ * the text of each image is followed by a form feed in the output.
+ *
+ * @author bgamard
+ */
+public class TesseractOcrEngine implements OcrEngine {
+    /**
+     * Page separator of tesseract.
+     */
+    private static final String PAGE_SEPARATOR = "\f";
+
+    @Override
+    public List<String> recognize(String language, List<Path> imageFileList, long timeout) throws Exception {
+        Path listFile = null;
+        Path outputFile = AppContext.getInstance().getFileService().createTemporaryFile();
+        try {
+            // A single image is passed directly, a batch as a list of images
+            String input;
+            if (imageFileList.size() == 1) {
+                input = imageFileList.get(0).toAbsolutePath().toString();
+            } else {
+                listFile = AppContext.getInstance().getFileService().createTemporaryFile();
+                Files.write(listFile, imageFileList.stream()
+                        .map(imageFile -> imageFile.toAbsolutePath().toString())
+                        .collect(Collectors.toList()), StandardCharsets.UTF_8);
+                input = listFile.toAbsolutePath().toString();
+            }
+
+            // The output is written to a file, the process can be waited for with a timeout
+            ProcessBuilder pb = new ProcessBuilder(Arrays.asList("tesseract", input, "stdout", "-l", language));
+            pb.redirectOutput(outputFile.toFile());
+            Process process = pb.start();
+            new InputStreamReaderThread(process.getErrorStream(), pb.command().get(0)).start();
+            if (!process.waitFor(timeout * imageFileList.size(), TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("OCR timeout after " + timeout * imageFileList.size() + "s");
+            }
+            if (process.exitValue() != 0) {
+                // e.g. a missing language, the output would be empty
+                throw new IOException("OCR failed with exit code " + process.exitValue());
+            }
+
+            // Split the text of the images
+            String[] contents = new String(Files.readAllBytes(outputFile), StandardCharsets.UTF_8).split(PAGE_SEPARATOR, -1);
+            List<String> contentList = new ArrayList<>(imageFileList.size());
+            for (int i = 0; i < imageFileList.size(); i++) {
+                contentList.add(i < contents.length ? contents[i] : "");
+            }
+            return contentList;
+        } finally {
+            Files.deleteIfExists(outputFile);
+            if (listFile != null) {
+                Files.deleteIfExists(listFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.sismics.docs.core.util.storage;
+
+import com.sismics.docs.core.util.DirectoryUtil;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Storage of the blobs in the storage directory.
+ * The blobs are spread in two levels of sub-directories named after the first characters of their name
+ * (e.g. ab/cd/abcdef...), so that no directory grows too large.
+ * The temporary files are written in the tmp sub-directory, on the same file system as the blobs.
+ *
+ * @author bgamard
+ */
+public class FileSystemStorageBackend implements StorageBackend {
+    /**
+     * Number of characters of the name by directory level.
+     */
+    private static final int LEVEL_LENGTH = 2;
+
+    /**
+     * Number of directory levels.
+     */
+    private static final int LEVEL_COUNT = 2;
+
+    /**
+     * Name of the temporary files directory.
+     */
+    private static final String TMP_DIRECTORY = "tmp";
+
+    @Override
+    public Path getPath(String name) {
+        Path path = DirectoryUtil.getStorageDirectory();
+        for (int i = 0; i < LEVEL_COUNT; i++) {
+            path = path.resolve(name.substring(i * LEVEL_LENGTH, (i + 1) * LEVEL_LENGTH));
+        }
+        return path.resolve(name);
+    }
+
+    @Override
+    public Path createTemporaryFile() throws IOException {
+        // In the storage directory, so that the file is moved without being copied
+        Path tmpDirectory = Files.createDirectories(DirectoryUtil.getStorageDirectory().resolve(TMP_DIRECTORY));
+        return Files.createFile(tmpDirectory.resolve(UUID.randomUUID() + ".tmp"));
+    }
+
+    @Override
+    public int deleteTemporaryFiles(long maxAge) throws IOException {
+        Path tmpDirectory = DirectoryUtil.getStorageDirectory().resolve(TMP_DIRECTORY);
+        if (!Files.isDirectory(tmpDirectory)) {
+            return 0;
+        }
+
+        int count = 0;
+        long maxTime = System.currentTimeMillis() - maxAge;
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(tmpDirectory)) {
+            for (Path tmpFile : directoryStream) {
+                if (Files.getLastModifiedTime(tmpFile).toMillis() < maxTime && Files.deleteIfExists(tmpFile)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void store(Path file, String name) throws IOException {
+        Path path = getPath(name);
+        Files.createDirectories(path.getParent());
+        Files.move(file, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        Files.deleteIfExists(getPath(name));
+    }
+
+    @Override
+    public void forEach(Consumer<String> visitor) throws IOException {
+        forEach(DirectoryUtil.getStorageDirectory(), 0, visitor);
+    }
+
+    /**
+     * Visit the blobs of a directory level.
+     *
+     * @param directory Directory
+     * @param level Directory level
+     * @param visitor Visitor
+     * @throws IOException e
+     */
+    private void forEach(Path directory, int level, Consumer<String> visitor) throws IOException {
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+            for (Path path : directoryStream) {
+                String fileName = path.getFileName().toString();
+                if (level < LEVEL_COUNT) {
+                    // The files at the first levels are not blobs (legacy or temporary files)
+                    if (fileName.length() == LEVEL_LENGTH && Files.isDirectory(path)) {
+                        forEach(path, level + 1, visitor);
+                    }
+                } else {
+                    visitor.accept(fileName);
+                }
+            }
+        }
+    }
+}
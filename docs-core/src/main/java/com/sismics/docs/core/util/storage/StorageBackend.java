@@ -0,0 +1,64 @@
+package com.sismics.docs.core.util.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * A storage of encrypted blobs, addressed by name.
+ *
+ * @author bgamard
+ */
+public interface StorageBackend {
+    /**
+     * Returns the local path of a blob.
+     *
+     * @param name Blob name
+     * @return Path, the blob may not exist
+     */
+    Path getPath(String name);
+
+    /**
+     * Create a temporary file, to be stored as a blob.
+     * The temporary files are kept apart from the blobs.
+     *
+     * @return Temporary file
+     * @throws IOException e
+     */
+    Path createTemporaryFile() throws IOException;
+
+    /**
+     * Delete the temporary files left by the interrupted writes.
+     *
+     * @param maxAge Age of the temporary files to delete (in milliseconds), the recent ones may be being written
+     * @return Number of deleted temporary files
+     * @throws IOException e
+     */
+    int deleteTemporaryFiles(long maxAge) throws IOException;
+
+    /**
+     * Store a file as a blob, replacing the existing one.
+     * The blob is never seen partially written.
+     *
+     * @param file File to store, moved to the storage
+     * @param name Blob name
+     * @throws IOException e
+     */
+    void store(Path file, String name) throws IOException;
+
+    /**
+     * Delete a blob.
+     *
+     * @param name Blob name
+     * @throws IOException e
+     */
+    void delete(String name) throws IOException;
+
+    /**
+     * Visit the names of all the blobs.
+     *
+     * @param visitor Visitor
+     * @throws IOException e
+     */
+    void forEach(Consumer<String> visitor) throws IOException;
+}
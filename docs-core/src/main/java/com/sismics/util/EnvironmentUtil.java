@@ -1,5 +1,9 @@
 package com.sismics.util;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+
 /**
  * Environment properties utilities.
  *
@@ -17,6 +21,8 @@ public class EnvironmentUtil {
 
     private static String TEEDY_HOME = System.getProperty("docs.home");
 
+    private static String NODE_ID = System.getProperty("docs.node_id");
+
     /**
      * In a web application context.
      */
@@ -94,6 +100,23 @@ public class EnvironmentUtil {
         return TEEDY_HOME;
     }
 
+    /**
+     * Returns the ID of this server among the servers sharing the database.
+     * Defaults to the host name, which must not change on restart for the server to find its own jobs.
+     *
+     * @return Server ID
+     */
+    public static synchronized String getNodeId() {
+        if (NODE_ID == null) {
+            try {
+                NODE_ID = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                NODE_ID = UUID.randomUUID().toString();
+            }
+        }
+        return NODE_ID;
+    }
+
     /**
      * Getter of webappContext.
      *
@@ -1,7 +1,9 @@
 package com.sismics.util;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -15,6 +17,11 @@ public class HttpUtil {
      */
     private static final SimpleDateFormat EXPIRES_FORMAT = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.ENGLISH);
 
+    /**
+     * Maximum number of ranges served in a single response.
+     */
+    private static final int MAX_RANGES = 16;
+
     /**
      * Build an Expires HTTP header.
      *
@@ -24,4 +31,87 @@ public class HttpUtil {
     public static String buildExpiresHeader(long futureTime) {
         return EXPIRES_FORMAT.format(new Date().getTime() + futureTime);
     }
+
+    /**
+     * Returns true if an If-None-Match header matches an entity tag.
+     * The comparison is weak, as required for this header.
+     *
+     * @param header If-None-Match header value
+     * @param entityTag Quoted entity tag
+     * @return True if the header matches
+     */
+    public static boolean matchesEntityTag(String header, String entityTag) {
+        if (header == null) {
+            return false;
+        }
+
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(entityTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse a Range header.
+     *
+     * @param header Range header value
+     * @param length Length of the resource
+     * @return Ranges as first and last byte positions, null to serve the whole resource, empty if not satisfiable
+     */
+    public static List<long[]> parseRange(String header, long length) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+
+        String[] specList = header.substring("bytes=".length()).split(",");
+        if (specList.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<long[]> rangeList = new ArrayList<>();
+        for (String spec : specList) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+
+            long first;
+            long last;
+            try {
+                if (dash == 0) {
+                    // Last bytes of the resource
+                    long suffixLength = Long.parseLong(spec.substring(1));
+                    if (suffixLength < 0) {
+                        return null;
+                    }
+                    first = Math.max(length - suffixLength, 0);
+                    last = suffixLength == 0 ? -1 : length - 1;
+                } else {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    last = length - 1;
+                    if (dash < spec.length() - 1) {
+                        last = Long.parseLong(spec.substring(dash + 1));
+                        if (last < first) {
+                            return null;
+                        }
+                        last = Math.min(last, length - 1);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            if (first < length && first <= last) {
+                rangeList.add(new long[] { first, last });
+            }
+        }
+        return rangeList;
+    }
 }
@@ -4,8 +4,11 @@ import com.google.common.hash.Hashing;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -13,6 +16,9 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 
 /**
@@ -66,6 +72,39 @@ public class ImageUtil {
         }
     }
     
+    /**
+     * Read an image, skipping pixels at decoding if it is larger than needed.
+     * The image is subsampled by an integer factor, so that its largest side stays at least of the wanted size.
+     * Only the subsampled image is allocated, not the full resolution one.
+     *
+     * @param file Image file
+     * @param size Minimum size of the largest side of the image (in pixels)
+     * @return Image, null if the format is not supported
+     * @throws IOException e
+     */
+    public static BufferedImage readSubsampled(Path file, int size) throws IOException {
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(file.toFile())) {
+            if (imageInputStream == null) {
+                return null;
+            }
+            Iterator<ImageReader> iter = ImageIO.getImageReaders(imageInputStream);
+            if (!iter.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = iter.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                int subsampling = Math.max(Math.max(reader.getWidth(0), reader.getHeight(0)) / size, 1);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
     /**
      * Compute Gravatar hash.
      * See https://en.gravatar.com/site/implement/hash/.
@@ -84,6 +123,84 @@ public class ImageUtil {
                 .toString();
     }
 
+    /**
+     * Return true if an image is blank, e.g. a scanned separator sheet.
+     * The image is blank if it has no dark mark, a mark being a group of connected dark pixels
+     * at least 1/250 of the image wide or high (0.85 mm on a page), e.g. a letter, a page number or a signature.
+     * Smaller marks (dust) and the marks touching the borders (shadows on scans) are ignored.
+     *
+     * @param image Image
+     * @return True if blank
+     */
+    public static boolean isBlank(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int minMarkSize = Math.max(Math.min(width, height) / 250, 2);
+
+        // Dark pixels
+        boolean gray = image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        BitSet darkSet = new BitSet(width * height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            // Read the row at once, the rendered PDF pages are gray
+            if (gray) {
+                image.getRaster().getSamples(0, y, width, 1, 0, row);
+            } else {
+                image.getRGB(0, y, width, 1, row, 0, width);
+            }
+
+            for (int x = 0; x < width; x++) {
+                int luminance = gray ? row[x] : (int) ((row[x] >> 16 & 0xff) * 0.299
+                        + (row[x] >> 8 & 0xff) * 0.587 + (row[x] & 0xff) * 0.114);
+                if (luminance < 140) {
+                    darkSet.set(y * width + x);
+                }
+            }
+        }
+
+        // Look for a mark, the dark pixels are cleared as they are visited
+        int[] stack = new int[1024];
+        for (int start = darkSet.nextSetBit(0); start >= 0; start = darkSet.nextSetBit(start + 1)) {
+            int minX = width;
+            int minY = height;
+            int maxX = -1;
+            int maxY = -1;
+            int stackSize = 0;
+            stack[stackSize++] = start;
+            darkSet.clear(start);
+            while (stackSize > 0) {
+                int pixel = stack[--stackSize];
+                int x = pixel % width;
+                int y = pixel / width;
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+
+                // Visit the 8 neighbours
+                for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, height - 1); ny++) {
+                    for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, width - 1); nx++) {
+                        int neighbour = ny * width + nx;
+                        if (darkSet.get(neighbour)) {
+                            darkSet.clear(neighbour);
+                            if (stackSize == stack.length) {
+                                stack = Arrays.copyOf(stack, stackSize * 2);
+                            }
+                            stack[stackSize++] = neighbour;
+                        }
+                    }
+                }
+            }
+
+            boolean border = minX == 0 || minY == 0 || maxX == width - 1 || maxY == height - 1;
+            if (!border && (maxX - minX + 1 >= minMarkSize || maxY - minY + 1 >= minMarkSize)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Return true if a pixel is black.
      *
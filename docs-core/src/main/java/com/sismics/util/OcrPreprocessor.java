@@ -0,0 +1,290 @@
+package com.sismics.util;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Preparation of the images for the OCR: grayscale, upscaling of low resolution images and deskewing.
+ * The pixels are read directly from the gray rasters, and at most one copy of the image is made by step.
+ *
+ * @author bgamard
+ */
+public class OcrPreprocessor {
+    /**
+     * Resolution of the images sent to the OCR (in DPI).
+     */
+    private static final int TARGET_DPI = 300;
+
+    /**
+     * Height of a page (A4, in inches), used to estimate the resolution of the images without one.
+     */
+    private static final double PAGE_HEIGHT_INCH = 11.69;
+
+    /**
+     * Largest side of the edge map used to detect the skew angle (in pixels).
+     */
+    private static final int EDGE_MAP_SIZE = 1000;
+
+    /**
+     * Luminance under which a pixel is black.
+     */
+    private static final int BLACK_LUMINANCE = 140;
+
+    /**
+     * First searched angle (in degrees).
+     */
+    private static final double ANGLE_START = -20;
+
+    /**
+     * Step between the searched angles (in degrees).
+     */
+    private static final double ANGLE_STEP = 0.2;
+
+    /**
+     * Number of searched angles.
+     */
+    private static final int ANGLE_COUNT = 200;
+
+    /**
+     * Number of lines averaged to compute the skew angle.
+     */
+    private static final int LINE_COUNT = 20;
+
+    /**
+     * Skew angle under which the image is not rotated (in degrees).
+     */
+    private static final double MIN_ROTATION = 0.05;
+
+    /**
+     * Prepare an image for the OCR.
+     *
+     * @param image Image, flushed if a copy is made
+     * @param dpi Resolution of the image, 0 if unknown
+     * @return Gray image, upscaled if needed and deskewed
+     */
+    public static BufferedImage preprocess(BufferedImage image, int dpi) {
+        BufferedImage grayImage = toGray(image);
+
+        // Upscale only the images with a low resolution
+        if (dpi <= 0) {
+            dpi = (int) (Math.max(grayImage.getWidth(), grayImage.getHeight()) / PAGE_HEIGHT_INCH);
+        }
+        if (dpi < TARGET_DPI) {
+            double scale = (double) TARGET_DPI / dpi;
+            grayImage = replace(grayImage, transform(grayImage, AffineTransform.getScaleInstance(scale, scale),
+                    (int) Math.round(grayImage.getWidth() * scale), (int) Math.round(grayImage.getHeight() * scale)));
+        }
+
+        double angle = getSkewAngle(grayImage);
+        if (Math.abs(angle) >= MIN_ROTATION) {
+            AffineTransform tx = AffineTransform.getRotateInstance(Math.toRadians(-angle),
+                    grayImage.getWidth() / 2.0, grayImage.getHeight() / 2.0);
+            grayImage = replace(grayImage, transform(grayImage, tx, grayImage.getWidth(), grayImage.getHeight()));
+        }
+
+        if (grayImage != image) {
+            image.flush();
+        }
+        return grayImage;
+    }
+
+    /**
+     * Compute the skew angle of a gray image.
+     * The lines are searched with a Hough transform on the lower edges of a downsampled black and white image,
+     * each searched angle being handled in parallel.
+     *
+     * @param image Image
+     * @return Skew angle (in degrees)
+     */
+    public static double getSkewAngle(BufferedImage image) {
+        image = toGray(image);
+
+        // Downsample keeping the darkest pixel of each block, the text strokes stay black
+        int factor = (Math.max(image.getWidth(), image.getHeight()) + EDGE_MAP_SIZE - 1) / EDGE_MAP_SIZE;
+        int width = image.getWidth() / factor;
+        int height = image.getHeight() / factor;
+        boolean[] black = new boolean[width * height];
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int scanline = image.getWidth();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int offset = y * factor * scanline + x * factor;
+                boolean blackBlock = false;
+                for (int by = 0; by < factor && !blackBlock; by++) {
+                    for (int bx = 0; bx < factor; bx++) {
+                        if ((data[offset + by * scanline + bx] & 0xff) < BLACK_LUMINANCE) {
+                            blackBlock = true;
+                            break;
+                        }
+                    }
+                }
+                black[y * width + x] = blackBlock;
+            }
+        }
+
+        // Only the lower edges of the middle half are considered
+        int[] edgeX = new int[1024];
+        int[] edgeY = new int[1024];
+        int edgeCount = 0;
+        for (int y = height / 4; y < height * 3 / 4; y++) {
+            for (int x = 1; x < width - 2; x++) {
+                if (black[y * width + x] && !black[(y + 1) * width + x]) {
+                    if (edgeCount == edgeX.length) {
+                        edgeX = Arrays.copyOf(edgeX, edgeCount * 2);
+                        edgeY = Arrays.copyOf(edgeY, edgeCount * 2);
+                    }
+                    edgeX[edgeCount] = x;
+                    edgeY[edgeCount] = y;
+                    edgeCount++;
+                }
+            }
+        }
+
+        // Vote for the lines, each angle has its own distance histogram and keeps its best lines
+        double maxSin = Math.sin(Math.toRadians(Math.max(Math.abs(ANGLE_START), Math.abs(getAngle(ANGLE_COUNT - 1)))));
+        int dMin = (int) Math.floor(-width * maxSin) - 1;
+        int dCount = (int) Math.ceil(height + width * maxSin) - dMin + 1;
+        int[] finalEdgeX = edgeX;
+        int[] finalEdgeY = edgeY;
+        int finalEdgeCount = edgeCount;
+        List<long[]> lineList = IntStream.range(0, ANGLE_COUNT).parallel()
+                .mapToObj(angleIndex -> {
+                    double angle = Math.toRadians(getAngle(angleIndex));
+                    double sin = Math.sin(angle);
+                    double cos = Math.cos(angle);
+                    int[] histogram = new int[dCount];
+                    for (int i = 0; i < finalEdgeCount; i++) {
+                        histogram[(int) (finalEdgeY[i] * cos - finalEdgeX[i] * sin) - dMin]++;
+                    }
+                    return getTopLines(histogram, angleIndex);
+                })
+                .flatMap(List::stream)
+                .sorted(Comparator.comparingLong((long[] line) -> line[0]).reversed())
+                .limit(LINE_COUNT)
+                .collect(Collectors.toList());
+
+        // Average angle of the best lines
+        if (lineList.size() < LINE_COUNT) {
+            return 0;
+        }
+        double sum = 0;
+        for (long[] line : lineList) {
+            sum += getAngle((int) line[1]);
+        }
+        return sum / lineList.size();
+    }
+
+    /**
+     * Returns the best lines of an angle.
+     *
+     * @param histogram Number of points by distance
+     * @param angleIndex Angle index
+     * @return Lines as (number of points, angle index)
+     */
+    private static List<long[]> getTopLines(int[] histogram, int angleIndex) {
+        // Insertion in a small sorted array, most distances have no point
+        int[] topCount = new int[LINE_COUNT];
+        int size = 0;
+        for (int count : histogram) {
+            if (count == 0 || (size == LINE_COUNT && count <= topCount[LINE_COUNT - 1])) {
+                continue;
+            }
+            int i = size < LINE_COUNT ? size++ : LINE_COUNT - 1;
+            while (i > 0 && topCount[i - 1] < count) {
+                topCount[i] = topCount[i - 1];
+                i--;
+            }
+            topCount[i] = count;
+        }
+
+        List<long[]> lineList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            lineList.add(new long[] { topCount[i], angleIndex });
+        }
+        return lineList;
+    }
+
+    /**
+     * Returns a searched angle.
+     *
+     * @param angleIndex Angle index
+     * @return Angle (in degrees)
+     */
+    private static double getAngle(int angleIndex) {
+        return ANGLE_START + angleIndex * ANGLE_STEP;
+    }
+
+    /**
+     * Returns a gray image with a plain byte raster, the image itself if it is already one.
+     *
+     * @param image Image
+     * @return Gray image
+     */
+    private static BufferedImage toGray(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY
+                && image.getRaster().getSampleModel() instanceof ComponentSampleModel
+                && ((ComponentSampleModel) image.getRaster().getSampleModel()).getScanlineStride() == image.getWidth()
+                && image.getRaster().getSampleModelTranslateX() == 0
+                && image.getRaster().getSampleModelTranslateY() == 0) {
+            return image;
+        }
+
+        // Convert row by row with the same luminance as ImageUtil
+        int width = image.getWidth();
+        BufferedImage grayImage = new BufferedImage(width, image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        byte[] data = ((DataBufferByte) grayImage.getRaster().getDataBuffer()).getData();
+        int[] row = new int[width];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                data[y * width + x] = (byte) (((rgb >> 16 & 0xff) * 299 + (rgb >> 8 & 0xff) * 587 + (rgb & 0xff) * 114 + 500) / 1000);
+            }
+        }
+        return grayImage;
+    }
+
+    /**
+     * Draw a transformed gray image on a white background.
+     *
+     * @param image Gray image
+     * @param tx Transformation
+     * @param width Width of the result
+     * @param height Height of the result
+     * @return Transformed gray image
+     */
+    private static BufferedImage transform(BufferedImage image, AffineTransform tx, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = result.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, tx, null);
+        } finally {
+            graphics.dispose();
+        }
+        return result;
+    }
+
+    /**
+     * Flush an intermediate image replaced by its transformation.
+     *
+     * @param image Intermediate image
+     * @param result Transformed image
+     * @return Transformed image
+     */
+    private static BufferedImage replace(BufferedImage image, BufferedImage result) {
+        image.flush();
+        return result;
+    }
+}
@@ -2,6 +2,8 @@ package com.sismics.util.context;
 
 import com.google.common.collect.Lists;
 import com.sismics.docs.core.model.context.AppContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import jakarta.persistence.EntityManager;
 import java.util.Iterator;
@@ -13,6 +15,11 @@ import java.util.List;
  * @author jtremeaux
  */
 public class ThreadLocalContext {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ThreadLocalContext.class);
+
     /**
      * ThreadLocal to store the context.
      */
@@ -28,6 +35,11 @@ public class ThreadLocalContext {
      */
     private List<Object> asyncEventList = Lists.newArrayList();
 
+    /**
+     * List of actions to run once the current transaction is committed.
+     */
+    private List<Runnable> afterCommitList = Lists.newArrayList();
+
     /**
      * Private constructor.
      */
@@ -88,15 +100,51 @@ public class ThreadLocalContext {
         asyncEventList.add(asyncEvent);
     }
 
+    /**
+     * Add an action to run once the current transaction is committed, e.g. deleting a file
+     * or invalidating a cache. The actions are discarded if the transaction is rolled back.
+     * They run outside of the transaction and must not use the database.
+     *
+     * @param runnable Action
+     */
+    public void addAfterCommit(Runnable runnable) {
+        afterCommitList.add(runnable);
+    }
+
+    /**
+     * Run the actions waiting for the commit of the current transaction.
+     */
+    public void runAfterCommit() {
+        Iterator<Runnable> iterator = afterCommitList.iterator();
+        while (iterator.hasNext()) {
+            Runnable runnable = iterator.next();
+            iterator.remove();
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                log.error("Error running an action after commit", e);
+            }
+        }
+    }
+
     /**
      * Fire all pending async events.
      */
     public void fireAllAsyncEvents() {
+        fireAllAsyncEvents(false);
+    }
+
+    /**
+     * Fire all pending async events.
+     *
+     * @param bulk True if the events are part of a bulk operation, processed after the interactive ones
+     */
+    public void fireAllAsyncEvents(boolean bulk) {
         Iterator<Object> iterator = asyncEventList.iterator();
         while (iterator.hasNext()) {
             Object asyncEvent = iterator.next();
             iterator.remove();
-            AppContext.getInstance().getAsyncEventBus().post(asyncEvent);
+            AppContext.getInstance().postAsyncEvent(asyncEvent, bulk);
         }
     }
 }
@@ -2,8 +2,11 @@ package com.sismics.util.mime;
 
 import java.io.IOException;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * Utility to check MIME types.
@@ -11,6 +14,11 @@ import java.nio.file.Path;
  * @author bgamard
  */
 public class MimeTypeUtil {
+    /**
+     * Number of bytes read at the beginning of a file to guess its MIME type.
+     */
+    public static final int HEADER_SIZE = 8192;
+
     /**
      * Try to guess the MIME type of a file.
      * 
@@ -32,6 +40,114 @@ public class MimeTypeUtil {
 
         return mimeType;
     }
+
+    /**
+     * Try to guess the MIME type of a file from its first bytes.
+     * The well known signatures are recognized, otherwise the MIME type is guessed from the name.
+     *
+     * @param header First bytes of the file, up to {@link #HEADER_SIZE}
+     * @param name File name
+     * @return MIME type
+     */
+    public static String guessMimeType(byte[] header, String name) {
+        String nameMimeType = guessMimeTypeFromName(name);
+
+        if (startsWith(header, 0, "%PDF-")) {
+            return MimeType.APPLICATION_PDF;
+        }
+        if (startsWith(header, 0, new byte[] { (byte) 0x89, 'P', 'N', 'G' })) {
+            return MimeType.IMAGE_PNG;
+        }
+        if (startsWith(header, 0, new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF })) {
+            return MimeType.IMAGE_JPEG;
+        }
+        if (startsWith(header, 0, "GIF8")) {
+            return MimeType.IMAGE_GIF;
+        }
+        if (startsWith(header, 0, new byte[] { 0x1A, 0x45, (byte) 0xDF, (byte) 0xA3 })) {
+            return MimeType.VIDEO_WEBM;
+        }
+        if (startsWith(header, 4, "ftyp")) {
+            return MimeType.VIDEO_MP4;
+        }
+        if (startsWith(header, 0, "PK\u0003\u0004")) {
+            // Office documents are ZIP files, recognized by their first entries
+            if (contains(header, "mimetypeapplication/vnd.oasis.opendocument.text")) {
+                return MimeType.OPEN_DOCUMENT_TEXT;
+            }
+            if (contains(header, "word/")) {
+                return MimeType.OFFICE_DOCUMENT;
+            }
+            if (contains(header, "ppt/")) {
+                return MimeType.OFFICE_PRESENTATION;
+            }
+            if (contains(header, "xl/")) {
+                return MimeType.OFFICE_SHEET;
+            }
+            return nameMimeType == null ? MimeType.APPLICATION_ZIP : nameMimeType;
+        }
+
+        return nameMimeType == null ? MimeType.DEFAULT : nameMimeType;
+    }
+
+    /**
+     * Try to guess the MIME type of a file from its name only.
+     *
+     * @param name File name
+     * @return MIME type, null if unknown
+     */
+    private static String guessMimeTypeFromName(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        String mimeType = null;
+        try {
+            mimeType = Files.probeContentType(Paths.get(name));
+        } catch (IOException | InvalidPathException e) {
+            // Try the next method
+        }
+
+        if (mimeType == null) {
+            mimeType = URLConnection.getFileNameMap().getContentTypeFor(name);
+        }
+        return mimeType;
+    }
+
+    /**
+     * Returns true if the bytes at an offset match a signature.
+     *
+     * @param header Bytes
+     * @param offset Offset
+     * @param signature Signature
+     * @return True if the signature matches
+     */
+    private static boolean startsWith(byte[] header, int offset, byte[] signature) {
+        if (header.length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (header[offset + i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] header, int offset, String signature) {
+        return startsWith(header, offset, signature.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Returns true if the bytes contain an ASCII string.
+     *
+     * @param header Bytes
+     * @param value ASCII string
+     * @return True if found
+     */
+    private static boolean contains(byte[] header, String value) {
+        return new String(header, StandardCharsets.ISO_8859_1).contains(value);
+    }
     
     /**
      * Get a file extension linked to a MIME type.
@@ -0,0 +1,9 @@
+-- DBUPDATE-032-0.SQL
+
+-- Insert the Lucene near-real-time settings
+insert into T_CONFIG (CFG_ID_C, CFG_VALUE_C) values ('LUCENE_REFRESH_INTERVAL', '1000');
+insert into T_CONFIG (CFG_ID_C, CFG_VALUE_C) values ('LUCENE_COMMIT_INTERVAL', '60');
+insert into T_CONFIG (CFG_ID_C, CFG_VALUE_C) values ('LUCENE_COMMIT_OPERATIONS', '1000');
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '32' where CFG_ID_C = 'DB_VERSION';
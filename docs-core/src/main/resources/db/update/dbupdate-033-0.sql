@@ -0,0 +1,7 @@
+-- DBUPDATE-033-0.SQL
+
+-- Insert the search suggester settings
+insert into T_CONFIG (CFG_ID_C, CFG_VALUE_C) values ('LUCENE_SUGGESTER_REBUILD_CHANGES', '100');
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '33' where CFG_ID_C = 'DB_VERSION';
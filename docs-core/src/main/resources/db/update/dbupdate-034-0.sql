@@ -0,0 +1,7 @@
+-- DBUPDATE-034-0.SQL
+
+-- Record when a file was last processed, to version its thumbnails
+alter table T_FILE add column FIL_PROCESSDATE_D datetime;
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '34' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,8 @@
+-- DBUPDATE-035-0.SQL
+
+-- Create the file processing jobs table, a job is leased by the server processing it
+create cached table T_FILE_JOB ( FJB_IDFILE_C varchar(36) not null, FJB_IDUSER_C varchar(36) not null, FJB_LANGUAGE_C varchar(7), FJB_NEWFILE_B bit not null, FJB_STATUS_C varchar(10) not null, FJB_ATTEMPTS_N int not null, FJB_LEASEDATE_D datetime not null, FJB_OWNER_C varchar(100), FJB_CREATEDATE_D datetime not null, FJB_ERROR_C varchar(1000), primary key (FJB_IDFILE_C) );
+create index IDX_FJB_STATUS_LEASEDATE on T_FILE_JOB (FJB_STATUS_C, FJB_LEASEDATE_D);
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '35' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,7 @@
+-- DBUPDATE-036-0.SQL
+
+-- Store the hash of the file contents
+alter table T_FILE add column FIL_CONTENTHASH_C varchar(64);
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '36' where CFG_ID_C = 'DB_VERSION';
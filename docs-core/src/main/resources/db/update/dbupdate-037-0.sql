@@ -0,0 +1,8 @@
+-- DBUPDATE-037-0.SQL
+
+-- Create the resumable uploads table
+create cached table T_FILE_UPLOAD ( FUP_ID_C varchar(36) not null, FUP_IDUSER_C varchar(36) not null, FUP_IDDOC_C varchar(36), FUP_IDPREVIOUSFILE_C varchar(36), FUP_NAME_C varchar(200), FUP_SIZE_N bigint not null, FUP_CREATEDATE_D datetime not null, FUP_UPDATEDATE_D datetime not null, primary key (FUP_ID_C) );
+create index IDX_FUP_UPDATEDATE on T_FILE_UPLOAD (FUP_UPDATEDATE_D);
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '37' where CFG_ID_C = 'DB_VERSION';
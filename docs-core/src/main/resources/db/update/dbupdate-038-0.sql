@@ -0,0 +1,7 @@
+-- DBUPDATE-038-0.SQL
+
+-- Create the file texts table, the existing contents are moved from T_FILE by the file content migration service
+create cached table T_FILE_TEXT ( FTX_IDFILE_C varchar(36) not null, FTX_CONTENT_BIN longvarbinary not null, primary key (FTX_IDFILE_C) );
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '38' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,11 @@
+-- DBUPDATE-039-0.SQL
+
+-- Create the stored blobs table, a blob is shared by the identical files of a user
+create cached table T_STORAGE_BLOB ( SBL_KEY_C varchar(64) not null, SBL_REFCOUNT_N int not null, primary key (SBL_KEY_C) );
+alter table T_FILE add column FIL_STORAGEKEY_C varchar(64);
+
+-- Find the files referencing a blob, to recompute its reference count
+create index IDX_FIL_STORAGEKEY_C on T_FILE (FIL_STORAGEKEY_C);
+
+-- Update the database version
+update T_CONFIG set CFG_VALUE_C = '39' where CFG_ID_C = 'DB_VERSION';
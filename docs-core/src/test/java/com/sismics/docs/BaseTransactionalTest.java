@@ -65,9 +65,9 @@ public abstract class BaseTransactionalTest extends BaseTest {
             file.setVersion(0);
             file.setMimeType(MimeType.IMAGE_JPEG);
             file.setSize(fileSize);
-            String fileId = fileDao.create(file, user.getId());
+            fileDao.create(file, user.getId());
             Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-            Files.copy(new CipherInputStream(inputStream, cipher), DirectoryUtil.getStorageDirectory().resolve(fileId), REPLACE_EXISTING);
+            Files.copy(new CipherInputStream(inputStream, cipher), DirectoryUtil.getStorageDirectory().resolve(file.getId()), REPLACE_EXISTING);
             return file;
         }
     }
@@ -0,0 +1,93 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.FileJobStatus;
+import com.sismics.docs.core.model.jpa.FileJob;
+import com.sismics.util.EnvironmentUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test of the file processing job DAO.
+ *
+ * @author bgamard
+ */
+public class TestFileJobDao extends BaseTransactionalTest {
+    @Test
+    public void jobLifecycleTest() {
+        FileJobDao fileJobDao = new FileJobDao();
+        fileJobDao.queue("file1", "admin", "eng", true);
+        FileJob fileJob = fileJobDao.getById("file1");
+        Assert.assertEquals(FileJobStatus.QUEUED, fileJob.getStatus());
+        Assert.assertEquals(0, fileJob.getAttempts());
+        Assert.assertTrue(fileJob.isNewFile());
+
+        // The lease is held while the job is queued
+        Assert.assertTrue(fileJobDao.claim(10, new Date(), new Date(), Set.of()).isEmpty());
+        Assert.assertEquals(1L, (long) fileJobDao.countByStatus().get(FileJobStatus.QUEUED));
+        Assert.assertNotNull(fileJobDao.getOldestCreateDate());
+
+        // A failed attempt is retried later
+        fileJob = fileJobDao.start("file1");
+        Assert.assertEquals(FileJobStatus.RUNNING, fileJob.getStatus());
+        Assert.assertEquals(1, fileJob.getAttempts());
+        fileJobDao.fail("file1", "Error");
+        fileJob = fileJobDao.getById("file1");
+        Assert.assertEquals(FileJobStatus.QUEUED, fileJob.getStatus());
+        Assert.assertEquals("Error", fileJob.getError());
+        Assert.assertTrue(fileJob.getLeaseDate().after(new Date()));
+
+        // The job of another server is claimed only once its lease has expired
+        Date leaseDate = new Date(System.currentTimeMillis() + FileJobDao.LEASE_DURATION);
+        Assert.assertEquals(EnvironmentUtil.getNodeId(), fileJob.getOwner());
+        fileJobDao.getById("file1").setOwner("other");
+        Assert.assertTrue(fileJobDao.claim(10, new Date(), leaseDate, Set.of()).isEmpty());
+        fileJobDao.getById("file1").setOwner(EnvironmentUtil.getNodeId());
+
+        // The job of this server is claimed earlier, unless it is processing
+        Assert.assertTrue(fileJobDao.claim(10, new Date(), leaseDate, Set.of("file1")).isEmpty());
+        List<FileJob> fileJobList = fileJobDao.claim(10, new Date(), leaseDate, Set.of("file2"));
+        Assert.assertEquals(1, fileJobList.size());
+        Assert.assertEquals("file1", fileJobList.get(0).getFileId());
+
+        // Queuing again resets the job
+        fileJobDao.queue("file1", "admin", "fra", false);
+        fileJob = fileJobDao.getById("file1");
+        Assert.assertEquals(0, fileJob.getAttempts());
+        Assert.assertEquals("fra", fileJob.getLanguage());
+        Assert.assertTrue(fileJob.isNewFile());
+
+        // Too many attempts
+        for (int i = 0; i < FileJobDao.MAX_ATTEMPTS; i++) {
+            fileJobDao.start("file1");
+            fileJobDao.fail("file1", "Error");
+        }
+        fileJob = fileJobDao.getById("file1");
+        Assert.assertEquals(FileJobStatus.FAILED, fileJob.getStatus());
+        Date farLeaseDate = new Date(System.currentTimeMillis() + 86400000L);
+        Assert.assertTrue(fileJobDao.claim(10, farLeaseDate, farLeaseDate, Set.of()).isEmpty());
+        Assert.assertEquals(1L, (long) fileJobDao.countByStatus().get(FileJobStatus.FAILED));
+        Assert.assertNull(fileJobDao.getOldestCreateDate());
+
+        // The failed jobs are kept for a while
+        Assert.assertEquals(0, fileJobDao.deleteFailed(new Date(System.currentTimeMillis() - 60000L)));
+        Assert.assertNotNull(fileJobDao.getById("file1"));
+
+        // Delete the job
+        fileJobDao.delete("file1");
+        Assert.assertNull(fileJobDao.getById("file1"));
+
+        // Purge the failed jobs
+        fileJobDao.queue("file2", "admin", "eng", true);
+        for (int i = 0; i < FileJobDao.MAX_ATTEMPTS; i++) {
+            fileJobDao.start("file2");
+            fileJobDao.fail("file2", "Error");
+        }
+        Assert.assertEquals(1, fileJobDao.deleteFailed(new Date(System.currentTimeMillis() + 60000L)));
+        Assert.assertEquals(0L, (long) fileJobDao.countByStatus().get(FileJobStatus.FAILED));
+    }
+}
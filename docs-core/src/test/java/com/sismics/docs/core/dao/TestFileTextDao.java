@@ -0,0 +1,64 @@
+package com.sismics.docs.core.dao;
+
+import com.google.common.base.Strings;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.FileText;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import jakarta.persistence.EntityManager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test of the file content DAO.
+ *
+ * @author bgamard
+ */
+public class TestFileTextDao extends BaseTransactionalTest {
+    @Test
+    public void contentTest() throws Exception {
+        User user = createUser("contentTest");
+        File file = createFile(user, FILE_JPG_SIZE);
+        FileTextDao fileTextDao = new FileTextDao();
+        Assert.assertNull(fileTextDao.getContent(file.getId()));
+        Assert.assertNull(fileTextDao.getContentInMemory(file.getId()));
+
+        // The content is stored compressed
+        String content = Strings.repeat("All human beings are born free and equal in dignity and rights. ", 100);
+        fileTextDao.save(file.getId(), content);
+        Assert.assertEquals(content, fileTextDao.getContent(file.getId()));
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Assert.assertTrue(em.find(FileText.class, file.getId()).getCompressedContent().length < content.length() / 10);
+        Map<String, String> contentMap = fileTextDao.getContents(List.of(file.getId(), "unknown"));
+        Assert.assertEquals(1, contentMap.size());
+        Assert.assertEquals(content, contentMap.get(file.getId()));
+
+        // Deleted with a null content
+        fileTextDao.save(file.getId(), null);
+        Assert.assertNull(fileTextDao.getContent(file.getId()));
+    }
+
+    @Test
+    public void migrateLegacyContentsTest() throws Exception {
+        User user = createUser("migrateLegacyContentsTest");
+        File file = createFile(user, FILE_JPG_SIZE);
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.createNativeQuery("update T_FILE set FIL_CONTENT_C = 'Legacy content' where FIL_ID_C = :fileId")
+                .setParameter("fileId", file.getId())
+                .executeUpdate();
+
+        // The content not migrated yet is still read
+        FileTextDao fileTextDao = new FileTextDao();
+        Assert.assertEquals("Legacy content", fileTextDao.getContent(file.getId()));
+        Assert.assertEquals("Legacy content", fileTextDao.getContents(List.of(file.getId())).get(file.getId()));
+
+        Assert.assertEquals(1, fileTextDao.migrateLegacyContents(10));
+        Assert.assertEquals(0, fileTextDao.migrateLegacyContents(10));
+        Assert.assertNotNull(em.find(FileText.class, file.getId()));
+        Assert.assertEquals("Legacy content", fileTextDao.getContent(file.getId()));
+    }
+}
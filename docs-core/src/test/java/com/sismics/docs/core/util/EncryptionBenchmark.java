@@ -0,0 +1,84 @@
+package com.sismics.docs.core.util;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Random;
+
+/**
+ * Benchmark of the encryption utilities.
+ * Run with mvn test -Pbenchmark.
+ *
+ * @author bgamard
+ */
+public class EncryptionBenchmark {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(EncryptionBenchmark.class);
+
+    /**
+     * Compare the time to get a cipher with a derived key and with a cached one.
+     */
+    @Test
+    public void keyDerivationBenchmark() throws Exception {
+        String key = EncryptionUtil.generatePrivateKey();
+        for (boolean cached : new boolean[] { false, true }) {
+            // Warm up, then measure
+            int count = cached ? 100000 : 200;
+            for (int i = 0; i < count / 10; i++) {
+                if (!cached) {
+                    EncryptionUtil.invalidateKey(key);
+                }
+                EncryptionUtil.getEncryptionCipher(key);
+            }
+            long startTime = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                if (!cached) {
+                    EncryptionUtil.invalidateKey(key);
+                }
+                EncryptionUtil.getEncryptionCipher(key);
+            }
+            long duration = System.nanoTime() - startTime;
+            log.info("{} key: {} µs per cipher", cached ? "Cached" : "Derived", duration / count / 1000.0);
+        }
+    }
+
+    /**
+     * Compare the AES-CTR throughput of the Bouncy Castle and JDK providers on one core.
+     */
+    @Test
+    public void cipherBenchmark() throws Exception {
+        byte[] key = new byte[32];
+        byte[] iv = new byte[16];
+        Random random = new Random(42);
+        random.nextBytes(key);
+        random.nextBytes(iv);
+        byte[] data = new byte[1024 * 1024];
+        random.nextBytes(data);
+        byte[] output = new byte[data.length];
+
+        for (Provider provider : new Provider[] { new BouncyCastleProvider(), Security.getProvider("SunJCE") }) {
+            Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding", provider);
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+
+            // Warm up, then measure 1 GB
+            for (int i = 0; i < 256; i++) {
+                cipher.update(data, 0, data.length, output, 0);
+            }
+            long startTime = System.nanoTime();
+            for (int i = 0; i < 1024; i++) {
+                cipher.update(data, 0, data.length, output, 0);
+            }
+            long duration = System.nanoTime() - startTime;
+            log.info("{}: {} MB/s", provider.getName(), 1024L * 1000000000 / duration);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.sismics.docs.core.util;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the event executor.
+ * Run with mvn test -Pbenchmark.
+ *
+ * @author bgamard
+ */
+public class EventExecutorBenchmark {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(EventExecutorBenchmark.class);
+
+    /**
+     * Compare the throughput and the memory of platform and virtual threads, with I/O-bound listeners.
+     */
+    @Test
+    public void virtualThreadsBenchmark() throws Exception {
+        for (boolean virtualThreads : new boolean[] { false, true }) {
+            System.gc();
+            long usedMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+            int threadCount = ManagementFactory.getThreadMXBean().getThreadCount();
+            int taskCount = 20000;
+            EventExecutor executor = new EventExecutor("benchmark_" + virtualThreads, 1000, taskCount, virtualThreads);
+            CountDownLatch started = new CountDownLatch(1000);
+            long start = System.nanoTime();
+            for (int i = 0; i < taskCount; i++) {
+                executor.execute(() -> {
+                    started.countDown();
+                    try {
+                        // Waiting for the database or a webhook
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        // NOP
+                    }
+                });
+            }
+
+            // Measure while all the listeners are running
+            started.await();
+            long runningMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() - usedMemory;
+            int runningThreadCount = ManagementFactory.getThreadMXBean().getThreadCount() - threadCount;
+            executor.shutDown();
+            long duration = System.nanoTime() - start;
+            log.info("{} threads: {} tasks/s, {} platform threads, {} MB used",
+                    virtualThreads ? "Virtual" : "Platform",
+                    taskCount * 1000L / TimeUnit.NANOSECONDS.toMillis(duration),
+                    runningThreadCount, runningMemory / 1024 / 1024);
+        }
+    }
+}
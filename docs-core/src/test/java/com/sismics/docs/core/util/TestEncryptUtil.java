@@ -9,6 +9,11 @@ import org.junit.Test;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.Security;
+import java.util.Arrays;
 
 /**
  * Test of the encryption utilities.
@@ -48,4 +53,53 @@ public class TestEncryptUtil extends BaseTest {
         
         Assert.assertEquals(encryptedData.length, assertData.length);
     }
+
+    @Test
+    public void decryptStreamOffsetTest() throws Exception {
+        byte[] assertData = ByteStreams.toByteArray(getSystemResourceAsStream(FILE_PDF));
+        for (int offset : new int[] { 0, 16, 1000, 1001, assertData.length - 1 }) {
+            InputStream inputStream = EncryptionUtil.decryptInputStream(
+                    getSystemResourceAsStream(FILE_PDF_ENCRYPTED), "OnceUponATime", offset);
+            byte[] decryptedData = ByteStreams.toByteArray(inputStream);
+            Assert.assertArrayEquals(Arrays.copyOfRange(assertData, offset, assertData.length), decryptedData);
+        }
+    }
+
+    @Test
+    public void derivedKeyCacheTest() throws Exception {
+        String key = EncryptionUtil.generatePrivateKey();
+        EncryptionUtil.getEncryptionCipher(key);
+        long hitCount = MetricsUtil.getMetrics().get("encryption.key_cache.hit");
+        EncryptionUtil.getEncryptionCipher(key);
+        Assert.assertEquals(hitCount + 1, (long) MetricsUtil.getMetrics().get("encryption.key_cache.hit"));
+
+        // The key is derived again once invalidated
+        EncryptionUtil.invalidateKey(key);
+        EncryptionUtil.getEncryptionCipher(key);
+        Assert.assertEquals(hitCount + 1, (long) MetricsUtil.getMetrics().get("encryption.key_cache.hit"));
+    }
+
+    @Test
+    public void decryptFileTest() throws Exception {
+        // The file has been encrypted by the Bouncy Castle cipher
+        Path encryptedFile = Files.createTempFile("sismics_docs_encrypted", null);
+        Files.copy(getSystemResourceAsStream(FILE_PDF_ENCRYPTED), encryptedFile, StandardCopyOption.REPLACE_EXISTING);
+        Path decryptedFile = EncryptionUtil.decryptFile(encryptedFile, "OnceUponATime");
+        Assert.assertArrayEquals(ByteStreams.toByteArray(getSystemResourceAsStream(FILE_PDF)), Files.readAllBytes(decryptedFile));
+        Files.delete(encryptedFile);
+        Files.delete(decryptedFile);
+    }
+
+    @Test
+    public void cipherProviderTest() throws Exception {
+        // Bouncy Castle stays the preferred provider, the file cipher is requested from the JDK
+        Assert.assertEquals("SunJCE", EncryptionUtil.getEncryptionCipher("OnceUponATime").getProvider().getName());
+        Assert.assertEquals("BC", Security.getProviders()[0].getName());
+
+        // The file encrypted by the Bouncy Castle cipher is decrypted identically by the JDK one
+        try (InputStream inputStream = EncryptionUtil.decryptInputStream(getSystemResourceAsStream(FILE_PDF_ENCRYPTED), "OnceUponATime")) {
+            Assert.assertArrayEquals(ByteStreams.toByteArray(getSystemResourceAsStream(FILE_PDF)), ByteStreams.toByteArray(inputStream));
+        }
+    }
+
 }
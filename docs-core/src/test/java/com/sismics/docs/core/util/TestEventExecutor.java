@@ -0,0 +1,156 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test of the event executor.
+ *
+ * @author bgamard
+ */
+public class TestEventExecutor {
+    @Test
+    public void priorityTest() throws Exception {
+        priorityTest(false);
+    }
+
+    @Test
+    public void virtualThreadsPriorityTest() throws Exception {
+        priorityTest(true);
+    }
+
+    @Test
+    public void virtualThreadsPropertyTest() throws Exception {
+        // The docs.virtual_threads system property switches the executors to virtual threads
+        for (boolean virtualThreads : new boolean[] { false, true }) {
+            System.setProperty("docs.virtual_threads", Boolean.toString(virtualThreads));
+            System.setProperty("docs.async.test_property_" + virtualThreads + ".threads", "3");
+            try {
+                EventExecutor executor = EventExecutor.create("test_property_" + virtualThreads, 1, 100);
+                AtomicInteger running = new AtomicInteger();
+                AtomicInteger maxRunning = new AtomicInteger();
+                List<Boolean> virtualList = new CopyOnWriteArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    executor.execute(() -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        virtualList.add(Thread.currentThread().isVirtual());
+                        try {
+                            Thread.sleep(20);
+                        } catch (InterruptedException e) {
+                            // NOP
+                        }
+                        running.decrementAndGet();
+                    });
+                }
+                executor.shutDown();
+                Assert.assertEquals(10, virtualList.size());
+                Assert.assertTrue(virtualList.stream().allMatch(virtual -> virtual == virtualThreads));
+
+                // The number of threads is overridden by its own system property
+                Assert.assertEquals(3, maxRunning.get());
+            } finally {
+                System.clearProperty("docs.virtual_threads");
+                System.clearProperty("docs.async.test_property_" + virtualThreads + ".threads");
+            }
+        }
+    }
+
+    @Test
+    public void virtualThreadsConcurrencyTest() throws Exception {
+        EventExecutor executor = new EventExecutor("test_concurrency", 2, 100, true);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Object> contextList = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+
+                // Each task has its own context
+                ThreadLocalContext context = ThreadLocalContext.get();
+                Assert.assertTrue(Thread.currentThread().isVirtual());
+                Assert.assertNull(context.getEntityManager());
+                contextList.add(context);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    // NOP
+                }
+                running.decrementAndGet();
+            });
+        }
+        executor.shutDown();
+        Assert.assertEquals(0, executor.getPendingTaskCount());
+        Assert.assertEquals(2, maxRunning.get());
+        Assert.assertEquals(20, contextList.stream().distinct().count());
+    }
+
+    @Test
+    public void virtualThreadsShutDownTest() throws Exception {
+        EventExecutor executor = new EventExecutor("test_shutdown", 2, 1000, true);
+        AtomicInteger executedCount = new AtomicInteger();
+        AtomicInteger rejectedCount = new AtomicInteger();
+        Thread poster = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                try {
+                    executor.execute(executedCount::incrementAndGet);
+                } catch (RejectedExecutionException e) {
+                    rejectedCount.incrementAndGet();
+                }
+            }
+        });
+
+        // The tasks posted during the shutdown either run or are rejected
+        poster.start();
+        executor.shutDown();
+        poster.join();
+        Assert.assertEquals(1000, executedCount.get() + rejectedCount.get());
+        Assert.assertEquals(0, executor.getPendingTaskCount());
+    }
+
+    /**
+     * Check that the interactive tasks run before the bulk ones.
+     *
+     * @param virtualThreads True to use virtual threads
+     */
+    private void priorityTest(boolean virtualThreads) throws Exception {
+        String name = virtualThreads ? "test_virtual" : "test";
+        EventExecutor executor = new EventExecutor(name, 1, 10, virtualThreads);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> executedList = new CopyOnWriteArrayList<>();
+
+        // Occupy the only thread
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // NOP
+            }
+        });
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // Queue bulk tasks, then an interactive one
+        EventExecutor.setBulk(true);
+        executor.execute(() -> executedList.add("bulk1"));
+        executor.execute(() -> executedList.add("bulk2"));
+        EventExecutor.setBulk(false);
+        executor.execute(() -> executedList.add("interactive"));
+        Assert.assertEquals(4, executor.getPendingTaskCount());
+
+        // The interactive task runs first
+        release.countDown();
+        executor.shutDown();
+        Assert.assertEquals(List.of("interactive", "bulk1", "bulk2"), executedList);
+        Assert.assertEquals(0, executor.getPendingTaskCount());
+        Assert.assertTrue(MetricsUtil.getMetrics().get("async." + name + ".wait_ms.count") >= 4);
+    }
+}
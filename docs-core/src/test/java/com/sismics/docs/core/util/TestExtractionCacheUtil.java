@@ -0,0 +1,50 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.hash.Hashing;
+import com.sismics.docs.BaseTransactionalTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+
+/**
+ * Test of the extraction cache.
+ *
+ * @author bgamard
+ */
+public class TestExtractionCacheUtil extends BaseTransactionalTest {
+    @Test
+    public void cacheTest() throws Exception {
+        String contentHash = UUID.randomUUID().toString();
+        long hitCount = MetricsUtil.getCounter("extraction_cache.hit").get();
+        long missCount = MetricsUtil.getCounter("extraction_cache.miss").get();
+        Assert.assertNull(ExtractionCacheUtil.get(contentHash, "eng", true));
+
+        long keyMissCount = MetricsUtil.getMetrics().getOrDefault("encryption.key_cache.miss", 0L);
+        byte[] web = "web".getBytes(StandardCharsets.UTF_8);
+        ExtractionCacheUtil.put(contentHash, "eng", true, new ExtractionCacheUtil.Entry(web, null, "Lorem ipsum dolor sit amen."));
+        ExtractionCacheUtil.Entry entry = ExtractionCacheUtil.get(contentHash, "eng", true);
+        Assert.assertNotNull(entry);
+        Assert.assertArrayEquals(web, entry.getWeb());
+        Assert.assertNull(entry.getThumbnail());
+        Assert.assertEquals("Lorem ipsum dolor sit amen.", entry.getContent());
+
+        // The OCR language and state are part of the key
+        Assert.assertNull(ExtractionCacheUtil.get(contentHash, "fra", true));
+        Assert.assertNull(ExtractionCacheUtil.get(contentHash, "eng", false));
+        Assert.assertNull(ExtractionCacheUtil.get(UUID.randomUUID().toString(), "eng", true));
+
+        Assert.assertEquals(hitCount + 1, MetricsUtil.getCounter("extraction_cache.hit").get());
+        Assert.assertEquals(missCount + 4, MetricsUtil.getCounter("extraction_cache.miss").get());
+        Assert.assertTrue(MetricsUtil.getMetrics().get("extraction_cache.size") > 0);
+
+        // The entry keys are not derived
+        Assert.assertEquals(keyMissCount, (long) MetricsUtil.getMetrics().get("encryption.key_cache.miss"));
+
+        // The entries can't be found from the content hash alone
+        String unkeyedName = Hashing.sha256().hashString(contentHash + ":eng:true:3", StandardCharsets.UTF_8).toString();
+        Assert.assertFalse(Files.exists(DirectoryUtil.getExtractionCacheDirectory().resolve(unkeyedName)));
+    }
+}
@@ -11,8 +11,11 @@ import com.sismics.util.mime.MimeTypeUtil;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -65,6 +68,48 @@ public class TestFileUtil extends BaseTest {
         Assert.assertTrue(content.contains("All human beings are born free and equal in dignity and rights."));
     }
 
+    @Test
+    public void extractContentText() throws Exception {
+        Path path = Paths.get(getResource(FILE_CSV).toURI());
+        FormatHandler formatHandler = FormatHandlerUtil.find(MimeTypeUtil.guessMimeType(path, FILE_CSV));
+        Assert.assertNotNull(formatHandler);
+        Assert.assertTrue(formatHandler instanceof TextPlainFormatHandler);
+        String content = formatHandler.extractContent("eng", path);
+        Assert.assertEquals(new String(Files.readAllBytes(path), StandardCharsets.UTF_8), content);
+
+        // The thumbnail is one page
+        BufferedImage image = formatHandler.generateThumbnail(path);
+        Assert.assertEquals(595, image.getWidth());
+        Assert.assertEquals(842, image.getHeight());
+    }
+
+    @Test
+    public void extractContentLargeText() throws Exception {
+        // A sparse file of 4 GB, only its beginning is written
+        Path path = Files.createTempFile("sismics_docs_large", ".txt");
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.write("Lorem ipsum dolor sit amen.\n".repeat(1000).getBytes(StandardCharsets.UTF_8));
+            file.setLength(4L * 1024 * 1024 * 1024);
+        }
+
+        System.setProperty("docs.text.max_content_length", "10000");
+        try {
+            // The thumbnail reads only what fits on the page
+            TextPlainFormatHandler formatHandler = new TextPlainFormatHandler();
+            BufferedImage image = formatHandler.generateThumbnail(path);
+            Assert.assertEquals(595, image.getWidth());
+            Assert.assertEquals(842, image.getHeight());
+
+            // The content is truncated
+            String content = formatHandler.extractContent("eng", path);
+            Assert.assertEquals(10000, content.length());
+            Assert.assertTrue(content.startsWith("Lorem ipsum dolor sit amen.\nLorem ipsum dolor sit amen.\n"));
+        } finally {
+            System.clearProperty("docs.text.max_content_length");
+            Files.delete(path);
+        }
+    }
+
     @Test
     public void extractContentScannedPdf() throws Exception {
         Path path = Paths.get(getResource("scanned.pdf").toURI());
@@ -73,6 +118,41 @@ public class TestFileUtil extends BaseTest {
         Assert.assertTrue(formatHandler instanceof PdfFormatHandler);
         String content = formatHandler.extractContent("eng", path);
         Assert.assertTrue(content.contains("All human beings are born free and equal in dignity and rights."));
+
+        // OCR a processing file
+        FileUtil.startProcessingFile("scanned");
+        content = formatHandler.extractContent("eng", path, "scanned");
+        Assert.assertTrue(content.contains("All human beings are born free and equal in dignity and rights."));
+        Assert.assertEquals(100, (int) FileUtil.getProcessingProgress("scanned"));
+        FileUtil.endProcessingFile("scanned");
+
+        // OCR a file not processing anymore
+        Assert.assertNull(formatHandler.extractContent("eng", path, "scanned"));
+    }
+
+    @Test
+    public void extractionSessionPdf() throws Exception {
+        FormatHandler formatHandler = new PdfFormatHandler();
+
+        // Text PDF
+        try (ExtractionSession session = formatHandler.openSession(Paths.get(getResource(FILE_PDF).toURI()))) {
+            Assert.assertTrue(session.getPageCount() > 0);
+            Assert.assertTrue(session.getOcrCandidatePages().isEmpty());
+            Assert.assertNotNull(session.generateThumbnail(256));
+            Assert.assertTrue(session.extractContent("eng", null).contains("All human beings are born free and equal in dignity and rights."));
+        }
+
+        // Scanned PDF, all the pages need to be OCR-ized
+        try (ExtractionSession session = formatHandler.openSession(Paths.get(getResource(FILE_PDF_SCANNED).toURI()))) {
+            Assert.assertEquals(session.getPageCount(), session.getOcrCandidatePages().size());
+            Assert.assertNotNull(session.generateThumbnail(256));
+        }
+
+        // Other formats are a single page
+        try (ExtractionSession session = new TextPlainFormatHandler().openSession(Paths.get(getResource(FILE_CSV).toURI()))) {
+            Assert.assertEquals(1, session.getPageCount());
+            Assert.assertTrue(session.getOcrCandidatePages().isEmpty());
+        }
     }
 
     @Test
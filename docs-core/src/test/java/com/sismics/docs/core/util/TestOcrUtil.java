@@ -0,0 +1,170 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.BaseTest;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.format.ExtractionSession;
+import com.sismics.docs.core.util.format.PdfFormatHandler;
+import com.sismics.docs.core.util.ocr.OcrEngine;
+import com.sismics.docs.core.util.ocr.StubOcrEngine;
+import com.sismics.docs.core.util.pdf.PdfPage;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.DocsPDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Test of the OCR utilities.
+ *
+ * @author bgamard
+ */
+public class TestOcrUtil extends BaseTest {
+    /**
+     * Stub OCR engine.
+     */
+    private StubOcrEngine stubOcrEngine;
+
+    /**
+     * OCR engine replaced by the stub.
+     */
+    private OcrEngine previousEngine;
+
+    @Before
+    public void setUpEngine() {
+        stubOcrEngine = new StubOcrEngine();
+        previousEngine = OcrUtil.setEngine(stubOcrEngine);
+    }
+
+    @After
+    public void tearDownEngine() {
+        OcrUtil.setEngine(previousEngine);
+    }
+
+    @Test
+    public void ocrPdfTest() throws Exception {
+        // A scanned page, a blank page and the scanned page again
+        try (PDDocument pdfDocument = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
+             PDDocument scannedDocument = PDDocument.load(Paths.get(getResource(FILE_PDF_SCANNED).toURI()).toFile())) {
+            PDFMergerUtility pdfMergerUtility = new PDFMergerUtility();
+            pdfMergerUtility.appendDocument(pdfDocument, scannedDocument);
+            pdfDocument.addPage(new PDPage());
+            pdfMergerUtility.appendDocument(pdfDocument, scannedDocument);
+            int scannedPageCount = scannedDocument.getNumberOfPages();
+
+            long pageCount = MetricsUtil.getCounter("ocr.page").get();
+            OcrUtil.PdfResult result = OcrUtil.ocrPdf("eng+fra", pdfDocument,
+                    Arrays.asList(0, scannedPageCount, scannedPageCount + 1), null);
+            Map<Integer, String> contentMap = result.getContentMap();
+            Assert.assertEquals(3, contentMap.size());
+            Assert.assertTrue(contentMap.get(0).endsWith(" in eng+fra"));
+            Assert.assertEquals("", contentMap.get(scannedPageCount));
+            Assert.assertTrue(contentMap.get(scannedPageCount + 1).endsWith(" in eng+fra"));
+
+            // The blank page is not recognized
+            Assert.assertEquals(2, result.getRecognizedPageCount());
+            Assert.assertEquals(1, result.getBlankPageCount());
+            Assert.assertEquals(2, stubOcrEngine.getImageCount());
+            Assert.assertEquals(pageCount + 2, MetricsUtil.getCounter("ocr.page").get());
+            Assert.assertTrue(MetricsUtil.getMetrics().get("ocr.page_ms.count") >= 2);
+        }
+    }
+
+    @Test
+    public void mixedPdfTest() throws Exception {
+        // A page with text, a scan of a page number, a page with text, a blank page and a scan of a signature
+        Path pdfFile = Files.createTempFile("mixed", ".pdf");
+        try {
+            try (PDDocument pdfDocument = new PDDocument()) {
+                addTextPage(pdfDocument, "First page with text");
+                addScannedPage(pdfDocument, PDRectangle.A5, graphics -> graphics.drawString("2", 400, 1180));
+                addTextPage(pdfDocument, "Third page with text");
+                pdfDocument.addPage(new PDPage(PDRectangle.LETTER));
+                addScannedPage(pdfDocument, PDRectangle.A6, graphics -> graphics.drawLine(300, 700, 340, 690));
+                pdfDocument.save(pdfFile.toFile());
+            }
+
+            // The text of the scanned pages replaces them, in the order of the pages
+            String content;
+            try (ExtractionSession session = new PdfFormatHandler().openSession(pdfFile)) {
+                content = session.extractContent("eng", null);
+
+                // Only the scanned pages are recognized, the blank page is skipped
+                Assert.assertEquals(2, session.getOcrPageCount());
+                Assert.assertEquals(1, session.getSkippedPageCount());
+            }
+            Assert.assertEquals(2, stubOcrEngine.getImageCount());
+            Matcher matcher = Pattern.compile("First page with text\\s+Image (\\d+)x(\\d+) in eng\\s+"
+                    + "Third page with text\\s+Image (\\d+)x(\\d+) in eng").matcher(content);
+            Assert.assertTrue(content, matcher.find());
+
+            // Scanned A5 and A6 pages at 300 DPI
+            Assert.assertEquals(2480, Integer.parseInt(matcher.group(2)), 1);
+            Assert.assertEquals(1748, Integer.parseInt(matcher.group(4)), 1);
+        } finally {
+            Files.delete(pdfFile);
+        }
+    }
+
+    /**
+     * Add a page with text.
+     *
+     * @param pdfDocument PDF document
+     * @param text Text
+     * @throws Exception e
+     */
+    private static void addTextPage(PDDocument pdfDocument, String text) throws Exception {
+        PDPage page = new PDPage(PDRectangle.A4);
+        pdfDocument.addPage(page);
+        try (PdfPage pdfPage = new PdfPage(pdfDocument, page, 10 * Constants.MM_PER_INCH, DocsPDType1Font.HELVETICA, 12)) {
+            pdfPage.addText(text);
+        }
+    }
+
+    /**
+     * Add a scanned page, made of a single image at 150 DPI.
+     *
+     * @param pdfDocument PDF document
+     * @param size Page size
+     * @param drawer Drawing of the page content, in black on white
+     * @throws Exception e
+     */
+    private static void addScannedPage(PDDocument pdfDocument, PDRectangle size, Consumer<Graphics2D> drawer) throws Exception {
+        BufferedImage image = new BufferedImage((int) (size.getWidth() * 150 / 72), (int) (size.getHeight() * 150 / 72),
+                BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.setColor(Color.BLACK);
+        graphics.setFont(new Font(Font.SERIF, Font.PLAIN, 20));
+        graphics.setStroke(new BasicStroke(2));
+        drawer.accept(graphics);
+        graphics.dispose();
+
+        PDPage page = new PDPage(size);
+        pdfDocument.addPage(page);
+        try (PDPageContentStream contentStream = new PDPageContentStream(pdfDocument, page)) {
+            contentStream.drawImage(LosslessFactory.createFromImage(pdfDocument, image), 0, 0, size.getWidth(), size.getHeight());
+        }
+    }
+}
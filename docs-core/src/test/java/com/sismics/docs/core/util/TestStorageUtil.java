@@ -0,0 +1,100 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.StorageBlobDao;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test of the storage utilities.
+ *
+ * @author bgamard
+ */
+public class TestStorageUtil extends BaseTransactionalTest {
+    @Test
+    public void referenceCountTest() {
+        StorageBlobDao storageBlobDao = new StorageBlobDao();
+        Assert.assertTrue(storageBlobDao.acquire("referenceCountTest"));
+        Assert.assertFalse(storageBlobDao.acquire("referenceCountTest"));
+        Assert.assertEquals(Integer.valueOf(2), storageBlobDao.getRefCount("referenceCountTest"));
+
+        // The blob is kept after its last reference, until it is purged
+        Assert.assertFalse(storageBlobDao.release("referenceCountTest"));
+        Assert.assertTrue(storageBlobDao.release("referenceCountTest"));
+        Assert.assertEquals(Integer.valueOf(0), storageBlobDao.getRefCount("referenceCountTest"));
+
+        // A blob acquired again before being purged must be stored again
+        Assert.assertTrue(storageBlobDao.acquire("referenceCountTest"));
+        Assert.assertFalse(storageBlobDao.deleteUnreferenced("referenceCountTest"));
+        Assert.assertTrue(storageBlobDao.release("referenceCountTest"));
+        Assert.assertTrue(storageBlobDao.deleteUnreferenced("referenceCountTest"));
+        Assert.assertNull(storageBlobDao.getRefCount("referenceCountTest"));
+    }
+
+    @Test
+    public void recomputeRefCountsTest() throws Exception {
+        User user = createUser("recomputeRefCountsTest");
+        File file = createFile(user, FILE_JPG_SIZE);
+        StorageUtil.migrate(file.getId());
+        file = new FileDao().getFile(file.getId());
+
+        // The reference counts are recomputed from the files
+        StorageBlobDao storageBlobDao = new StorageBlobDao();
+        storageBlobDao.acquire(file.getStorageKey());
+        storageBlobDao.acquire("recomputeRefCountsTest");
+        String lastKey = null;
+        do {
+            lastKey = storageBlobDao.recomputeRefCounts(lastKey, 1);
+        } while (lastKey != null);
+        Assert.assertEquals(Integer.valueOf(1), storageBlobDao.getRefCount(file.getStorageKey()));
+        Assert.assertNull(storageBlobDao.getRefCount("recomputeRefCountsTest"));
+        Assert.assertEquals(Set.of(file.getStorageKey()),
+                storageBlobDao.findReferencedKeys(List.of(file.getStorageKey(), "recomputeRefCountsTest")));
+    }
+
+    @Test
+    public void migrateTest() throws Exception {
+        User user = createUser("migrateTest");
+        File file = createFile(user, FILE_JPG_SIZE);
+        Path legacyFile = StorageUtil.getStoredFile(file, null);
+        Assert.assertTrue(Files.exists(legacyFile));
+
+        // The file is copied to a blob named after its content
+        List<Path> legacyFileList = StorageUtil.migrate(file.getId());
+        Assert.assertEquals(List.of(legacyFile), legacyFileList);
+        file = new FileDao().getFile(file.getId());
+        Assert.assertNotNull(file.getContentHash());
+        Assert.assertEquals(StorageUtil.getStorageKey(user.getPrivateKey(), file.getContentHash()), file.getStorageKey());
+        Path storedFile = StorageUtil.getStoredFile(file, null);
+        Assert.assertEquals(file.getStorageKey().substring(0, 2), storedFile.getParent().getParent().getFileName().toString());
+        Assert.assertEquals(file.getStorageKey().substring(2, 4), storedFile.getParent().getFileName().toString());
+        Assert.assertArrayEquals(Files.readAllBytes(legacyFile), Files.readAllBytes(storedFile));
+        Assert.assertEquals(Integer.valueOf(1), new StorageBlobDao().getRefCount(file.getStorageKey()));
+        Assert.assertTrue(StorageUtil.migrate(file.getId()).isEmpty());
+        Files.delete(legacyFile);
+
+        // The blob is purged after the deletion of the file is committed
+        new FileDao().delete(file.getId(), user.getId());
+        Assert.assertEquals(file.getStorageKey(), StorageUtil.delete(file));
+        Assert.assertTrue(Files.exists(storedFile));
+        Assert.assertEquals(Integer.valueOf(0), new StorageBlobDao().getRefCount(file.getStorageKey()));
+        TransactionUtil.commit();
+        StorageUtil.purge(file.getStorageKey());
+        Assert.assertFalse(Files.exists(storedFile));
+        Assert.assertNull(new StorageBlobDao().getRefCount(file.getStorageKey()));
+
+        // The reference is released once
+        StorageBlobDao storageBlobDao = new StorageBlobDao();
+        storageBlobDao.acquire(file.getStorageKey());
+        Assert.assertNull(StorageUtil.delete(file));
+        Assert.assertEquals(Integer.valueOf(1), storageBlobDao.getRefCount(file.getStorageKey()));
+    }
+}
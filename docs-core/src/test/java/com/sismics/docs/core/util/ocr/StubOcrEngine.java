@@ -0,0 +1,40 @@
+package com.sismics.docs.core.util.ocr;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OCR engine returning the size of the images as text, for the tests.
+ *
+ * @author bgamard
+ */
+public class StubOcrEngine implements OcrEngine {
+    /**
+     * Number of recognized images.
+     */
+    private final AtomicInteger imageCount = new AtomicInteger();
+
+    @Override
+    public List<String> recognize(String language, List<Path> imageFileList, long timeout) throws IOException {
+        List<String> contentList = new ArrayList<>();
+        for (Path imageFile : imageFileList) {
+            if (!Files.exists(imageFile)) {
+                throw new IllegalStateException("Image not found: " + imageFile);
+            }
+            BufferedImage image = ImageIO.read(imageFile.toFile());
+            imageCount.incrementAndGet();
+            contentList.add("Image " + image.getWidth() + "x" + image.getHeight() + " in " + language);
+        }
+        return contentList;
+    }
+
+    public int getImageCount() {
+        return imageCount.get();
+    }
+}
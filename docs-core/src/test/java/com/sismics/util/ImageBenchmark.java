@@ -0,0 +1,76 @@
+package com.sismics.util;
+
+import org.imgscalr.Scalr;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Benchmark of the image utilities.
+ * Run with mvn test -Pbenchmark.
+ *
+ * @author bgamard
+ */
+public class ImageBenchmark {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ImageBenchmark.class);
+
+    /**
+     * Compare the thumbnail generation from a full decoding and a subsampled decoding.
+     */
+    @Test
+    public void thumbnailBenchmark() throws Exception {
+        // 24 megapixels photo-like image
+        BufferedImage source = new BufferedImage(6000, 4000, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = source.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, 6000, 4000, Color.ORANGE));
+        graphics.fillRect(0, 0, 6000, 4000);
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            graphics.setColor(new Color(random.nextInt()));
+            graphics.fillOval(random.nextInt(6000), random.nextInt(4000), random.nextInt(400), random.nextInt(400));
+        }
+        graphics.dispose();
+
+        for (String format : new String[] { "jpeg", "png", "tiff" }) {
+            Path file = Files.createTempFile("sismics_docs_benchmark", "." + format);
+            try {
+                ImageIO.write(source, format, file.toFile());
+
+                // Full decoding, both resized from the original
+                long startTime = System.nanoTime();
+                BufferedImage image;
+                try (InputStream inputStream = Files.newInputStream(file)) {
+                    image = ImageIO.read(inputStream);
+                }
+                long fullPixels = (long) image.getWidth() * image.getHeight();
+                Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 1280);
+                Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 256);
+                long fullTime = System.nanoTime() - startTime;
+
+                // Subsampled decoding, thumbnail resized from the web image
+                startTime = System.nanoTime();
+                image = ImageUtil.readSubsampled(file, 2560);
+                long subsampledPixels = (long) image.getWidth() * image.getHeight();
+                BufferedImage web = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 1280);
+                Scalr.resize(web, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 256);
+                long subsampledTime = System.nanoTime() - startTime;
+
+                log.info("{}: full decoding {} ms ({} decoded pixels), subsampled decoding {} ms ({} decoded pixels)",
+                        format, fullTime / 1000000, fullPixels, subsampledTime / 1000000, subsampledPixels);
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+}
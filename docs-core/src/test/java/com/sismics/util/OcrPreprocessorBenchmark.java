@@ -0,0 +1,91 @@
+package com.sismics.util;
+
+import org.imgscalr.Scalr;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Benchmark of the OCR preprocessing.
+ * Run with mvn test -Pbenchmark.
+ *
+ * @author bgamard
+ */
+public class OcrPreprocessorBenchmark {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(OcrPreprocessorBenchmark.class);
+
+    /**
+     * Compare the previous preprocessing (upscale to 3500 pixels and rotation)
+     * with OcrPreprocessor (skew detection and rotation on gray rasters).
+     * The skew detection of the previous preprocessing is not measured, its angle is given,
+     * the one of OcrPreprocessor is measured as part of the preprocessing.
+     */
+    @Test
+    public void preprocessBenchmark() {
+        double skewAngle = 2.5;
+        BufferedImage page = createPage(skewAngle);
+        for (int i = 0; i < 5; i++) {
+            // Previous preprocessing
+            long startTime = System.nanoTime();
+            BufferedImage resizedImage = Scalr.resize(page, Scalr.Method.AUTOMATIC, Scalr.Mode.AUTOMATIC, 3500, Scalr.OP_ANTIALIAS, Scalr.OP_GRAYSCALE);
+            AffineTransform tx = AffineTransform.getRotateInstance(Math.toRadians(-skewAngle),
+                    resizedImage.getWidth() / 2.0, resizedImage.getHeight() / 2.0);
+            BufferedImage deskewedImage = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR).filter(resizedImage, null);
+            long previousTime = System.nanoTime() - startTime;
+            long previousPixels = (long) deskewedImage.getWidth() * deskewedImage.getHeight();
+            resizedImage.flush();
+            deskewedImage.flush();
+
+            // Current preprocessing, on a copy as the image is flushed
+            BufferedImage copy = new BufferedImage(page.getWidth(), page.getHeight(), page.getType());
+            copy.setData(page.getRaster());
+            double angle = OcrPreprocessor.getSkewAngle(copy);
+            startTime = System.nanoTime();
+            BufferedImage preparedImage = OcrPreprocessor.preprocess(copy, 300);
+            long time = System.nanoTime() - startTime;
+            long pixels = (long) preparedImage.getWidth() * preparedImage.getHeight();
+            preparedImage.flush();
+
+            log.info("Previous preprocessing {} ms ({} pixels), OcrPreprocessor {} ms ({} pixels, {} degrees detected for {})",
+                    previousTime / 1000000, previousPixels, time / 1000000, pixels, String.format("%.2f", angle), skewAngle);
+        }
+    }
+
+    /**
+     * Create an A4 page at 300 DPI of skewed random text.
+     *
+     * @param angle Skew angle (in degrees)
+     * @return Gray image
+     */
+    private BufferedImage createPage(double angle) {
+        BufferedImage image = new BufferedImage(2480, 3508, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.setColor(Color.BLACK);
+        graphics.rotate(Math.toRadians(angle), image.getWidth() / 2.0, image.getHeight() / 2.0);
+        graphics.setFont(new Font(Font.SERIF, Font.PLAIN, 40));
+        Random random = new Random(42);
+        for (int y = 200; y < 3300; y += 60) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 70; i++) {
+                sb.append((char) ('a' + random.nextInt(26)));
+                if (random.nextInt(6) == 0) {
+                    sb.append(' ');
+                }
+            }
+            graphics.drawString(sb.toString(), 200, y);
+        }
+        graphics.dispose();
+        return image;
+    }
+}
@@ -1,17 +1,97 @@
 package com.sismics.util;
 
+import com.sismics.BaseTest;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * Test of the image utilities.
- * 
+ *
  * @author bgamard
  */
-public class TestImageUtil {
-
+public class TestImageUtil extends BaseTest {
     @Test
     public void computeGravatarTest() {
         Assert.assertEquals("0bc83cb571cd1c50ba6f3e8a78ef1346", ImageUtil.computeGravatar("MyEmailAddress@example.com "));
     }
+
+    @Test
+    public void readSubsampledTest() throws Exception {
+        Path path = Paths.get(getResource(FILE_JPG2).toURI());
+        BufferedImage fullImage;
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            fullImage = ImageIO.read(inputStream);
+        }
+        int fullSize = Math.max(fullImage.getWidth(), fullImage.getHeight());
+
+        // Subsampled to at least the wanted size
+        BufferedImage image = ImageUtil.readSubsampled(path, fullSize / 3);
+        int size = Math.max(image.getWidth(), image.getHeight());
+        Assert.assertTrue(size >= fullSize / 3);
+        Assert.assertTrue(size < fullSize / 3 * 2);
+
+        // Never upscaled
+        image = ImageUtil.readSubsampled(path, fullSize * 2);
+        Assert.assertEquals(fullImage.getWidth(), image.getWidth());
+        Assert.assertEquals(fullImage.getHeight(), image.getHeight());
+
+        // Unsupported format
+        Assert.assertNull(ImageUtil.readSubsampled(Paths.get(getResource(FILE_TXT).toURI()), 100));
+    }
+
+    @Test
+    public void isBlankTest() {
+        // A4 page at 300 DPI, with a shadowed border and some dust
+        BufferedImage image = new BufferedImage(2480, 3508, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 2480, 3508);
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(0, 0, 60, 3508);
+        for (int i = 0; i < 50; i++) {
+            graphics.fillRect(300 + i * 30, 500 + i * 50, 2, 2);
+        }
+        Assert.assertTrue(ImageUtil.isBlank(image));
+
+        // Only a page number at the bottom
+        graphics.setFont(new Font(Font.SERIF, Font.PLAIN, 40));
+        graphics.drawString("7", 1230, 3400);
+        Assert.assertFalse(ImageUtil.isBlank(image));
+
+        // Only a short line, e.g. a signature
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(1200, 3300, 100, 150);
+        Assert.assertTrue(ImageUtil.isBlank(image));
+        graphics.setColor(Color.BLACK);
+        graphics.drawLine(1800, 3000, 1840, 2995);
+        Assert.assertFalse(ImageUtil.isBlank(image));
+        graphics.setColor(Color.WHITE);
+        graphics.drawLine(1800, 3000, 1840, 2995);
+        graphics.setColor(Color.BLACK);
+
+        // A single line of text
+        graphics.setFont(new Font(Font.SERIF, Font.PLAIN, 50));
+        graphics.drawString("All human beings are born free and equal", 300, 1000);
+        graphics.dispose();
+        Assert.assertFalse(ImageUtil.isBlank(image));
+
+        // Color image
+        image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 100, 100);
+        Assert.assertTrue(ImageUtil.isBlank(image));
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(20, 20, 30, 30);
+        graphics.dispose();
+        Assert.assertFalse(ImageUtil.isBlank(image));
+    }
 }
@@ -6,6 +6,7 @@ import com.sismics.util.mime.MimeTypeUtil;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -69,4 +70,37 @@ public class TestMimeTypeUtil extends BaseTest {
         path = Paths.get(getResource(FILE_MP4).toURI());
         Assert.assertEquals(MimeType.VIDEO_MP4, MimeTypeUtil.guessMimeType(path, FILE_MP4));
     }
+
+    @Test
+    public void testHeader() throws Exception {
+        // The signature wins over the name
+        Assert.assertEquals(MimeType.OPEN_DOCUMENT_TEXT, MimeTypeUtil.guessMimeType(readHeader(FILE_ODT), FILE_DOCX));
+        Assert.assertEquals(MimeType.OFFICE_DOCUMENT, MimeTypeUtil.guessMimeType(readHeader(FILE_DOCX), FILE_ODT));
+        Assert.assertEquals(MimeType.OFFICE_PRESENTATION, MimeTypeUtil.guessMimeType(readHeader(FILE_PPTX), null));
+        Assert.assertEquals(MimeType.OFFICE_SHEET, MimeTypeUtil.guessMimeType(readHeader(FILE_XLSX), null));
+        Assert.assertEquals(MimeType.APPLICATION_PDF, MimeTypeUtil.guessMimeType(readHeader(FILE_PDF), null));
+        Assert.assertEquals(MimeType.IMAGE_JPEG, MimeTypeUtil.guessMimeType(readHeader(FILE_JPG), null));
+        Assert.assertEquals(MimeType.IMAGE_GIF, MimeTypeUtil.guessMimeType(readHeader(FILE_GIF), null));
+        Assert.assertEquals(MimeType.IMAGE_PNG, MimeTypeUtil.guessMimeType(readHeader(FILE_PNG), null));
+        Assert.assertEquals(MimeType.APPLICATION_ZIP, MimeTypeUtil.guessMimeType(readHeader(FILE_ZIP), null));
+        Assert.assertEquals(MimeType.VIDEO_WEBM, MimeTypeUtil.guessMimeType(readHeader(FILE_WEBM), null));
+        Assert.assertEquals(MimeType.VIDEO_MP4, MimeTypeUtil.guessMimeType(readHeader(FILE_MP4), null));
+
+        // Text files are recognized by their name
+        Assert.assertEquals(MimeType.TEXT_PLAIN, MimeTypeUtil.guessMimeType(readHeader(FILE_TXT), FILE_TXT));
+        Assert.assertEquals(MimeType.DEFAULT, MimeTypeUtil.guessMimeType(readHeader(FILE_TXT), null));
+        Assert.assertEquals(MimeType.DEFAULT, MimeTypeUtil.guessMimeType(new byte[0], null));
+    }
+
+    /**
+     * Read the first bytes of a test file.
+     *
+     * @param name File name
+     * @return First bytes
+     */
+    private byte[] readHeader(String name) throws Exception {
+        try (InputStream inputStream = getSystemResourceAsStream(name)) {
+            return inputStream.readNBytes(MimeTypeUtil.HEADER_SIZE);
+        }
+    }
 }
@@ -0,0 +1,75 @@
+package com.sismics.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Test of the OCR preprocessing.
+ *
+ * @author bgamard
+ */
+public class TestOcrPreprocessor {
+    @Test
+    public void getSkewAngleTest() {
+        Assert.assertEquals(0, OcrPreprocessor.getSkewAngle(createPage(0)), 0.1);
+        Assert.assertEquals(2.5, OcrPreprocessor.getSkewAngle(createPage(2.5)), 0.1);
+        Assert.assertEquals(-4, OcrPreprocessor.getSkewAngle(createPage(-4)), 0.1);
+
+        // Color images are supported
+        BufferedImage page = createPage(3);
+        BufferedImage colorPage = new BufferedImage(page.getWidth(), page.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = colorPage.createGraphics();
+        graphics.drawImage(page, 0, 0, null);
+        graphics.dispose();
+        Assert.assertEquals(3, OcrPreprocessor.getSkewAngle(colorPage), 0.1);
+    }
+
+    @Test
+    public void preprocessTest() {
+        // Deskewed, not resized at 300 DPI
+        BufferedImage image = OcrPreprocessor.preprocess(createPage(5), 300);
+        Assert.assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+        Assert.assertEquals(2480, image.getWidth());
+        Assert.assertEquals(3508, image.getHeight());
+        Assert.assertEquals(0, OcrPreprocessor.getSkewAngle(image), 0.1);
+
+        // Upscaled at 300 DPI
+        image = OcrPreprocessor.preprocess(new BufferedImage(620, 877, BufferedImage.TYPE_INT_RGB), 75);
+        Assert.assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+        Assert.assertEquals(2480, image.getWidth());
+        Assert.assertEquals(3508, image.getHeight());
+    }
+
+    /**
+     * Create an A4 page at 300 DPI of skewed random text.
+     *
+     * @param angle Skew angle (in degrees)
+     * @return Gray image
+     */
+    private BufferedImage createPage(double angle) {
+        BufferedImage image = new BufferedImage(2480, 3508, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.setColor(Color.BLACK);
+        graphics.rotate(Math.toRadians(angle), image.getWidth() / 2.0, image.getHeight() / 2.0);
+        graphics.setFont(new Font(Font.SERIF, Font.PLAIN, 40));
+        Random random = new Random(42);
+        for (int y = 200; y < 3300; y += 60) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 70; i++) {
+                sb.append((char) ('a' + random.nextInt(26)));
+                if (random.nextInt(6) == 0) {
+                    sb.append(' ');
+                }
+            }
+            graphics.drawString(sb.toString(), 200, y);
+        }
+        graphics.dispose();
+        return image;
+    }
+}
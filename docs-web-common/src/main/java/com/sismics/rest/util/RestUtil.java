@@ -1,8 +1,8 @@
 package com.sismics.rest.util;
 
 import com.sismics.docs.core.model.jpa.File;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.StorageUtil;
 import com.sismics.rest.exception.ServerException;
 import com.sismics.util.JsonUtil;
 
@@ -27,10 +27,12 @@ public class RestUtil {
      */
     public static JsonObjectBuilder fileToJsonObjectBuilder(File fileDb) {
         try {
-            long fileSize = fileDb.getSize().equals(File.UNKNOWN_SIZE) ? Files.size(DirectoryUtil.getStorageDirectory().resolve(fileDb.getId())) : fileDb.getSize();
+            long fileSize = fileDb.getSize().equals(File.UNKNOWN_SIZE) ? Files.size(StorageUtil.getStoredFile(fileDb, null)) : fileDb.getSize();
+            Integer processingProgress = FileUtil.getProcessingProgress(fileDb.getId());
             return Json.createObjectBuilder()
                     .add("id", fileDb.getId())
-                    .add("processing", FileUtil.isProcessingFile(fileDb.getId()))
+                    .add("processing", processingProgress != null)
+                    .add("processing_progress", JsonUtil.nullable(processingProgress))
                     .add("name", JsonUtil.nullable(fileDb.getName()))
                     .add("version", fileDb.getVersion())
                     .add("mimetype", fileDb.getMimeType())
@@ -0,0 +1,359 @@
+package com.sismics.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.JWTVerifier;
+import com.auth0.jwt.interfaces.RSAKeyProvider;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.sismics.docs.core.util.MetricsUtil;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.cert.CertificateFactory;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the public keys (JWKS) of the JWT issuers, keyed by issuer and key ID.
+ * The keys are fetched again in the background once they are older than the TTL,
+ * and the previous keys are still used if the issuer can't be reached.
+ * An unknown key ID forces the keys to be fetched at once, since the issuer may have rotated its keys.
+ * The concurrent requests wait for the same fetch, and a failed first fetch is cached for a while,
+ * so that the requests fail at once while the issuer is down.
+ *
+ * @author bgamard
+ */
+public class JwksCache {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(JwksCache.class);
+
+    /**
+     * Maximum number of cached issuers.
+     */
+    private static final int MAXIMUM_SIZE = 100;
+
+    /**
+     * Lifetime of the cached keys of an issuer (in seconds).
+     */
+    private static final long TTL = Long.getLong("docs.jwks.ttl", 600);
+
+    /**
+     * Minimum time between two fetches forced by an unknown key ID (in nanoseconds).
+     */
+    private static final long FORCED_REFRESH_INTERVAL = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Minimum time between two fetches of the keys of an issuer which couldn't be fetched (in nanoseconds).
+     */
+    private static final long FAILED_REFRESH_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Upper bounds of the fetch latency histogram (in milliseconds).
+     */
+    private static final long[] LATENCY_BOUNDS = { 10, 100, 1000, 10000 };
+
+    /**
+     * HTTP client.
+     */
+    private static final OkHttpClient client = new OkHttpClient();
+
+    /**
+     * Executor of the background fetches.
+     */
+    private static final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jwks-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Keys by issuer.
+     */
+    private static final LoadingCache<String, IssuerKeys> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .refreshAfterWrite(TTL, TimeUnit.SECONDS)
+            .build(CacheLoader.asyncReloading(new CacheLoader<>() {
+                @Override
+                public IssuerKeys load(String issuer) {
+                    return fetchKeys(issuer, null, false);
+                }
+
+                @Override
+                public ListenableFuture<IssuerKeys> reload(String issuer, IssuerKeys oldIssuerKeys) {
+                    return Futures.immediateFuture(fetchKeys(issuer, oldIssuerKeys, false));
+                }
+            }, refreshExecutor));
+
+    /**
+     * Fetches running, by issuer.
+     */
+    private static final Map<String, CompletableFuture<IssuerKeys>> fetchMap = new ConcurrentHashMap<>();
+
+    /**
+     * Token verifiers by issuer.
+     */
+    private static final Cache<String, JWTVerifier> verifierCache = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .build();
+
+    /**
+     * Returns a public key of an issuer.
+     *
+     * @param issuer Issuer
+     * @param keyId Key ID
+     * @return Public key, null if the issuer doesn't know it
+     * @throws IOException e
+     */
+    public static RSAPublicKey getPublicKey(String issuer, String keyId) throws IOException {
+        IssuerKeys issuerKeys = cache.getUnchecked(issuer);
+        if (issuerKeys.error != null && System.nanoTime() - issuerKeys.fetchTime > FAILED_REFRESH_INTERVAL) {
+            // The issuer may be up again
+            issuerKeys = refreshKeys(issuer, issuerKeys, false);
+        }
+        if (issuerKeys.error != null) {
+            throw new IOException("Error fetching the keys of the JWT issuer " + issuer, issuerKeys.error);
+        }
+
+        RSAPublicKey publicKey = issuerKeys.keyMap.get(keyId);
+        if (publicKey == null && (!issuerKeys.forced || System.nanoTime() - issuerKeys.fetchTime > FORCED_REFRESH_INTERVAL)) {
+            // The issuer may have rotated its keys
+            issuerKeys = refreshKeys(issuer, issuerKeys, true);
+            publicKey = issuerKeys.keyMap.get(keyId);
+        }
+        return publicKey;
+    }
+
+    /**
+     * Returns a verifier of the tokens of an issuer.
+     * The tokens must be issued by this issuer, and signed by one of its keys.
+     *
+     * @param issuer Issuer
+     * @return Verifier
+     */
+    public static JWTVerifier getVerifier(String issuer) {
+        try {
+            return verifierCache.get(issuer, () -> JWT.require(Algorithm.RSA256(getKeyProvider(issuer)))
+                    .withIssuer(issuer)
+                    .build());
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns a key provider of the public keys of an issuer, to verify its tokens.
+     *
+     * @param issuer Issuer
+     * @return Key provider
+     */
+    public static RSAKeyProvider getKeyProvider(String issuer) {
+        return new RSAKeyProvider() {
+            @Override
+            public RSAPublicKey getPublicKeyById(String keyId) {
+                try {
+                    return getPublicKey(issuer, keyId);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public RSAPrivateKey getPrivateKey() {
+                return null;
+            }
+
+            @Override
+            public String getPrivateKeyId() {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Invalidate all cached keys.
+     */
+    public static void invalidateAll() {
+        cache.invalidateAll();
+        verifierCache.invalidateAll();
+    }
+
+    /**
+     * Fetch the public keys of an issuer again, once for all the concurrent requests.
+     *
+     * @param issuer Issuer
+     * @param issuerKeys Keys which need to be fetched again
+     * @param forced True if the fetch is forced by an unknown key ID
+     * @return Keys
+     */
+    private static IssuerKeys refreshKeys(String issuer, IssuerKeys issuerKeys, boolean forced) {
+        CompletableFuture<IssuerKeys> future = new CompletableFuture<>();
+        CompletableFuture<IssuerKeys> runningFuture = fetchMap.putIfAbsent(issuer, future);
+        if (runningFuture != null) {
+            // Another request is fetching the keys
+            return runningFuture.join();
+        }
+
+        try {
+            IssuerKeys newIssuerKeys = cache.getIfPresent(issuer);
+            if (newIssuerKeys == null || newIssuerKeys == issuerKeys) {
+                newIssuerKeys = fetchKeys(issuer, issuerKeys, forced);
+                cache.put(issuer, newIssuerKeys);
+            }
+            future.complete(newIssuerKeys);
+            return newIssuerKeys;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            fetchMap.remove(issuer, future);
+        }
+    }
+
+    /**
+     * Fetch the public keys of an issuer.
+     * If the issuer can't be reached, the previous keys are kept, or the error is returned if there are none.
+     *
+     * @param issuer Issuer
+     * @param previousIssuerKeys Previous keys, null if there are none
+     * @param forced True if the fetch is forced by an unknown key ID
+     * @return Keys
+     */
+    private static IssuerKeys fetchKeys(String issuer, IssuerKeys previousIssuerKeys, boolean forced) {
+        try {
+            return new IssuerKeys(requestKeys(issuer), forced, null);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Error fetching the keys of the JWT issuer " + issuer, e);
+            if (previousIssuerKeys == null || previousIssuerKeys.error != null) {
+                return new IssuerKeys(new HashMap<>(), forced, e);
+            }
+            return new IssuerKeys(previousIssuerKeys.keyMap, forced || previousIssuerKeys.forced, null);
+        }
+    }
+
+    /**
+     * Request the public keys of an issuer.
+     *
+     * @param issuer Issuer
+     * @return Public keys by key ID
+     * @throws IOException e
+     */
+    private static Map<String, RSAPublicKey> requestKeys(String issuer) throws IOException {
+        String jwksUrl = issuer + "/protocol/openid-connect/certs";
+        long startTime = System.nanoTime();
+        Request request = new Request.Builder()
+                .url(jwksUrl)
+                .get()
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("Error calling the JWT issuer at: " + jwksUrl + " - " + response.code());
+            }
+
+            Map<String, RSAPublicKey> keyMap = new HashMap<>();
+            try (Reader reader = response.body().charStream();
+                 JsonReader jsonReader = Json.createReader(reader)) {
+                for (JsonValue key : jsonReader.readObject().getJsonArray("keys")) {
+                    JsonObject jwk = key.asJsonObject();
+                    if (!"RSA".equals(jwk.getString("kty", null)) || !jwk.containsKey("kid")) {
+                        continue;
+                    }
+                    try {
+                        keyMap.put(jwk.getString("kid"), parsePublicKey(jwk));
+                    } catch (GeneralSecurityException | RuntimeException e) {
+                        log.warn("Invalid key " + jwk.getString("kid") + " from the JWT issuer at: " + jwksUrl, e);
+                    }
+                }
+            }
+            log.info("Fetched {} keys from the JWT issuer at: {}", keyMap.size(), jwksUrl);
+            return keyMap;
+        } finally {
+            MetricsUtil.getCounter("security.jwks.fetch").incrementAndGet();
+            MetricsUtil.recordHistogram("security.jwks.fetch_ms",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), LATENCY_BOUNDS);
+        }
+    }
+
+    /**
+     * Parse a RSA public key, from its modulus and exponent or from its certificate.
+     *
+     * @param jwk JSON web key
+     * @return Public key
+     * @throws GeneralSecurityException e
+     */
+    private static RSAPublicKey parsePublicKey(JsonObject jwk) throws GeneralSecurityException {
+        if (jwk.containsKey("n") && jwk.containsKey("e")) {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            RSAPublicKeySpec keySpec = new RSAPublicKeySpec(
+                    new BigInteger(1, decoder.decode(jwk.getString("n"))),
+                    new BigInteger(1, decoder.decode(jwk.getString("e"))));
+            return (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(keySpec);
+        }
+
+        byte[] certificate = Base64.getDecoder().decode(jwk.getJsonArray("x5c").getString(0));
+        return (RSAPublicKey) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(certificate))
+                .getPublicKey();
+    }
+
+    /**
+     * Public keys of an issuer.
+     */
+    private static class IssuerKeys {
+        /**
+         * Public keys by key ID.
+         */
+        private final Map<String, RSAPublicKey> keyMap;
+
+        /**
+         * True if the keys have been fetched because of an unknown key ID.
+         */
+        private final boolean forced;
+
+        /**
+         * Error fetching the keys, null if they have been fetched.
+         */
+        private final Exception error;
+
+        /**
+         * Fetch time (in nanoseconds).
+         */
+        private final long fetchTime = System.nanoTime();
+
+        private IssuerKeys(Map<String, RSAPublicKey> keyMap, boolean forced, Exception error) {
+            this.keyMap = keyMap;
+            this.forced = forced;
+            this.error = error;
+        }
+    }
+}
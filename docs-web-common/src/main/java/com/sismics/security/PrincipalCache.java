@@ -0,0 +1,121 @@
+package com.sismics.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sismics.docs.core.util.MetricsUtil;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the authenticated principals, keyed by authentication credential.
+ * A cached principal holds the user, its groups (including parent groups) and its base functions,
+ * so that authenticating a request costs no query.
+ * Entries are invalidated when users, groups or roles change, once the change is committed,
+ * and expire after a short time anyway.
+ *
+ * @author jtremeaux
+ */
+public class PrincipalCache {
+    /**
+     * Maximum number of cached principals.
+     */
+    private static final int MAXIMUM_SIZE = 10000;
+
+    /**
+     * Lifetime of a cached principal (in seconds).
+     */
+    private static final int TTL = 60;
+
+    /**
+     * Number of principals evicted by size or lifetime.
+     */
+    private static final AtomicLong evictionCounter = MetricsUtil.getCounter("security.principal_cache.eviction");
+
+    /**
+     * Number of invalidations, to avoid caching a principal read before an invalidation.
+     */
+    private static long generation;
+
+    /**
+     * Principals by cache key.
+     */
+    private static final Cache<String, UserPrincipal> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .expireAfterWrite(TTL, TimeUnit.SECONDS)
+            .recordStats()
+            .<String, UserPrincipal>removalListener(notification -> {
+                if (notification.wasEvicted()) {
+                    evictionCounter.incrementAndGet();
+                }
+            })
+            .build();
+
+    static {
+        MetricsUtil.registerGauge("security.principal_cache.hit", () -> cache.stats().hitCount());
+        MetricsUtil.registerGauge("security.principal_cache.miss", () -> cache.stats().missCount());
+        MetricsUtil.registerGauge("security.principal_cache.size", cache::size);
+    }
+
+    /**
+     * Returns a cached principal.
+     *
+     * @param key Cache key
+     * @return Principal, null if not cached
+     */
+    public static UserPrincipal get(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * Returns the current generation, to read before authenticating a principal to cache.
+     *
+     * @return Generation
+     */
+    public static synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache a principal, unless the cache has been invalidated since it has been read.
+     *
+     * @param key Cache key
+     * @param userPrincipal Principal
+     * @param generation Generation read before authenticating the principal
+     */
+    public static synchronized void put(String key, UserPrincipal userPrincipal, long generation) {
+        if (generation == PrincipalCache.generation) {
+            cache.put(key, userPrincipal);
+        }
+    }
+
+    /**
+     * Invalidate a cached principal.
+     *
+     * @param key Cache key
+     */
+    public static void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    /**
+     * Invalidate the cached principals of a user.
+     * Must be called once the change is committed, since a concurrent request may cache the previous state before.
+     *
+     * @param userId User ID
+     */
+    public static synchronized void invalidateUser(String userId) {
+        generation++;
+        cache.asMap().values().removeIf(userPrincipal -> userPrincipal.getId().equals(userId));
+    }
+
+    /**
+     * Invalidate all cached principals.
+     * Used when groups or roles change, since they are shared between users.
+     * Must be called once the change is committed, since a concurrent request may cache the previous state before.
+     */
+    public static synchronized void invalidateAll() {
+        generation++;
+        cache.invalidateAll();
+    }
+}
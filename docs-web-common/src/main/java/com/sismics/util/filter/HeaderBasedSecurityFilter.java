@@ -42,4 +42,14 @@ public class HeaderBasedSecurityFilter extends SecurityFilter {
         }
         return new UserDao().getActiveByUsername(username);
     }
+
+    @Override
+    protected String getCacheKey(HttpServletRequest request) {
+        if (!enabled) {
+            return null;
+        }
+
+        String username = request.getHeader(AUTHENTICATED_USER_HEADER);
+        return Strings.isNullOrEmpty(username) ? null : "header:" + username;
+    }
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import com.sismics.docs.core.dao.criteria.GroupCriteria;
 import com.sismics.docs.core.dao.dto.GroupDto;
 import com.sismics.docs.core.model.jpa.User;
 import com.sismics.security.AnonymousPrincipal;
+import com.sismics.security.PrincipalCache;
 import com.sismics.security.UserPrincipal;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
@@ -54,11 +55,16 @@ public abstract class SecurityFilter implements Filter {
      *
      * @param request HTTP request
      * @param user nullable User to inject
+     * @param cacheKey nullable key to cache the authenticated principal
+     * @param generation Cache generation read before authenticating the user
      */
-    private void injectUser(HttpServletRequest request, User user) {
+    private void injectUser(HttpServletRequest request, User user, String cacheKey, long generation) {
         // Check if the user is still valid
         if (user != null && user.getDeleteDate() == null && user.getDisableDate() == null) {
-            injectAuthenticatedUser(request, user);
+            UserPrincipal userPrincipal = injectAuthenticatedUser(request, user);
+            if (cacheKey != null) {
+                PrincipalCache.put(cacheKey, userPrincipal, generation);
+            }
         } else {
             injectAnonymousUser(request);
         }
@@ -69,8 +75,9 @@ public abstract class SecurityFilter implements Filter {
      *
      * @param request HTTP request
      * @param user User to inject
+     * @return Injected principal
      */
-    private void injectAuthenticatedUser(HttpServletRequest request, User user) {
+    private UserPrincipal injectAuthenticatedUser(HttpServletRequest request, User user) {
         UserPrincipal userPrincipal = new UserPrincipal(user.getId(), user.getUsername());
 
         // Add groups
@@ -98,6 +105,7 @@ public abstract class SecurityFilter implements Filter {
         userPrincipal.setEmail(user.getEmail());
 
         request.setAttribute(PRINCIPAL_ATTRIBUTE, userPrincipal);
+        return userPrincipal;
     }
 
     /**
@@ -127,8 +135,20 @@ public abstract class SecurityFilter implements Filter {
         HttpServletRequest request = (HttpServletRequest) req;
 
         if (!hasIdentifiedUser(request)) {
-            User user = authenticate(request);
-            injectUser(request, user);
+            String cacheKey = getCacheKey(request);
+            UserPrincipal userPrincipal = cacheKey == null ? null : PrincipalCache.get(cacheKey);
+            if (userPrincipal != null && !isValid(request)) {
+                // The session has expired since the principal has been cached
+                PrincipalCache.invalidate(cacheKey);
+                userPrincipal = null;
+            }
+            if (userPrincipal != null) {
+                request.setAttribute(PRINCIPAL_ATTRIBUTE, userPrincipal);
+            } else {
+                long generation = PrincipalCache.getGeneration();
+                User user = authenticate(request);
+                injectUser(request, user, cacheKey, generation);
+            }
         }
 
         filterChain.doFilter(request, response);
@@ -142,4 +162,27 @@ public abstract class SecurityFilter implements Filter {
      */
     protected abstract User authenticate(HttpServletRequest request);
 
+    /**
+     * Returns the key caching the principal authenticated from the given request.
+     * Only credentials revoked through the application can be cached, since cached principals
+     * are not authenticated again until they are invalidated or expired.
+     *
+     * @param request HTTP request
+     * @return nullable cache key, null to authenticate the request each time
+     */
+    protected String getCacheKey(HttpServletRequest request) {
+        return null;
+    }
+
+    /**
+     * Returns true if the credential of a request authenticated from the cache is still valid,
+     * e.g. if its session hasn't expired.
+     *
+     * @param request HTTP request
+     * @return True if the credential is still valid
+     */
+    protected boolean isValid(HttpServletRequest request) {
+        return true;
+    }
+
 }
\ No newline at end of file
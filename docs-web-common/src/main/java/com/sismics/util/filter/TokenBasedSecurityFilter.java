@@ -84,10 +84,14 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
         }
     }
 
-    @Override
-    protected User authenticate(HttpServletRequest request) {
-        // Get the value of the client authentication token
-        String authTokenId = extractAuthToken(request.getCookies());
+    /**
+     * Returns the server token of an authentication token, if it is still valid.
+     * An expired token is deleted.
+     *
+     * @param authTokenId Authentication token ID
+     * @return nullable server token
+     */
+    private AuthenticationToken getValidToken(String authTokenId) {
         if (authTokenId == null) {
             return null;
         }
@@ -103,7 +107,31 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
             handleExpiredToken(authTokenDao, authTokenId);
             return null;
         }
+        return authToken;
+    }
+
+    @Override
+    protected User authenticate(HttpServletRequest request) {
+        AuthenticationToken authToken = getValidToken(extractAuthToken(request.getCookies()));
+        if (authToken == null) {
+            return null;
+        }
 
         return new UserDao().getById(authToken.getUserId());
     }
+
+    @Override
+    protected String getCacheKey(HttpServletRequest request) {
+        String authTokenId = extractAuthToken(request.getCookies());
+        return authTokenId == null ? null : "token:" + authTokenId;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The token is read again, so that a token deleted on logout or expired since then is not accepted anymore.
+     */
+    @Override
+    protected boolean isValid(HttpServletRequest request) {
+        return getValidToken(extractAuthToken(request.getCookies())) != null;
+    }
 }
@@ -1,5 +1,8 @@
 package com.sismics.docs.rest;
 
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.util.StorageUtil;
+import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.docs.rest.util.ClientUtil;
 import com.sismics.util.filter.HeaderBasedSecurityFilter;
 import com.sismics.util.filter.RequestContextFilter;
@@ -30,6 +33,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Base class of integration tests with Jersey.
@@ -108,7 +112,7 @@ public abstract class BaseJerseyTest extends JerseyTest {
                 .addMappingForUrlPatterns(null, "/*");
         ServletRegistration reg = context.addServlet("jerseyServlet", ServletContainer.class);
         reg.setInitParameter("jersey.config.server.provider.packages", "com.sismics.docs.rest.resource");
-        reg.setInitParameter("jersey.config.server.provider.classnames", "org.glassfish.jersey.media.multipart.MultiPartFeature");
+        reg.setInitParameter("jersey.config.server.provider.classnames", "org.glassfish.jersey.media.multipart.MultiPartFeature,org.glassfish.jersey.server.filter.HttpMethodOverrideFilter");
         reg.setInitParameter("jersey.config.server.response.setStatusOverSendError", "true");
         reg.setLoadOnStartup(1);
         reg.addMapping("/*");
@@ -141,6 +145,19 @@ public abstract class BaseJerseyTest extends JerseyTest {
         return os.toString();
     }
 
+    /**
+     * Returns the stored file of a file.
+     *
+     * @param fileId File ID
+     * @param size Size (web or thumb), null for the original file
+     * @return Stored file
+     */
+    protected Path getStoredFile(String fileId, String size) {
+        AtomicReference<Path> storedFile = new AtomicReference<>();
+        TransactionUtil.handle(() -> storedFile.set(StorageUtil.getStoredFile(new FileDao().getById(fileId), size)));
+        return storedFile.get();
+    }
+
     @Override
     @After
     public void tearDown() throws Exception {
@@ -0,0 +1,273 @@
+package com.sismics.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.IncorrectClaimException;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.interfaces.JWTVerifier;
+import com.sismics.docs.core.util.MetricsUtil;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test of the JWKS cache, against a local JWKS stub.
+ *
+ * @author bgamard
+ */
+public class TestJwksCache {
+    /**
+     * JWKS stub.
+     */
+    private HttpServer jwksServer;
+
+    /**
+     * Number of JWKS requests.
+     */
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    /**
+     * Keys served by the stub, as a JWKS document.
+     */
+    private volatile String jwks;
+
+    /**
+     * True if the stub responds with an error.
+     */
+    private volatile boolean down;
+
+    /**
+     * Delay of the stub responses (in milliseconds).
+     */
+    private volatile long delay;
+
+    @Before
+    public void setUp() throws Exception {
+        // Each realm is a different issuer with the same keys
+        jwksServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        jwksServer.setExecutor(Executors.newCachedThreadPool());
+        jwksServer.createContext("/realms/", exchange -> {
+            requestCount.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // NOP
+            }
+            if (down) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = jwks.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        jwksServer.start();
+        JwksCache.invalidateAll();
+    }
+
+    @After
+    public void tearDown() {
+        jwksServer.stop(0);
+    }
+
+    @Test
+    public void verifyTest() throws Exception {
+        String issuer = getIssuer("test");
+        KeyPair keyPair1 = generateKeyPair();
+        KeyPair keyPair2 = generateKeyPair();
+        jwks = "{\"keys\":[" + toJwk("key1", keyPair1) + "]}";
+        long fetchCount = MetricsUtil.getMetrics().getOrDefault("security.jwks.fetch_ms.count", 0L);
+        JWTVerifier verifier = JWT.require(Algorithm.RSA256(JwksCache.getKeyProvider(issuer))).build();
+
+        // The keys are fetched once
+        verifier.verify(sign(issuer, "key1", keyPair1));
+        verifier.verify(sign(issuer, "key1", keyPair1));
+        Assert.assertEquals(1, requestCount.get());
+
+        // The keys are fetched again when the issuer rotates them
+        jwks = "{\"keys\":[" + toJwk("key1", keyPair1) + "," + toJwk("key2", keyPair2) + "]}";
+        verifier.verify(sign(issuer, "key2", keyPair2));
+        Assert.assertEquals(2, requestCount.get());
+
+        // Another unknown key doesn't fetch the keys again right away
+        try {
+            verifier.verify(sign(issuer, "key3", keyPair2));
+            Assert.fail();
+        } catch (SignatureVerificationException e) {
+            // NOP
+        }
+        Assert.assertEquals(2, requestCount.get());
+
+        // The cached keys are still used when the issuer is down
+        jwksServer.stop(0);
+        verifier.verify(sign(issuer, "key1", keyPair1));
+        Assert.assertEquals(2, requestCount.get());
+        Assert.assertEquals(fetchCount + 2, (long) MetricsUtil.getMetrics().get("security.jwks.fetch_ms.count"));
+    }
+
+    @Test
+    public void outageTest() throws Exception {
+        String issuer = getIssuer("outage");
+        KeyPair keyPair1 = generateKeyPair();
+        KeyPair keyPair2 = generateKeyPair();
+        jwks = "{\"keys\":[" + toJwk("key1", keyPair1) + "]}";
+        Assert.assertNotNull(JwksCache.getPublicKey(issuer, "key1"));
+        Assert.assertEquals(1, requestCount.get());
+
+        // An unknown key fetches the keys again, the cached keys are still used if it fails
+        down = true;
+        Assert.assertNull(JwksCache.getPublicKey(issuer, "key2"));
+        Assert.assertEquals(2, requestCount.get());
+        JWTVerifier verifier = JwksCache.getVerifier(issuer);
+        verifier.verify(sign(issuer, "key1", keyPair1));
+        try {
+            verifier.verify(sign(issuer, "key2", keyPair2));
+            Assert.fail();
+        } catch (SignatureVerificationException e) {
+            // NOP
+        }
+        Assert.assertEquals(2, requestCount.get());
+
+        // The first fetch of an issuer fails, the error is cached for a while
+        String downIssuer = getIssuer("down");
+        for (int i = 0; i < 2; i++) {
+            try {
+                JwksCache.getPublicKey(downIssuer, "key1");
+                Assert.fail();
+            } catch (IOException e) {
+                // NOP
+            }
+        }
+        Assert.assertEquals(3, requestCount.get());
+    }
+
+    @Test
+    public void concurrentFetchTest() throws Exception {
+        String issuer = getIssuer("concurrent");
+        KeyPair keyPair1 = generateKeyPair();
+        KeyPair keyPair2 = generateKeyPair();
+        jwks = "{\"keys\":[" + toJwk("key1", keyPair1) + "]}";
+        Assert.assertNotNull(JwksCache.getPublicKey(issuer, "key1"));
+        Assert.assertEquals(1, requestCount.get());
+
+        // The issuer rotates its keys, the concurrent requests with the new key wait for the same fetch
+        jwks = "{\"keys\":[" + toJwk("key1", keyPair1) + "," + toJwk("key2", keyPair2) + "]}";
+        delay = 200;
+        ExecutorService executorService = Executors.newFixedThreadPool(10);
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<RSAPublicKey>> futureList = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futureList.add(executorService.submit(() -> {
+                    startLatch.await();
+                    return JwksCache.getPublicKey(issuer, "key2");
+                }));
+            }
+            startLatch.countDown();
+            for (Future<RSAPublicKey> future : futureList) {
+                Assert.assertEquals(keyPair2.getPublic(), future.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        Assert.assertEquals(2, requestCount.get());
+    }
+
+    @Test
+    public void verifierTest() throws Exception {
+        String issuer = getIssuer("verifier");
+        String otherIssuer = getIssuer("other");
+        KeyPair keyPair1 = generateKeyPair();
+        jwks = "{\"keys\":[" + toJwk("key1", keyPair1) + "]}";
+
+        // The verifiers are cached by issuer
+        JWTVerifier verifier = JwksCache.getVerifier(issuer);
+        Assert.assertSame(verifier, JwksCache.getVerifier(issuer));
+        Assert.assertNotSame(verifier, JwksCache.getVerifier(otherIssuer));
+        verifier.verify(sign(issuer, "key1", keyPair1));
+
+        // The tokens of another issuer are rejected, even if signed by the same key
+        try {
+            verifier.verify(sign(otherIssuer, "key1", keyPair1));
+            Assert.fail();
+        } catch (IncorrectClaimException e) {
+            // NOP
+        }
+        JwksCache.getVerifier(otherIssuer).verify(sign(otherIssuer, "key1", keyPair1));
+        Assert.assertEquals(2, requestCount.get());
+    }
+
+    /**
+     * Returns the issuer of a realm of the JWKS stub.
+     *
+     * @param realm Realm
+     * @return Issuer
+     */
+    private String getIssuer(String realm) {
+        return "http://localhost:" + jwksServer.getAddress().getPort() + "/realms/" + realm;
+    }
+
+    /**
+     * Generate a RSA key pair.
+     *
+     * @return Key pair
+     * @throws Exception e
+     */
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    /**
+     * Returns a public key as a JSON web key.
+     *
+     * @param keyId Key ID
+     * @param keyPair Key pair
+     * @return JSON web key
+     */
+    private static String toJwk(String keyId, KeyPair keyPair) {
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return "{\"kid\":\"" + keyId + "\",\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\""
+                + ",\"n\":\"" + encoder.encodeToString(publicKey.getModulus().toByteArray())
+                + "\",\"e\":\"" + encoder.encodeToString(publicKey.getPublicExponent().toByteArray()) + "\"}";
+    }
+
+    /**
+     * Sign a token.
+     *
+     * @param issuer Issuer
+     * @param keyId Key ID
+     * @param keyPair Key pair
+     * @return Token
+     */
+    private static String sign(String issuer, String keyId, KeyPair keyPair) {
+        return JWT.create()
+                .withIssuer(issuer)
+                .withKeyId(keyId)
+                .withClaim("preferred_username", "jwks_test")
+                .sign(Algorithm.RSA256((RSAPublicKey) keyPair.getPublic(), (RSAPrivateKey) keyPair.getPrivate()));
+    }
+}
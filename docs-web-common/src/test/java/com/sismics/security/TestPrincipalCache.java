@@ -0,0 +1,31 @@
+package com.sismics.security;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test of the principal cache.
+ *
+ * @author bgamard
+ */
+public class TestPrincipalCache {
+    @Test
+    public void invalidateTest() {
+        UserPrincipal userPrincipal = new UserPrincipal("principal_cache_test", "principal_cache_test");
+        PrincipalCache.put("token:test1", userPrincipal, PrincipalCache.getGeneration());
+        Assert.assertSame(userPrincipal, PrincipalCache.get("token:test1"));
+
+        // A principal read before an invalidation is not cached
+        long generation = PrincipalCache.getGeneration();
+        PrincipalCache.invalidateUser("principal_cache_test");
+        Assert.assertNull(PrincipalCache.get("token:test1"));
+        PrincipalCache.put("token:test2", userPrincipal, generation);
+        Assert.assertNull(PrincipalCache.get("token:test2"));
+
+        // A principal read after it is
+        PrincipalCache.put("token:test2", userPrincipal, PrincipalCache.getGeneration());
+        Assert.assertSame(userPrincipal, PrincipalCache.get("token:test2"));
+        PrincipalCache.invalidate("token:test2");
+        Assert.assertNull(PrincipalCache.get("token:test2"));
+    }
+}
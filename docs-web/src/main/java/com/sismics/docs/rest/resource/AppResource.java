@@ -3,17 +3,24 @@ package com.sismics.docs.rest.resource;
 import com.google.common.base.Strings;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.constant.FileJobStatus;
 import com.sismics.docs.core.dao.ConfigDao;
 import com.sismics.docs.core.dao.DocumentDao;
 import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.FileJobDao;
+import com.sismics.docs.core.dao.StorageBlobDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Config;
-import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.service.InboxService;
 import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.MetricsUtil;
+import com.sismics.docs.core.util.StorageUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.indexing.RebuildIndexProgress;
+import com.sismics.docs.core.util.storage.StorageBackend;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.rest.constant.BaseFunction;
@@ -40,10 +47,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * General app REST resource.
@@ -57,6 +66,16 @@ public class AppResource extends BaseResource {
      */
     private static final Logger log = LoggerFactory.getLogger(AppResource.class);
 
+    /**
+     * Number of stored files or blobs checked at once by the storage cleaning.
+     */
+    private static final int CLEAN_BATCH_SIZE = 1000;
+
+    /**
+     * Age of the stored files that the storage cleaning can delete (in milliseconds).
+     */
+    private static final long CLEAN_GRACE_PERIOD = TimeUnit.DAYS.toMillis(1);
+
     /**
      * Returns information about the application.
      *
@@ -602,12 +621,88 @@ public class AppResource extends BaseResource {
     }
 
     /**
-     * Destroy and rebuild the search index.
+     * Get the application metrics.
+     *
+     * @api {get} /app/metrics Get the application metrics
+     * @apiName GetAppMetrics
+     * @apiGroup App
+     * @apiSuccess {Object} metrics Metric values by name
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.12.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("metrics")
+    public Response metrics() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        JsonObjectBuilder metrics = Json.createObjectBuilder();
+        for (Map.Entry<String, Long> entry : MetricsUtil.getMetrics().entrySet()) {
+            metrics.add(entry.getKey(), entry.getValue());
+        }
+
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("metrics", metrics);
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Get the file processing jobs status.
+     *
+     * @api {get} /app/file_jobs Get the file processing jobs status
+     * @apiName GetAppFileJobs
+     * @apiGroup App
+     * @apiSuccess {Number} queued Number of jobs waiting to be processed or retried
+     * @apiSuccess {Number} running Number of jobs processing
+     * @apiSuccess {Number} failed Number of jobs failed too many times
+     * @apiSuccess {Number} oldest_age Age of the oldest job not failed (in milliseconds)
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.12.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("file_jobs")
+    public Response fileJobs() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        FileJobDao fileJobDao = new FileJobDao();
+        Map<FileJobStatus, Long> countMap = fileJobDao.countByStatus();
+        Date oldestCreateDate = fileJobDao.getOldestCreateDate();
+
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("queued", countMap.get(FileJobStatus.QUEUED))
+                .add("running", countMap.get(FileJobStatus.RUNNING))
+                .add("failed", countMap.get(FileJobStatus.FAILED))
+                .add("oldest_age", oldestCreateDate == null ? 0 : System.currentTimeMillis() - oldestCreateDate.getTime());
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Rebuild the search index.
+     * The current index is still searched during the rebuild, and replaced at the end.
+     * If a rebuild is already running, its progress is returned and no other rebuild is started.
      *
      * @api {post} /app/batch/reindex Rebuild the search index
      * @apiName PostAppBatchReindex
      * @apiGroup App
      * @apiSuccess {String} status Status OK
+     * @apiSuccess {Object} progress Progress of the current or last rebuild (if any)
+     * @apiSuccess {Boolean} progress.running True if the rebuild is running
+     * @apiSuccess {Number} progress.total Number of documents and files to index
+     * @apiSuccess {Number} progress.done Number of documents and files indexed
+     * @apiSuccess {Number} progress.docs_per_second Number of documents and files indexed per second
+     * @apiSuccess {Number} progress.eta Estimated remaining time (in milliseconds)
+     * @apiSuccess {String} progress.error Error message if the rebuild failed
      * @apiError (client) ForbiddenError Access denied
      * @apiError (server) IndexingError Error rebuilding the index
      * @apiPermission admin
@@ -623,15 +718,118 @@ public class AppResource extends BaseResource {
         }
         checkBaseFunction(BaseFunction.ADMIN);
 
-        RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
-        ThreadLocalContext.get().addAsyncEvent(rebuildIndexAsyncEvent);
+        RebuildIndexProgress progress = RebuildIndexProgress.getCurrent();
+        if (progress == null || !progress.isRunning()) {
+            RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
+            ThreadLocalContext.get().addAsyncEvent(rebuildIndexAsyncEvent);
+        }
 
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
                 .add("status", "ok");
+        addRebuildIndexProgress(response, progress);
         return Response.ok().entity(response.build()).build();
     }
 
+    /**
+     * Get the progress of the search index rebuild.
+     *
+     * @api {get} /app/batch/reindex Get the search index rebuild progress
+     * @apiName GetAppBatchReindex
+     * @apiGroup App
+     * @apiSuccess {Object} progress Progress of the current or last rebuild (if any)
+     * @apiSuccess {Boolean} progress.running True if the rebuild is running
+     * @apiSuccess {Number} progress.total Number of documents and files to index
+     * @apiSuccess {Number} progress.done Number of documents and files indexed
+     * @apiSuccess {Number} progress.docs_per_second Number of documents and files indexed per second
+     * @apiSuccess {Number} progress.eta Estimated remaining time (in milliseconds)
+     * @apiSuccess {String} progress.error Error message if the rebuild failed
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.12.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("batch/reindex")
+    public Response batchReindexProgress() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        JsonObjectBuilder response = Json.createObjectBuilder();
+        addRebuildIndexProgress(response, RebuildIndexProgress.getCurrent());
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Add the progress of an index rebuild to a response.
+     *
+     * @param response Response
+     * @param progress Progress, nothing is added if null
+     */
+    private void addRebuildIndexProgress(JsonObjectBuilder response, RebuildIndexProgress progress) {
+        if (progress == null) {
+            return;
+        }
+        response.add("progress", Json.createObjectBuilder()
+                .add("running", progress.isRunning())
+                .add("total", progress.getTotal())
+                .add("done", progress.getDone())
+                .add("docs_per_second", Math.round(progress.getDocsPerSecond() * 100) / 100.0)
+                .add("eta", JsonUtil.nullable(progress.getEta()))
+                .add("error", JsonUtil.nullable(progress.getError())));
+    }
+
+    /**
+     * Delete the files stored by ID which don't belong to an active file.
+     *
+     * @param storedFileList Files stored by ID
+     * @param maxTime Last modification time of the files to delete (in milliseconds)
+     * @throws IOException e
+     */
+    private void deleteOrphanStoredFiles(List<java.nio.file.Path> storedFileList, long maxTime) throws IOException {
+        Set<String> fileIdSet = new HashSet<>();
+        for (java.nio.file.Path storedFile : storedFileList) {
+            fileIdSet.add(storedFile.getFileName().toString().split("_")[0]);
+        }
+        Set<String> legacyFileIdSet = new FileDao().findLegacyIds(fileIdSet);
+        for (java.nio.file.Path storedFile : storedFileList) {
+            if (!legacyFileIdSet.contains(storedFile.getFileName().toString().split("_")[0])
+                    && Files.getLastModifiedTime(storedFile).toMillis() < maxTime) {
+                log.info("Deleting orphan files at this location: {}", storedFile);
+                Files.delete(storedFile);
+            }
+        }
+    }
+
+    /**
+     * Delete the blobs which are not referenced anymore.
+     *
+     * @param blobList Blob names
+     * @param maxTime Last modification time of the blobs to delete (in milliseconds)
+     */
+    private void deleteOrphanBlobs(List<String> blobList, long maxTime) {
+        StorageBackend storageBackend = StorageUtil.getBackend();
+        Set<String> keySet = new HashSet<>();
+        for (String name : blobList) {
+            keySet.add(name.split("_")[0]);
+        }
+        Set<String> referencedKeySet = new StorageBlobDao().findReferencedKeys(keySet);
+        try {
+            for (String name : blobList) {
+                if (!referencedKeySet.contains(name.split("_")[0])
+                        && Files.getLastModifiedTime(storageBackend.getPath(name)).toMillis() < maxTime) {
+                    log.info("Deleting orphan blob: {}", name);
+                    storageBackend.delete(name);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Clean storage.
      *
@@ -654,25 +852,49 @@ public class AppResource extends BaseResource {
         }
         checkBaseFunction(BaseFunction.ADMIN);
 
-        // Get all files
+        // The recent files may belong to a transaction not committed yet
+        long maxTime = System.currentTimeMillis() - CLEAN_GRACE_PERIOD;
+        StorageBackend storageBackend = StorageUtil.getBackend();
         FileDao fileDao = new FileDao();
-        List<File> fileList = fileDao.findAll(0, Integer.MAX_VALUE);
-        Map<String, File> fileMap = new HashMap<>();
-        for (File file : fileList) {
-            fileMap.put(file.getId(), file);
-        }
-        log.info("Checking {} files", fileMap.size());
-
-        // Check if each stored file is valid
-        try (DirectoryStream<java.nio.file.Path> storedFileList = Files.newDirectoryStream(DirectoryUtil.getStorageDirectory())) {
-            for (java.nio.file.Path storedFile : storedFileList) {
-                String fileName = storedFile.getFileName().toString();
-                String[] fileNameArray = fileName.split("_");
-                if (!fileMap.containsKey(fileNameArray[0])) {
-                    log.info("Deleting orphan files at this location: {}", storedFile);
-                    Files.delete(storedFile);
+        StorageBlobDao storageBlobDao = new StorageBlobDao();
+        try {
+            // Delete the temporary files of the interrupted uploads
+            log.info("Deleting {} orphan temporary files", storageBackend.deleteTemporaryFiles(CLEAN_GRACE_PERIOD));
+
+            // Check if each file stored by ID is valid
+            List<java.nio.file.Path> storedFileList = new ArrayList<>();
+            try (DirectoryStream<java.nio.file.Path> directoryStream = Files.newDirectoryStream(DirectoryUtil.getStorageDirectory(),
+                    storedFile -> !Files.isDirectory(storedFile))) {
+                for (java.nio.file.Path storedFile : directoryStream) {
+                    storedFileList.add(storedFile);
+                    if (storedFileList.size() == CLEAN_BATCH_SIZE) {
+                        deleteOrphanStoredFiles(storedFileList, maxTime);
+                        storedFileList.clear();
+                    }
                 }
             }
+            deleteOrphanStoredFiles(storedFileList, maxTime);
+
+            // Recompute the reference counts of the blobs from the files
+            log.info("Releasing the blobs of {} files with a lost deletion", fileDao.clearStorageKeys(new Date(maxTime)));
+            String lastKey = null;
+            do {
+                lastKey = storageBlobDao.recomputeRefCounts(lastKey, CLEAN_BATCH_SIZE);
+                TransactionUtil.commit();
+            } while (lastKey != null);
+
+            // Check if each blob is referenced
+            List<String> blobList = new ArrayList<>();
+            storageBackend.forEach(name -> {
+                blobList.add(name);
+                if (blobList.size() == CLEAN_BATCH_SIZE) {
+                    deleteOrphanBlobs(blobList, maxTime);
+                    blobList.clear();
+                }
+            });
+            deleteOrphanBlobs(blobList, maxTime);
+        } catch (UncheckedIOException e) {
+            throw new ServerException("FileError", "Error deleting orphan files", e.getCause());
         } catch (IOException e) {
             throw new ServerException("FileError", "Error deleting orphan files", e);
         }
@@ -739,6 +961,7 @@ public class AppResource extends BaseResource {
         log.info("Deleting {} soft deleted shares", em.createQuery("delete Share where deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted tags", em.createQuery("delete Tag where deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted comments", em.createQuery("delete Comment where deleteDate is not null").executeUpdate());
+        log.info("Deleting {} soft deleted file contents", em.createQuery("delete FileText where fileId in (select f.id from File f where f.deleteDate is not null)").executeUpdate());
         log.info("Deleting {} soft deleted files", em.createQuery("delete File where deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted documents", em.createQuery("delete Document where deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted users", em.createQuery("delete User where deleteDate is not null").executeUpdate());
@@ -34,6 +34,7 @@ import com.sismics.docs.core.util.DocumentUtil;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.docs.core.util.MetadataUtil;
 import com.sismics.docs.core.util.PdfUtil;
+import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -341,6 +342,9 @@ public class DocumentResource extends BaseResource {
             file.setPrivateKey(user.getPrivateKey());
         }
 
+        // The PDF is converted without the database, release its connection during a slow download
+        TransactionUtil.commitAndClose();
+
         // Convert to PDF
         StreamingOutput stream = outputStream -> {
             try {
@@ -884,7 +888,6 @@ public class DocumentResource extends BaseResource {
      * @apiError (client) ForbiddenError Access denied
      * @apiError (client) ValidationError Validation error
      * @apiError (server) StreamError Error reading the input file
-     * @apiError (server) ErrorGuessMime Error guessing mime type
      * @apiError (client) QuotaReached Quota limit reached
      * @apiError (server) FileError Error adding a file
      * @apiPermission user
@@ -6,18 +6,22 @@ import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.AclDao;
 import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.FileTextDao;
 import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.FileUploadDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
 import com.sismics.docs.core.event.FileDeletedAsyncEvent;
 import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
-import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.FileUpload;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.FileUploadUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.StorageUtil;
+import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
@@ -46,9 +50,12 @@ import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -76,8 +83,6 @@ public class FileResource extends BaseResource {
      * @apiError (client) ForbiddenError Access denied
      * @apiError (client) ValidationError Validation error
      * @apiError (client) NotFound Document not found
-     * @apiError (server) StreamError Error reading the input file
-     * @apiError (server) ErrorGuessMime Error guessing mime type
      * @apiError (client) QuotaReached Quota limit reached
      * @apiError (server) FileError Error adding a file
      * @apiPermission user
@@ -112,28 +117,18 @@ public class FileResource extends BaseResource {
             }
         }
         
-        // Keep unencrypted data temporary on disk
+        // Stream the data once to the storage, the unencrypted data is kept on disk only if needed
         String name = fileBodyPart.getContentDisposition() != null ?
                 URLDecoder.decode(fileBodyPart.getContentDisposition().getFileName(), StandardCharsets.UTF_8) : null;
-        java.nio.file.Path unencryptedFile;
-        long fileSize;
-        try {
-            unencryptedFile = AppContext.getInstance().getFileService().createTemporaryFile(name);
-            Files.copy(fileBodyPart.getValueAs(InputStream.class), unencryptedFile, StandardCopyOption.REPLACE_EXISTING);
-            fileSize = Files.size(unencryptedFile);
-        } catch (IOException e) {
-            throw new ServerException("StreamError", "Error reading the input file", e);
-        }
-
-        try {
-            String fileId = FileUtil.createFile(name, previousFileId, unencryptedFile, fileSize, documentDto == null ?
+        try (InputStream inputStream = fileBodyPart.getValueAs(InputStream.class)) {
+            File file = FileUtil.createFile(name, previousFileId, inputStream, null, documentDto == null ?
                     null : documentDto.getLanguage(), principal.getId(), documentId);
 
             // Always return OK
             JsonObjectBuilder response = Json.createObjectBuilder()
                     .add("status", "ok")
-                    .add("id", fileId)
-                    .add("size", fileSize);
+                    .add("id", file.getId())
+                    .add("size", file.getSize());
             return Response.ok().entity(response.build()).build();
         } catch (IOException e) {
             throw new ClientException(e.getMessage(), e.getMessage(), e);
@@ -142,6 +137,288 @@ public class FileResource extends BaseResource {
         }
     }
     
+    /**
+     * Start a resumable upload.
+     *
+     * @api {put} /file/upload Start a resumable upload
+     * @apiDescription The file content is then sent by chunks with PATCH /file/upload/:id,
+     * and the file is added when the upload is complete with POST /file/upload/:id/complete.
+     * Uploads without activity are deleted after 24 hours.
+     * @apiName PutFileUpload
+     * @apiGroup File
+     * @apiParam {String} [id] Document ID
+     * @apiParam {String} [previousFileId] ID of the file to replace by this new version
+     * @apiParam {String} [name] File name
+     * @apiParam {Number} size File size (in bytes)
+     * @apiSuccess {String} status Status OK
+     * @apiSuccess {String} id Upload ID
+     * @apiSuccess {Number} offset Offset of the next chunk
+     * @apiSuccess {Number} chunk_size Maximum size of a chunk (in bytes)
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) ValidationError Validation error
+     * @apiError (client) NotFound Document not found
+     * @apiError (client) QuotaReached Quota limit reached, including the uploads in progress
+     * @apiError (client) TooManyUploads Too many uploads in progress
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param documentId Document ID
+     * @param previousFileId ID of the file to replace
+     * @param name File name
+     * @param sizeStr File size
+     * @return Response
+     */
+    @PUT
+    @Path("upload")
+    public Response createUpload(
+            @FormParam("id") String documentId,
+            @FormParam("previousFileId") String previousFileId,
+            @FormParam("name") String name,
+            @FormParam("size") String sizeStr) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        // Validate input data
+        name = ValidationUtil.validateLength(name, "name", 1, 200, true);
+        ValidationUtil.validateRequired(sizeStr, "size");
+        long size = ValidationUtil.validateLong(sizeStr, "size");
+        if (size < 0) {
+            throw new ClientException("ValidationError", "size must be positive");
+        }
+        if (Strings.isNullOrEmpty(documentId)) {
+            documentId = null;
+        } else {
+            getWritableDocument(documentId);
+        }
+
+        // Fail fast if the file cannot be stored, along with the other uploads in progress
+        User user = new UserDao().getById(principal.getId());
+        long[] uploadCountAndSize = new FileUploadDao().getCountAndSizeByUserId(principal.getId());
+        if (uploadCountAndSize[0] >= FileUploadUtil.MAX_UPLOADS) {
+            throw new ClientException("TooManyUploads", "Too many uploads in progress");
+        }
+        try {
+            FileUtil.checkQuota(user, size + uploadCountAndSize[1]);
+        } catch (IOException e) {
+            throw new ClientException(e.getMessage(), e.getMessage(), e);
+        }
+
+        // Create the upload
+        FileUpload fileUpload = new FileUpload()
+                .setUserId(principal.getId())
+                .setDocumentId(documentId)
+                .setPreviousFileId(Strings.emptyToNull(previousFileId))
+                .setName(name)
+                .setSize(size);
+        String uploadId = new FileUploadDao().create(fileUpload);
+
+        // Always return OK
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("status", "ok")
+                .add("id", uploadId)
+                .add("offset", 0)
+                .add("chunk_size", FileUploadUtil.CHUNK_SIZE);
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Returns the state of a resumable upload.
+     *
+     * @api {get} /file/upload/:id Get a resumable upload
+     * @apiDescription The offset is the number of bytes received, the upload is resumed from there.
+     * @apiName GetFileUpload
+     * @apiGroup File
+     * @apiParam {String} id Upload ID
+     * @apiSuccess {String} id Upload ID
+     * @apiSuccess {String} name File name
+     * @apiSuccess {Number} size File size (in bytes)
+     * @apiSuccess {Number} offset Offset of the next chunk
+     * @apiSuccess {Number} chunk_size Maximum size of a chunk (in bytes)
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) NotFound Upload not found
+     * @apiError (server) FileError Error reading the upload
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param id Upload ID
+     * @return Response
+     */
+    @GET
+    @Path("upload/{id: [a-z0-9\\-]+}")
+    public Response getUpload(@PathParam("id") String id) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        FileUpload fileUpload = findUpload(id);
+        try {
+            JsonObjectBuilder response = Json.createObjectBuilder()
+                    .add("id", fileUpload.getId())
+                    .add("name", JsonUtil.nullable(fileUpload.getName()))
+                    .add("size", fileUpload.getSize())
+                    .add("offset", FileUploadUtil.getOffset(fileUpload.getId()))
+                    .add("chunk_size", FileUploadUtil.CHUNK_SIZE);
+            return Response.ok().entity(response.build()).build();
+        } catch (IOException e) {
+            throw new ServerException("FileError", "Error reading the upload", e);
+        }
+    }
+
+    /**
+     * Send a chunk of a resumable upload.
+     *
+     * @api {patch} /file/upload/:id Send a chunk of a resumable upload
+     * @apiDescription The request body is the chunk content (application/octet-stream).
+     * If the request is interrupted, the bytes received are kept and the upload is resumed from the new offset.
+     * A chunk too large is rejected as a whole, the offset doesn't change.
+     * Clients unable to send a PATCH request can send a POST request with a X-HTTP-Method-Override: PATCH header.
+     * @apiName PatchFileUpload
+     * @apiGroup File
+     * @apiParam {String} id Upload ID
+     * @apiParam {Number} offset Offset of the chunk, must be the number of bytes already received
+     * @apiSuccess {String} status Status OK
+     * @apiSuccess {Number} offset Offset of the next chunk
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) ValidationError Validation error
+     * @apiError (client) NotFound Upload not found
+     * @apiError (client) OffsetMismatch The offset is not the number of bytes received
+     * @apiError (client) UploadBusy Another chunk of this upload is being received
+     * @apiError (client) ChunkTooLarge The chunk is larger than the maximum chunk size
+     * @apiError (client) SizeExceeded The chunk goes past the file size
+     * @apiError (server) FileError Error writing the chunk
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param id Upload ID
+     * @param offsetStr Offset of the chunk
+     * @param inputStream Chunk content
+     * @return Response
+     */
+    @PATCH
+    @Path("upload/{id: [a-z0-9\\-]+}")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public Response uploadChunk(
+            @PathParam("id") String id,
+            @QueryParam("offset") String offsetStr,
+            InputStream inputStream) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        // Validate input data
+        ValidationUtil.validateRequired(offsetStr, "offset");
+        long offset = ValidationUtil.validateLong(offsetStr, "offset");
+        FileUpload fileUpload = findUpload(id);
+
+        // Append the chunk
+        User user = new UserDao().getById(principal.getId());
+        long newOffset;
+        try {
+            newOffset = FileUploadUtil.appendChunk(fileUpload, user.getPrivateKey(), offset, inputStream);
+        } catch (IOException e) {
+            throw new ClientException(e.getMessage(), e.getMessage(), e);
+        } catch (Exception e) {
+            throw new ServerException("FileError", "Error writing the chunk", e);
+        }
+        fileUpload.setUpdateDate(new Date());
+
+        // Always return OK
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("status", "ok")
+                .add("offset", newOffset);
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Complete a resumable upload.
+     *
+     * @api {post} /file/upload/:id/complete Complete a resumable upload
+     * @apiDescription The file is added like with PUT /file, and the upload is deleted.
+     * @apiName PostFileUploadComplete
+     * @apiGroup File
+     * @apiParam {String} id Upload ID
+     * @apiSuccess {String} status Status OK
+     * @apiSuccess {String} id File ID
+     * @apiSuccess {Number} size File size (in bytes)
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) NotFound Upload or document not found
+     * @apiError (client) UploadIncomplete All the chunks have not been received
+     * @apiError (client) QuotaReached Quota limit reached
+     * @apiError (server) FileError Error adding a file
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param id Upload ID
+     * @return Response
+     */
+    @POST
+    @Path("upload/{id: [a-z0-9\\-]+}/complete")
+    public Response completeUpload(@PathParam("id") String id) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        FileUpload fileUpload = findUpload(id);
+        DocumentDto documentDto = fileUpload.getDocumentId() == null ? null : getWritableDocument(fileUpload.getDocumentId());
+
+        // Stream the upload to the storage
+        User user = new UserDao().getById(principal.getId());
+        File file;
+        try (InputStream inputStream = FileUploadUtil.openUpload(fileUpload, user.getPrivateKey())) {
+            file = FileUtil.createFile(fileUpload.getName(), fileUpload.getPreviousFileId(), inputStream, null,
+                    documentDto == null ? null : documentDto.getLanguage(), principal.getId(), fileUpload.getDocumentId());
+        } catch (IOException e) {
+            throw new ClientException(e.getMessage(), e.getMessage(), e);
+        } catch (Exception e) {
+            throw new ServerException("FileError", "Error adding a file", e);
+        }
+
+        // Delete the upload
+        new FileUploadDao().delete(fileUpload.getId());
+        deleteUploadContent(fileUpload.getId());
+
+        // Always return OK
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("status", "ok")
+                .add("id", file.getId())
+                .add("size", file.getSize());
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Cancel a resumable upload.
+     *
+     * @api {delete} /file/upload/:id Cancel a resumable upload
+     * @apiName DeleteFileUpload
+     * @apiGroup File
+     * @apiParam {String} id Upload ID
+     * @apiSuccess {String} status Status OK
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) NotFound Upload not found
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param id Upload ID
+     * @return Response
+     */
+    @DELETE
+    @Path("upload/{id: [a-z0-9\\-]+}")
+    public Response deleteUpload(@PathParam("id") String id) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        FileUpload fileUpload = findUpload(id);
+        new FileUploadDao().delete(fileUpload.getId());
+        deleteUploadContent(fileUpload.getId());
+
+        // Always return OK
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("status", "ok");
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Attach a file to a document.
      *
@@ -198,15 +475,14 @@ public class FileResource extends BaseResource {
         
         // Raise a new file updated event and document updated event (it wasn't sent during file creation)
         try {
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
+            java.nio.file.Path storedFile = StorageUtil.getStoredFile(file, null);
             java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
-            FileUtil.startProcessingFile(id);
             FileUpdatedAsyncEvent fileUpdatedAsyncEvent = new FileUpdatedAsyncEvent();
             fileUpdatedAsyncEvent.setUserId(principal.getId());
             fileUpdatedAsyncEvent.setLanguage(documentDto.getLanguage());
             fileUpdatedAsyncEvent.setFileId(file.getId());
             fileUpdatedAsyncEvent.setUnencryptedFile(unencryptedFile);
-            ThreadLocalContext.get().addAsyncEvent(fileUpdatedAsyncEvent);
+            FileUtil.queueProcessingFile(fileUpdatedAsyncEvent);
             
             DocumentUpdatedAsyncEvent documentUpdatedAsyncEvent = new DocumentUpdatedAsyncEvent();
             documentUpdatedAsyncEvent.setUserId(principal.getId());
@@ -306,15 +582,14 @@ public class FileResource extends BaseResource {
 
         // Start the processing asynchronously
         try {
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
+            java.nio.file.Path storedFile = StorageUtil.getStoredFile(file, null);
             java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
-            FileUtil.startProcessingFile(id);
             FileUpdatedAsyncEvent event = new FileUpdatedAsyncEvent();
             event.setUserId(principal.getId());
             event.setLanguage(documentDto.getLanguage());
             event.setFileId(file.getId());
             event.setUnencryptedFile(unencryptedFile);
-            ThreadLocalContext.get().addAsyncEvent(event);
+            FileUtil.queueProcessingFile(event);
         } catch (Exception e) {
             throw new ServerException("ProcessingError", "Error processing this file", e);
         }
@@ -395,6 +670,7 @@ public class FileResource extends BaseResource {
      * @apiSuccess {Object[]} files List of files
      * @apiSuccess {String} files.id ID
      * @apiSuccess {String} files.processing True if the file is currently processing
+     * @apiSuccess {Number} files.processing_progress Processing progress in percent, null if not processing
      * @apiSuccess {String} files.name File name
      * @apiSuccess {String} files.version Zero-based version number
      * @apiSuccess {String} files.mimetype MIME type
@@ -544,6 +820,7 @@ public class FileResource extends BaseResource {
     
     /**
      * Returns a file.
+     * Supports conditional requests (If-None-Match) and byte ranges (Range, If-Range).
      *
      * @api {get} /file/:id/data Get a file data
      * @apiName GetFile
@@ -552,14 +829,21 @@ public class FileResource extends BaseResource {
      * @apiParam {String} share Share ID
      * @apiParam {String="web","thumb","content"} [size] Size variation
      * @apiSuccess {Object} file The file data is the whole response
+     * @apiSuccess (206) {Object} file The requested byte ranges of the file data
+     * @apiSuccess (304) NotModified The file data has not changed
      * @apiError (client) SizeError Size must be web or thumb
      * @apiError (client) ForbiddenError Access denied or document not visible
      * @apiError (client) NotFound File not found
+     * @apiError (client) RangeNotSatisfiable None of the requested ranges are in the file
      * @apiError (server) ServiceUnavailable Error reading the file
      * @apiPermission none
-     * @apiVersion 1.5.0
+     * @apiVersion 1.12.0
      *
      * @param fileId File ID
+     * @param shareId Share ID
+     * @param size Size variation
+     * @param range Range header
+     * @param ifRange If-Range header
      * @return Response
      */
     @GET
@@ -568,7 +852,9 @@ public class FileResource extends BaseResource {
     public Response data(
             @PathParam("id") final String fileId,
             @QueryParam("share") String shareId,
-            @QueryParam("size") String size) {
+            @QueryParam("size") String size,
+            @HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange) {
         authenticate();
         
         if (size != null && !Lists.newArrayList("web", "thumb", "content").contains(size)) {
@@ -577,6 +863,28 @@ public class FileResource extends BaseResource {
 
         // Get the file
         File file = findFile(fileId, shareId);
+        if ("content".equals(size)) {
+            // The compressed content is loaded before releasing the connection, and decompressed while it is sent
+            InputStream contentStream = new FileTextDao().getContentInMemory(file.getId());
+            TransactionUtil.commitAndClose();
+            return Response.ok(contentStream == null ? InputStream.nullInputStream() : contentStream)
+                    .header(HttpHeaders.CONTENT_TYPE, "text/plain; charset=utf-8")
+                    .build();
+        }
+
+        // A file version is never modified, but its thumbnails are generated again when it is processed.
+        // The entity tag is built from the database only, a conditional request doesn't read the storage.
+        String entityTag = "\"" + file.getId() + "-" + file.getVersion();
+        if (size != null) {
+            entityTag += "-" + size + "-" + (file.getProcessDate() == null ? "0" : Long.toHexString(file.getProcessDate().getTime()));
+        }
+        entityTag += "\"";
+        if (HttpUtil.matchesEntityTag(request.getHeader(HttpHeaders.IF_NONE_MATCH), entityTag)) {
+            return Response.notModified()
+                    .header(HttpHeaders.ETAG, entityTag)
+                    .header(HttpHeaders.CACHE_CONTROL, size == null ? "private" : "private, no-cache")
+                    .build();
+        }
 
         // Get the stored file
         UserDao userDao = new UserDao();
@@ -584,13 +892,7 @@ public class FileResource extends BaseResource {
         String mimeType;
         boolean decrypt;
         if (size != null) {
-            if (size.equals("content")) {
-                return Response.ok(Strings.nullToEmpty(file.getContent()))
-                        .header(HttpHeaders.CONTENT_TYPE, "text/plain; charset=utf-8")
-                        .build();
-            }
-
-            storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_" + size);
+            storedFile = StorageUtil.getStoredFile(file, size);
             mimeType = MimeType.IMAGE_JPEG; // Thumbnails are JPEG
             decrypt = true; // Thumbnails are encrypted
             if (!Files.exists(storedFile)) {
@@ -603,24 +905,51 @@ public class FileResource extends BaseResource {
                 decrypt = false;
             }
         } else {
-            storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
+            storedFile = StorageUtil.getStoredFile(file, null);
             mimeType = file.getMimeType();
             decrypt = true; // Original files are encrypted
         }
-        
-        // Stream the output and decrypt it if necessary
-        StreamingOutput stream;
-        
+
         // A file is always encrypted by the creator of it
-        User user = userDao.getById(file.getUserId());
-        
-        // Write the decrypted file to the output
+        final java.nio.file.Path responseFile = storedFile;
+        final String responseMimeType = mimeType;
+        final String privateKey = decrypt ? userDao.getById(file.getUserId()).getPrivateKey() : null;
+
+        // The encryption preserves the length
+        final long length;
         try {
-            InputStream fileInputStream = Files.newInputStream(storedFile);
-            final InputStream responseInputStream = decrypt ?
-                    EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey()) : fileInputStream;
-                    
-            stream = outputStream -> {
+            length = Files.size(storedFile);
+        } catch (IOException e) {
+            return Response.status(Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        // Ranges are served only if the client copy is the current one
+        List<long[]> rangeList = null;
+        if (ifRange == null || ifRange.equals(entityTag)) {
+            rangeList = HttpUtil.parseRange(range, length);
+        }
+        if (rangeList != null && rangeList.isEmpty()) {
+            return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + length)
+                    .build();
+        }
+
+        // The body is streamed without the database, release its connection during a slow download
+        TransactionUtil.commitAndClose();
+
+        // Stream the output and decrypt it if necessary
+        Response.ResponseBuilder builder;
+        if (rangeList == null || rangeList.size() == 1) {
+            long first = rangeList == null ? 0 : rangeList.get(0)[0];
+            long last = rangeList == null ? length - 1 : rangeList.get(0)[1];
+            final InputStream responseInputStream;
+            try {
+                responseInputStream = ByteStreams.limit(openStoredFile(responseFile, privateKey, first), last - first + 1);
+            } catch (Exception e) {
+                return Response.status(Status.SERVICE_UNAVAILABLE).build();
+            }
+
+            StreamingOutput stream = outputStream -> {
                 try {
                     ByteStreams.copy(responseInputStream, outputStream);
                 } finally {
@@ -632,17 +961,58 @@ public class FileResource extends BaseResource {
                     }
                 }
             };
-        } catch (Exception e) {
-            return Response.status(Status.SERVICE_UNAVAILABLE).build();
+
+            if (rangeList == null) {
+                builder = Response.ok(stream);
+            } else {
+                builder = Response.status(Status.PARTIAL_CONTENT).entity(stream)
+                        .header("Content-Range", "bytes " + first + "-" + last + "/" + length);
+            }
+            builder.header(HttpHeaders.CONTENT_TYPE, responseMimeType)
+                    .header(HttpHeaders.CONTENT_LENGTH, last - first + 1);
+        } else {
+            // Multiple ranges, each one in its own part
+            final List<long[]> responseRangeList = rangeList;
+            final String boundary = UUID.randomUUID().toString();
+            StreamingOutput stream = outputStream -> {
+                try {
+                    for (long[] responseRange : responseRangeList) {
+                        outputStream.write(("\r\n--" + boundary + "\r\n"
+                                + HttpHeaders.CONTENT_TYPE + ": " + responseMimeType + "\r\n"
+                                + "Content-Range: bytes " + responseRange[0] + "-" + responseRange[1] + "/" + length + "\r\n\r\n")
+                                .getBytes(StandardCharsets.US_ASCII));
+                        try (InputStream inputStream = openStoredFile(responseFile, privateKey, responseRange[0])) {
+                            ByteStreams.copy(ByteStreams.limit(inputStream, responseRange[1] - responseRange[0] + 1), outputStream);
+                        } catch (IOException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            throw new IOException(e);
+                        }
+                    }
+                    outputStream.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+                } finally {
+                    try {
+                        outputStream.close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            };
+            builder = Response.status(Status.PARTIAL_CONTENT).entity(stream)
+                    .header(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
         }
 
-        Response.ResponseBuilder builder = Response.ok(stream)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, mimeType);
-        if (decrypt) {
+        builder.header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
+                .header("Accept-Ranges", "bytes");
+        if (decrypt && size == null) {
             // Cache real files
             builder.header(HttpHeaders.CACHE_CONTROL, "private")
+                    .header(HttpHeaders.ETAG, entityTag)
                     .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L));
+        } else if (decrypt) {
+            // Cache the thumbnails, but check them again since processing the file replaces them
+            builder.header(HttpHeaders.CACHE_CONTROL, "private, no-cache")
+                    .header(HttpHeaders.ETAG, entityTag);
         } else {
             // Do not cache the temporary thumbnail
             builder.header(HttpHeaders.CACHE_CONTROL, "no-store, must-revalidate")
@@ -651,6 +1021,29 @@ public class FileResource extends BaseResource {
         return builder.build();
     }
 
+    /**
+     * Open a stored file from an offset, decrypted if necessary.
+     *
+     * @param storedFile Stored file
+     * @param privateKey Private key, null if the file is not encrypted
+     * @param offset Offset in the decrypted data
+     * @return Data stream
+     * @throws Exception e
+     */
+    private static InputStream openStoredFile(java.nio.file.Path storedFile, String privateKey, long offset) throws Exception {
+        InputStream inputStream = Files.newInputStream(storedFile);
+        try {
+            if (privateKey == null) {
+                ByteStreams.skipFully(inputStream, offset);
+                return inputStream;
+            }
+            return EncryptionUtil.decryptInputStream(inputStream, privateKey, offset);
+        } catch (Exception e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
     /**
      * Returns all files from a document, zipped.
      *
@@ -721,7 +1114,15 @@ public class FileResource extends BaseResource {
      * Sent the content of a list of files.
      */
     private Response sendZippedFiles(String zipFileName, List<File> fileList) {
-        final UserDao userDao = new UserDao();
+        // Files are encrypted by the creator of them
+        UserDao userDao = new UserDao();
+        Map<String, String> privateKeyMap = new HashMap<>();
+        for (File file : fileList) {
+            privateKeyMap.computeIfAbsent(file.getUserId(), userId -> userDao.getById(userId).getPrivateKey());
+        }
+
+        // The ZIP is streamed without the database, release its connection during a slow download
+        TransactionUtil.commitAndClose();
 
         // Create the ZIP stream
         StreamingOutput stream = outputStream -> {
@@ -729,13 +1130,11 @@ public class FileResource extends BaseResource {
                 // Add each file to the ZIP stream
                 int index = 0;
                 for (File file : fileList) {
-                    java.nio.file.Path storedfile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
+                    java.nio.file.Path storedfile = StorageUtil.getStoredFile(file, null);
                     InputStream fileInputStream = Files.newInputStream(storedfile);
 
                     // Add the decrypted file to the ZIP stream
-                    // Files are encrypted by the creator of them
-                    User user = userDao.getById(file.getUserId());
-                    try (InputStream decryptedStream = EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey())) {
+                    try (InputStream decryptedStream = EncryptionUtil.decryptInputStream(fileInputStream, privateKeyMap.get(file.getUserId()))) {
                         ZipEntry zipEntry = new ZipEntry(index + "-" + file.getFullName(Integer.toString(index)));
                         zipOutputStream.putNextEntry(zipEntry);
                         ByteStreams.copy(decryptedStream, zipOutputStream);
@@ -809,4 +1208,46 @@ public class FileResource extends BaseResource {
             }
         }
     }
+
+    /**
+     * Find a resumable upload of the current user.
+     *
+     * @param id Upload ID
+     * @return Upload
+     */
+    private FileUpload findUpload(String id) {
+        FileUpload fileUpload = new FileUploadDao().getById(id, principal.getId());
+        if (fileUpload == null) {
+            throw new NotFoundException();
+        }
+        return fileUpload;
+    }
+
+    /**
+     * Delete the content of a resumable upload.
+     * The upload will be cleaned later if this fails.
+     *
+     * @param id Upload ID
+     */
+    private void deleteUploadContent(String id) {
+        try {
+            FileUploadUtil.delete(id);
+        } catch (IOException e) {
+            // NOP
+        }
+    }
+
+    /**
+     * Get a document writable by the current user.
+     *
+     * @param documentId Document ID
+     * @return Document
+     */
+    private DocumentDto getWritableDocument(String documentId) {
+        DocumentDto documentDto = new DocumentDao().getDocument(documentId, PermType.WRITE, getTargetIdList(null));
+        if (documentDto == null) {
+            throw new NotFoundException();
+        }
+        return documentDto;
+    }
 }
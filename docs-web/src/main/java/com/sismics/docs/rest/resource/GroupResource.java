@@ -19,7 +19,9 @@ import com.sismics.docs.rest.constant.BaseFunction;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.util.ValidationUtil;
+import com.sismics.security.PrincipalCache;
 import com.sismics.util.JsonUtil;
+import com.sismics.util.context.ThreadLocalContext;
 
 import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
@@ -162,6 +164,7 @@ public class GroupResource extends BaseResource {
         // Update the group
         groupDao.update(group.setName(name)
                 .setParentId(parentId), principal.getId());
+        ThreadLocalContext.get().addAfterCommit(PrincipalCache::invalidateAll);
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
@@ -217,6 +220,7 @@ public class GroupResource extends BaseResource {
 
         // Delete the group
         groupDao.delete(group.getId(), principal.getId());
+        ThreadLocalContext.get().addAfterCommit(PrincipalCache::invalidateAll);
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
@@ -285,6 +289,8 @@ public class GroupResource extends BaseResource {
             userGroup.setGroupId(group.getId());
             userGroup.setUserId(user.getId());
             groupDao.addMember(userGroup);
+            String userId = user.getId();
+            ThreadLocalContext.get().addAfterCommit(() -> PrincipalCache.invalidateUser(userId));
         }
         
         // Always return OK
@@ -341,6 +347,8 @@ public class GroupResource extends BaseResource {
         
         // Remove the membership
         groupDao.removeMember(group.getId(), user.getId());
+        String userId = user.getId();
+        ThreadLocalContext.get().addAfterCommit(() -> PrincipalCache.invalidateUser(userId));
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
@@ -22,6 +22,7 @@ import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
 import com.sismics.rest.util.ValidationUtil;
+import com.sismics.security.PrincipalCache;
 import com.sismics.security.UserPrincipal;
 import com.sismics.util.JsonUtil;
 import com.sismics.util.context.ThreadLocalContext;
@@ -307,6 +308,8 @@ public class UserResource extends BaseResource {
             user.setEmail(email);
         }
         user = userDao.update(user, principal.getId());
+        String userId = user.getId();
+        ThreadLocalContext.get().addAfterCommit(() -> PrincipalCache.invalidateUser(userId));
         
         // Change the password
         if (StringUtils.isNotBlank(password)) {
@@ -392,6 +395,8 @@ public class UserResource extends BaseResource {
             }
         }
         user = userDao.update(user, principal.getId());
+        String userId = user.getId();
+        ThreadLocalContext.get().addAfterCommit(() -> PrincipalCache.invalidateUser(userId));
         
         // Change the password
         if (StringUtils.isNotBlank(password)) {
@@ -525,6 +530,8 @@ public class UserResource extends BaseResource {
         // Deletes the server token
         try {
             authenticationTokenDao.delete(authToken);
+            String userId = principal.getId();
+            ThreadLocalContext.get().addAfterCommit(() -> PrincipalCache.invalidateUser(userId));
         } catch (Exception e) {
             throw new ServerException("AuthenticationTokenError", "Error deleting the authentication token: " + authToken, e);
         }
@@ -576,6 +583,8 @@ public class UserResource extends BaseResource {
         // Delete the user
         UserDao userDao = new UserDao();
         userDao.delete(principal.getName(), principal.getId());
+        String userId = principal.getId();
+        ThreadLocalContext.get().addAfterCommit(() -> PrincipalCache.invalidateUser(userId));
         
         sendDeletionEvents(documentList, fileList);
 
@@ -644,6 +653,8 @@ public class UserResource extends BaseResource {
         
         // Delete the user
         userDao.delete(user.getUsername(), principal.getId());
+        String userId = user.getId();
+        ThreadLocalContext.get().addAfterCommit(() -> PrincipalCache.invalidateUser(userId));
 
         sendDeletionEvents(documentList, fileList);
 
@@ -974,6 +985,8 @@ public class UserResource extends BaseResource {
         // Remove other tokens
         AuthenticationTokenDao authenticationTokenDao = new AuthenticationTokenDao();
         authenticationTokenDao.deleteByUserId(principal.getId(), authToken);
+        String userId = principal.getId();
+        ThreadLocalContext.get().addAfterCommit(() -> PrincipalCache.invalidateUser(userId));
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
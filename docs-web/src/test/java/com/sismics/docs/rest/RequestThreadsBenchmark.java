@@ -0,0 +1,144 @@
+package com.sismics.docs.rest;
+
+import com.sismics.docs.core.dao.AuthenticationTokenDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.model.jpa.AuthenticationToken;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.TransactionUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Benchmark of the request threads of Jetty, as configured by the Docker image.
+ * Run with mvn test -Pbenchmark.
+ *
+ * @author bgamard
+ */
+public class RequestThreadsBenchmark {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(RequestThreadsBenchmark.class);
+
+    /**
+     * Compare the throughput and the latency of platform and virtual request threads,
+     * with more clients than request threads.
+     * Each request does the database work of an authenticated GET /user: the token and the user are read
+     * in a transaction, in the request thread. The servlet filters and Jersey are not deployed,
+     * as the servlet support of Jetty is not a dependency.
+     * The connection pool of the tests fails when it is exhausted, so the requests wait for one of its
+     * 10 connections, blocking their thread as a waiting pool would.
+     */
+    @Test
+    public void requestThreadsBenchmark() throws Exception {
+        AtomicReference<String> adminToken = new AtomicReference<>();
+        TransactionUtil.handle(() -> {
+            User user = new UserDao().getActiveByUsername("admin");
+            adminToken.set(new AuthenticationTokenDao().create(new AuthenticationToken().setUserId(user.getId())));
+        });
+
+        Semaphore connections = new Semaphore(10);
+        for (boolean virtualThreads : new boolean[] { false, true }) {
+            // Same thread pool as the jetty.threadPool.useVirtualThreads setting
+            QueuedThreadPool threadPool = new QueuedThreadPool(50);
+            if (virtualThreads) {
+                threadPool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+            }
+            Server server = new Server(threadPool);
+            ServerConnector connector = new ServerConnector(server);
+            server.addConnector(connector);
+            server.setHandler(new AbstractHandler() {
+                @Override
+                public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+                    AtomicReference<String> username = new AtomicReference<>();
+                    connections.acquireUninterruptibly();
+                    try {
+                        TransactionUtil.handle(() -> {
+                            AuthenticationToken authenticationToken = new AuthenticationTokenDao().get(request.getHeader("X-Auth-Token"));
+                            if (authenticationToken != null) {
+                                User user = new UserDao().getById(authenticationToken.getUserId());
+                                username.set(user.getUsername());
+                            }
+                        });
+                    } finally {
+                        connections.release();
+                    }
+                    response.setStatus(username.get() == null ? HttpServletResponse.SC_FORBIDDEN : HttpServletResponse.SC_OK);
+                    response.getWriter().write(String.valueOf(username.get()));
+                    baseRequest.setHandled(true);
+                }
+            });
+            server.start();
+
+            try {
+                HttpClient client = HttpClient.newBuilder()
+                        .executor(Executors.newVirtualThreadPerTaskExecutor())
+                        .build();
+                HttpRequest request = HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:" + connector.getLocalPort() + "/docs/user"))
+                        .header("X-Auth-Token", adminToken.get())
+                        .build();
+
+                // 200 clients sending 20 requests each
+                int clientCount = 200;
+                int requestCount = 20;
+                long start = System.nanoTime();
+                List<Future<long[]>> futureList = new ArrayList<>();
+                try (ExecutorService clientExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+                    for (int i = 0; i < clientCount; i++) {
+                        futureList.add(clientExecutor.submit(() -> {
+                            long[] latencies = new long[requestCount];
+                            for (int j = 0; j < requestCount; j++) {
+                                long requestStart = System.nanoTime();
+                                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                                Assert.assertEquals(200, response.statusCode());
+                                Assert.assertEquals("admin", response.body());
+                                latencies[j] = System.nanoTime() - requestStart;
+                            }
+                            return latencies;
+                        }));
+                    }
+                }
+                long duration = System.nanoTime() - start;
+
+                long[] latencies = new long[clientCount * requestCount];
+                for (int i = 0; i < clientCount; i++) {
+                    System.arraycopy(futureList.get(i).get(), 0, latencies, i * requestCount, requestCount);
+                }
+                Arrays.sort(latencies);
+                log.info("{} request threads: {} requests/s, latency median {} ms, p99 {} ms",
+                        virtualThreads ? "Virtual" : "Platform",
+                        latencies.length * 1000L / TimeUnit.NANOSECONDS.toMillis(duration),
+                        TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length / 2]),
+                        TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length * 99 / 100]));
+            } finally {
+                server.stop();
+            }
+        }
+    }
+}
@@ -6,7 +6,12 @@ import com.google.common.io.Resources;
 import com.icegreen.greenmail.util.GreenMail;
 import com.icegreen.greenmail.util.GreenMailUtil;
 import com.icegreen.greenmail.util.ServerSetup;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.StorageBlobDao;
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.StorageUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.storage.StorageBackend;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
 import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
@@ -26,6 +31,12 @@ import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Test the app resource.
@@ -69,6 +80,31 @@ public class TestAppResource extends BaseJerseyTest {
                 .post(Entity.form(new Form()));
         Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
 
+        // Check the rebuild progress
+        json = target().path("/app/batch/reindex").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        JsonObject progress = json.getJsonObject("progress");
+        Assert.assertFalse(progress.getBoolean("running"));
+        Assert.assertEquals(progress.getJsonNumber("total").longValue(), progress.getJsonNumber("done").longValue());
+        Assert.assertTrue(progress.isNull("error"));
+
+        // Check the metrics
+        json = target().path("/app/metrics").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertTrue(json.getJsonObject("metrics").containsKey("search.suggester.rebuild_time"));
+        Assert.assertTrue(json.getJsonObject("metrics").getJsonNumber("security.principal_cache.hit").longValue() > 0);
+
+        // Check the file processing jobs
+        json = target().path("/app/file_jobs").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertTrue(json.containsKey("queued"));
+        Assert.assertTrue(json.containsKey("running"));
+        Assert.assertTrue(json.containsKey("failed"));
+        Assert.assertTrue(json.getJsonNumber("oldest_age").longValue() >= 0);
+
         // Clean storage
         response = target().path("/app/batch/clean_storage").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
@@ -98,6 +134,55 @@ public class TestAppResource extends BaseJerseyTest {
         Assert.assertEquals("eng", json.getString("default_language"));
     }
 
+    /**
+     * Test the storage cleaning, while files are being stored.
+     */
+    @Test
+    public void testCleanStorage() throws Exception {
+        // Login admin, create a user with a file
+        String adminToken = adminToken();
+        clientUtil.createUser("clean_storage");
+        String cleanStorageToken = clientUtil.login("clean_storage");
+        String fileId = clientUtil.addFileToDocument(FILE_PIA_00452_JPG, cleanStorageToken, null);
+        StorageBackend storageBackend = StorageUtil.getBackend();
+        FileTime oldTime = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2));
+
+        // A temporary file being written, and an interrupted one
+        Path tmpFile = StorageUtil.createTemporaryFile();
+        Path oldTmpFile = StorageUtil.createTemporaryFile();
+        Files.setLastModifiedTime(oldTmpFile, oldTime);
+
+        // A blob stored by a transaction not committed yet, and an orphan one
+        String recentKey = UUID.randomUUID().toString().replace("-", "");
+        storageBackend.store(StorageUtil.createTemporaryFile(), recentKey);
+        String oldKey = UUID.randomUUID().toString().replace("-", "");
+        storageBackend.store(StorageUtil.createTemporaryFile(), oldKey);
+        Files.setLastModifiedTime(storageBackend.getPath(oldKey), oldTime);
+
+        // A reference count not matching the files
+        AtomicReference<String> storageKey = new AtomicReference<>();
+        TransactionUtil.handle(() -> {
+            storageKey.set(new FileDao().getById(fileId).getStorageKey());
+            new StorageBlobDao().acquire(storageKey.get());
+        });
+
+        // Clean storage
+        Response response = target().path("/app/batch/clean_storage").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()));
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        Assert.assertTrue(Files.exists(tmpFile));
+        Assert.assertFalse(Files.exists(oldTmpFile));
+        Assert.assertTrue(Files.exists(storageBackend.getPath(recentKey)));
+        Assert.assertFalse(Files.exists(storageBackend.getPath(oldKey)));
+        Assert.assertTrue(Files.exists(storageBackend.getPath(storageKey.get())));
+        AtomicReference<Integer> refCount = new AtomicReference<>();
+        TransactionUtil.handle(() -> refCount.set(new StorageBlobDao().getRefCount(storageKey.get())));
+        Assert.assertEquals(Integer.valueOf(1), refCount.get());
+        Files.delete(tmpFile);
+        storageBackend.delete(recentKey);
+    }
+
     /**
      * Test the log resource.
      */
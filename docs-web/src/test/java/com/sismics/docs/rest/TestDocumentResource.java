@@ -2,7 +2,11 @@ package com.sismics.docs.rest;
 
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
-import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
@@ -180,6 +184,21 @@ public class TestDocumentResource extends BaseJerseyTest {
         String highlight = json.getJsonArray("documents").getJsonObject(0).getString("highlight");
         Assert.assertTrue(highlight.contains("<strong>"));
 
+        // Paginate a fulltext search
+        json = target().path("/document/list")
+                .queryParam("search", "title")
+                .queryParam("sort_column", 3)
+                .queryParam("asc", true)
+                .queryParam("limit", 1)
+                .queryParam("offset", 1)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        documents = json.getJsonArray("documents");
+        Assert.assertEquals(2, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(1, documents.size());
+        Assert.assertEquals(document2Id, documents.getJsonObject(0).getString("id"));
+
         // Check suggestions
         json = target().path("/document/list")
                 .queryParam("search", "docu")
@@ -418,9 +437,9 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals(Status.NOT_FOUND, Status.fromStatusCode(response.getStatus()));
 
         // Check that the associated files are deleted from FS
-        java.io.File storedFile = DirectoryUtil.getStorageDirectory().resolve(file1Id).toFile();
-        java.io.File webFile = DirectoryUtil.getStorageDirectory().resolve(file1Id + "_web").toFile();
-        java.io.File thumbnailFile = DirectoryUtil.getStorageDirectory().resolve(file1Id + "_thumb").toFile();
+        java.io.File storedFile = getStoredFile(file1Id, null).toFile();
+        java.io.File webFile = getStoredFile(file1Id, "web").toFile();
+        java.io.File thumbnailFile = getStoredFile(file1Id, "thumb").toFile();
         Assert.assertFalse(storedFile.exists());
         Assert.assertFalse(webFile.exists());
         Assert.assertFalse(thumbnailFile.exists());
@@ -432,6 +451,94 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals(Status.NOT_FOUND, Status.fromStatusCode(response.getStatus()));
     }
     
+    /**
+     * Test the fulltext search filters and pagination, in the index and in the database.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testFulltextSearch() throws Exception {
+        // Login search1
+        clientUtil.createUser("search1");
+        String search1Token = clientUtil.login("search1");
+
+        // Create 3 documents, the descriptions sort in the reverse order
+        String[] documentIds = new String[3];
+        long createDate = new Date().getTime() - 10000;
+        for (int i = 0; i < 3; i++) {
+            JsonObject json = target().path("/document").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, search1Token)
+                    .put(Entity.form(new Form()
+                            .param("title", "Quarterly report " + i)
+                            .param("description", "Description " + (char) ('c' - i))
+                            .param("language", i == 2 ? "fra" : "eng")
+                            .param("create_date", Long.toString(createDate + i * 1000))), JsonObject.class);
+            documentIds[i] = json.getString("id");
+        }
+
+        // Share the last document
+        target().path("/share").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, search1Token)
+                .put(Entity.form(new Form().param("id", documentIds[2])), JsonObject.class);
+
+        // Filter in the index
+        JsonObject json = searchPage("quarterly lang:fra", 3, 0, 10, search1Token);
+        Assert.assertEquals(1, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(documentIds[2], json.getJsonArray("documents").getJsonObject(0).getString("id"));
+
+        // Filter in the database
+        json = searchPage("quarterly shared:yes", 3, 0, 10, search1Token);
+        Assert.assertEquals(1, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(documentIds[2], json.getJsonArray("documents").getJsonObject(0).getString("id"));
+
+        // Sort and paginate in the database
+        json = searchPage("quarterly", 2, 1, 1, search1Token);
+        Assert.assertEquals(3, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(1, json.getJsonArray("documents").size());
+        Assert.assertEquals(documentIds[1], json.getJsonArray("documents").getJsonObject(0).getString("id"));
+
+        // Revoke the access to the first document without updating the index
+        TransactionUtil.handle(() -> {
+            String userId = new UserDao().getActiveByUsername("search1").getId();
+            new AclDao().delete(documentIds[0], PermType.READ, userId, userId, AclType.USER);
+        });
+
+        // The index still returns it, it is replaced by the next one and not counted
+        json = searchPage("quarterly", 3, 0, 1, search1Token);
+        Assert.assertEquals(2, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(1, json.getJsonArray("documents").size());
+        Assert.assertEquals(documentIds[1], json.getJsonArray("documents").getJsonObject(0).getString("id"));
+        json = searchPage("quarterly", 3, 1, 1, search1Token);
+        Assert.assertEquals(documentIds[2], json.getJsonArray("documents").getJsonObject(0).getString("id"));
+
+        // The database doesn't return it
+        json = searchPage("quarterly", 2, 0, 10, search1Token);
+        Assert.assertEquals(2, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(2, json.getJsonArray("documents").size());
+    }
+
+    /**
+     * Search a page of documents, sorted in ascending order.
+     *
+     * @param query Search query
+     * @param sortColumn Sort column
+     * @param offset Offset
+     * @param limit Limit
+     * @param token Authentication token
+     * @return Search result
+     */
+    private JsonObject searchPage(String query, int sortColumn, int offset, int limit, String token) {
+        return target().path("/document/list")
+                .queryParam("search", query)
+                .queryParam("sort_column", sortColumn)
+                .queryParam("asc", true)
+                .queryParam("offset", offset)
+                .queryParam("limit", limit)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get(JsonObject.class);
+    }
+
     /**
      * Search documents and returns the number found.
      * 
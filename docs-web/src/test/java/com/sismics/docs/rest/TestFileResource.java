@@ -2,10 +2,18 @@ package com.sismics.docs.rest;
 
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
-import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.pdf.PdfPage;
+import com.sismics.util.jpa.EMF;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
 import com.sismics.util.mime.MimeType;
 import com.sismics.util.mime.MimeTypeUtil;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.font.DocsPDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
 import org.glassfish.jersey.media.multipart.file.StreamDataBodyPart;
@@ -14,15 +22,25 @@ import org.junit.Test;
 
 import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
+import jakarta.persistence.EntityManager;
 import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.client.WebTarget;
 import jakarta.ws.rs.core.Form;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -58,6 +76,49 @@ public class TestFileResource extends BaseJerseyTest {
         InputStream is = (InputStream) response.getEntity();
         byte[] fileBytes = ByteStreams.toByteArray(is);
         Assert.assertTrue(fileBytes.length > 0);
+        String etag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotNull(etag);
+        Assert.assertEquals("bytes", response.getHeaderString("Accept-Ranges"));
+
+        // Get the file data (not modified)
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .get();
+        Assert.assertEquals(Status.NOT_MODIFIED, Status.fromStatusCode(response.getStatus()));
+
+        // Get a range of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=21-1000")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("bytes 21-1000/" + fileBytes.length, response.getHeaderString("Content-Range"));
+        Assert.assertArrayEquals(Arrays.copyOfRange(fileBytes, 21, 1001), ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // Get the last bytes of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=-100")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertArrayEquals(Arrays.copyOfRange(fileBytes, fileBytes.length - 100, fileBytes.length),
+                ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // Get multiple ranges of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=0-9,50-59")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertTrue(response.getHeaderString(HttpHeaders.CONTENT_TYPE).startsWith("multipart/byteranges"));
+
+        // Get a range outside of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=" + fileBytes.length + "-")
+                .get();
+        Assert.assertEquals(Status.REQUESTED_RANGE_NOT_SATISFIABLE, Status.fromStatusCode(response.getStatus()));
         
         // Get the thumbnail data
         response = target().path("/file/" + file1Id + "/data")
@@ -69,7 +130,35 @@ public class TestFileResource extends BaseJerseyTest {
         is = (InputStream) response.getEntity();
         fileBytes = ByteStreams.toByteArray(is);
         Assert.assertTrue(fileBytes.length > 0);
-        
+
+        // The thumbnail is checked again by the client, and changes when the file is processed
+        response = target().path("/file/" + file1Id + "/data")
+                .queryParam("size", "thumb")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .get();
+        Assert.assertEquals("private, no-cache", response.getHeaderString(HttpHeaders.CACHE_CONTROL));
+        String thumbnailEtag = response.getHeaderString(HttpHeaders.ETAG);
+        response = target().path("/file/" + file1Id + "/data")
+                .queryParam("size", "thumb")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header(HttpHeaders.IF_NONE_MATCH, thumbnailEtag)
+                .get();
+        Assert.assertEquals(Status.NOT_MODIFIED, Status.fromStatusCode(response.getStatus()));
+        target().path("/file/" + file1Id + "/process").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .post(Entity.form(new Form()), JsonObject.class);
+        response = target().path("/file/" + file1Id + "/data")
+                .queryParam("size", "thumb")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header(HttpHeaders.IF_NONE_MATCH, thumbnailEtag)
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        Assert.assertNotEquals(thumbnailEtag, response.getHeaderString(HttpHeaders.ETAG));
+        Assert.assertTrue(ByteStreams.toByteArray((InputStream) response.getEntity()).length > 0);
+
         // Get the content data
         response = target().path("/file/" + file1Id + "/data")
                 .queryParam("size", "content")
@@ -90,7 +179,7 @@ public class TestFileResource extends BaseJerseyTest {
         Assert.assertTrue(fileBytes.length > 0);
         
         // Check that the files are not readable directly from FS
-        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file1Id);
+        Path storedFile = getStoredFile(file1Id, null);
         Assert.assertEquals(MimeType.DEFAULT, MimeTypeUtil.guessMimeType(storedFile, null));
 
         // Get all files from a document
@@ -168,9 +257,9 @@ public class TestFileResource extends BaseJerseyTest {
         Assert.assertEquals(Status.NOT_FOUND, Status.fromStatusCode(response.getStatus()));
         
         // Check that files are deleted from FS
-        storedFile = DirectoryUtil.getStorageDirectory().resolve(file1Id);
-        Path webFile = DirectoryUtil.getStorageDirectory().resolve(file1Id + "_web");
-        Path thumbnailFile = DirectoryUtil.getStorageDirectory().resolve(file1Id + "_thumb");
+        storedFile = getStoredFile(file1Id, null);
+        Path webFile = getStoredFile(file1Id, "web");
+        Path thumbnailFile = getStoredFile(file1Id, "thumb");
         Assert.assertFalse(Files.exists(storedFile));
         Assert.assertFalse(Files.exists(webFile));
         Assert.assertFalse(Files.exists(thumbnailFile));
@@ -400,6 +489,142 @@ public class TestFileResource extends BaseJerseyTest {
         Assert.assertEquals("ok", json.getString("status"));
     }
     
+    /**
+     * Test the resumable uploads.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testResumableUpload() throws Exception {
+        // Login file_resumable
+        clientUtil.createUser("file_resumable");
+        String fileResumableToken = clientUtil.login("file_resumable");
+        byte[] content = Resources.toByteArray(Resources.getResource(FILE_PIA_00452_JPG));
+
+        // Start an upload
+        JsonObject json = target().path("/file/upload").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .put(Entity.form(new Form()
+                        .param("name", "PIA00452.jpg")
+                        .param("size", Long.toString(FILE_PIA_00452_JPG_SIZE))), JsonObject.class);
+        String uploadId = json.getString("id");
+        Assert.assertEquals(0, json.getJsonNumber("offset").longValue());
+        Assert.assertTrue(json.getJsonNumber("chunk_size").longValue() > 0);
+
+        // Send a first chunk not aligned on the encryption blocks
+        json = uploadChunk(uploadId, fileResumableToken, 0, Arrays.copyOfRange(content, 0, 100001))
+                .readEntity(JsonObject.class);
+        Assert.assertEquals(100001, json.getJsonNumber("offset").longValue());
+
+        // Send a chunk at a wrong offset
+        Response response = uploadChunk(uploadId, fileResumableToken, 0, Arrays.copyOfRange(content, 0, 10));
+        Assert.assertEquals(Status.BAD_REQUEST, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("OffsetMismatch", response.readEntity(JsonObject.class).getString("type"));
+
+        // Send a chunk going past the file size, it is dropped as a whole
+        response = uploadChunk(uploadId, fileResumableToken, 100001, Arrays.copyOfRange(content, 100001, content.length + 1));
+        Assert.assertEquals(Status.BAD_REQUEST, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("SizeExceeded", response.readEntity(JsonObject.class).getString("type"));
+
+        // Get the upload state
+        json = target().path("/file/upload/" + uploadId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(100001, json.getJsonNumber("offset").longValue());
+        Assert.assertEquals(FILE_PIA_00452_JPG_SIZE, json.getJsonNumber("size").longValue());
+
+        // The upload is not complete yet
+        response = target().path("/file/upload/" + uploadId + "/complete").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .post(Entity.form(new Form()));
+        Assert.assertEquals(Status.BAD_REQUEST, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("UploadIncomplete", response.readEntity(JsonObject.class).getString("type"));
+
+        // Send the last chunk
+        json = uploadChunk(uploadId, fileResumableToken, 100001, Arrays.copyOfRange(content, 100001, content.length))
+                .readEntity(JsonObject.class);
+        Assert.assertEquals(FILE_PIA_00452_JPG_SIZE, json.getJsonNumber("offset").longValue());
+
+        // Complete the upload
+        json = target().path("/file/upload/" + uploadId + "/complete").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .post(Entity.form(new Form()), JsonObject.class);
+        String fileId = json.getString("id");
+        Assert.assertEquals(FILE_PIA_00452_JPG_SIZE, json.getJsonNumber("size").longValue());
+
+        // The upload is deleted
+        response = target().path("/file/upload/" + uploadId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .get();
+        Assert.assertEquals(Status.NOT_FOUND, Status.fromStatusCode(response.getStatus()));
+
+        // Get the file data
+        response = target().path("/file/" + fileId + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .get();
+        Assert.assertArrayEquals(content, ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // Start and cancel an upload
+        json = target().path("/file/upload").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .put(Entity.form(new Form()
+                        .param("size", "10")), JsonObject.class);
+        uploadId = json.getString("id");
+        json = target().path("/file/upload/" + uploadId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .delete(JsonObject.class);
+        Assert.assertEquals("ok", json.getString("status"));
+
+        // The uploads in progress count in the quota
+        json = target().path("/file/upload").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .put(Entity.form(new Form()
+                        .param("size", "500000")), JsonObject.class);
+        uploadId = json.getString("id");
+        response = target().path("/file/upload").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .put(Entity.form(new Form()
+                        .param("size", "500000")));
+        Assert.assertEquals(Status.BAD_REQUEST, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("QuotaReached", response.readEntity(JsonObject.class).getString("type"));
+        target().path("/file/upload/" + uploadId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .delete(JsonObject.class);
+
+        // The number of uploads in progress is limited
+        for (int i = 0; i < 10; i++) {
+            target().path("/file/upload").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                    .put(Entity.form(new Form()
+                            .param("size", "10")), JsonObject.class);
+        }
+        response = target().path("/file/upload").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileResumableToken)
+                .put(Entity.form(new Form()
+                        .param("size", "10")));
+        Assert.assertEquals(Status.BAD_REQUEST, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("TooManyUploads", response.readEntity(JsonObject.class).getString("type"));
+    }
+
+    /**
+     * Send a chunk of a resumable upload.
+     * The HTTP client doesn't support PATCH, the method is overridden.
+     *
+     * @param uploadId Upload ID
+     * @param token Authentication token
+     * @param offset Offset of the chunk
+     * @param chunk Chunk content
+     * @return Response
+     */
+    private Response uploadChunk(String uploadId, String token, long offset, byte[] chunk) {
+        return target().path("/file/upload/" + uploadId)
+                .queryParam("offset", offset)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .header("X-HTTP-Method-Override", "PATCH")
+                .post(Entity.entity(chunk, MediaType.APPLICATION_OCTET_STREAM_TYPE));
+    }
+
     /**
      * Test user quota.
      * 
@@ -472,6 +697,111 @@ public class TestFileResource extends BaseJerseyTest {
         Assert.assertEquals(FILE_EINSTEIN_ROOSEVELT_LETTER_PNG_SIZE * 2, getUserQuota(fileQuotaToken));
     }
 
+    /**
+     * Test the API while slow downloads are running.
+     * The file, ZIP and PDF downloads release their database connection before streaming their body,
+     * so the API still responds when they are stalled and hold all the free connections otherwise.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testSlowDownloads() throws Exception {
+        // Login file_slow_downloads
+        clientUtil.createUser("file_slow_downloads", 100_000_000);
+        String slowDownloadsToken = clientUtil.login("file_slow_downloads");
+
+        // Create a PDF larger than the socket buffers, with some text to skip the OCR
+        ByteArrayOutputStream pdfOutputStream = new ByteArrayOutputStream();
+        try (PDDocument pdfDocument = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.A4);
+            pdfDocument.addPage(page);
+            try (PdfPage pdfPage = new PdfPage(pdfDocument, page, 10 * Constants.MM_PER_INCH, DocsPDType1Font.HELVETICA, 12)) {
+                pdfPage.addText("Slow downloads");
+            }
+            byte[] data = new byte[32 * 1024 * 1024];
+            new Random(0).nextBytes(data);
+            page.getResources().add(new PDFormXObject(new PDStream(pdfDocument, new ByteArrayInputStream(data))));
+            pdfDocument.save(pdfOutputStream);
+        }
+
+        // Add it to a document
+        String documentId = clientUtil.createDocument(slowDownloadsToken);
+        String fileId;
+        try (FormDataMultiPart multiPart = new FormDataMultiPart()) {
+            multiPart.field("id", documentId)
+                    .bodyPart(new StreamDataBodyPart("file", new ByteArrayInputStream(pdfOutputStream.toByteArray()), "large.pdf"));
+            JsonObject json = target()
+                    .register(MultiPartFeature.class)
+                    .path("/file").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, slowDownloadsToken)
+                    .put(Entity.entity(multiPart, MediaType.MULTIPART_FORM_DATA_TYPE), JsonObject.class);
+            fileId = json.getString("id");
+        }
+
+        List<WebTarget> downloadTargetList = List.of(
+                target().path("/file/" + fileId + "/data"),
+                target().path("/file/zip")
+                        .queryParam("id", documentId),
+                target().path("/document/" + documentId + "/pdf")
+                        .queryParam("margin", "10")
+                        .queryParam("metadata", "false")
+                        .queryParam("fitimagetopage", "false"));
+        List<EntityManager> emList = new ArrayList<>();
+        List<InputStream> downloadList = new ArrayList<>();
+        try {
+            // Leave only 2 free database connections
+            int poolSize = Integer.parseInt(String.valueOf(EMF.get().getProperties().get("hibernate.connection.pool_size")));
+            for (int i = 0; i < poolSize - 2; i++) {
+                EntityManager em = EMF.get().createEntityManager();
+                emList.add(em);
+                em.getTransaction().begin();
+            }
+
+            for (WebTarget downloadTarget : downloadTargetList) {
+                // Start as many downloads as free connections, only their first bytes are read
+                for (int i = 0; i < 2; i++) {
+                    Response response = downloadTarget.request()
+                            .cookie(TokenBasedSecurityFilter.COOKIE_NAME, slowDownloadsToken)
+                            .get();
+                    Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+                    InputStream is = response.readEntity(InputStream.class);
+                    downloadList.add(is);
+                    Assert.assertEquals(1024, is.readNBytes(1024).length);
+                }
+
+                // The API still responds, without waiting for the downloads
+                long[] latencies = new long[20];
+                for (int i = 0; i < latencies.length; i++) {
+                    long startTime = System.nanoTime();
+                    Response response = target().path("/user").request()
+                            .cookie(TokenBasedSecurityFilter.COOKIE_NAME, slowDownloadsToken)
+                            .get();
+                    Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+                    response.close();
+                    latencies[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                }
+                Arrays.sort(latencies);
+                Assert.assertTrue("Median API latency of " + latencies[latencies.length / 2] + " ms",
+                        latencies[latencies.length / 2] < 500);
+                Assert.assertTrue("Maximum API latency of " + latencies[latencies.length - 1] + " ms",
+                        latencies[latencies.length - 1] < 2000);
+
+                for (InputStream is : downloadList) {
+                    is.close();
+                }
+                downloadList.clear();
+            }
+        } finally {
+            for (InputStream is : downloadList) {
+                is.close();
+            }
+            for (EntityManager em : emList) {
+                em.getTransaction().rollback();
+                em.close();
+            }
+        }
+    }
+
     private long getUserQuota(String userToken) {
         return target().path("/user").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, userToken)